@@ -27,6 +27,7 @@ import software.amazon.awssdk.core.retry.conditions.RetryCondition;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -39,16 +40,19 @@ import static software.amazon.awssdk.core.interceptor.SdkExecutionAttribute.SERV
 
 @Configuration
 @Import({SynapseAwsAuthConfiguration.class, SynapseAutoConfiguration.class})
-@EnableConfigurationProperties(AwsProperties.class)
+@EnableConfigurationProperties({AwsProperties.class, KinesisProperties.class})
 public class KinesisAutoConfiguration {
 
     private static final Logger LOG = getLogger(KinesisAutoConfiguration.class);
 
     private final AwsProperties awsProperties;
+    private final KinesisProperties kinesisProperties;
 
     @Autowired
-    public KinesisAutoConfiguration(final AwsProperties awsProperties) {
+    public KinesisAutoConfiguration(final AwsProperties awsProperties,
+                                    final KinesisProperties kinesisProperties) {
         this.awsProperties = awsProperties;
+        this.kinesisProperties = kinesisProperties;
     }
 
     @Bean
@@ -80,6 +84,11 @@ public class KinesisAutoConfiguration {
     public MessageSenderEndpointFactory messageLogSenderEndpointFactory(final MessageInterceptorRegistry registry,
                                                                         final KinesisAsyncClient kinesisClient) {
         LOG.info("Auto-configuring Kinesis MessageSenderEndpointFactory");
+        final KinesisProperties.Aggregation aggregation = kinesisProperties.getAggregation();
+        if (aggregation.isEnabled()) {
+            LOG.info("Aggregating messages into Kinesis records of up to {} bytes, lingering {}", aggregation.getMaxRecordSize(), aggregation.getLingerTime());
+            return new KinesisMessageSenderEndpointFactory(registry, kinesisClient, aggregation.getMaxRecordSize(), aggregation.getLingerTime());
+        }
         return new KinesisMessageSenderEndpointFactory(registry, kinesisClient);
     }
 
@@ -92,7 +101,23 @@ public class KinesisAutoConfiguration {
         final ExecutorService executorService = newCachedThreadPool(
                 new ThreadFactoryBuilder().setNameFormat("kinesis-message-log-%d").build()
         );
-        return new KinesisMessageLogReceiverEndpointFactory(interceptorRegistry, kinesisClient, executorService, eventPublisher);
+        final KinesisProperties.EnhancedFanOut enhancedFanOut = kinesisProperties.getEnhancedFanOut();
+        final String consumerName = enhancedFanOut.getChannels().isEmpty()
+                ? null
+                : enhancedFanOut.getConsumerName();
+        if (consumerName != null) {
+            LOG.info("Using enhanced fan-out with consumer '{}' for channels {}", consumerName, enhancedFanOut.getChannels());
+        }
+        return new KinesisMessageLogReceiverEndpointFactory(
+                interceptorRegistry,
+                kinesisClient,
+                executorService,
+                eventPublisher,
+                Clock.systemDefaultZone(),
+                null,
+                enhancedFanOut.getChannels(),
+                consumerName,
+                enhancedFanOut.getConsumerNamePrefix());
     }
 
 
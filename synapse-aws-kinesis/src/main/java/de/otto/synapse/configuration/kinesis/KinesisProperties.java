@@ -0,0 +1,160 @@
+package de.otto.synapse.configuration.kinesis;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+@ConfigurationProperties(prefix = "synapse.kinesis")
+public class KinesisProperties {
+
+    private static final int MAX_CONSUMER_NAME_LENGTH = 128;
+
+    private final EnhancedFanOut enhancedFanOut;
+    private final Aggregation aggregation = new Aggregation();
+
+    public KinesisProperties(@Value("${spring.application.name:Synapse}") String applicationName) {
+        this.enhancedFanOut = new EnhancedFanOut(applicationName);
+    }
+
+    public EnhancedFanOut getEnhancedFanOut() {
+        return enhancedFanOut;
+    }
+
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    public static class EnhancedFanOut {
+
+        /**
+         * The names of the Kinesis channels that are received using enhanced fan-out (SubscribeToShard) instead
+         * of polling the shards using GetRecords.
+         */
+        private Set<String> channels = new HashSet<>();
+
+        /**
+         * The name of the stream consumer that is registered for channels using enhanced fan-out. Kinesis only
+         * supports a single subscription per consumer and shard, so every instance of a service needs a consumer
+         * name of its own. By default, this is property 'spring.application.name', followed by the host name.
+         * <p>
+         * Instances that are not stopped properly are not able to deregister their consumers. If the default
+         * consumer name is used, and a stream has reached the limit of consumers per stream, all other consumers
+         * whose names start with 'spring.application.name' followed by '-' are deregistered. Consumers of instances
+         * that are still running are registered again.
+         * </p>
+         */
+        private String consumerName;
+
+        private final String applicationName;
+
+        private EnhancedFanOut(final String applicationName) {
+            this.applicationName = applicationName;
+        }
+
+        public Set<String> getChannels() {
+            return channels;
+        }
+
+        public void setChannels(final Set<String> channels) {
+            this.channels = channels;
+        }
+
+        public String getConsumerName() {
+            return consumerName != null
+                    ? consumerName
+                    : defaultConsumerName(applicationName, hostName());
+        }
+
+        public void setConsumerName(final String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        /**
+         * @return the prefix of the default consumer names of all instances of the service, or null, if the
+         *         consumer name is configured.
+         */
+        public String getConsumerNamePrefix() {
+            return consumerName != null
+                    ? null
+                    : defaultConsumerNamePrefix(applicationName);
+        }
+    }
+
+    /**
+     * Returns a stream-consumer name that is unique per instance of the service, consisting of the application
+     * name and the instance id. Characters that are not allowed in consumer names are replaced by '-'.
+     */
+    static String defaultConsumerName(final String applicationName, final String instanceId) {
+        final String consumerName = defaultConsumerNamePrefix(applicationName) + sanitize(instanceId);
+        return consumerName.length() > MAX_CONSUMER_NAME_LENGTH
+                ? consumerName.substring(0, MAX_CONSUMER_NAME_LENGTH)
+                : consumerName;
+    }
+
+    static String defaultConsumerNamePrefix(final String applicationName) {
+        return sanitize(applicationName) + "-";
+    }
+
+    private static String sanitize(final String name) {
+        return name.replaceAll("[^a-zA-Z0-9_.-]", "-");
+    }
+
+    private static String hostName() {
+        final String hostName = System.getenv("HOSTNAME");
+        if (hostName != null && !hostName.isEmpty()) {
+            return hostName;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (final UnknownHostException e) {
+            throw new IllegalStateException("Unable to determine the host name used in the name of the Kinesis stream consumer. Please configure synapse.kinesis.enhanced-fan-out.consumer-name", e);
+        }
+    }
+
+    public static class Aggregation {
+
+        /**
+         * Enables the aggregation of messages with the same partition key into single Kinesis records.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum size of aggregated Kinesis records in bytes.
+         */
+        private int maxRecordSize = 50 * 1024;
+
+        /**
+         * The maximum time messages are buffered, before the aggregated records are sent to Kinesis.
+         */
+        private Duration lingerTime = Duration.ofMillis(100);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxRecordSize() {
+            return maxRecordSize;
+        }
+
+        public void setMaxRecordSize(final int maxRecordSize) {
+            this.maxRecordSize = maxRecordSize;
+        }
+
+        public Duration getLingerTime() {
+            return lingerTime;
+        }
+
+        public void setLingerTime(final Duration lingerTime) {
+            this.lingerTime = lingerTime;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package de.otto.synapse.endpoint.kinesis;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Encodes and decodes Kinesis records containing multiple messages with the same partition key.
+ *
+ * <p>The layout of aggregated records is:</p>
+ * <pre>
+ *     0x1E 'S' 'Y' 'A'             magic prefix of aggregated records
+ *     count ':'                    number of aggregated messages
+ *     (field(compactionKey) field(data))*
+ *
+ *     field := length ':' bytes, where length is the decimal number of bytes
+ * </pre>
+ * <p>
+ *     The data of every aggregated message is the encoded message, as it would have been sent in a record of
+ *     its own. All messages share the partition key of the Kinesis record.
+ * </p>
+ */
+public final class KinesisAggregatedRecord {
+
+    private static final byte[] PREFIX = {0x1E, 'S', 'Y', 'A'};
+    private static final char SEPARATOR = ':';
+    private static final int MAX_DIGITS = 9;
+
+    private KinesisAggregatedRecord() {
+    }
+
+    /**
+     * Returns true, if the data of a Kinesis record is starting with the magic prefix of aggregated records.
+     *
+     * @param data the data of a Kinesis record
+     * @return true if the record is an aggregated record, false otherwise
+     */
+    public static boolean isAggregated(final byte[] data) {
+        if (data == null || data.length < PREFIX.length) {
+            return false;
+        }
+        for (int i = 0; i < PREFIX.length; i++) {
+            if (data[i] != PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the aggregated messages contained in the data of an aggregated record.
+     *
+     * @param data the data of an aggregated Kinesis record
+     * @return list of aggregated messages in the order they were added to the record
+     * @throws IllegalStateException if the data is not a valid aggregated record
+     */
+    public static ImmutableList<Entry> decode(final byte[] data) {
+        if (!isAggregated(data)) {
+            throw new IllegalStateException("Kinesis record is not an aggregated record");
+        }
+        final Reader reader = new Reader(data);
+        final int count = reader.nextNumber();
+        final ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            final String compactionKey = new String(reader.nextField(), UTF_8);
+            entries.add(new Entry(compactionKey, reader.nextField()));
+        }
+        if (reader.hasRemaining()) {
+            throw reader.malformed();
+        }
+        return entries.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A single message contained in an aggregated record.
+     */
+    public static final class Entry {
+
+        private final String compactionKey;
+        private final byte[] data;
+
+        public Entry(final @Nonnull String compactionKey, final @Nonnull byte[] data) {
+            this.compactionKey = requireNonNull(compactionKey);
+            this.data = requireNonNull(data);
+        }
+
+        @Nonnull
+        public String getCompactionKey() {
+            return compactionKey;
+        }
+
+        @Nonnull
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Entry entry = (Entry) o;
+            return compactionKey.equals(entry.compactionKey) &&
+                    Arrays.equals(data, entry.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * compactionKey.hashCode() + Arrays.hashCode(data);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "compactionKey='" + compactionKey + '\'' +
+                    ", data=" + data.length + " bytes" +
+                    '}';
+        }
+    }
+
+    /**
+     * Builder used to aggregate messages into a single record.
+     */
+    public static final class Builder {
+
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private int count;
+
+        private Builder() {
+        }
+
+        public Builder add(final @Nonnull String compactionKey, final @Nonnull byte[] data) {
+            writeField(entries, compactionKey.getBytes(UTF_8));
+            writeField(entries, data);
+            ++count;
+            return this;
+        }
+
+        /**
+         * @return the number of messages added to the builder.
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Returns the size of the aggregated record in bytes, if a message with the given compaction key and data
+         * would be added to the builder.
+         *
+         * @param compactionKey the compaction key of the message
+         * @param data the encoded message
+         * @return size in bytes
+         */
+        public int sizeWith(final @Nonnull String compactionKey, final @Nonnull byte[] data) {
+            final int keyLength = compactionKey.getBytes(UTF_8).length;
+            return PREFIX.length
+                    + digits(count + 1) + 1
+                    + entries.size()
+                    + digits(keyLength) + 1 + keyLength
+                    + digits(data.length) + 1 + data.length;
+        }
+
+        public byte[] build() {
+            final ByteArrayOutputStream record = new ByteArrayOutputStream(entries.size() + PREFIX.length + MAX_DIGITS + 1);
+            record.write(PREFIX, 0, PREFIX.length);
+            writeNumber(record, count);
+            final byte[] entryBytes = entries.toByteArray();
+            record.write(entryBytes, 0, entryBytes.length);
+            return record.toByteArray();
+        }
+
+        private static void writeField(final ByteArrayOutputStream out, final byte[] value) {
+            writeNumber(out, value.length);
+            out.write(value, 0, value.length);
+        }
+
+        private static void writeNumber(final ByteArrayOutputStream out, final int value) {
+            final byte[] digits = Integer.toString(value).getBytes(UTF_8);
+            out.write(digits, 0, digits.length);
+            out.write(SEPARATOR);
+        }
+
+        private static int digits(final int value) {
+            return Integer.toString(value).length();
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int pos = PREFIX.length;
+
+        private Reader(final byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasRemaining() {
+            return pos < data.length;
+        }
+
+        byte[] nextField() {
+            final int length = nextNumber();
+            if (length > data.length - pos) {
+                throw malformed();
+            }
+            final byte[] field = Arrays.copyOfRange(data, pos, pos + length);
+            pos += length;
+            return field;
+        }
+
+        int nextNumber() {
+            int value = 0;
+            int digits = 0;
+            while (pos < data.length) {
+                final int c = data[pos++];
+                if (c == SEPARATOR && digits > 0) {
+                    return value;
+                }
+                if (c < '0' || c > '9' || ++digits > MAX_DIGITS) {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            throw malformed();
+        }
+
+        IllegalStateException malformed() {
+            return new IllegalStateException("Malformed aggregated Kinesis record at byte " + pos);
+        }
+    }
+}
@@ -1,31 +1,34 @@
 package de.otto.synapse.endpoint.receiver.kinesis;
 
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.endpoint.kinesis.KinesisAggregatedRecord;
 import de.otto.synapse.message.Header;
 import de.otto.synapse.message.Key;
 import de.otto.synapse.message.TextMessage;
 import de.otto.synapse.translator.AbstractTextDecoder;
-import software.amazon.awssdk.core.SdkBytes;
+import org.slf4j.Logger;
 import software.amazon.awssdk.services.kinesis.model.Record;
 
-import java.util.function.Function;
+import java.util.List;
 
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.positionOf;
 import static de.otto.synapse.message.DefaultHeaderAttr.MSG_ARRIVAL_TS;
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static software.amazon.awssdk.core.SdkBytes.fromByteArray;
+import static org.slf4j.LoggerFactory.getLogger;
 
 public class KinesisDecoder extends AbstractTextDecoder<RecordWithShard> {
 
-    private static final SdkBytes EMPTY_SDK_BYTES_BUFFER = fromByteArray(new byte[]{});
-
-    private static final Function<SdkBytes, String> SDK_BYTES_STRING = sdkBytes -> {
-        if (sdkBytes == null || sdkBytes.equals(EMPTY_SDK_BYTES_BUFFER)) {
-            return null;
-        } else {
-            return sdkBytes.asString(UTF_8);
-        }
-    };
+    private static final Logger LOG = getLogger(KinesisDecoder.class);
 
+    /**
+     * Decodes a single message from a Kinesis record.
+     * <p>
+     *     Aggregated records are containing multiple messages and must be decoded using {@link #decodeAll(RecordWithShard)}.
+     * </p>
+     *
+     * @param recordWithShard the Kinesis record
+     * @return decoded TextMessage
+     */
     @Override
     public TextMessage apply(RecordWithShard recordWithShard) {
         final Record record = recordWithShard.getRecord();
@@ -35,8 +38,45 @@ public class KinesisDecoder extends AbstractTextDecoder<RecordWithShard> {
                 Header.builder()
                         .withAttribute(MSG_ARRIVAL_TS, record.approximateArrivalTimestamp())
                         .withShardPosition(fromPosition(shardName, record.sequenceNumber())).build(),
-                SDK_BYTES_STRING.apply(record.data()));
+                record.data() != null ? record.data().asByteArray() : null);
     }
 
+    /**
+     * Decodes all messages from a Kinesis record.
+     * <p>
+     *     The messages of an {@link KinesisAggregatedRecord aggregated record} are returned in the order they
+     *     were sent. The shard position of every aggregated message consists of the sequence number of the record
+     *     and the index of the message in the record, so reading a shard can be continued after every single
+     *     message.
+     * </p>
+     *
+     * @param recordWithShard the Kinesis record
+     * @return list of decoded TextMessages
+     */
+    public List<TextMessage> decodeAll(final RecordWithShard recordWithShard) {
+        final Record record = recordWithShard.getRecord();
+        final byte[] data = record.data() != null ? record.data().asByteArray() : null;
+        if (!KinesisAggregatedRecord.isAggregated(data)) {
+            return ImmutableList.of(apply(recordWithShard));
+        }
+        final List<KinesisAggregatedRecord.Entry> entries;
+        try {
+            entries = KinesisAggregatedRecord.decode(data);
+        } catch (final RuntimeException e) {
+            LOG.error("Exception caught while parsing aggregated record {}: {}", record.sequenceNumber(), e.getMessage());
+            return ImmutableList.of(apply(recordWithShard));
+        }
+        final ImmutableList.Builder<TextMessage> messages = ImmutableList.builder();
+        for (int i = 0; i < entries.size(); i++) {
+            final KinesisAggregatedRecord.Entry entry = entries.get(i);
+            messages.add(decode(
+                    Key.of(record.partitionKey(), entry.getCompactionKey()),
+                    Header.builder()
+                            .withAttribute(MSG_ARRIVAL_TS, record.approximateArrivalTimestamp())
+                            .withShardPosition(fromPosition(recordWithShard.getShardName(), positionOf(record.sequenceNumber(), i))).build(),
+                    entry.getData()));
+        }
+        return messages.build();
+    }
 
 }
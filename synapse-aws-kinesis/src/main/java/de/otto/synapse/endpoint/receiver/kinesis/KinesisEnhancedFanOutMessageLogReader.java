@@ -0,0 +1,374 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import com.google.common.annotations.VisibleForTesting;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.ShardResponse;
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.ConsumerDescription;
+import software.amazon.awssdk.services.kinesis.model.ConsumerStatus;
+import software.amazon.awssdk.services.kinesis.model.DeregisterStreamConsumerRequest;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamConsumerRequest;
+import software.amazon.awssdk.services.kinesis.model.LimitExceededException;
+import software.amazon.awssdk.services.kinesis.model.ListStreamConsumersRequest;
+import software.amazon.awssdk.services.kinesis.model.ListStreamConsumersResponse;
+import software.amazon.awssdk.services.kinesis.model.RegisterStreamConsumerRequest;
+import software.amazon.awssdk.services.kinesis.model.ResourceInUseException;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Reads the messages of a Kinesis stream using enhanced fan-out.
+ * <p>
+ *     Before reading the shards of the stream, a stream consumer is registered for the stream, if it is not
+ *     already registered. Every registered consumer has its own read throughput of 2MB/s per shard, so the
+ *     readers of a stream are not competing for the read limits of the shards.
+ * </p>
+ * <p>
+ *     The stream consumer is deregistered when the reader is stopped, so stream consumers of instances that
+ *     are no longer running are not counting against the limit of consumers per stream. Instances that crashed
+ *     or were killed are not able to deregister their consumers. If the registration fails, because the stream
+ *     has reached the limit of consumers, all other consumers of the service (the consumers having the same
+ *     {@code consumerNamePrefix}) are deregistered, and the registration is retried. Stream consumers of
+ *     instances that are still running are registered again by their {@link KinesisEnhancedFanOutShardReader
+ *     shard readers}.
+ * </p>
+ */
+public class KinesisEnhancedFanOutMessageLogReader {
+
+    private static final Logger LOG = getLogger(KinesisEnhancedFanOutMessageLogReader.class);
+
+    private static final int WAITING_TIME_ON_CONSUMER_REGISTRATION = 1000;
+    private static final int MAX_CONSUMER_STATUS_CHECKS = 60;
+    private static final int MAX_CONSUMERS_PER_STREAM = 20;
+    private static final int DEREGISTRATION_TIMEOUT_SECONDS = 10;
+
+    private final String channelName;
+    private final String consumerName;
+    private final String consumerNamePrefix;
+    private final KinesisAsyncClient kinesisClient;
+    private final ExecutorService executorService;
+    private final Marker marker;
+    private final AtomicReference<List<KinesisEnhancedFanOutShardReader>> shardReaders = new AtomicReference<>();
+    private final AtomicReference<String> consumerArn = new AtomicReference<>();
+    private volatile String streamArn;
+
+    public KinesisEnhancedFanOutMessageLogReader(final String channelName,
+                                                 final String consumerName,
+                                                 final KinesisAsyncClient kinesisClient,
+                                                 final ExecutorService executorService,
+                                                 final Marker marker) {
+        this(channelName, consumerName, null, kinesisClient, executorService, marker);
+    }
+
+    /**
+     * @param channelName the name of the Kinesis stream
+     * @param consumerName the name of the stream consumer of this instance of the service
+     * @param consumerNamePrefix the prefix of the names of all stream consumers of the service, used to remove
+     *                           consumers of instances that were not stopped properly. If null, no consumers
+     *                           are removed.
+     * @param kinesisClient the Kinesis client
+     * @param executorService the executor service used to read the shards
+     * @param marker marker used to log messages, or null
+     */
+    public KinesisEnhancedFanOutMessageLogReader(final String channelName,
+                                                 final String consumerName,
+                                                 final String consumerNamePrefix,
+                                                 final KinesisAsyncClient kinesisClient,
+                                                 final ExecutorService executorService,
+                                                 final Marker marker) {
+        this.channelName = channelName;
+        this.consumerName = consumerName;
+        this.consumerNamePrefix = consumerNamePrefix;
+        this.kinesisClient = kinesisClient;
+        this.executorService = executorService;
+        this.marker = marker;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public String getConsumerName() {
+        return consumerName;
+    }
+
+    public List<String> getOpenShards() {
+        if (shardReaders.get() == null) {
+            initShards();
+        }
+        return shardReaders.get().stream()
+                .map(KinesisEnhancedFanOutShardReader::getShardName)
+                .collect(toList());
+    }
+
+    /**
+     *
+     * @param startFrom starting position
+     * @param stopCondition stop condition used to stop message consumption
+     * @param consumer the consumer used to process the {@link ShardResponse shard responses}
+     * @return completable future
+     */
+    public CompletableFuture<ChannelPosition> consumeUntil(final ChannelPosition startFrom,
+                                                           final Predicate<ShardResponse> stopCondition,
+                                                           final Consumer<ShardResponse> consumer) {
+        if (shardReaders.get() == null) {
+            initShards();
+        }
+        try {
+            final List<CompletableFuture<ShardPosition>> futureShardPositions = shardReaders
+                    .get()
+                    .stream()
+                    .map(shard -> shard.consumeUntil(startFrom.shard(shard.getShardName()), stopCondition, consumer))
+                    .collect(toList());
+            // don't chain futureShardPositions with CompletableFuture::join as lazy execution will prevent threads from
+            // running in parallel
+            return supplyAsync(() -> channelPosition(futureShardPositions
+                    .stream()
+                    .map(CompletableFuture::join)
+                    .collect(toList()))
+            ).exceptionally((throwable -> {
+                stop();
+                this.shardReaders.set(null);
+                throw new RuntimeException(throwable.getMessage(), throwable);
+            }));
+        } catch (final RuntimeException e) {
+            stop();
+            this.shardReaders.set(null);
+            throw e;
+        }
+    }
+
+    public void stop() {
+        LOG.info("Channel {} received stop signal.", getChannelName());
+        if (shardReaders.get() != null) {
+            this.shardReaders.get().forEach(KinesisEnhancedFanOutShardReader::stop);
+        }
+        deregisterStreamConsumer();
+    }
+
+    @VisibleForTesting
+    List<KinesisEnhancedFanOutShardReader> getCurrentShardReaders() {
+        if (shardReaders.get() == null) {
+            initShards();
+        }
+        return shardReaders.get();
+    }
+
+    private void initShards() {
+        final KinesisStreamInfo streamInfo = new KinesisStreamInfoProvider(kinesisClient).getStreamInfo(channelName);
+        this.streamArn = streamInfo.getArn();
+        final String consumerArn = registerStreamConsumer(streamArn);
+        this.consumerArn.set(consumerArn);
+        this.shardReaders.set(streamInfo
+                .getShardInfo()
+                .stream()
+                .filter(KinesisShardInfo::isOpen)
+                .map(shardInfo -> new KinesisEnhancedFanOutShardReader(channelName, shardInfo.getShardName(), consumerArn, this::reregisterStreamConsumer, kinesisClient, executorService, marker))
+                .collect(toList()));
+    }
+
+    /**
+     * Registers the stream consumer again, after it was removed while the shards were consumed. Called by
+     * all shard readers, so the consumer is only registered by the first one.
+     *
+     * @param missingConsumerArn the ARN of the consumer that does not exist anymore
+     * @return the ARN of the registered stream consumer
+     */
+    private synchronized String reregisterStreamConsumer(final String missingConsumerArn) {
+        final String currentConsumerArn = consumerArn.get();
+        if (currentConsumerArn == null || !currentConsumerArn.equals(missingConsumerArn)) {
+            // stopped, or already registered again by another shard reader:
+            return currentConsumerArn != null ? currentConsumerArn : missingConsumerArn;
+        }
+        LOG.warn(marker, "Stream consumer {} of channel {} does not exist anymore", consumerName, channelName);
+        final String registeredConsumerArn = registerStreamConsumer(streamArn);
+        consumerArn.compareAndSet(missingConsumerArn, registeredConsumerArn);
+        return registeredConsumerArn;
+    }
+
+    /**
+     * Registers the stream consumer, if it is not already registered, and waits until the consumer is active.
+     *
+     * @param streamArn the ARN of the Kinesis stream
+     * @return the ARN of the stream consumer
+     */
+    private String registerStreamConsumer(final String streamArn) {
+        ConsumerDescription consumer = describeStreamConsumer(streamArn);
+        if (consumer == null) {
+            LOG.info(marker, "Registering stream consumer {} for channel {}", consumerName, channelName);
+            try {
+                register(streamArn);
+            } catch (final CompletionException e) {
+                if (!(e.getCause() instanceof LimitExceededException) || !deregisterStaleStreamConsumers(streamArn)) {
+                    throw e;
+                }
+                registerAfterStaleConsumersAreDeleted(streamArn);
+            }
+            consumer = describeStreamConsumer(streamArn);
+        }
+        int statusChecks = 0;
+        while (consumer == null || consumer.consumerStatus() != ConsumerStatus.ACTIVE) {
+            if (++statusChecks > MAX_CONSUMER_STATUS_CHECKS) {
+                throw new IllegalStateException(format("Stream consumer %s of channel %s is not active", consumerName, channelName));
+            }
+            try {
+                Thread.sleep(WAITING_TIME_ON_CONSUMER_REGISTRATION);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(format("Interrupted while waiting for stream consumer %s of channel %s", consumerName, channelName));
+            }
+            consumer = describeStreamConsumer(streamArn);
+        }
+        return consumer.consumerARN();
+    }
+
+    private void register(final String streamArn) {
+        try {
+            kinesisClient.registerStreamConsumer(RegisterStreamConsumerRequest.builder()
+                    .streamARN(streamArn)
+                    .consumerName(consumerName)
+                    .build())
+                    .join();
+        } catch (final CompletionException e) {
+            // the consumer may have been registered concurrently by another instance of the service:
+            if (!(e.getCause() instanceof ResourceInUseException)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Retries the registration of the stream consumer, until the deregistered consumers are deleted and the
+     * stream is below the limit of consumers.
+     */
+    private void registerAfterStaleConsumersAreDeleted(final String streamArn) {
+        int attempts = 0;
+        while (true) {
+            try {
+                register(streamArn);
+                return;
+            } catch (final CompletionException e) {
+                if (!(e.getCause() instanceof LimitExceededException) || ++attempts >= MAX_CONSUMER_STATUS_CHECKS) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(WAITING_TIME_ON_CONSUMER_REGISTRATION);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(format("Interrupted while registering stream consumer %s of channel %s", consumerName, channelName));
+            }
+        }
+    }
+
+    /**
+     * Deregisters the other stream consumers of this service, if the stream has reached the limit of consumers.
+     *
+     * @return true, if some consumers were deregistered
+     */
+    private boolean deregisterStaleStreamConsumers(final String streamArn) {
+        if (consumerNamePrefix == null) {
+            return false;
+        }
+        final Map<String, String> consumerArns = listStreamConsumers(streamArn);
+        if (consumerArns.size() < MAX_CONSUMERS_PER_STREAM) {
+            // the registration was throttled:
+            return false;
+        }
+        final List<String> staleConsumers = consumerArns.keySet().stream()
+                .filter(name -> name.startsWith(consumerNamePrefix))
+                .filter(name -> !name.equals(consumerName))
+                .collect(toList());
+        staleConsumers.forEach(name -> {
+            LOG.warn(marker, "Stream {} has reached the limit of {} consumers. Deregistering stream consumer {}", channelName, MAX_CONSUMERS_PER_STREAM, name);
+            try {
+                kinesisClient.deregisterStreamConsumer(DeregisterStreamConsumerRequest.builder()
+                        .consumerARN(consumerArns.get(name))
+                        .build())
+                        .join();
+            } catch (final CompletionException e) {
+                if (!(e.getCause() instanceof ResourceNotFoundException)) {
+                    throw e;
+                }
+            }
+        });
+        return !staleConsumers.isEmpty();
+    }
+
+    /**
+     * @return the ARNs of all consumers of the stream, by consumer name
+     */
+    private Map<String, String> listStreamConsumers(final String streamArn) {
+        final Map<String, String> consumerArns = new LinkedHashMap<>();
+        String nextToken = null;
+        do {
+            final ListStreamConsumersResponse response = kinesisClient.listStreamConsumers(ListStreamConsumersRequest.builder()
+                    .streamARN(streamArn)
+                    .nextToken(nextToken)
+                    .build())
+                    .join();
+            response.consumers().forEach(consumer -> consumerArns.put(consumer.consumerName(), consumer.consumerARN()));
+            nextToken = response.nextToken();
+        } while (nextToken != null);
+        return consumerArns;
+    }
+
+    /**
+     * Deregisters the stream consumer and waits until the deregistration is accepted, so the consumer is not
+     * left behind if the application is terminated after the reader is stopped.
+     */
+    private void deregisterStreamConsumer() {
+        final String arn = consumerArn.getAndSet(null);
+        if (arn != null) {
+            LOG.info(marker, "Deregistering stream consumer {} of channel {}", consumerName, channelName);
+            try {
+                kinesisClient.deregisterStreamConsumer(DeregisterStreamConsumerRequest.builder()
+                        .consumerARN(arn)
+                        .build())
+                        .get(DEREGISTRATION_TIMEOUT_SECONDS, SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn(marker, "Interrupted while deregistering stream consumer {} of channel {}", consumerName, channelName);
+            } catch (final ExecutionException | TimeoutException | RuntimeException e) {
+                LOG.warn(marker, "Failed to deregister stream consumer {} of channel {}: {}", consumerName, channelName, e.getMessage());
+            }
+        }
+    }
+
+    private ConsumerDescription describeStreamConsumer(final String streamArn) {
+        try {
+            return kinesisClient.describeStreamConsumer(DescribeStreamConsumerRequest.builder()
+                    .streamARN(streamArn)
+                    .consumerName(consumerName)
+                    .build())
+                    .join()
+                    .consumerDescription();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof ResourceNotFoundException) {
+                return null;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardResponse;
+import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.endpoint.receiver.AbstractMessageLogReceiverEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.springframework.context.ApplicationEventPublisher;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Predicate;
+
+import static de.otto.synapse.info.MessageReceiverStatus.*;
+import static de.otto.synapse.logging.LogHelper.info;
+
+/**
+ * A {@link de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint} that is receiving messages from a
+ * Kinesis stream using enhanced fan-out.
+ * <p>
+ *     Other than the {@link KinesisMessageLogReceiverEndpoint}, records are pushed to the endpoint using
+ *     {@code SubscribeToShard} as soon as they are available, instead of polling the shards using
+ *     {@code GetRecords}. Every stream consumer has its own read throughput per shard.
+ * </p>
+ */
+public class KinesisEnhancedFanOutMessageLogReceiverEndpoint extends AbstractMessageLogReceiverEndpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KinesisEnhancedFanOutMessageLogReceiverEndpoint.class);
+
+    private final KinesisEnhancedFanOutMessageLogReader messageLogReader;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MessageInterceptorRegistry interceptorRegistry;
+
+    public KinesisEnhancedFanOutMessageLogReceiverEndpoint(final String channelName,
+                                                           final String consumerName,
+                                                           final MessageInterceptorRegistry interceptorRegistry,
+                                                           final KinesisAsyncClient kinesisClient,
+                                                           final ExecutorService executorService,
+                                                           final ApplicationEventPublisher eventPublisher) {
+        this(channelName, consumerName, interceptorRegistry, kinesisClient, executorService, eventPublisher, null);
+    }
+
+    public KinesisEnhancedFanOutMessageLogReceiverEndpoint(final String channelName,
+                                                           final String consumerName,
+                                                           final MessageInterceptorRegistry interceptorRegistry,
+                                                           final KinesisAsyncClient kinesisClient,
+                                                           final ExecutorService executorService,
+                                                           final ApplicationEventPublisher eventPublisher,
+                                                           final Marker marker) {
+        this(channelName, consumerName, null, interceptorRegistry, kinesisClient, executorService, eventPublisher, marker);
+    }
+
+    /**
+     * @param channelName the name of the Kinesis stream
+     * @param consumerName the name of the stream consumer of this instance of the service
+     * @param consumerNamePrefix the prefix of the names of all stream consumers of the service, used to remove
+     *                           the consumers of instances that were not stopped properly, or null
+     * @param interceptorRegistry registry of message interceptors
+     * @param kinesisClient the Kinesis client
+     * @param executorService executor service used to read the shards
+     * @param eventPublisher the publisher of receiver events
+     * @param marker marker used to log messages, or null
+     */
+    public KinesisEnhancedFanOutMessageLogReceiverEndpoint(final String channelName,
+                                                           final String consumerName,
+                                                           final String consumerNamePrefix,
+                                                           final MessageInterceptorRegistry interceptorRegistry,
+                                                           final KinesisAsyncClient kinesisClient,
+                                                           final ExecutorService executorService,
+                                                           final ApplicationEventPublisher eventPublisher,
+                                                           final Marker marker) {
+        super(channelName, interceptorRegistry, eventPublisher);
+        this.eventPublisher = eventPublisher;
+        this.messageLogReader = new KinesisEnhancedFanOutMessageLogReader(channelName, consumerName, consumerNamePrefix, kinesisClient, executorService, marker);
+        this.interceptorRegistry = interceptorRegistry;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<ChannelPosition> consumeUntil(final @Nonnull ChannelPosition startFrom,
+                                                           final @Nonnull Predicate<ShardResponse> stopCondition) {
+        publishEvent(STARTING, "Consuming messages from Kinesis using enhanced fan-out.", null);
+        final long t1 = System.currentTimeMillis();
+        final List<String> shards = messageLogReader.getOpenShards();
+
+        publishEvent(STARTED, "Received shards from Kinesis.", null);
+
+        final KinesisShardResponseConsumer consumer = new KinesisShardResponseConsumer(getChannelName(), shards, interceptorRegistry, getMessageDispatcher(), eventPublisher);
+
+        return messageLogReader.consumeUntil(startFrom, stopCondition, consumer)
+                .thenApply((channelPosition -> {
+                    final long t2 = System.currentTimeMillis();
+                    info(LOG, ImmutableMap.of("runtime", (t2-t1)), "Consume events from Kinesis", null);
+                    publishEvent(FINISHED, "Finished consuming messages from Kinesis", null);
+                    return channelPosition;
+                }))
+                .exceptionally((throwable) -> {
+                    LOG.error("Failed to consume from Kinesis stream {}: {}", getChannelName(), throwable.getMessage());
+                    publishEvent(FAILED, "Failed to consume messages from Kinesis: " + throwable.getMessage(), null);
+                    // When an exception occurs in a completable future's thread, other threads continue running.
+                    // Stop all before proceeding.
+                    stop();
+                    throw new RuntimeException(throwable.getMessage(), throwable);
+                });
+    }
+
+    @Override
+    public void stop() {
+        LOG.info("Channel {} received stop signal.", getChannelName());
+        messageLogReader.stop();
+    }
+
+    @VisibleForTesting
+    List<KinesisEnhancedFanOutShardReader> getCurrentShardReaders() {
+        return messageLogReader.getCurrentShardReaders();
+    }
+
+}
@@ -0,0 +1,429 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.ShardResponse;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.ResourceInUseException;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.kinesis.model.StartingPosition;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEvent;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEventStream;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardRequest;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardResponse;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardResponseHandler;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisShardReader.sanitizePositionedShardPosition;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.hasSubSequenceNumber;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.sequenceNumberOf;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.shardIteratorTypeOf;
+import static java.lang.String.format;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.*;
+
+/**
+ * Reads the messages of a single Kinesis shard using enhanced fan-out.
+ * <p>
+ *     Instead of polling the shard using {@code GetRecords}, records are pushed to a registered stream consumer
+ *     using {@code SubscribeToShard}. Kinesis is closing every subscription after five minutes, so the reader is
+ *     re-subscribing at the continuation sequence number of the latest event, until the stop condition is met
+ *     or the reader is stopped.
+ * </p>
+ * <p>
+ *     Events are pushed by the SDK on its event-loop threads. They are handed over to the thread of the reader, so
+ *     the shard responses are consumed by the reader's {@code ExecutorService}, and the next event is only
+ *     requested after the previous response is consumed.
+ * </p>
+ * <p>
+ *     Kinesis only supports a single subscription per stream consumer and shard. If subscribing to the shard is
+ *     repeatedly failing because another subscription is active, the stream consumer is most likely shared by
+ *     multiple instances of the service, and reading the shard fails without further retries.
+ * </p>
+ * <p>
+ *     If the stream consumer does not exist anymore, for example because it was removed by another instance of the
+ *     service that ran into the limit of consumers per stream, the consumer is registered again before
+ *     re-subscribing.
+ * </p>
+ * <p>
+ *     The {@link ShardResponse shard responses} have the same {@link ShardPosition} semantics as the responses
+ *     of the polling {@link KinesisShardReader}: the position is the sequence number of the latest record
+ *     received from the shard.
+ * </p>
+ */
+@ThreadSafe
+public class KinesisEnhancedFanOutShardReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KinesisEnhancedFanOutShardReader.class);
+    private static final SubscribeToShardEvent END_OF_EVENTS = SubscribeToShardEvent.builder().build();
+
+    public static final int MAX_CONSECUTIVE_FAILURES = 10;
+    /** Maximum number of consecutive subscriptions failing because another subscription to the shard is active. */
+    public static final int MAX_CONSECUTIVE_SUBSCRIPTIONS_IN_USE = 2;
+    private static final int WAITING_TIME_ON_FAILURE = 1000;
+
+    private final String channelName;
+    private final String shardName;
+    private final UnaryOperator<String> consumerRegistration;
+    private final KinesisAsyncClient kinesisClient;
+    private final ExecutorService executorService;
+    private final Marker marker;
+    private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+    private final AtomicReference<ShardSubscription> currentSubscription = new AtomicReference<>();
+    private volatile String consumerArn;
+
+    public KinesisEnhancedFanOutShardReader(final String channelName,
+                                            final String shardName,
+                                            final String consumerArn,
+                                            final KinesisAsyncClient kinesisClient,
+                                            final ExecutorService executorService,
+                                            final Marker marker) {
+        this(channelName, shardName, consumerArn, UnaryOperator.identity(), kinesisClient, executorService, marker);
+    }
+
+    /**
+     * @param channelName the name of the channel
+     * @param shardName the name of the shard
+     * @param consumerArn the ARN of the registered stream consumer
+     * @param consumerRegistration function used to register the stream consumer again, if it does not exist
+     *                             anymore. It is called with the ARN of the missing consumer, and returns the
+     *                             ARN of the registered consumer.
+     * @param kinesisClient the Kinesis client
+     * @param executorService the executor service used to consume the shard
+     * @param marker marker used to log messages, or null
+     */
+    public KinesisEnhancedFanOutShardReader(final String channelName,
+                                            final String shardName,
+                                            final String consumerArn,
+                                            final UnaryOperator<String> consumerRegistration,
+                                            final KinesisAsyncClient kinesisClient,
+                                            final ExecutorService executorService,
+                                            final Marker marker) {
+        this.channelName = channelName;
+        this.shardName = shardName;
+        this.consumerArn = consumerArn;
+        this.consumerRegistration = consumerRegistration;
+        this.kinesisClient = kinesisClient;
+        this.executorService = executorService;
+        this.marker = marker;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public String getShardName() {
+        return shardName;
+    }
+
+    public CompletableFuture<ShardPosition> consumeUntil(final ShardPosition startFrom,
+                                                         final Predicate<ShardResponse> stopCondition,
+                                                         final Consumer<ShardResponse> responseConsumer) {
+        final Map<String, String> copyOfContextMap = MDC.getCopyOfContextMap();
+        return CompletableFuture.supplyAsync(() -> {
+            if (copyOfContextMap != null) {
+                MDC.setContextMap(copyOfContextMap);
+            }
+            MDC.put("channelName", channelName);
+            MDC.put("shardName", shardName);
+            LOG.info(marker, "Subscribing to channel={}, shard={}, position={}", channelName, shardName, startFrom);
+            try {
+                final AtomicLong shardMessagesCounter = new AtomicLong(0);
+                ShardPosition shardPosition = sanitizePositionedShardPosition(kinesisClient, channelName, startFrom, marker);
+                ShardPosition continuationPosition = shardPosition;
+                int consecutiveFailures = 0;
+                int consecutiveSubscriptionsInUse = 0;
+                while (!isStopping()) {
+                    final ShardSubscription subscription = new ShardSubscription(shardPosition, stopCondition, responseConsumer, shardMessagesCounter);
+                    currentSubscription.set(subscription);
+                    try {
+                        kinesisClient
+                                .subscribeToShard(subscribeToShardRequest(continuationPosition), subscription)
+                                .whenComplete((ignored, throwable) -> {
+                                    if (throwable != null) {
+                                        subscription.exceptionOccurred(throwable);
+                                    }
+                                });
+                        subscription.awaitCompletion();
+                        consecutiveFailures = 0;
+                        consecutiveSubscriptionsInUse = 0;
+                    } catch (final CompletionException e) {
+                        if (subscription.isFinished() || ++consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+                            throw e;
+                        }
+                        if (isCausedBy(e, ResourceInUseException.class)
+                                && ++consecutiveSubscriptionsInUse >= MAX_CONSECUTIVE_SUBSCRIPTIONS_IN_USE) {
+                            throw new IllegalStateException(format(
+                                    "Another subscription to shard %s of channel %s is active. The name of the stream consumer must be unique per instance of the service.",
+                                    shardName, channelName), e);
+                        }
+                        LOG.warn(marker, "Subscription to channel={}, shard={} failed: {}. Re-subscribing.", channelName, shardName, e.getMessage());
+                        if (isCausedBy(e, ResourceNotFoundException.class)) {
+                            consumerArn = consumerRegistration.apply(consumerArn);
+                        }
+                        if (waitABit()) {
+                            break;
+                        }
+                    }
+                    shardPosition = subscription.getShardPosition();
+                    continuationPosition = subscription.getContinuationPosition() != null
+                            ? subscription.getContinuationPosition()
+                            : continuationPosition;
+                    if (subscription.isFinished()) {
+                        break;
+                    }
+                }
+                LOG.info(marker, "Stop reading of channel={}, shard={}, stopSignal={}, totalMessages={}", channelName, shardName, isStopping(), shardMessagesCounter.get());
+                return shardPosition;
+            } catch (final RuntimeException e) {
+                LOG.error(marker, "Failed to consume from Kinesis shard {}: {}, {}", channelName, shardName, e.getMessage());
+                // Stop all shards and shutdown if this shard is failing:
+                stop();
+                throw e;
+            } finally {
+                currentSubscription.set(null);
+                MDC.remove("channelName");
+                MDC.remove("shardName");
+            }
+        }, executorService);
+    }
+
+    public void stop() {
+        LOG.info(marker, "Shard {} received stop signal.", shardName);
+        stopSignal.set(true);
+        final ShardSubscription subscription = currentSubscription.get();
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    public boolean isStopping() {
+        return stopSignal.get();
+    }
+
+    private SubscribeToShardRequest subscribeToShardRequest(final ShardPosition shardPosition) {
+        final StartingPosition.Builder startingPosition = StartingPosition.builder();
+        switch (shardPosition.startFrom()) {
+            case HORIZON:
+                startingPosition.type(TRIM_HORIZON);
+                break;
+            case POSITION:
+            case AT_POSITION:
+                startingPosition
+                        .type(shardIteratorTypeOf(shardPosition))
+                        .sequenceNumber(sequenceNumberOf(shardPosition.position()));
+                break;
+            case TIMESTAMP:
+                startingPosition.type(AT_TIMESTAMP).timestamp(shardPosition.timestamp());
+                break;
+        }
+        return SubscribeToShardRequest.builder()
+                .consumerARN(consumerArn)
+                .shardId(shardName)
+                .startingPosition(startingPosition.build())
+                .build();
+    }
+
+    private static boolean isCausedBy(final Throwable throwable, final Class<? extends Throwable> exceptionType) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (exceptionType.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean waitABit() {
+        try {
+            Thread.sleep(WAITING_TIME_ON_FAILURE);
+        } catch (final InterruptedException e) {
+            LOG.warn(marker, "Thread got interrupted");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A single subscription to the shard. Events are requested one at a time, so the shard responses are
+     * consumed in order and a slow consumer is applying back-pressure to the subscription.
+     */
+    private class ShardSubscription implements SubscribeToShardResponseHandler, Subscriber<SubscribeToShardEventStream> {
+
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        /** Events received from the SDK, followed by {@link #END_OF_EVENTS} when the subscription is completed. */
+        private final BlockingQueue<SubscribeToShardEvent> events = new LinkedBlockingQueue<>();
+        private final AtomicReference<Subscription> subscription = new AtomicReference<>();
+        private final Predicate<ShardResponse> stopCondition;
+        private final Consumer<ShardResponse> responseConsumer;
+        private final AtomicLong shardMessagesCounter;
+        private volatile ShardPosition shardPosition;
+        private volatile ShardPosition continuationPosition;
+        /** The initial position, until the first records are received, if it is the position of an aggregated message. */
+        private volatile ShardPosition readFrom;
+        private volatile boolean finished;
+
+        private ShardSubscription(final ShardPosition shardPosition,
+                                  final Predicate<ShardResponse> stopCondition,
+                                  final Consumer<ShardResponse> responseConsumer,
+                                  final AtomicLong shardMessagesCounter) {
+            this.shardPosition = shardPosition;
+            this.readFrom = hasSubSequenceNumber(shardPosition) ? shardPosition : null;
+            this.stopCondition = stopCondition;
+            this.responseConsumer = responseConsumer;
+            this.shardMessagesCounter = shardMessagesCounter;
+        }
+
+        ShardPosition getShardPosition() {
+            return shardPosition;
+        }
+
+        ShardPosition getContinuationPosition() {
+            return continuationPosition;
+        }
+
+        /**
+         * @return true, if the stop condition is fulfilled, the end of a closed shard is reached, or the
+         *         consumption of a response has failed.
+         */
+        boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Consumes the events of the subscription until the subscription is completed.
+         *
+         * @throws CompletionException if the subscription failed, or if consuming a response failed
+         */
+        void awaitCompletion() {
+            completion.whenComplete((ignored, throwable) -> events.offer(END_OF_EVENTS));
+            while (true) {
+                final SubscribeToShardEvent event;
+                try {
+                    event = events.take();
+                } catch (final InterruptedException e) {
+                    LOG.warn(marker, "Thread got interrupted");
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    return;
+                }
+                if (event == END_OF_EVENTS) {
+                    completion.join();
+                    return;
+                }
+                try {
+                    accept(event);
+                } catch (final RuntimeException e) {
+                    finished = true;
+                    cancel();
+                    throw new CompletionException(e);
+                }
+                if (finished || isStopping()) {
+                    cancel();
+                } else {
+                    subscription.get().request(1);
+                }
+            }
+        }
+
+        void cancel() {
+            final Subscription s = subscription.get();
+            if (s != null) {
+                s.cancel();
+            }
+            completion.complete(null);
+        }
+
+        @Override
+        public void responseReceived(final SubscribeToShardResponse response) {
+            LOG.debug(marker, "Subscribed to channel={}, shard={}", channelName, shardName);
+        }
+
+        @Override
+        public void onEventStream(final SdkPublisher<SubscribeToShardEventStream> publisher) {
+            publisher.subscribe(this);
+        }
+
+        @Override
+        public void exceptionOccurred(final Throwable throwable) {
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void complete() {
+            completion.complete(null);
+        }
+
+        @Override
+        public void onSubscribe(final Subscription s) {
+            subscription.set(s);
+            if (isStopping() || completion.isDone()) {
+                cancel();
+            } else {
+                s.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(final SubscribeToShardEventStream event) {
+            if (event instanceof SubscribeToShardEvent) {
+                events.offer((SubscribeToShardEvent) event);
+            } else {
+                subscription.get().request(1);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completion.complete(null);
+        }
+
+        private void accept(final SubscribeToShardEvent event) {
+            final List<Record> records = event.records();
+            final ShardPosition readFrom = this.readFrom;
+            if (!records.isEmpty()) {
+                this.readFrom = null;
+                shardPosition = fromPosition(shardName, records.get(records.size() - 1).sequenceNumber());
+            }
+            if (event.continuationSequenceNumber() != null) {
+                continuationPosition = fromPosition(shardName, event.continuationSequenceNumber());
+            } else {
+                LOG.info(marker, "Reached the end of closed shard {} of channel {}", shardName, channelName);
+                finished = true;
+            }
+            final ShardResponse response = readFrom != null
+                    ? KinesisShardResponse.kinesisShardResponse(shardPosition, event, readFrom)
+                    : KinesisShardResponse.kinesisShardResponse(shardPosition, event);
+            responseConsumer.accept(response);
+            shardMessagesCounter.addAndGet(response.getMessages().size());
+            if (stopCondition.test(response)) {
+                finished = true;
+            }
+        }
+    }
+}
@@ -2,14 +2,10 @@ package de.otto.synapse.endpoint.receiver.kinesis;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
-import de.otto.synapse.channel.ChannelDurationBehind;
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.channel.ShardResponse;
-import de.otto.synapse.consumer.MessageDispatcher;
-import de.otto.synapse.endpoint.InterceptorChain;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.receiver.AbstractMessageLogReceiverEndpoint;
-import de.otto.synapse.message.TextMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
@@ -21,14 +17,8 @@ import java.time.Clock;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
 import java.util.function.Predicate;
 
-import static de.otto.synapse.channel.ChannelDurationBehind.copyOf;
-import static de.otto.synapse.channel.ChannelDurationBehind.unknown;
-import static de.otto.synapse.endpoint.EndpointType.RECEIVER;
-import static de.otto.synapse.info.MessageReceiverNotification.builder;
 import static de.otto.synapse.info.MessageReceiverStatus.*;
 import static de.otto.synapse.logging.LogHelper.info;
 
@@ -36,58 +26,6 @@ public class KinesisMessageLogReceiverEndpoint extends AbstractMessageLogReceive
 
     private static final Logger LOG = LoggerFactory.getLogger(KinesisMessageLogReceiverEndpoint.class);
 
-    private static class KinesisShardResponseConsumer implements Consumer<ShardResponse> {
-        private final AtomicReference<ChannelDurationBehind> channelDurationBehind = new AtomicReference<>();
-        private final MessageInterceptorRegistry interceptorRegistry;
-        private final String channelName;
-        private final MessageDispatcher messageDispatcher;
-        private final ApplicationEventPublisher eventPublisher;
-
-        private KinesisShardResponseConsumer(final String channelName,
-                                             final List<String> shardNames,
-                                             final MessageInterceptorRegistry interceptorRegistry,
-                                             final MessageDispatcher messageDispatcher,
-                                             final ApplicationEventPublisher eventPublisher) {
-            this.channelName = channelName;
-            this.messageDispatcher = messageDispatcher;
-            this.interceptorRegistry = interceptorRegistry;
-            this.eventPublisher = eventPublisher;
-            channelDurationBehind.set(unknown(shardNames));
-        }
-
-        @Override
-        public void accept(final ShardResponse response) {
-            final InterceptorChain interceptorChain = interceptorRegistry.getInterceptorChain(channelName, RECEIVER);
-            response.getMessages().forEach(message -> {
-                try {
-                    LOG.debug("Processing message " + message.getKey());
-                    final TextMessage interceptedMessage = interceptorChain.intercept(message);
-                    if (interceptedMessage != null) {
-                        messageDispatcher.accept(interceptedMessage);
-                    } else {
-                        LOG.debug("Message {} dropped by interceptor", message.getKey());
-                    }
-                } catch (final Exception e) {
-                    LOG.error("Error processing message: " + e.getMessage(), e);
-                }
-            });
-            channelDurationBehind.updateAndGet(behind -> copyOf(behind)
-                    .with(response.getShardName(), response.getDurationBehind())
-                    .build());
-
-            if (eventPublisher != null) {
-                eventPublisher.publishEvent(builder()
-                        .withChannelName(channelName)
-                        .withChannelDurationBehind(channelDurationBehind.get())
-                        .withStatus(RUNNING)
-                        .withMessage("Reading from kinesis shard.")
-                        .build());
-            }
-
-        }
-
-    }
-
     private final KinesisMessageLogReader kinesisMessageLogReader;
     private final ApplicationEventPublisher eventPublisher;
     private final MessageInterceptorRegistry interceptorRegistry;
@@ -1,5 +1,6 @@
 package de.otto.synapse.endpoint.receiver.kinesis;
 
+import com.google.common.collect.ImmutableSet;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
@@ -10,10 +11,19 @@ import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 
 import javax.annotation.Nonnull;
 import java.time.Clock;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 
 import static de.otto.synapse.endpoint.receiver.kinesis.KinesisMessageLogReader.DEFAULT_WAITING_TIME_ON_EMPTY_RECORDS;
 
+/**
+ * Factory used to create {@link MessageLogReceiverEndpoint message-log receiver endpoints} for Kinesis streams.
+ * <p>
+ *     By default, the endpoints are polling the shards of the streams. Channels that are configured to use
+ *     enhanced fan-out are received by {@link KinesisEnhancedFanOutMessageLogReceiverEndpoint}s, registered as
+ *     stream consumer with the configured consumer name.
+ * </p>
+ */
 public class KinesisMessageLogReceiverEndpointFactory implements MessageLogReceiverEndpointFactory {
 
     private final MessageInterceptorRegistry interceptorRegistry;
@@ -22,6 +32,9 @@ public class KinesisMessageLogReceiverEndpointFactory implements MessageLogRecei
     private final Clock clock;
     private final ExecutorService executorService;
     private final Marker marker;
+    private final Set<String> enhancedFanOutChannels;
+    private final String consumerName;
+    private final String consumerNamePrefix;
 
     @Autowired
     public KinesisMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
@@ -45,17 +58,74 @@ public class KinesisMessageLogReceiverEndpointFactory implements MessageLogRecei
                                                     final ApplicationEventPublisher eventPublisher,
                                                     final Clock clock,
                                                     final Marker marker) {
+        this(interceptorRegistry, kinesisClient, kinesisMessageLogExecutorService, eventPublisher, clock, marker, ImmutableSet.of(), null);
+    }
+
+    /**
+     * @param interceptorRegistry registry of message interceptors
+     * @param kinesisClient the Kinesis client
+     * @param kinesisMessageLogExecutorService executor service used to read the shards of the streams
+     * @param eventPublisher the publisher of receiver events
+     * @param clock the clock
+     * @param marker marker used to log messages, or null
+     * @param enhancedFanOutChannels the names of the channels that are received using enhanced fan-out
+     * @param consumerName the name of the stream consumer registered for channels using enhanced fan-out. The name
+     *                     must be unique per instance of the service.
+     */
+    public KinesisMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                    final KinesisAsyncClient kinesisClient,
+                                                    final ExecutorService kinesisMessageLogExecutorService,
+                                                    final ApplicationEventPublisher eventPublisher,
+                                                    final Clock clock,
+                                                    final Marker marker,
+                                                    final Set<String> enhancedFanOutChannels,
+                                                    final String consumerName) {
+        this(interceptorRegistry, kinesisClient, kinesisMessageLogExecutorService, eventPublisher, clock, marker, enhancedFanOutChannels, consumerName, null);
+    }
+
+    /**
+     * @param interceptorRegistry registry of message interceptors
+     * @param kinesisClient the Kinesis client
+     * @param kinesisMessageLogExecutorService executor service used to read the shards of the streams
+     * @param eventPublisher the publisher of receiver events
+     * @param clock the clock
+     * @param marker marker used to log messages, or null
+     * @param enhancedFanOutChannels the names of the channels that are received using enhanced fan-out
+     * @param consumerName the name of the stream consumer registered for channels using enhanced fan-out. The name
+     *                     must be unique per instance of the service.
+     * @param consumerNamePrefix the prefix of the names of the stream consumers of all instances of the service.
+     *                           If a stream has reached the limit of consumers, the other consumers having this
+     *                           prefix are deregistered. May be null.
+     */
+    public KinesisMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                    final KinesisAsyncClient kinesisClient,
+                                                    final ExecutorService kinesisMessageLogExecutorService,
+                                                    final ApplicationEventPublisher eventPublisher,
+                                                    final Clock clock,
+                                                    final Marker marker,
+                                                    final Set<String> enhancedFanOutChannels,
+                                                    final String consumerName,
+                                                    final String consumerNamePrefix) {
+        if (!enhancedFanOutChannels.isEmpty() && consumerName == null) {
+            throw new IllegalArgumentException("The consumer name is required to use enhanced fan-out");
+        }
         this.interceptorRegistry = interceptorRegistry;
         this.kinesisClient = kinesisClient;
         this.executorService = kinesisMessageLogExecutorService;
         this.eventPublisher = eventPublisher;
         this.clock = clock;
         this.marker = marker;
+        this.enhancedFanOutChannels = ImmutableSet.copyOf(enhancedFanOutChannels);
+        this.consumerName = consumerName;
+        this.consumerNamePrefix = consumerNamePrefix;
     }
 
 
     @Override
     public MessageLogReceiverEndpoint create(@Nonnull String channelName) {
+        if (enhancedFanOutChannels.contains(channelName)) {
+            return new KinesisEnhancedFanOutMessageLogReceiverEndpoint(channelName, consumerName, consumerNamePrefix, interceptorRegistry, kinesisClient, executorService, eventPublisher, marker);
+        }
         return new KinesisMessageLogReceiverEndpoint(channelName, interceptorRegistry, kinesisClient, executorService, eventPublisher, clock, DEFAULT_WAITING_TIME_ON_EMPTY_RECORDS, marker);
     }
 
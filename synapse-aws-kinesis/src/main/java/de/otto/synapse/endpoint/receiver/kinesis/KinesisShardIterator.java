@@ -11,9 +11,13 @@ import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
 import software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
 
 import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.hasSubSequenceNumber;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.sequenceNumberOf;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.shardIteratorTypeOf;
 import static java.lang.String.format;
 import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.*;
 
@@ -38,8 +42,10 @@ public class KinesisShardIterator {
     private final String channelName;
     private final int fetchRecordLimit;
     private final AtomicBoolean stopSignal = new AtomicBoolean(false);
-    private String id;
-    private ShardPosition shardPosition;
+    private volatile String id;
+    private volatile ShardPosition shardPosition;
+    /** The initial position, until the first records are read, if it is the position of an aggregated message. */
+    private volatile ShardPosition readFrom;
 
     public KinesisShardIterator(final @Nonnull KinesisAsyncClient kinesisClient,
                                 final @Nonnull String channelName,
@@ -55,6 +61,7 @@ public class KinesisShardIterator {
         this.fetchRecordLimit = fetchRecordLimit;
         this.channelName = channelName;
         this.shardPosition = shardPosition;
+        this.readFrom = hasSubSequenceNumber(shardPosition) ? shardPosition : null;
         this.id = kinesisClient
                 .getShardIterator(buildIteratorShardRequest(shardPosition))
                 .join()
@@ -96,8 +103,29 @@ public class KinesisShardIterator {
 
     public ShardResponse next() {
         if (!stopSignal.get()) {
-            GetRecordsResponse recordsResponse = tryNext();
-            return KinesisShardResponse.kinesisShardResponse(shardPosition, recordsResponse);
+            return shardResponseOf(tryNext());
+        } else {
+            throw new IllegalStateException(format("Cannot iterate on shard '%s' after stop signal was received", shardPosition.shardName()));
+        }
+    }
+
+    /**
+     * Asynchronously fetches the next records from the shard.
+     * <p>
+     *     The iterator is advanced when the returned future is completed, so the next call of {@code next()} or
+     *     {@code nextAsync()} must not happen before the future is completed.
+     * </p>
+     *
+     * @param fetchRecordLimit the maximum number of records to fetch
+     * @return the future shard response
+     */
+    public CompletableFuture<ShardResponse> nextAsync(final int fetchRecordLimit) {
+        if (!stopSignal.get()) {
+            return kinesisClient.getRecords(GetRecordsRequest.builder()
+                    .shardIterator(id)
+                    .limit(fetchRecordLimit)
+                    .build())
+                    .thenApply(this::shardResponseOf);
         } else {
             throw new IllegalStateException(format("Cannot iterate on shard '%s' after stop signal was received", shardPosition.shardName()));
         }
@@ -114,12 +142,9 @@ public class KinesisShardIterator {
                 shardRequestBuilder.shardIteratorType(TRIM_HORIZON);
                 break;
             case POSITION:
-                shardRequestBuilder.shardIteratorType(AFTER_SEQUENCE_NUMBER);
-                shardRequestBuilder.startingSequenceNumber(shardPosition.position());
-                break;
             case AT_POSITION:
-                shardRequestBuilder.shardIteratorType(AT_SEQUENCE_NUMBER);
-                shardRequestBuilder.startingSequenceNumber(shardPosition.position());
+                shardRequestBuilder.shardIteratorType(shardIteratorTypeOf(shardPosition));
+                shardRequestBuilder.startingSequenceNumber(sequenceNumberOf(shardPosition.position()));
                 break;
             case TIMESTAMP:
                 shardRequestBuilder
@@ -131,20 +156,31 @@ public class KinesisShardIterator {
     }
 
     private GetRecordsResponse tryNext() {
-        GetRecordsResponse response = kinesisClient.getRecords(GetRecordsRequest.builder()
+        return kinesisClient.getRecords(GetRecordsRequest.builder()
                 .shardIterator(id)
                 .limit(fetchRecordLimit)
                 .build())
                 .join();
+    }
+
+    private ShardResponse shardResponseOf(final GetRecordsResponse response) {
+        final ShardPosition readFrom = this.readFrom;
+        advance(response);
+        return readFrom != null
+                ? KinesisShardResponse.kinesisShardResponse(shardPosition, response, readFrom)
+                : KinesisShardResponse.kinesisShardResponse(shardPosition, response);
+    }
+
+    private void advance(final GetRecordsResponse response) {
         this.id = response.nextShardIterator();
         LOG.debug("next() with id " + this.id + " returned " + response.records().size() + " records");
         if (!response.records().isEmpty()) {
+            this.readFrom = null;
             this.shardPosition = fromPosition(
                     shardPosition.shardName(),
                     response.records().get(response.records().size()-1).sequenceNumber()
             );
         }
-        return response;
     }
 
 }
@@ -0,0 +1,116 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import de.otto.synapse.channel.ShardResponse;
+import de.otto.synapse.message.TextMessage;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Duration;
+
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisShardIterator.FETCH_RECORDS_LIMIT;
+
+/**
+ * Adaptive policy used by the {@link KinesisShardReader} to decide, when the next {@code GetRecords} request is
+ * issued and how many records are requested.
+ * <ul>
+ *     <li>While the reader is catching up, or if a response contains as many records as requested, the next
+ *     request is issued immediately, so it is prefetched while the current response is processed.</li>
+ *     <li>If the reader is up to date, the waiting time is starting at {@link #MIN_WAITING_TIME} and doubled for
+ *     every empty response, up to the configured waiting time on empty records. Kinesis is limiting the
+ *     {@code GetRecords} requests to five per second and shard, shared by all consumers of the stream, so an up to
+ *     date reader is never issuing more than one request per second.</li>
+ *     <li>Throttled requests are backed off exponentially, starting at {@link #MIN_THROTTLING_WAITING_TIME}, up to
+ *     {@link #MAX_THROTTLING_WAITING_TIME}.</li>
+ *     <li>The number of requested records is adapted, so that processing a response takes about
+ *     {@link #TARGET_PROCESSING_TIME}, and the size of a response is not exceeding {@link #MAX_FETCH_BYTES}.</li>
+ * </ul>
+ */
+@NotThreadSafe
+final class KinesisShardPollingPolicy {
+
+    static final Duration MIN_WAITING_TIME = Duration.ofSeconds(1);
+    static final Duration MIN_THROTTLING_WAITING_TIME = Duration.ofMillis(200);
+    static final Duration MAX_THROTTLING_WAITING_TIME = Duration.ofSeconds(10);
+    static final Duration CATCHING_UP_THRESHOLD = Duration.ofSeconds(1);
+    static final Duration TARGET_PROCESSING_TIME = Duration.ofSeconds(1);
+    static final int MIN_FETCH_LIMIT = 100;
+    /** Kinesis is supporting a read throughput of 2MB/s per shard. */
+    static final long MAX_FETCH_BYTES = 2L * 1024 * 1024;
+
+    private final long maxWaitingTimeMillis;
+    private int fetchLimit = FETCH_RECORDS_LIMIT;
+    private long idleWaitingTimeMillis = MIN_WAITING_TIME.toMillis();
+    private long throttlingWaitingTimeMillis = MIN_THROTTLING_WAITING_TIME.toMillis();
+
+    /**
+     * @param waitingTimeOnEmptyRecords the maximum waiting time in milliseconds, if the reader is up to date.
+     */
+    KinesisShardPollingPolicy(final int waitingTimeOnEmptyRecords) {
+        this.maxWaitingTimeMillis = Math.max(waitingTimeOnEmptyRecords, 0);
+    }
+
+    /**
+     * @return the number of records that should be requested by the next {@code GetRecords} request.
+     */
+    int fetchLimit() {
+        return fetchLimit;
+    }
+
+    /**
+     * Returns the time to wait after the given response, before the next {@code GetRecords} request is issued.
+     *
+     * @param response the response of the latest request
+     * @param requestedLimit the number of records requested by the latest request
+     * @return waiting time, {@link Duration#ZERO} if the next request should be issued immediately
+     */
+    Duration waitingTimeAfter(final ShardResponse response, final int requestedLimit) {
+        throttlingWaitingTimeMillis = MIN_THROTTLING_WAITING_TIME.toMillis();
+        final int numberOfMessages = response.getMessages().size();
+        if (numberOfMessages >= requestedLimit || response.getDurationBehind().compareTo(CATCHING_UP_THRESHOLD) > 0) {
+            idleWaitingTimeMillis = MIN_WAITING_TIME.toMillis();
+            return Duration.ZERO;
+        }
+        if (numberOfMessages > 0) {
+            idleWaitingTimeMillis = MIN_WAITING_TIME.toMillis();
+            return Duration.ofMillis(Math.min(idleWaitingTimeMillis, maxWaitingTimeMillis));
+        }
+        final long waitingTime = Math.min(idleWaitingTimeMillis, maxWaitingTimeMillis);
+        idleWaitingTimeMillis = Math.min(idleWaitingTimeMillis * 2, Math.max(maxWaitingTimeMillis, MIN_WAITING_TIME.toMillis()));
+        return Duration.ofMillis(waitingTime);
+    }
+
+    /**
+     * Returns the time to wait after a throttled {@code GetRecords} request, before the request is retried.
+     *
+     * @return waiting time
+     */
+    Duration waitingTimeAfterThrottling() {
+        final long waitingTime = throttlingWaitingTimeMillis;
+        throttlingWaitingTimeMillis = Math.min(throttlingWaitingTimeMillis * 2, MAX_THROTTLING_WAITING_TIME.toMillis());
+        return Duration.ofMillis(waitingTime);
+    }
+
+    /**
+     * Adapts the fetch limit to the size of the records and the time needed to process the records of a response.
+     *
+     * @param response the processed response
+     * @param processingTime the time needed to process the response
+     */
+    void processed(final ShardResponse response, final Duration processingTime) {
+        final int numberOfMessages = response.getMessages().size();
+        if (numberOfMessages == 0) {
+            return;
+        }
+        long payloadBytes = 0;
+        for (final TextMessage message : response.getMessages()) {
+            payloadBytes += message.getPayload() != null ? message.getPayload().length() : 0;
+        }
+        final long averageRecordSize = Math.max(payloadBytes / numberOfMessages, 1);
+        final long processingMillis = Math.max(processingTime.toMillis(), 1);
+        final long limitByProcessingTime = numberOfMessages * TARGET_PROCESSING_TIME.toMillis() / processingMillis;
+        final long limitBySize = MAX_FETCH_BYTES / averageRecordSize;
+        final long targetLimit = Math.min(limitByProcessingTime, limitBySize);
+        // smooth the adaption, so a single slow or fast response is not changing the limit too much:
+        final long limit = (fetchLimit + targetLimit) / 2;
+        fetchLimit = (int) Math.max(MIN_FETCH_LIMIT, Math.min(limit, FETCH_RECORDS_LIMIT));
+    }
+}
@@ -10,7 +10,7 @@ import org.slf4j.MDC;
 import org.slf4j.Marker;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
-import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+import software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.time.Clock;
@@ -18,13 +18,16 @@ import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import static de.otto.synapse.endpoint.receiver.kinesis.KinesisMessageLogReader.DEFAULT_WAITING_TIME_ON_EMPTY_RECORDS;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.sequenceNumberOf;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.shardIteratorTypeOf;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @ThreadSafe
 public class KinesisShardReader {
@@ -36,7 +39,7 @@ public class KinesisShardReader {
     private final KinesisAsyncClient kinesisClient;
     private final ExecutorService executorService;
     private final Clock clock;
-    private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
     private final int waitingTimeOnEmptyRecords;
     private final Marker marker;
 
@@ -90,26 +93,61 @@ public class KinesisShardReader {
                 final AtomicLong previousLoggedMessageCounterMod = new AtomicLong(0), previousLoggedMessageCounter = new AtomicLong(0);
                 final ShardPosition sanitizedShardPosition = sanitizePositionedShardPosition(startFrom);
                 final KinesisShardIterator kinesisShardIterator = new KinesisShardIterator(kinesisClient, channelName, sanitizedShardPosition);
+                final KinesisShardPollingPolicy pollingPolicy = new KinesisShardPollingPolicy(waitingTimeOnEmptyRecords);
 
+                ShardPosition shardPosition = sanitizedShardPosition;
+                CompletableFuture<ShardResponse> pendingResponse = null;
+                int requestedLimit = 0;
                 boolean stopRetrieval;
                 do {
+                    if (pendingResponse == null) {
+                        /*
+                        Poison-Pill injected by a test. This is helpful, if you want to write tests that should terminate
+                        after a number of iterated shards.
+                         */
+                        if (kinesisShardIterator.isPoison()) {
+                            LOG.warn(marker, "Received Poison-Pill - This should only happen during tests!");
+                            break;
+                        }
+                        requestedLimit = pollingPolicy.fetchLimit();
+                        pendingResponse = kinesisShardIterator.nextAsync(requestedLimit);
+                    }
+
+                    final ShardResponse response;
+                    try {
+                        response = pendingResponse.join();
+                    } catch (final RuntimeException e) {
+                        if (!isThrottled(e)) {
+                            throw e;
+                        }
+                        pendingResponse = null;
+                        final Duration waitingTime = pollingPolicy.waitingTimeAfterThrottling();
+                        LOG.warn(marker, "Reading from '{}:{}' was throttled, retrying in {}", channelName, shardName, waitingTime);
+                        stopRetrieval = isStopping() || waitABit(waitingTime);
+                        continue;
+                    }
+                    pendingResponse = null;
+
                     /*
-                    Poison-Pill injected by a test. This is helpful, if you want to write tests that should terminate
-                    after a number of iterated shards.
+                    Prefetch the next response while the current response is processed, if no waiting time is required
+                    before the next request.
                      */
-                    if (kinesisShardIterator.isPoison()) {
-                        LOG.warn(marker, "Received Poison-Pill - This should only happen during tests!");
-                        break;
+                    final Duration waitingTime = pollingPolicy.waitingTimeAfter(response, requestedLimit);
+                    if (waitingTime.isZero() && !isStopping() && !kinesisShardIterator.isPoison()) {
+                        requestedLimit = pollingPolicy.fetchLimit();
+                        pendingResponse = kinesisShardIterator.nextAsync(requestedLimit);
                     }
 
-                    final ShardResponse response = kinesisShardIterator.next();
+                    final long processingStartTime = System.nanoTime();
                     responseConsumer.accept(response);
+                    pollingPolicy.processed(response, Duration.ofNanos(System.nanoTime() - processingStartTime));
+                    shardPosition = response.getShardPosition();
 
                     int responseMessagesCounter = response.getMessages().size();
                     long totalMessagesCounter = shardMessagesCounter.addAndGet(responseMessagesCounter);
 
                     boolean stopConditionFulfilled = stopCondition.test(response);
-                    stopRetrieval = stopConditionFulfilled || isStopping() || waitABit(response.getDurationBehind());
+                    stopRetrieval = stopConditionFulfilled || isStopping() || (!waitingTime.isZero() && waitABit(waitingTime));
 
                     if ((totalMessagesCounter > 0 && totalMessagesCounter > previousLoggedMessageCounterMod.get() + LOG_MESSAGE_COUNTER_EVERY_NTH_MESSAGE) || stopRetrieval) {
                         double messagesPerSecond = LogHelper.calculateMessagesPerSecond(previousMessageLogTime.getAndSet(System.currentTimeMillis()), totalMessagesCounter - previousLoggedMessageCounter.get());
@@ -128,7 +166,8 @@ public class KinesisShardReader {
                 double totalMessagesPerSecond = LogHelper.calculateMessagesPerSecond(firstMessageLogTime, shardMessagesCounter.get());
                 LOG.info(marker, "Read a total of {} messages from '{}:{}', totalMessagesPerSecond={}", shardMessagesCounter.get(), channelName, shardName, String.format("%.2f", totalMessagesPerSecond));
 
-                return kinesisShardIterator.getShardPosition();
+                // a prefetched response is dropped, so the position is the position of the latest consumed response:
+                return shardPosition;
 
             } catch (final RuntimeException e) {
                 LOG.error(marker, "Failed to consume from Kinesis shard {}: {}, {}", channelName, shardName, e.getMessage());
@@ -143,18 +182,28 @@ public class KinesisShardReader {
     }
 
     private ShardPosition sanitizePositionedShardPosition(ShardPosition shardPosition) {
+        return sanitizePositionedShardPosition(kinesisClient, channelName, shardPosition, marker);
+    }
+
+    /**
+     * Checks whether the sequence number of a positioned {@link ShardPosition} is still accessible.
+     *
+     * @return the given shard position, or a position {@link StartFrom#HORIZON from horizon}, if the sequence
+     *         number is not accessible anymore.
+     */
+    static ShardPosition sanitizePositionedShardPosition(final KinesisAsyncClient kinesisClient,
+                                                         final String channelName,
+                                                         final ShardPosition shardPosition,
+                                                         final Marker marker) {
         try {
             StartFrom startFrom = shardPosition.startFrom();
 
             if (startFrom == StartFrom.AT_POSITION || startFrom == StartFrom.POSITION) {
-                ShardIteratorType type = startFrom == StartFrom.POSITION
-                        ? ShardIteratorType.AFTER_SEQUENCE_NUMBER
-                        : ShardIteratorType.AT_SEQUENCE_NUMBER;
                 kinesisClient.getShardIterator(GetShardIteratorRequest.builder()
-                        .shardId(shardName)
+                        .shardId(shardPosition.shardName())
                         .streamName(channelName)
-                        .shardIteratorType(type)
-                        .startingSequenceNumber(shardPosition.position())
+                        .shardIteratorType(shardIteratorTypeOf(shardPosition))
+                        .startingSequenceNumber(sequenceNumberOf(shardPosition.position()))
                         .build())
                         .get();
             }
@@ -166,27 +215,32 @@ public class KinesisShardReader {
         return ShardPosition.fromHorizon(shardPosition.shardName());
     }
 
-    private boolean waitABit(Duration durationBehind) {
+    private static boolean isThrottled(final Throwable throwable) {
+        return throwable instanceof ProvisionedThroughputExceededException
+                || throwable.getCause() instanceof ProvisionedThroughputExceededException;
+    }
+
+    /**
+     * Waits for the given duration, or until the reader is stopped.
+     *
+     * @param waitingTime the maximum time to wait
+     * @return true, if the reader was stopped or interrupted while waiting
+     */
+    private boolean waitABit(final Duration waitingTime) {
         try {
-            /*Wait one second as documented by amazon: https://docs.aws.amazon.com/kinesis/latest/APIReference/API_GetRecords.html*/
-            if (durationBehind.getSeconds() > 10) {
-                Thread.sleep(1000);
-            } else {
-                Thread.sleep(waitingTimeOnEmptyRecords);
-            }
+            return stopSignal.await(waitingTime.toMillis(), MILLISECONDS);
         } catch (final InterruptedException e) {
             LOG.warn(marker, "Thread got interrupted");
             return true;
         }
-        return false;
     }
 
     public void stop() {
         LOG.info(marker, "Shard {} received stop signal.", shardName);
-        stopSignal.set(true);
+        stopSignal.countDown();
     }
 
     public boolean isStopping() {
-        return stopSignal.get();
+        return stopSignal.getCount() == 0;
     }
 }
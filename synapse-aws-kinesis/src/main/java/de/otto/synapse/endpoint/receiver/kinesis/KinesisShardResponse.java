@@ -3,22 +3,60 @@ package de.otto.synapse.endpoint.receiver.kinesis;
 import de.otto.synapse.channel.ShardPosition;
 import de.otto.synapse.channel.ShardResponse;
 import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEvent;
+
+import java.util.List;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static de.otto.synapse.channel.ShardResponse.shardResponse;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisSubSequencePositions.isConsumed;
 import static java.time.Duration.ofMillis;
 
 public class KinesisShardResponse {
 
     public static ShardResponse kinesisShardResponse(final ShardPosition shardPosition,
                                                      final GetRecordsResponse recordsResponse) {
+        return kinesisShardResponse(shardPosition, recordsResponse.millisBehindLatest(), recordsResponse.records(), null);
+    }
+
+    public static ShardResponse kinesisShardResponse(final ShardPosition shardPosition,
+                                                     final SubscribeToShardEvent event) {
+        return kinesisShardResponse(shardPosition, event.millisBehindLatest(), event.records(), null);
+    }
+
+    /**
+     * Creates a ShardResponse for the first records read from {@code readFrom}. Messages of an aggregated record
+     * that were already consumed before, are skipped.
+     */
+    static ShardResponse kinesisShardResponse(final ShardPosition shardPosition,
+                                              final GetRecordsResponse recordsResponse,
+                                              final ShardPosition readFrom) {
+        return kinesisShardResponse(shardPosition, recordsResponse.millisBehindLatest(), recordsResponse.records(), readFrom);
+    }
+
+    /**
+     * Creates a ShardResponse for the first records read from {@code readFrom}. Messages of an aggregated record
+     * that were already consumed before, are skipped.
+     */
+    static ShardResponse kinesisShardResponse(final ShardPosition shardPosition,
+                                              final SubscribeToShardEvent event,
+                                              final ShardPosition readFrom) {
+        return kinesisShardResponse(shardPosition, event.millisBehindLatest(), event.records(), readFrom);
+    }
+
+    private static ShardResponse kinesisShardResponse(final ShardPosition shardPosition,
+                                                      final Long millisBehindLatest,
+                                                      final List<Record> records,
+                                                      final ShardPosition readFrom) {
         final KinesisDecoder kinesisDecoder = new KinesisDecoder();
         return shardResponse(
                 shardPosition,
-                ofMillis(recordsResponse.millisBehindLatest()),
-                recordsResponse.records()
+                ofMillis(millisBehindLatest),
+                records
                         .stream()
-                        .map(record -> kinesisDecoder.apply(new RecordWithShard(shardPosition.shardName(), record)))
+                        .flatMap(record -> kinesisDecoder.decodeAll(new RecordWithShard(shardPosition.shardName(), record)).stream())
+                        .filter(message -> readFrom == null || !isConsumed(readFrom, message))
                         .collect(toImmutableList())
         );
     }
@@ -0,0 +1,126 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import de.otto.synapse.channel.ChannelDurationBehind;
+import de.otto.synapse.channel.ShardResponse;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.InterceptorChain;
+import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.message.TextMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static de.otto.synapse.channel.ChannelDurationBehind.copyOf;
+import static de.otto.synapse.channel.ChannelDurationBehind.unknown;
+import static de.otto.synapse.endpoint.EndpointType.RECEIVER;
+import static de.otto.synapse.info.MessageReceiverNotification.builder;
+import static de.otto.synapse.info.MessageReceiverStatus.RUNNING;
+
+/**
+ * Consumer of the {@link ShardResponse shard responses} read from a Kinesis stream, that is intercepting and
+ * dispatching the messages of the responses and publishes the current {@link ChannelDurationBehind}.
+ * <p>
+ *     If all registered consumers are {@link de.otto.synapse.consumer.BulkLoadingMessageConsumer bulk-loading
+ *     consumers}, the intercepted messages of a response are dispatched as a single batch, so consumers like
+ *     the {@link de.otto.synapse.consumer.StatefulMessageConsumer} are able to write every key only once per
+ *     response.
+ * </p>
+ */
+class KinesisShardResponseConsumer implements Consumer<ShardResponse> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KinesisShardResponseConsumer.class);
+
+    private final AtomicReference<ChannelDurationBehind> channelDurationBehind = new AtomicReference<>();
+    private final MessageInterceptorRegistry interceptorRegistry;
+    private final String channelName;
+    private final MessageDispatcher messageDispatcher;
+    private final ApplicationEventPublisher eventPublisher;
+
+    KinesisShardResponseConsumer(final String channelName,
+                                 final List<String> shardNames,
+                                 final MessageInterceptorRegistry interceptorRegistry,
+                                 final MessageDispatcher messageDispatcher,
+                                 final ApplicationEventPublisher eventPublisher) {
+        this.channelName = channelName;
+        this.messageDispatcher = messageDispatcher;
+        this.interceptorRegistry = interceptorRegistry;
+        this.eventPublisher = eventPublisher;
+        channelDurationBehind.set(unknown(shardNames));
+    }
+
+    @Override
+    public void accept(final ShardResponse response) {
+        final InterceptorChain interceptorChain = interceptorRegistry.getInterceptorChain(channelName, RECEIVER);
+        if (response.getMessages().size() > 1 && messageDispatcher.supportsBulkLoading()) {
+            dispatchBatch(interceptorChain, response.getMessages());
+        } else {
+            response.getMessages().forEach(message -> dispatch(interceptorChain, message));
+        }
+        channelDurationBehind.updateAndGet(behind -> copyOf(behind)
+                .with(response.getShardName(), response.getDurationBehind())
+                .build());
+
+        if (eventPublisher != null) {
+            eventPublisher.publishEvent(builder()
+                    .withChannelName(channelName)
+                    .withChannelDurationBehind(channelDurationBehind.get())
+                    .withStatus(RUNNING)
+                    .withMessage("Reading from kinesis shard.")
+                    .build());
+        }
+
+    }
+
+    private void dispatch(final InterceptorChain interceptorChain, final TextMessage message) {
+        try {
+            LOG.debug("Processing message " + message.getKey());
+            final TextMessage interceptedMessage = interceptorChain.intercept(message);
+            if (interceptedMessage != null) {
+                messageDispatcher.accept(interceptedMessage);
+            } else {
+                LOG.debug("Message {} dropped by interceptor", message.getKey());
+            }
+        } catch (final Exception e) {
+            LOG.error("Error processing message: " + e.getMessage(), e);
+        }
+    }
+
+    private void dispatchBatch(final InterceptorChain interceptorChain, final List<TextMessage> messages) {
+        final List<TextMessage> interceptedMessages = new ArrayList<>(messages.size());
+        for (final TextMessage message : messages) {
+            try {
+                final TextMessage interceptedMessage = interceptorChain.intercept(message);
+                if (interceptedMessage != null) {
+                    interceptedMessages.add(interceptedMessage);
+                } else {
+                    LOG.debug("Message {} dropped by interceptor", message.getKey());
+                }
+            } catch (final Exception e) {
+                LOG.error("Error processing message: " + e.getMessage(), e);
+            }
+        }
+        try {
+            LOG.debug("Processing batch of {} messages", interceptedMessages.size());
+            // Consumers failing to accept the batch are retried message by message by the MessageDispatcher, so
+            // consumers that already accepted the batch are not applying the messages twice:
+            messageDispatcher.acceptAll(interceptedMessages);
+        } catch (final IllegalStateException e) {
+            // acceptAll is failing before dispatching any message, if a consumer that is not able to bulk-load
+            // messages was registered in the meantime:
+            LOG.warn("Unable to process batch of messages: {}. Processing messages one by one.", e.getMessage());
+            interceptedMessages.forEach(message -> {
+                try {
+                    messageDispatcher.accept(message);
+                } catch (final Exception ex) {
+                    LOG.error("Error processing message: " + ex.getMessage(), ex);
+                }
+            });
+        }
+    }
+
+}
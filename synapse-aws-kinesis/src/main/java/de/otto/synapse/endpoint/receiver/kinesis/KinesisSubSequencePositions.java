@@ -0,0 +1,85 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.StartFrom;
+import de.otto.synapse.message.TextMessage;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+
+/**
+ * Helper used to handle the positions of messages contained in aggregated Kinesis records.
+ * <p>
+ *     The position of an aggregated message is the sequence number of the Kinesis record, followed by the
+ *     index of the message in the record: {@code <sequenceNumber>:<subSequenceNumber>}. Reading a shard from
+ *     such a position is starting at the sequence number of the record, skipping all messages of the record
+ *     that were already consumed.
+ * </p>
+ */
+final class KinesisSubSequencePositions {
+
+    private static final char SEPARATOR = ':';
+
+    private KinesisSubSequencePositions() {
+    }
+
+    static String positionOf(final String sequenceNumber, final int subSequenceNumber) {
+        return sequenceNumber + SEPARATOR + subSequenceNumber;
+    }
+
+    /**
+     * @param position the position of a message
+     * @return the sequence number of the Kinesis record containing the message
+     */
+    static String sequenceNumberOf(final String position) {
+        final int separator = position.indexOf(SEPARATOR);
+        return separator < 0 ? position : position.substring(0, separator);
+    }
+
+    /**
+     * @param position the position of a message
+     * @return the index of the message in an aggregated record, or -1 if the message was not aggregated
+     */
+    static int subSequenceNumberOf(final String position) {
+        final int separator = position.indexOf(SEPARATOR);
+        return separator < 0 ? -1 : Integer.parseInt(position.substring(separator + 1));
+    }
+
+    static boolean hasSubSequenceNumber(final ShardPosition shardPosition) {
+        return (shardPosition.startFrom() == StartFrom.POSITION || shardPosition.startFrom() == StartFrom.AT_POSITION)
+                && shardPosition.position().indexOf(SEPARATOR) >= 0;
+    }
+
+    /**
+     * Returns the type of the shard iterator used to read a shard from a {@link StartFrom#POSITION} or
+     * {@link StartFrom#AT_POSITION} shard position.
+     */
+    static ShardIteratorType shardIteratorTypeOf(final ShardPosition shardPosition) {
+        return shardPosition.startFrom() == StartFrom.POSITION && !hasSubSequenceNumber(shardPosition)
+                ? ShardIteratorType.AFTER_SEQUENCE_NUMBER
+                : ShardIteratorType.AT_SEQUENCE_NUMBER;
+    }
+
+    /**
+     * Returns true, if the message is contained in the aggregated record of the shard position the shard was
+     * read from, and if it was already consumed before.
+     *
+     * @param readFrom the shard position used to start reading the shard
+     * @param message some message of the first response
+     * @return true if the message must be skipped, false otherwise
+     */
+    static boolean isConsumed(final ShardPosition readFrom, final TextMessage message) {
+        if (!hasSubSequenceNumber(readFrom)) {
+            return false;
+        }
+        final String position = message.getHeader().getShardPosition()
+                .map(ShardPosition::position)
+                .orElse(null);
+        if (position == null || !sequenceNumberOf(position).equals(sequenceNumberOf(readFrom.position()))) {
+            return false;
+        }
+        final int subSequenceNumber = subSequenceNumberOf(position);
+        final int readFromSubSequenceNumber = subSequenceNumberOf(readFrom.position());
+        return readFrom.startFrom() == StartFrom.POSITION
+                ? subSequenceNumber <= readFromSubSequenceNumber
+                : subSequenceNumber < readFromSubSequenceNumber;
+    }
+}
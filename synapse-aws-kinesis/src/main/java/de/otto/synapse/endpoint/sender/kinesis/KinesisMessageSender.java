@@ -1,6 +1,8 @@
 package de.otto.synapse.endpoint.sender.kinesis;
 
-import com.google.common.collect.Lists;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Utf8;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.sender.AbstractMessageSenderEndpoint;
 import de.otto.synapse.message.TextMessage;
@@ -10,28 +12,78 @@ import org.slf4j.Logger;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
 
 import javax.annotation.Nonnull;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * Sender endpoint used to send messages to a Kinesis stream.
+ * <p>
+ *     Messages are sent asynchronously using {@code PutRecords}. The returned futures are completed, after all
+ *     records are confirmed by Kinesis. Records reported as failed by the response are retried using exponential
+ *     backoff with full jitter, until {@link #MAX_RETRIES} is exceeded.
+ * </p>
+ * <p>
+ *     A single PutRecords request contains at most one record per partition key. Multiple batches may be in
+ *     flight at the same time, but a batch containing a partition key of a batch that is still in flight is not
+ *     sent before the earlier batch is completed, including its retries. This way, the order of messages with the
+ *     same partition key is preserved, and only failed records are retried. As a consequence, many messages with
+ *     the same partition key are sent in sequential requests; enable the aggregation for such hot keys.
+ * </p>
+ * <p>
+ *     Delivery is <em>at-least-once</em>: if a request times out, or is retried by the AWS SDK after Kinesis
+ *     already stored some of its records, or if the response is not reporting the failed records, the records
+ *     are sent again and consumers may receive duplicates.
+ * </p>
+ * <p>
+ *     Optionally, messages with the same partition key are aggregated into a single Kinesis record, so many
+ *     small messages are not exhausting the limit of 1000 records per second and shard. Aggregated records are
+ *     expanded into single messages by the {@code KinesisDecoder}.
+ * </p>
+ */
 public class KinesisMessageSender extends AbstractMessageSenderEndpoint {
 
     private static final Logger LOG = getLogger(KinesisMessageSender.class);
 
     private static final int PUT_RECORDS_BATCH_SIZE = 500;
+    /** The maximum size of a PutRecords request, including data and partition keys of the records. */
+    private static final int PUT_RECORDS_REQUEST_SIZE = 5 * 1024 * 1024;
+    /** The maximum size of a Kinesis record, including the partition key. */
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
     private static final int MAX_RETRIES = 15;
-    private static final long RETRY_DELAY_MS = 1000L;
+    private static final Duration DEFAULT_BASE_RETRY_DELAY = Duration.ofMillis(200);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(5);
+    private static final ScheduledExecutorService SCHEDULER = newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("kinesis-message-sender-%d").setDaemon(true).build()
+    );
 
     private final KinesisAsyncClient kinesisAsyncClient;
     private final KinesisEncoder encoder;
+    private final Duration baseRetryDelay;
+    private final KinesisRecordAggregator aggregator;
+    /** The latest in-flight batch per partition key. Guarded by itself. */
+    private final Map<String, CompletableFuture<Void>> inFlightBatches = new HashMap<>();
 
     public KinesisMessageSender(final String channelName,
                                 final MessageInterceptorRegistry interceptorRegistry,
@@ -45,9 +97,50 @@ public class KinesisMessageSender extends AbstractMessageSenderEndpoint {
                                 final MessageTranslator<TextMessage> messageTranslator,
                                 final KinesisAsyncClient kinesisClient,
                                 final MessageFormat messageFormat) {
+        this(channelName, interceptorRegistry, messageTranslator, kinesisClient, messageFormat, 0, Duration.ZERO, DEFAULT_BASE_RETRY_DELAY);
+    }
+
+    /**
+     * Creates a KinesisMessageSender that is aggregating messages with the same partition key into single
+     * Kinesis records.
+     *
+     * @param channelName the name of the Kinesis stream
+     * @param interceptorRegistry registry used to intercept messages
+     * @param messageTranslator translator used to translate messages into TextMessages
+     * @param kinesisClient the Kinesis client
+     * @param messageFormat the format used to encode messages
+     * @param maxAggregatedRecordSize the maximum size of aggregated records in bytes; 0 disables the aggregation
+     * @param aggregationLingerTime the maximum time messages are buffered before aggregated records are sent
+     */
+    public KinesisMessageSender(final String channelName,
+                                final MessageInterceptorRegistry interceptorRegistry,
+                                final MessageTranslator<TextMessage> messageTranslator,
+                                final KinesisAsyncClient kinesisClient,
+                                final MessageFormat messageFormat,
+                                final int maxAggregatedRecordSize,
+                                final Duration aggregationLingerTime) {
+        this(channelName, interceptorRegistry, messageTranslator, kinesisClient, messageFormat, maxAggregatedRecordSize, aggregationLingerTime, DEFAULT_BASE_RETRY_DELAY);
+    }
+
+    @VisibleForTesting
+    KinesisMessageSender(final String channelName,
+                         final MessageInterceptorRegistry interceptorRegistry,
+                         final MessageTranslator<TextMessage> messageTranslator,
+                         final KinesisAsyncClient kinesisClient,
+                         final MessageFormat messageFormat,
+                         final int maxAggregatedRecordSize,
+                         final Duration aggregationLingerTime,
+                         final Duration baseRetryDelay) {
         super(channelName, interceptorRegistry, messageTranslator);
+        if (maxAggregatedRecordSize > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("maxAggregatedRecordSize must not exceed " + MAX_RECORD_SIZE + " bytes");
+        }
         this.kinesisAsyncClient = kinesisClient;
         this.encoder = new KinesisEncoder(messageFormat);
+        this.baseRetryDelay = baseRetryDelay;
+        this.aggregator = maxAggregatedRecordSize > 0
+                ? new KinesisRecordAggregator(maxAggregatedRecordSize, aggregationLingerTime, encoder, this::sendRecords, SCHEDULER)
+                : null;
     }
 
     @Override
@@ -61,38 +154,144 @@ public class KinesisMessageSender extends AbstractMessageSenderEndpoint {
     protected CompletableFuture<Void> doSendBatch(@Nonnull Stream<TextMessage> messageStream) {
         // TODO: Introduce a response object and return it instead of Void
         // Just because we need a CompletableFuture<Void>, no CompletableFuture<SendMessageBatchResponse>:
-        final List<PutRecordsRequestEntry> entries = createPutRecordRequestEntries(messageStream);
-        if (!entries.isEmpty()) {
-            Lists.partition(entries, PUT_RECORDS_BATCH_SIZE)
-                    .forEach(this::blockingSendBatchWithRetries);
+        if (aggregator != null) {
+            final List<TextMessage> messages = messageStream.collect(toList());
+            return messages.isEmpty()
+                    ? completedFuture(null)
+                    : aggregator.aggregate(messages);
+        }
+        return sendRecords(createPutRecordRequestEntries(messageStream));
+    }
+
+    private CompletableFuture<Void> sendRecords(final List<PutRecordsRequestEntry> entries) {
+        if (entries.isEmpty()) {
+            return completedFuture(null);
         }
-        return CompletableFuture.completedFuture(null);
+        return allOf(partition(entries)
+                .stream()
+                .map(this::sendBatchInOrder)
+                .toArray(CompletableFuture[]::new));
     }
 
-    private void blockingSendBatchWithRetries(List<PutRecordsRequestEntry> batch) {
+    /**
+     * Splits the entries into batches, so that no PutRecords request is exceeding the maximum number of records,
+     * or the maximum size of a request. Every batch contains at most one entry per partition key, and later
+     * entries of a partition key are always contained in later batches.
+     */
+    @VisibleForTesting
+    static List<List<PutRecordsRequestEntry>> partition(final List<PutRecordsRequestEntry> entries) {
+        final List<List<PutRecordsRequestEntry>> batches = new ArrayList<>();
+        final List<Long> batchSizes = new ArrayList<>();
+        final Map<String, Integer> lastBatchOfPartitionKey = new HashMap<>();
+        int firstOpenBatch = 0;
+        for (final PutRecordsRequestEntry entry : entries) {
+            final long entrySize = entry.data().asByteBuffer().remaining() + Utf8.encodedLength(entry.partitionKey());
+            final Integer lastBatch = lastBatchOfPartitionKey.get(entry.partitionKey());
+            int index = lastBatch != null ? Math.max(lastBatch + 1, firstOpenBatch) : firstOpenBatch;
+            while (index < batches.size()
+                    && (batches.get(index).size() >= PUT_RECORDS_BATCH_SIZE || batchSizes.get(index) + entrySize > PUT_RECORDS_REQUEST_SIZE)) {
+                ++index;
+            }
+            if (index == batches.size()) {
+                batches.add(new ArrayList<>());
+                batchSizes.add(0L);
+            }
+            batches.get(index).add(entry);
+            batchSizes.set(index, batchSizes.get(index) + entrySize);
+            lastBatchOfPartitionKey.put(entry.partitionKey(), index);
+            while (firstOpenBatch < batches.size() && batches.get(firstOpenBatch).size() >= PUT_RECORDS_BATCH_SIZE) {
+                ++firstOpenBatch;
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Sends the batch, after all in-flight batches with the same partition keys are completed.
+     */
+    private CompletableFuture<Void> sendBatchInOrder(final List<PutRecordsRequestEntry> batch) {
+        final Set<String> partitionKeys = new HashSet<>();
+        batch.forEach(entry -> partitionKeys.add(entry.partitionKey()));
+        final CompletableFuture<Void> result;
+        synchronized (inFlightBatches) {
+            final CompletableFuture<?>[] predecessors = partitionKeys.stream()
+                    .map(inFlightBatches::get)
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .toArray(CompletableFuture[]::new);
+            result = predecessors.length == 0
+                    ? sendBatchWithRetries(batch, 0)
+                    : allOf(predecessors)
+                            // a failed predecessor is reported to its own caller; this batch is sent anyway:
+                            .handle((ignored, throwable) -> null)
+                            .thenCompose(ignored -> sendBatchWithRetries(batch, 0));
+            if (!result.isDone()) {
+                partitionKeys.forEach(partitionKey -> inFlightBatches.put(partitionKey, result));
+            }
+        }
+        result.whenComplete((ignored, throwable) -> {
+            synchronized (inFlightBatches) {
+                partitionKeys.forEach(partitionKey -> inFlightBatches.remove(partitionKey, result));
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Void> sendBatchWithRetries(final List<PutRecordsRequestEntry> batch, final int retry) {
+        final CompletableFuture<PutRecordsResponse> futureResponse;
         try {
-            int currentRetry = 0;
-            while (!blockingSendBatch(batch)) {
-                currentRetry++;
-                LOG.warn("retry to send batch of size '{}' to kinesis for nth time: {}", batch.size(), currentRetry);
-                if (currentRetry >= MAX_RETRIES) {
-                    throw new RetryLimitExceededException("Exceeded maximum number of retries.", MAX_RETRIES);
-                }
-                Thread.sleep(RETRY_DELAY_MS);
+            futureResponse = kinesisAsyncClient.putRecords(createPutRecordsRequest(batch));
+        } catch (final RuntimeException e) {
+            final CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return futureResponse.thenCompose(response -> {
+            if (response.failedRecordCount() == null || response.failedRecordCount() == 0) {
+                return completedFuture(null);
             }
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
+            final int currentRetry = retry + 1;
+            if (currentRetry >= MAX_RETRIES) {
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new RetryLimitExceededException("Exceeded maximum number of retries.", MAX_RETRIES));
+                return failed;
+            }
+            final List<PutRecordsRequestEntry> retryEntries = entriesToRetry(batch, response);
+            LOG.warn("retry to send {} of {} records to kinesis for nth time: {}", retryEntries.size(), batch.size(), currentRetry);
+            return delay(retryDelay(currentRetry))
+                    .thenCompose(ignored -> sendBatchWithRetries(retryEntries, currentRetry));
+        });
+    }
+
+    /**
+     * Returns the failed entries of a batch. Because a batch contains at most one entry per partition key, no
+     * entry accepted by Kinesis needs to be sent again to preserve the order of messages.
+     */
+    private List<PutRecordsRequestEntry> entriesToRetry(final List<PutRecordsRequestEntry> batch,
+                                                        final PutRecordsResponse response) {
+        final List<PutRecordsResultEntry> results = response.records();
+        if (results.size() != batch.size()) {
+            LOG.warn("Unable to determine failed records of PutRecordsResponse: retrying all {} records", batch.size());
+            return batch;
         }
+        final List<PutRecordsRequestEntry> retryEntries = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (results.get(i).errorCode() != null) {
+                retryEntries.add(batch.get(i));
+            }
+        }
+        return retryEntries.isEmpty() ? batch : retryEntries;
+    }
+
+    private Duration retryDelay(final int retry) {
+        final long maxDelay = Math.min(MAX_RETRY_DELAY.toMillis(), baseRetryDelay.toMillis() << Math.min(retry, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(maxDelay + 1));
     }
 
-    private boolean blockingSendBatch(List<PutRecordsRequestEntry> batch) throws ExecutionException, InterruptedException {
-        AtomicBoolean isSuccessful = new AtomicBoolean(true);
-        kinesisAsyncClient.putRecords(createPutRecordsRequest(batch))
-                .thenApply(response -> {
-                    isSuccessful.set(response.failedRecordCount() == 0);
-                    return response;
-                }).get();
-        return isSuccessful.get();
+    private static CompletableFuture<Void> delay(final Duration delay) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        SCHEDULER.schedule(() -> future.complete(null), delay.toMillis(), MILLISECONDS);
+        return future;
     }
 
     private PutRecordsRequest createPutRecordsRequest(final List<PutRecordsRequestEntry> batch) {
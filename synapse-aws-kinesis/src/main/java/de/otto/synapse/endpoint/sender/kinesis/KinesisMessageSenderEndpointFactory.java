@@ -6,28 +6,50 @@ import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.sender.MessageSenderEndpoint;
 import de.otto.synapse.endpoint.sender.MessageSenderEndpointFactory;
 import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.translator.MessageFormat;
 import de.otto.synapse.translator.MessageTranslator;
 import de.otto.synapse.translator.TextMessageTranslator;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 
 import javax.annotation.Nonnull;
+import java.time.Duration;
 
 public class KinesisMessageSenderEndpointFactory implements MessageSenderEndpointFactory {
 
     private final MessageInterceptorRegistry registry;
     private final MessageTranslator<TextMessage> messageTranslator;
     private final KinesisAsyncClient kinesisClient;
+    private final int maxAggregatedRecordSize;
+    private final Duration aggregationLingerTime;
 
     public KinesisMessageSenderEndpointFactory(final MessageInterceptorRegistry registry,
                                                final KinesisAsyncClient kinesisClient) {
+        this(registry, kinesisClient, 0, Duration.ZERO);
+    }
+
+    /**
+     * Creates a factory for KinesisMessageSenders that are aggregating messages with the same partition key into
+     * single Kinesis records.
+     *
+     * @param registry registry used to intercept messages
+     * @param kinesisClient the Kinesis client
+     * @param maxAggregatedRecordSize the maximum size of aggregated records in bytes; 0 disables the aggregation
+     * @param aggregationLingerTime the maximum time messages are buffered before aggregated records are sent
+     */
+    public KinesisMessageSenderEndpointFactory(final MessageInterceptorRegistry registry,
+                                               final KinesisAsyncClient kinesisClient,
+                                               final int maxAggregatedRecordSize,
+                                               final Duration aggregationLingerTime) {
         this.registry = registry;
         this.messageTranslator = new TextMessageTranslator();
         this.kinesisClient = kinesisClient;
+        this.maxAggregatedRecordSize = maxAggregatedRecordSize;
+        this.aggregationLingerTime = aggregationLingerTime;
     }
 
     @Override
     public MessageSenderEndpoint create(final @Nonnull String channelName) {
-        return new KinesisMessageSender(channelName, registry, messageTranslator, kinesisClient);
+        return new KinesisMessageSender(channelName, registry, messageTranslator, kinesisClient, MessageFormat.V1, maxAggregatedRecordSize, aggregationLingerTime);
     }
 
     @Override
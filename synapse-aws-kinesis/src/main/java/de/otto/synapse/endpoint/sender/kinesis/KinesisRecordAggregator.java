@@ -0,0 +1,164 @@
+package de.otto.synapse.endpoint.sender.kinesis;
+
+import com.google.common.base.Utf8;
+import de.otto.synapse.endpoint.kinesis.KinesisAggregatedRecord;
+import de.otto.synapse.message.TextMessage;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Aggregates messages with the same partition key into {@link KinesisAggregatedRecord aggregated records}.
+ * <p>
+ *     Messages are buffered for up to {@code lingerTime}, or until the aggregated record of the partition key
+ *     would exceed {@code maxRecordSize}. Messages that are too large to be aggregated, or records containing only
+ *     a single message, are sent as regular Kinesis records.
+ * </p>
+ * <p>
+ *     Records are handed over to the record sender in the order of the messages, so the order of messages with
+ *     the same partition key is preserved.
+ * </p>
+ */
+@ThreadSafe
+class KinesisRecordAggregator {
+
+    private final int maxRecordSize;
+    private final Duration lingerTime;
+    private final KinesisEncoder encoder;
+    private final Function<List<PutRecordsRequestEntry>, CompletableFuture<Void>> recordSender;
+    private final ScheduledExecutorService scheduler;
+    /** Pending aggregated records per partition key. Guarded by this. */
+    private final Map<String, PendingRecord> pendingRecords = new LinkedHashMap<>();
+    /** Guarded by this. */
+    private boolean flushScheduled;
+
+    KinesisRecordAggregator(final int maxRecordSize,
+                            final Duration lingerTime,
+                            final KinesisEncoder encoder,
+                            final Function<List<PutRecordsRequestEntry>, CompletableFuture<Void>> recordSender,
+                            final ScheduledExecutorService scheduler) {
+        this.maxRecordSize = maxRecordSize;
+        this.lingerTime = lingerTime;
+        this.encoder = encoder;
+        this.recordSender = recordSender;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds messages to the aggregated records of their partition keys.
+     *
+     * @param messages the messages to send
+     * @return future that is completed, when the records containing the messages are sent to Kinesis
+     */
+    synchronized CompletableFuture<Void> aggregate(final List<TextMessage> messages) {
+        final List<PendingRecord> completedRecords = new ArrayList<>();
+        final Set<CompletableFuture<Void>> futures = new LinkedHashSet<>();
+        for (final TextMessage message : messages) {
+            final PutRecordsRequestEntry entry = encoder.apply(message);
+            final String partitionKey = entry.partitionKey();
+            final String compactionKey = message.getKey().compactionKey();
+            final byte[] data = entry.data().asByteArray();
+            PendingRecord pendingRecord = pendingRecords.get(partitionKey);
+            if (pendingRecord != null && !pendingRecord.fits(compactionKey, data)) {
+                completedRecords.add(pendingRecords.remove(partitionKey));
+                pendingRecord = null;
+            }
+            if (pendingRecord == null) {
+                pendingRecord = new PendingRecord(partitionKey);
+                if (!pendingRecord.fits(compactionKey, data)) {
+                    // too large to be aggregated:
+                    pendingRecord.add(entry, compactionKey, data);
+                    completedRecords.add(pendingRecord);
+                    futures.add(pendingRecord.sent);
+                    continue;
+                }
+                pendingRecords.put(partitionKey, pendingRecord);
+            }
+            pendingRecord.add(entry, compactionKey, data);
+            futures.add(pendingRecord.sent);
+        }
+        if (lingerTime.isZero() || lingerTime.isNegative()) {
+            completedRecords.addAll(pendingRecords.values());
+            pendingRecords.clear();
+        } else if (!flushScheduled && !pendingRecords.isEmpty()) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, lingerTime.toMillis(), MILLISECONDS);
+        }
+        send(completedRecords);
+        return allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Sends all pending aggregated records.
+     */
+    synchronized void flush() {
+        flushScheduled = false;
+        final List<PendingRecord> completedRecords = new ArrayList<>(pendingRecords.values());
+        pendingRecords.clear();
+        send(completedRecords);
+    }
+
+    private void send(final List<PendingRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        final List<PutRecordsRequestEntry> entries = new ArrayList<>(records.size());
+        records.forEach(record -> entries.add(record.toEntry()));
+        recordSender.apply(entries).whenComplete((ignored, throwable) -> records.forEach(record -> {
+            if (throwable != null) {
+                record.sent.completeExceptionally(throwable);
+            } else {
+                record.sent.complete(null);
+            }
+        }));
+    }
+
+    private final class PendingRecord {
+        private final String partitionKey;
+        /** The size of the UTF-8 encoded partition key, that is counting against the maximum record size. */
+        private final int partitionKeySize;
+        private final KinesisAggregatedRecord.Builder builder = KinesisAggregatedRecord.builder();
+        private final CompletableFuture<Void> sent = new CompletableFuture<>();
+        private PutRecordsRequestEntry firstEntry;
+
+        private PendingRecord(final String partitionKey) {
+            this.partitionKey = partitionKey;
+            this.partitionKeySize = Utf8.encodedLength(partitionKey);
+        }
+
+        boolean fits(final String compactionKey, final byte[] data) {
+            return builder.sizeWith(compactionKey, data) + partitionKeySize <= maxRecordSize;
+        }
+
+        void add(final PutRecordsRequestEntry entry, final String compactionKey, final byte[] data) {
+            if (firstEntry == null) {
+                firstEntry = entry;
+            }
+            builder.add(compactionKey, data);
+        }
+
+        PutRecordsRequestEntry toEntry() {
+            if (builder.count() == 1) {
+                return firstEntry;
+            }
+            return PutRecordsRequestEntry.builder()
+                    .partitionKey(partitionKey)
+                    .data(SdkBytes.fromByteArray(builder.build()))
+                    .build();
+        }
+    }
+}
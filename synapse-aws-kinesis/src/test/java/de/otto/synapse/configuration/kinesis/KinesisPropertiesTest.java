@@ -0,0 +1,48 @@
+package de.otto.synapse.configuration.kinesis;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+public class KinesisPropertiesTest {
+
+    @Test
+    public void shouldUseConfiguredConsumerName() {
+        final KinesisProperties properties = new KinesisProperties("some-service");
+        properties.getEnhancedFanOut().setConsumerName("some-consumer");
+        assertThat(properties.getEnhancedFanOut().getConsumerName(), is("some-consumer"));
+    }
+
+    @Test
+    public void shouldDeriveConsumerNameFromApplicationName() {
+        final KinesisProperties properties = new KinesisProperties("some-service");
+        assertThat(properties.getEnhancedFanOut().getConsumerName(), startsWith("some-service-"));
+    }
+
+    @Test
+    public void shouldUseApplicationNameAsConsumerNamePrefix() {
+        final KinesisProperties properties = new KinesisProperties("some service");
+        assertThat(properties.getEnhancedFanOut().getConsumerNamePrefix(), is("some-service-"));
+        assertThat(properties.getEnhancedFanOut().getConsumerName(), startsWith("some-service-"));
+    }
+
+    @Test
+    public void shouldNotUseConsumerNamePrefixIfConsumerNameIsConfigured() {
+        final KinesisProperties properties = new KinesisProperties("some-service");
+        properties.getEnhancedFanOut().setConsumerName("some-consumer");
+        assertThat(properties.getEnhancedFanOut().getConsumerNamePrefix(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldAppendInstanceIdToDefaultConsumerName() {
+        assertThat(KinesisProperties.defaultConsumerName("some-service", "host:1"), is("some-service-host-1"));
+    }
+
+    @Test
+    public void shouldLimitLengthOfDefaultConsumerName() {
+        assertThat(KinesisProperties.defaultConsumerName(new String(new char[200]).replace('\0', 'x'), "host").length(), is(128));
+    }
+}
@@ -0,0 +1,57 @@
+package de.otto.synapse.endpoint.kinesis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class KinesisAggregatedRecordTest {
+
+    @Test
+    public void shouldEncodeAndDecodeAggregatedRecord() {
+        final byte[] record = KinesisAggregatedRecord.builder()
+                .add("first", "some päyload".getBytes(UTF_8))
+                .add("sëcond", new byte[0])
+                .add("third", "1:2:3".getBytes(UTF_8))
+                .build();
+
+        final List<KinesisAggregatedRecord.Entry> entries = KinesisAggregatedRecord.decode(record);
+
+        assertThat(KinesisAggregatedRecord.isAggregated(record), is(true));
+        assertThat(entries, contains(
+                new KinesisAggregatedRecord.Entry("first", "some päyload".getBytes(UTF_8)),
+                new KinesisAggregatedRecord.Entry("sëcond", new byte[0]),
+                new KinesisAggregatedRecord.Entry("third", "1:2:3".getBytes(UTF_8))));
+    }
+
+    @Test
+    public void shouldCalculateSizeOfAggregatedRecord() {
+        final KinesisAggregatedRecord.Builder builder = KinesisAggregatedRecord.builder()
+                .add("first", "some payload".getBytes(UTF_8));
+
+        final int expectedSize = builder.sizeWith("sëcond", "other payload".getBytes(UTF_8));
+
+        assertThat(builder.add("sëcond", "other payload".getBytes(UTF_8)).build().length, is(expectedSize));
+    }
+
+    @Test
+    public void shouldNotDetectRegularRecordAsAggregated() {
+        assertThat(KinesisAggregatedRecord.isAggregated("{\"some\":\"payload\"}".getBytes(UTF_8)), is(false));
+        assertThat(KinesisAggregatedRecord.isAggregated(new byte[0]), is(false));
+        assertThat(KinesisAggregatedRecord.isAggregated(null), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFailToDecodeTruncatedRecord() {
+        final byte[] record = KinesisAggregatedRecord.builder()
+                .add("first", "some payload".getBytes(UTF_8))
+                .build();
+
+        KinesisAggregatedRecord.decode(Arrays.copyOf(record, record.length - 1));
+    }
+}
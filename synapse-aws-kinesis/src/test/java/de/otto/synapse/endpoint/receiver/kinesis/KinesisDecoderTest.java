@@ -1,18 +1,26 @@
 package de.otto.synapse.endpoint.receiver.kinesis;
 
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.endpoint.kinesis.KinesisAggregatedRecord;
+import de.otto.synapse.message.Header;
 import de.otto.synapse.message.Key;
 import de.otto.synapse.message.Message;
+import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.translator.MessageFormat;
+import de.otto.synapse.translator.TextEncoder;
 import org.junit.Test;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kinesis.model.Record;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.message.DefaultHeaderAttr.MSG_ARRIVAL_TS;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 
@@ -149,4 +157,75 @@ public class KinesisDecoderTest {
         assertThat(message.getHeader().getAsInstant(MSG_ARRIVAL_TS), is(now));
     }
 
+    @Test
+    public void shouldBuildKinesisMessageV3() {
+        final String encoded = new TextEncoder(MessageFormat.V3).apply(TextMessage.of(
+                Key.of("1", "2"),
+                Header.of(ImmutableMap.of("attr", "välue")),
+                "{\"some\":\"päyload\"}"));
+
+        final Instant now = Instant.now();
+        final Record record = Record.builder()
+                .partitionKey("42")
+                .data(SdkBytes.fromString(encoded, UTF_8))
+                .approximateArrivalTimestamp(now)
+                .sequenceNumber("00001")
+                .build();
+        final Message<String> message = decoder.apply(new RecordWithShard(
+                "some-shard",
+                record));
+        assertThat(message.getKey(), is(Key.of("1", "2")));
+        assertThat(message.getPayload(), is("{\"some\":\"päyload\"}"));
+        assertThat(message.getHeader().getAsInstant(MSG_ARRIVAL_TS), is(now));
+        assertThat(message.getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "00001"))));
+        assertThat(message.getHeader().get("attr"), is("välue"));
+    }
+
+    @Test
+    public void shouldDecodeAllMessagesOfAggregatedRecord() {
+        final byte[] aggregated = KinesisAggregatedRecord.builder()
+                .add("first", "some payload".getBytes(UTF_8))
+                .add("second", new TextEncoder(MessageFormat.V2).apply(TextMessage.of(Key.of("42", "second"), Header.of(ImmutableMap.of("attr", "value")), "other payload")).getBytes(UTF_8))
+                .add("third", new byte[0])
+                .build();
+        final Instant now = Instant.now();
+        final Record record = Record.builder()
+                .partitionKey("42")
+                .data(SdkBytes.fromByteArray(aggregated))
+                .approximateArrivalTimestamp(now)
+                .sequenceNumber("00001")
+                .build();
+
+        final List<TextMessage> messages = decoder.decodeAll(new RecordWithShard("some-shard", record));
+
+        assertThat(messages, hasSize(3));
+        assertThat(messages.get(0).getKey(), is(Key.of("42", "first")));
+        assertThat(messages.get(0).getPayload(), is("some payload"));
+        assertThat(messages.get(0).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "00001:0"))));
+        assertThat(messages.get(0).getHeader().getAsInstant(MSG_ARRIVAL_TS), is(now));
+        assertThat(messages.get(1).getKey(), is(Key.of("42", "second")));
+        assertThat(messages.get(1).getPayload(), is("other payload"));
+        assertThat(messages.get(1).getHeader().get("attr"), is("value"));
+        assertThat(messages.get(1).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "00001:1"))));
+        assertThat(messages.get(2).getKey(), is(Key.of("42", "third")));
+        assertThat(messages.get(2).getPayload(), is(nullValue()));
+        assertThat(messages.get(2).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "00001:2"))));
+    }
+
+    @Test
+    public void shouldDecodeAllMessagesOfRegularRecord() {
+        final Record record = Record.builder()
+                .partitionKey("42")
+                .data(SdkBytes.fromString("some payload", UTF_8))
+                .approximateArrivalTimestamp(Instant.now())
+                .sequenceNumber("00001")
+                .build();
+
+        final List<TextMessage> messages = decoder.decodeAll(new RecordWithShard("some-shard", record));
+
+        assertThat(messages, hasSize(1));
+        assertThat(messages.get(0).getPayload(), is("some payload"));
+        assertThat(messages.get(0).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "00001"))));
+    }
+
 }
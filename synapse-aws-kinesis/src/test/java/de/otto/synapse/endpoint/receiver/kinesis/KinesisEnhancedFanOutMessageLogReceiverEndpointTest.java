@@ -0,0 +1,515 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.consumer.MessageConsumer;
+import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.message.TextMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.AFTER_SEQUENCE_NUMBER;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.TRIM_HORIZON;
+
+public class KinesisEnhancedFanOutMessageLogReceiverEndpointTest {
+
+    private static final Pattern MATCH_ALL = Pattern.compile(".*");
+
+    private final KinesisAsyncClient kinesisClient = mock(KinesisAsyncClient.class);
+    @SuppressWarnings("unchecked")
+    private final MessageConsumer<String> messageConsumer = mock(MessageConsumer.class);
+    private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+    private final List<List<SubscribeToShardEvent>> subscriptions = new ArrayList<>();
+    private final AtomicInteger nextSubscription = new AtomicInteger(0);
+    private final AtomicInteger failingSubscriptions = new AtomicInteger(0);
+    private RuntimeException subscriptionFailure = ResourceInUseException.builder().message("some failure").build();
+    /** Executor used to publish the events, like the event loop of the SDK. */
+    private Executor eventLoop = Runnable::run;
+
+    @Before
+    public void setUp() {
+        when(messageConsumer.keyPattern()).thenReturn(MATCH_ALL);
+        when(messageConsumer.payloadType()).thenReturn(String.class);
+        when(kinesisClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(completedFuture(DescribeStreamResponse.builder()
+                .streamDescription(StreamDescription.builder()
+                        .streamARN("some-stream-arn")
+                        .shards(Shard.builder()
+                                .shardId("shard1")
+                                .sequenceNumberRange(SequenceNumberRange.builder().startingSequenceNumber("0").build())
+                                .build())
+                        .hasMoreShards(false)
+                        .build())
+                .build()));
+        when(kinesisClient.subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class))).thenAnswer(invocation -> {
+            final SubscribeToShardResponseHandler handler = invocation.getArgument(1);
+            if (failingSubscriptions.getAndDecrement() > 0) {
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(subscriptionFailure);
+                return failed;
+            }
+            final int subscription = nextSubscription.getAndIncrement();
+            if (subscription >= subscriptions.size()) {
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(ResourceInUseException.builder().message("unexpected subscription").build());
+                return failed;
+            }
+            handler.responseReceived(SubscribeToShardResponse.builder().build());
+            handler.onEventStream(SdkPublisher.adapt(new EventPublisher(handler, subscriptions.get(subscription), eventLoop)));
+            return completedFuture(null);
+        });
+    }
+
+    @Test
+    public void shouldRegisterStreamConsumer() {
+        // given
+        final CompletableFuture<DescribeStreamConsumerResponse> notFound = new CompletableFuture<>();
+        notFound.completeExceptionally(ResourceNotFoundException.builder().message("not found").build());
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(notFound, completedFuture(activeConsumer()));
+        when(kinesisClient.registerStreamConsumer(any(RegisterStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(RegisterStreamConsumerResponse.builder().build()));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+
+        // when
+        final List<KinesisEnhancedFanOutShardReader> shardReaders = endpoint.getCurrentShardReaders();
+
+        // then
+        final ArgumentCaptor<RegisterStreamConsumerRequest> request = ArgumentCaptor.forClass(RegisterStreamConsumerRequest.class);
+        verify(kinesisClient).registerStreamConsumer(request.capture());
+        assertThat(request.getValue().streamARN(), is("some-stream-arn"));
+        assertThat(request.getValue().consumerName(), is("some-consumer"));
+        assertThat(shardReaders.get(0).getShardName(), is("shard1"));
+    }
+
+    @Test
+    public void shouldNotRegisterExistingStreamConsumer() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+
+        // when
+        endpoint.getCurrentShardReaders();
+
+        // then
+        verify(kinesisClient, never()).registerStreamConsumer(any(RegisterStreamConsumerRequest.class));
+    }
+
+    @Test
+    public void shouldConsumeMessagesUntilStopCondition() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        subscriptions.add(Arrays.asList(
+                someEvent(1000L, "2", someRecord("1", "blue"), someRecord("2", "green")),
+                someEvent(0L, "3"),
+                someEvent(0L, "4", someRecord("4", "red"))
+        ));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+        endpoint.register(messageConsumer);
+
+        // when
+        final ChannelPosition channelPosition = endpoint
+                .consumeUntil(fromHorizon(), response -> response.getDurationBehind().isZero())
+                .get(5, TimeUnit.SECONDS);
+
+        // then
+        final ArgumentCaptor<TextMessage> messages = ArgumentCaptor.forClass(TextMessage.class);
+        verify(messageConsumer, times(2)).accept(messages.capture());
+        assertThat(messages.getAllValues().get(0).getKey().partitionKey(), is("blue"));
+        assertThat(messages.getAllValues().get(1).getKey().partitionKey(), is("green"));
+        assertThat(channelPosition, is(channelPosition(fromPosition("shard1", "2"))));
+
+        final ArgumentCaptor<SubscribeToShardRequest> request = ArgumentCaptor.forClass(SubscribeToShardRequest.class);
+        verify(kinesisClient).subscribeToShard(request.capture(), any(SubscribeToShardResponseHandler.class));
+        assertThat(request.getValue().consumerARN(), is("some-consumer-arn"));
+        assertThat(request.getValue().shardId(), is("shard1"));
+        assertThat(request.getValue().startingPosition().type(), is(TRIM_HORIZON));
+    }
+
+    @Test
+    public void shouldResubscribeAtContinuationSequenceNumber() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        subscriptions.add(Arrays.asList(
+                someEvent(2000L, "1", someRecord("1", "blue")),
+                someEvent(1000L, "3")
+        ));
+        subscriptions.add(Arrays.asList(
+                someEvent(0L, "4", someRecord("4", "green"))
+        ));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+        endpoint.register(messageConsumer);
+
+        // when
+        final ChannelPosition channelPosition = endpoint
+                .consumeUntil(fromHorizon(), response -> response.getDurationBehind().isZero())
+                .get(5, TimeUnit.SECONDS);
+
+        // then
+        verify(messageConsumer, times(2)).accept(any(TextMessage.class));
+        assertThat(channelPosition, is(channelPosition(fromPosition("shard1", "4"))));
+
+        final ArgumentCaptor<SubscribeToShardRequest> requests = ArgumentCaptor.forClass(SubscribeToShardRequest.class);
+        verify(kinesisClient, times(2)).subscribeToShard(requests.capture(), any(SubscribeToShardResponseHandler.class));
+        final StartingPosition resubscription = requests.getAllValues().get(1).startingPosition();
+        assertThat(resubscription.type(), is(AFTER_SEQUENCE_NUMBER));
+        assertThat(resubscription.sequenceNumber(), is("3"));
+    }
+
+    @Test
+    public void shouldRetryFailedSubscription() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        failingSubscriptions.set(1);
+        subscriptions.add(Arrays.asList(
+                someEvent(0L, "1", someRecord("1", "blue"))
+        ));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+        endpoint.register(messageConsumer);
+
+        // when
+        final ChannelPosition channelPosition = endpoint
+                .consumeUntil(fromHorizon(), response -> response.getDurationBehind().isZero())
+                .get(5, TimeUnit.SECONDS);
+
+        // then
+        verify(kinesisClient, times(2)).subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class));
+        assertThat(channelPosition, is(channelPosition(fromPosition("shard1", "1"))));
+    }
+
+    @Test
+    public void shouldStopConsumingMessages() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        subscriptions.add(Arrays.asList(
+                someEvent(1000L, "1", someRecord("1", "blue")),
+                someEvent(1000L, "2", someRecord("2", "green"))
+        ));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+        final List<String> keys = new ArrayList<>();
+
+        // when
+        final ChannelPosition channelPosition = endpoint
+                .consumeUntil(fromHorizon(), response -> {
+                    response.getMessages().forEach(message -> keys.add(message.getKey().partitionKey()));
+                    endpoint.stop();
+                    return false;
+                })
+                .get(5, TimeUnit.SECONDS);
+
+        // then
+        assertThat(keys, contains("blue"));
+        assertThat(channelPosition, is(channelPosition(fromPosition("shard1", "1"))));
+    }
+
+    @Test
+    public void shouldConsumeResponsesOutsideOfEventLoop() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        eventLoop = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("event-loop").build());
+        subscriptions.add(Arrays.asList(
+                someEvent(1000L, "1", someRecord("1", "blue")),
+                someEvent(0L, "2", someRecord("2", "green"))
+        ));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+        final List<String> threadNames = new ArrayList<>();
+
+        // when
+        endpoint
+                .consumeUntil(fromHorizon(), response -> {
+                    threadNames.add(Thread.currentThread().getName());
+                    return response.getDurationBehind().isZero();
+                })
+                .get(5, TimeUnit.SECONDS);
+
+        // then
+        assertThat(threadNames, hasSize(2));
+        assertThat(threadNames, not(hasItem("event-loop")));
+    }
+
+    @Test
+    public void shouldFailIfAnotherSubscriptionIsActive() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        failingSubscriptions.set(KinesisEnhancedFanOutShardReader.MAX_CONSECUTIVE_FAILURES);
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+
+        // when
+        try {
+            endpoint.consumeUntil(fromHorizon(), response -> false).get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (final ExecutionException e) {
+            // then
+            verify(kinesisClient, times(KinesisEnhancedFanOutShardReader.MAX_CONSECUTIVE_SUBSCRIPTIONS_IN_USE)).subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class));
+        }
+    }
+
+    @Test
+    public void shouldDeregisterStreamConsumerOnStop() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        when(kinesisClient.deregisterStreamConsumer(any(DeregisterStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(DeregisterStreamConsumerResponse.builder().build()));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+        endpoint.getCurrentShardReaders();
+
+        // when
+        endpoint.stop();
+
+        // then
+        final ArgumentCaptor<DeregisterStreamConsumerRequest> request = ArgumentCaptor.forClass(DeregisterStreamConsumerRequest.class);
+        verify(kinesisClient).deregisterStreamConsumer(request.capture());
+        assertThat(request.getValue().consumerARN(), is("some-consumer-arn"));
+    }
+
+    @Test
+    public void shouldWaitForDeregistrationOnStop() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()));
+        final CompletableFuture<DeregisterStreamConsumerResponse> deregistration = CompletableFuture.supplyAsync(() -> {
+            sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+            return DeregisterStreamConsumerResponse.builder().build();
+        });
+        when(kinesisClient.deregisterStreamConsumer(any(DeregisterStreamConsumerRequest.class)))
+                .thenReturn(deregistration);
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+        endpoint.getCurrentShardReaders();
+
+        // when
+        endpoint.stop();
+
+        // then
+        assertThat(deregistration.isDone(), is(true));
+    }
+
+    @Test
+    public void shouldDeregisterStaleConsumersOfServiceIfLimitOfConsumersIsReached() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(notFound(), completedFuture(activeConsumer()));
+        when(kinesisClient.registerStreamConsumer(any(RegisterStreamConsumerRequest.class)))
+                .thenReturn(limitExceeded(), completedFuture(RegisterStreamConsumerResponse.builder().build()));
+        when(kinesisClient.listStreamConsumers(any(ListStreamConsumersRequest.class)))
+                .thenReturn(completedFuture(streamConsumers(18, "some-stale-consumer", "some-other-stale-consumer")));
+        when(kinesisClient.deregisterStreamConsumer(any(DeregisterStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(DeregisterStreamConsumerResponse.builder().build()));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpointWithConsumerNamePrefix();
+
+        // when
+        endpoint.getCurrentShardReaders();
+
+        // then
+        final ArgumentCaptor<DeregisterStreamConsumerRequest> request = ArgumentCaptor.forClass(DeregisterStreamConsumerRequest.class);
+        verify(kinesisClient, times(2)).deregisterStreamConsumer(request.capture());
+        assertThat(request.getAllValues().stream().map(DeregisterStreamConsumerRequest::consumerARN).collect(toList()),
+                contains("some-stale-consumer-arn", "some-other-stale-consumer-arn"));
+        verify(kinesisClient, times(2)).registerStreamConsumer(any(RegisterStreamConsumerRequest.class));
+    }
+
+    @Test
+    public void shouldNotDeregisterConsumersIfRegistrationIsThrottled() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(notFound());
+        when(kinesisClient.registerStreamConsumer(any(RegisterStreamConsumerRequest.class)))
+                .thenReturn(limitExceeded());
+        when(kinesisClient.listStreamConsumers(any(ListStreamConsumersRequest.class)))
+                .thenReturn(completedFuture(streamConsumers(0, "some-stale-consumer")));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpointWithConsumerNamePrefix();
+
+        // when
+        try {
+            endpoint.getCurrentShardReaders();
+            fail("CompletionException expected");
+        } catch (final CompletionException e) {
+            // then
+            assertThat(e.getCause(), is(instanceOf(LimitExceededException.class)));
+            verify(kinesisClient, never()).deregisterStreamConsumer(any(DeregisterStreamConsumerRequest.class));
+        }
+    }
+
+    @Test
+    public void shouldRegisterStreamConsumerAgainIfItWasDeregistered() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(activeConsumer()), notFound(), completedFuture(activeConsumer("other-consumer-arn")));
+        when(kinesisClient.registerStreamConsumer(any(RegisterStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(RegisterStreamConsumerResponse.builder().build()));
+        subscriptionFailure = ResourceNotFoundException.builder().message("consumer not found").build();
+        failingSubscriptions.set(1);
+        subscriptions.add(Arrays.asList(
+                someEvent(0L, "1", someRecord("1", "blue"))
+        ));
+        final KinesisEnhancedFanOutMessageLogReceiverEndpoint endpoint = someEndpoint();
+
+        // when
+        endpoint
+                .consumeUntil(fromHorizon(), response -> response.getDurationBehind().isZero())
+                .get(5, TimeUnit.SECONDS);
+
+        // then
+        verify(kinesisClient).registerStreamConsumer(any(RegisterStreamConsumerRequest.class));
+        final ArgumentCaptor<SubscribeToShardRequest> request = ArgumentCaptor.forClass(SubscribeToShardRequest.class);
+        verify(kinesisClient, times(2)).subscribeToShard(request.capture(), any(SubscribeToShardResponseHandler.class));
+        assertThat(request.getAllValues().get(0).consumerARN(), is("some-consumer-arn"));
+        assertThat(request.getAllValues().get(1).consumerARN(), is("other-consumer-arn"));
+    }
+
+    private KinesisEnhancedFanOutMessageLogReceiverEndpoint someEndpointWithConsumerNamePrefix() {
+        return new KinesisEnhancedFanOutMessageLogReceiverEndpoint("some-channel", "some-consumer", "some-", new MessageInterceptorRegistry(), kinesisClient, executorService, null, null);
+    }
+
+    private static CompletableFuture<DescribeStreamConsumerResponse> notFound() {
+        final CompletableFuture<DescribeStreamConsumerResponse> notFound = new CompletableFuture<>();
+        notFound.completeExceptionally(ResourceNotFoundException.builder().message("not found").build());
+        return notFound;
+    }
+
+    private static CompletableFuture<RegisterStreamConsumerResponse> limitExceeded() {
+        final CompletableFuture<RegisterStreamConsumerResponse> limitExceeded = new CompletableFuture<>();
+        limitExceeded.completeExceptionally(LimitExceededException.builder().message("limit exceeded").build());
+        return limitExceeded;
+    }
+
+    private static ListStreamConsumersResponse streamConsumers(final int numberOfOtherConsumers,
+                                                               final String... consumersOfService) {
+        final List<Consumer> consumers = new ArrayList<>();
+        for (int i = 0; i < numberOfOtherConsumers; i++) {
+            consumers.add(Consumer.builder().consumerName("other-service-" + i).consumerARN("other-service-" + i + "-arn").build());
+        }
+        for (final String consumerName : consumersOfService) {
+            consumers.add(Consumer.builder().consumerName(consumerName).consumerARN(consumerName + "-arn").build());
+        }
+        return ListStreamConsumersResponse.builder().consumers(consumers).build();
+    }
+
+    private KinesisEnhancedFanOutMessageLogReceiverEndpoint someEndpoint() {
+        return new KinesisEnhancedFanOutMessageLogReceiverEndpoint("some-channel", "some-consumer", new MessageInterceptorRegistry(), kinesisClient, executorService, null);
+    }
+
+    private DescribeStreamConsumerResponse activeConsumer() {
+        return activeConsumer("some-consumer-arn");
+    }
+
+    private DescribeStreamConsumerResponse activeConsumer(final String consumerArn) {
+        return DescribeStreamConsumerResponse.builder()
+                .consumerDescription(ConsumerDescription.builder()
+                        .consumerName("some-consumer")
+                        .consumerARN(consumerArn)
+                        .consumerStatus(ConsumerStatus.ACTIVE)
+                        .build())
+                .build();
+    }
+
+    private SubscribeToShardEvent someEvent(final long millisBehindLatest,
+                                            final String continuationSequenceNumber,
+                                            final Record... records) {
+        return SubscribeToShardEvent.builder()
+                .millisBehindLatest(millisBehindLatest)
+                .continuationSequenceNumber(continuationSequenceNumber)
+                .records(records)
+                .build();
+    }
+
+    private Record someRecord(final String sequenceNumber, final String data) {
+        return Record.builder()
+                .partitionKey(data)
+                .approximateArrivalTimestamp(Instant.now())
+                .data(SdkBytes.fromByteArray(("{\"data\":\"" + data + "\"}").getBytes(UTF_8)))
+                .sequenceNumber(sequenceNumber)
+                .build();
+    }
+
+    /**
+     * Publishes the events of a single subscription on request, and completes the subscription after the
+     * last event, just like Kinesis is closing a subscription after five minutes.
+     */
+    private static class EventPublisher implements Publisher<SubscribeToShardEventStream> {
+        private final SubscribeToShardResponseHandler handler;
+        private final Iterator<SubscribeToShardEvent> events;
+        private final Executor eventLoop;
+
+        private EventPublisher(final SubscribeToShardResponseHandler handler,
+                               final List<SubscribeToShardEvent> events,
+                               final Executor eventLoop) {
+            this.handler = handler;
+            this.events = events.iterator();
+            this.eventLoop = eventLoop;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super SubscribeToShardEventStream> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private boolean cancelled;
+
+                @Override
+                public void request(final long n) {
+                    eventLoop.execute(() -> {
+                        for (long i = 0; i < n && !cancelled; i++) {
+                            if (events.hasNext()) {
+                                subscriber.onNext(events.next());
+                            } else {
+                                subscriber.onComplete();
+                                handler.complete();
+                                return;
+                            }
+                        }
+                    });
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
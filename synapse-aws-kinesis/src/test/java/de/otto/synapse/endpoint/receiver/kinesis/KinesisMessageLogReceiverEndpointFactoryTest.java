@@ -1,5 +1,6 @@
 package de.otto.synapse.endpoint.receiver.kinesis;
 
+import com.google.common.collect.ImmutableSet;
 import de.otto.synapse.endpoint.MessageInterceptor;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
@@ -8,6 +9,7 @@ import org.springframework.context.ApplicationEventPublisher;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.*;
 
+import java.time.Clock;
 import java.util.concurrent.ExecutorService;
 
 import static de.otto.synapse.endpoint.MessageInterceptorRegistration.*;
@@ -37,6 +39,24 @@ public class KinesisMessageLogReceiverEndpointFactoryTest {
         assertThat(endpoint.getMessageDispatcher(), is(notNullValue()));
     }
 
+    @Test
+    public void shouldBuildEnhancedFanOutEventSourceForConfiguredChannels() {
+        // given
+        final KinesisMessageLogReceiverEndpointFactory factory = new KinesisMessageLogReceiverEndpointFactory(registry, kinesisClient, executorService, eventPublisher, Clock.systemDefaultZone(), null, ImmutableSet.of("some-channel"), "some-consumer");
+        // when
+        final MessageLogReceiverEndpoint endpoint = factory.create("some-channel");
+        final MessageLogReceiverEndpoint otherEndpoint = factory.create("some-other-channel");
+        // then
+        assertThat(endpoint, is(instanceOf(KinesisEnhancedFanOutMessageLogReceiverEndpoint.class)));
+        assertThat(endpoint.getChannelName(), is("some-channel"));
+        assertThat(otherEndpoint, is(instanceOf(KinesisMessageLogReceiverEndpoint.class)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireConsumerNameForEnhancedFanOut() {
+        new KinesisMessageLogReceiverEndpointFactory(registry, kinesisClient, executorService, eventPublisher, Clock.systemDefaultZone(), null, ImmutableSet.of("some-channel"), null);
+    }
+
     @Test
     public void shouldRegisterInterceptors() {
         // given
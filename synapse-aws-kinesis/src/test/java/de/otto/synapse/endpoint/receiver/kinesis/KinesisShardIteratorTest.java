@@ -1,12 +1,14 @@
 package de.otto.synapse.endpoint.receiver.kinesis;
 
 import de.otto.synapse.channel.ShardResponse;
+import de.otto.synapse.endpoint.kinesis.KinesisAggregatedRecord;
 import de.otto.synapse.message.Key;
 import de.otto.synapse.message.Message;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
+import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.*;
 
@@ -15,6 +17,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 
 import static de.otto.synapse.channel.ShardPosition.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.time.Instant.now;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
@@ -263,6 +266,50 @@ public class KinesisShardIteratorTest {
     }
 
 
+    @Test
+    public void shouldSkipConsumedMessagesOfAggregatedRecord() {
+        // given
+        final Record aggregatedRecord = builder()
+                .sequenceNumber("42")
+                .partitionKey("someKey")
+                .approximateArrivalTimestamp(now())
+                .data(SdkBytes.fromByteArray(KinesisAggregatedRecord.builder()
+                        .add("first", "1".getBytes(UTF_8))
+                        .add("second", "2".getBytes(UTF_8))
+                        .add("third", "3".getBytes(UTF_8))
+                        .build()))
+                .build();
+        final Record nextRecord = builder()
+                .sequenceNumber("43")
+                .partitionKey("someKey")
+                .approximateArrivalTimestamp(now())
+                .data(SdkBytes.fromString("4", UTF_8))
+                .build();
+        final KinesisAsyncClient kinesisClient = someKinesisClient();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(completedFuture(GetRecordsResponse.builder()
+                .records(aggregatedRecord, nextRecord)
+                .nextShardIterator("nextShardIterator")
+                .millisBehindLatest(0L)
+                .build()));
+
+        // when
+        final KinesisShardIterator iterator = new KinesisShardIterator(kinesisClient, "someChannel", fromPosition("someShard", "42:1"));
+        final ShardResponse shardResponse = iterator.next();
+
+        // then
+        verify(kinesisClient).getShardIterator(GetShardIteratorRequest.builder()
+                .shardId("someShard")
+                .streamName("someChannel")
+                .shardIteratorType(ShardIteratorType.AT_SEQUENCE_NUMBER)
+                .startingSequenceNumber("42")
+                .build());
+        assertThat(shardResponse.getMessages(), hasSize(2));
+        assertThat(shardResponse.getMessages().get(0).getPayload(), is("3"));
+        assertThat(shardResponse.getMessages().get(0).getHeader().getShardPosition().get(), is(fromPosition("someShard", "42:2")));
+        assertThat(shardResponse.getMessages().get(1).getPayload(), is("4"));
+        assertThat(iterator.getShardPosition(), is(fromPosition("someShard", "43")));
+    }
+
     private static KinesisAsyncClient someKinesisClient() {
         final KinesisAsyncClient kinesisClient = mock(KinesisAsyncClient.class);
         when(kinesisClient.getShardIterator(any(GetShardIteratorRequest.class))).thenReturn(completedFuture(GetShardIteratorResponse
@@ -0,0 +1,142 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ShardResponse;
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.TextMessage;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardResponse.shardResponse;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisShardIterator.FETCH_RECORDS_LIMIT;
+import static de.otto.synapse.endpoint.receiver.kinesis.KinesisShardPollingPolicy.MIN_FETCH_LIMIT;
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class KinesisShardPollingPolicyTest {
+
+    @Test
+    public void shouldNotWaitWhileCatchingUp() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+
+        assertThat(policy.waitingTimeAfter(someResponse(ofSeconds(5), 10), 1000), is(Duration.ZERO));
+    }
+
+    @Test
+    public void shouldNotWaitAfterFullResponse() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 100), 100), is(Duration.ZERO));
+    }
+
+    @Test
+    public void shouldIncreaseWaitingTimeForEmptyResponses() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(5000);
+
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000), is(ofMillis(1000)));
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000), is(ofMillis(2000)));
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000), is(ofMillis(4000)));
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000), is(ofMillis(5000)));
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000), is(ofMillis(5000)));
+    }
+
+    @Test
+    public void shouldResetWaitingTimeAfterReceivingMessages() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+        policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000);
+        policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000);
+
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 1), 1000), is(ofMillis(1000)));
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000), is(ofMillis(1000)));
+    }
+
+    @Test
+    public void shouldWaitAtLeastOneSecondIfUpToDate() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 10), 1000), is(ofSeconds(1)));
+        }
+    }
+
+    @Test
+    public void shouldNotWaitLongerThanConfiguredWaitingTime() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(100);
+
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 10), 1000), is(ofMillis(100)));
+        assertThat(policy.waitingTimeAfter(someResponse(Duration.ZERO, 0), 1000), is(ofMillis(100)));
+    }
+
+    @Test
+    public void shouldBackOffThrottledRequests() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+
+        assertThat(policy.waitingTimeAfterThrottling(), is(ofMillis(200)));
+        assertThat(policy.waitingTimeAfterThrottling(), is(ofMillis(400)));
+        policy.waitingTimeAfter(someResponse(Duration.ZERO, 1), 1000);
+        assertThat(policy.waitingTimeAfterThrottling(), is(ofMillis(200)));
+    }
+
+    @Test
+    public void shouldDecreaseFetchLimitForSlowProcessing() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+
+        policy.processed(someResponse(Duration.ZERO, 1000), ofSeconds(10));
+
+        assertThat(policy.fetchLimit(), is((FETCH_RECORDS_LIMIT + 100) / 2));
+    }
+
+    @Test
+    public void shouldNotDecreaseFetchLimitBelowMinimum() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+
+        for (int i = 0; i < 20; i++) {
+            policy.processed(someResponse(Duration.ZERO, 10), ofSeconds(10));
+        }
+
+        assertThat(policy.fetchLimit(), is(MIN_FETCH_LIMIT));
+    }
+
+    @Test
+    public void shouldLimitFetchLimitByRecordSize() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+        final String largePayload = new String(new char[1024 * 1024]);
+
+        for (int i = 0; i < 20; i++) {
+            policy.processed(shardResponse(fromHorizon("some-shard"), Duration.ZERO, ImmutableList.of(TextMessage.of(Key.of("some-key"), largePayload))), ofMillis(1));
+        }
+
+        assertThat(policy.fetchLimit(), is(MIN_FETCH_LIMIT));
+    }
+
+    @Test
+    public void shouldIncreaseFetchLimitForFastProcessing() {
+        final KinesisShardPollingPolicy policy = new KinesisShardPollingPolicy(10000);
+        for (int i = 0; i < 20; i++) {
+            policy.processed(someResponse(Duration.ZERO, 10), ofSeconds(10));
+        }
+        assertThat(policy.fetchLimit(), is(lessThan(FETCH_RECORDS_LIMIT)));
+
+        for (int i = 0; i < 20; i++) {
+            policy.processed(someResponse(Duration.ZERO, 1000), ofMillis(10));
+        }
+
+        assertThat(policy.fetchLimit(), is(FETCH_RECORDS_LIMIT));
+    }
+
+    private ShardResponse someResponse(final Duration durationBehind, final int numberOfMessages) {
+        return shardResponse(
+                fromHorizon("some-shard"),
+                durationBehind,
+                IntStream.range(0, numberOfMessages)
+                        .mapToObj(i -> TextMessage.of(Key.of(String.valueOf(i)), "some payload"))
+                        .collect(toImmutableList()));
+    }
+}
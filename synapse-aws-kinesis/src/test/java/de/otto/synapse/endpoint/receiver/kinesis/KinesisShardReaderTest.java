@@ -17,6 +17,7 @@ import software.amazon.awssdk.services.kinesis.model.*;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
@@ -31,6 +32,7 @@ import static de.otto.synapse.channel.StopCondition.*;
 import static java.time.Duration.ofMillis;
 import static java.time.Instant.now;
 import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
@@ -307,4 +309,58 @@ public class KinesisShardReaderTest {
 
         assertEquals(argumentCaptor.getValue().shardIteratorType(), ShardIteratorType.AT_TIMESTAMP);
     }
+
+    @Test
+    public void shouldPrefetchNextRecordsWhileCatchingUp() throws ExecutionException, InterruptedException {
+        // given
+        final GetRecordsResponse response1 = GetRecordsResponse.builder()
+                .records(Record.builder().sequenceNumber("1").approximateArrivalTimestamp(now()).partitionKey("first").build())
+                .nextShardIterator("nextShardIterator")
+                .millisBehindLatest(60000L)
+                .build();
+        final GetRecordsResponse response2 = GetRecordsResponse.builder()
+                .records(Record.builder().sequenceNumber("2").approximateArrivalTimestamp(now()).partitionKey("second").build())
+                .nextShardIterator("nextShardIterator")
+                .millisBehindLatest(60000L)
+                .build();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(
+                completedFuture(response1),
+                completedFuture(response2));
+        final List<Integer> numberOfRequestsWhenConsumed = new ArrayList<>();
+        doAnswer(invocation -> numberOfRequestsWhenConsumed.add(mockingDetails(kinesisClient).getInvocations().stream()
+                .filter(i -> i.getMethod().getName().equals("getRecords"))
+                .mapToInt(i -> 1)
+                .sum()))
+                .when(consumer).accept(any(ShardResponse.class));
+
+        // when
+        final ShardPosition shardPosition = kinesisShardReader.consumeUntil(fromHorizon("someShard"), response -> response.getShardPosition().position().equals("1"), consumer).get();
+
+        // then
+        assertThat(numberOfRequestsWhenConsumed, is(asList(2)));
+        assertThat(shardPosition, is(fromPosition("someShard", "1")));
+    }
+
+    @Test
+    public void shouldRetryThrottledRequests() throws ExecutionException, InterruptedException {
+        // given
+        final CompletableFuture<GetRecordsResponse> throttled = new CompletableFuture<>();
+        throttled.completeExceptionally(ProvisionedThroughputExceededException.builder().message("Rate exceeded").build());
+        final GetRecordsResponse response = GetRecordsResponse.builder()
+                .records(Record.builder().sequenceNumber("1").approximateArrivalTimestamp(now()).partitionKey("first").build())
+                .nextShardIterator("nextShardIterator")
+                .millisBehindLatest(0L)
+                .build();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(
+                throttled,
+                completedFuture(response));
+
+        // when
+        final ShardPosition shardPosition = kinesisShardReader.consumeUntil(fromHorizon("someShard"), endOfChannel(), consumer).get();
+
+        // then
+        verify(kinesisClient, times(2)).getRecords(any(GetRecordsRequest.class));
+        verify(consumer).accept(any(ShardResponse.class));
+        assertThat(shardPosition, is(fromPosition("someShard", "1")));
+    }
 }
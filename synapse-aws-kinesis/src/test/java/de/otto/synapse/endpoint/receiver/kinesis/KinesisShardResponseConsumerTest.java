@@ -0,0 +1,116 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import de.otto.synapse.consumer.BulkLoadingMessageConsumer;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.message.TextMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.channel.ShardResponse.shardResponse;
+import static de.otto.synapse.endpoint.MessageInterceptorRegistration.matchingChannelsWith;
+import static de.otto.synapse.message.Header.of;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KinesisShardResponseConsumerTest {
+
+    private static final TextMessage FIRST = TextMessage.of("first", of(fromPosition("some-shard", "1")), "{}");
+    private static final TextMessage SECOND = TextMessage.of("second", of(fromPosition("some-shard", "2")), "{}");
+
+    private MessageInterceptorRegistry interceptorRegistry;
+    private MessageDispatcher messageDispatcher;
+    private KinesisShardResponseConsumer consumer;
+
+    @Before
+    public void setUp() {
+        interceptorRegistry = new MessageInterceptorRegistry();
+        messageDispatcher = mock(MessageDispatcher.class);
+        consumer = new KinesisShardResponseConsumer("test", singletonList("some-shard"), interceptorRegistry, messageDispatcher, null);
+    }
+
+    @Test
+    public void shouldDispatchMessagesOneByOneIfBulkLoadingIsNotSupported() {
+        // given
+        when(messageDispatcher.supportsBulkLoading()).thenReturn(false);
+        // when
+        consumer.accept(shardResponse(fromPosition("some-shard", "2"), Duration.ZERO, FIRST, SECOND));
+        // then
+        verify(messageDispatcher).accept(FIRST);
+        verify(messageDispatcher).accept(SECOND);
+        verify(messageDispatcher, never()).acceptAll(anyList());
+    }
+
+    @Test
+    public void shouldDispatchMessagesAsBatchIfBulkLoadingIsSupported() {
+        // given
+        when(messageDispatcher.supportsBulkLoading()).thenReturn(true);
+        // when
+        consumer.accept(shardResponse(fromPosition("some-shard", "2"), Duration.ZERO, FIRST, SECOND));
+        // then
+        verify(messageDispatcher).acceptAll(asList(FIRST, SECOND));
+        verify(messageDispatcher, never()).accept(any(TextMessage.class));
+    }
+
+    @Test
+    public void shouldNotDispatchMessagesDroppedByInterceptor() {
+        // given
+        when(messageDispatcher.supportsBulkLoading()).thenReturn(true);
+        interceptorRegistry.register(matchingChannelsWith("test",
+                message -> message.getKey().compactionKey().equals("first") ? null : message));
+        // when
+        consumer.accept(shardResponse(fromPosition("some-shard", "2"), Duration.ZERO, FIRST, SECOND));
+        // then
+        verify(messageDispatcher).acceptAll(singletonList(SECOND));
+    }
+
+    @Test
+    public void shouldDispatchMessagesOneByOneOnlyToConsumersFailingToAcceptBatch() {
+        // given
+        final BulkLoadingMessageConsumer<String> succeeding = bulkLoadingConsumer();
+        final BulkLoadingMessageConsumer<String> failing = bulkLoadingConsumer();
+        doThrow(new IllegalStateException("some error")).when(failing).acceptAll(anyList());
+        doThrow(new IllegalStateException("some error")).when(failing).accept(FIRST);
+        consumer = new KinesisShardResponseConsumer("test", singletonList("some-shard"), interceptorRegistry,
+                new MessageDispatcher(asList(succeeding, failing)), null);
+        // when
+        consumer.accept(shardResponse(fromPosition("some-shard", "2"), Duration.ZERO, FIRST, SECOND));
+        // then
+        verify(succeeding).acceptAll(asList(FIRST, SECOND));
+        verify(succeeding, never()).accept(any());
+        verify(failing).accept(FIRST);
+        verify(failing).accept(SECOND);
+    }
+
+    @Test
+    public void shouldDispatchMessagesOneByOneIfBulkLoadingIsNotSupportedAnymore() {
+        // given
+        when(messageDispatcher.supportsBulkLoading()).thenReturn(true);
+        doThrow(new IllegalStateException("some error")).when(messageDispatcher).acceptAll(anyList());
+        doThrow(new IllegalStateException("some error")).when(messageDispatcher).accept(FIRST);
+        // when
+        consumer.accept(shardResponse(fromPosition("some-shard", "2"), Duration.ZERO, FIRST, SECOND));
+        // then
+        verify(messageDispatcher).accept(FIRST);
+        verify(messageDispatcher).accept(SECOND);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BulkLoadingMessageConsumer<String> bulkLoadingConsumer() {
+        final BulkLoadingMessageConsumer<String> bulkLoadingConsumer = mock(BulkLoadingMessageConsumer.class);
+        when(bulkLoadingConsumer.keyPattern()).thenReturn(Pattern.compile(".*"));
+        when(bulkLoadingConsumer.payloadType()).thenReturn(String.class);
+        return bulkLoadingConsumer;
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import com.google.common.collect.ImmutableMap;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.endpoint.kinesis.KinesisAggregatedRecord;
 import de.otto.synapse.message.Header;
 import de.otto.synapse.message.Key;
 import de.otto.synapse.message.Message;
@@ -19,6 +20,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
@@ -26,8 +28,13 @@ import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -39,10 +46,15 @@ import static de.otto.synapse.translator.MessageFormat.SYNAPSE_MSG_HEADERS;
 import static de.otto.synapse.translator.MessageFormat.SYNAPSE_MSG_PAYLOAD;
 import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
 import static java.lang.String.valueOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -61,7 +73,7 @@ public class KinesisMessageSenderV2Test {
     @Before
     public void setUp() {
         interceptorRegistry = new MessageInterceptorRegistry();
-        kinesisMessageSender = new KinesisMessageSender("test", interceptorRegistry, messageTranslator, kinesisClient, MessageFormat.V2);
+        kinesisMessageSender = new KinesisMessageSender("test", interceptorRegistry, messageTranslator, kinesisClient, MessageFormat.V2, 0, Duration.ZERO, Duration.ofMillis(1));
     }
 
     @Test
@@ -416,8 +428,116 @@ public class KinesisMessageSenderV2Test {
 
     }
 
-    @Test(expected = RetryLimitExceededException.class)
-    public void shouldThrowRetryLimitExceededExceptionOnTooManyRetriesForBatch() {
+    @Test
+    public void shouldRetryOnlyFailedRecords() {
+        // given
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class)))
+                .thenReturn(completedFuture(PutRecordsResponse.builder()
+                        .failedRecordCount(2)
+                        .records(
+                                successfulRecord(),
+                                failedRecord(),
+                                successfulRecord(),
+                                failedRecord())
+                        .build()))
+                .thenReturn(completedFuture(PutRecordsResponse.builder()
+                        .failedRecordCount(0)
+                        .records(successfulRecord(), successfulRecord())
+                        .build()));
+
+        // when
+        kinesisMessageSender.sendBatch(someEvents(4)).join();
+
+        // then
+        verify(kinesisClient, times(2)).putRecords(putRecordsRequestCaptor.capture());
+        final PutRecordsRequest retriedRequest = putRecordsRequestCaptor.getAllValues().get(1);
+        assertThat(partitionKeysOf(retriedRequest), contains("1", "3"));
+    }
+
+    @Test
+    public void shouldNotRetryAcceptedRecordsWithSamePartitionKeyAsFailedRecord() {
+        // given
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class)))
+                .thenReturn(completedFuture(PutRecordsResponse.builder()
+                        .failedRecordCount(1)
+                        .records(
+                                failedRecord(),
+                                successfulRecord())
+                        .build()))
+                .thenReturn(completedFuture(PutRecordsResponse.builder()
+                        .failedRecordCount(0)
+                        .records(successfulRecord())
+                        .build()));
+
+        // when
+        kinesisMessageSender.sendBatch(Stream.of(
+                message("someKey", "first"),
+                message("otherKey", "other"),
+                message("someKey", "second"))).join();
+
+        // then
+        verify(kinesisClient, times(3)).putRecords(putRecordsRequestCaptor.capture());
+        final List<PutRecordsRequest> requests = putRecordsRequestCaptor.getAllValues();
+        assertThat(partitionKeysOf(requests.get(0)), contains("someKey", "otherKey"));
+        assertThat(payloadsOf(requests.get(1)), is(singletonList("first")));
+        assertThat(payloadsOf(requests.get(2)), is(singletonList("second")));
+    }
+
+    @Test
+    public void shouldNotCompleteBeforeDeliveryIsConfirmed() {
+        // given
+        final CompletableFuture<PutRecordsResponse> response = new CompletableFuture<>();
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(response);
+
+        // when
+        final CompletableFuture<Void> result = kinesisMessageSender.send(message("someKey", null));
+
+        // then
+        assertThat(result.isDone(), is(false));
+        response.complete(PutRecordsResponse.builder().failedRecordCount(0).records(successfulRecord()).build());
+        assertThat(result.isDone(), is(true));
+    }
+
+    @Test
+    public void shouldSendBatchesWithDifferentPartitionKeysConcurrently() {
+        // given
+        final CompletableFuture<PutRecordsResponse> firstResponse = new CompletableFuture<>();
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class)))
+                .thenReturn(firstResponse)
+                .thenReturn(completedFuture(PutRecordsResponse.builder().failedRecordCount(0).records(successfulRecord()).build()));
+
+        // when
+        final CompletableFuture<Void> first = kinesisMessageSender.send(message("someKey", null));
+        final CompletableFuture<Void> second = kinesisMessageSender.send(message("otherKey", null));
+
+        // then
+        verify(kinesisClient, times(2)).putRecords(any(PutRecordsRequest.class));
+        assertThat(first.isDone(), is(false));
+        assertThat(second.isDone(), is(true));
+    }
+
+    @Test
+    public void shouldSendBatchesWithSamePartitionKeyInOrder() {
+        // given
+        final CompletableFuture<PutRecordsResponse> firstResponse = new CompletableFuture<>();
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class)))
+                .thenReturn(firstResponse)
+                .thenReturn(completedFuture(PutRecordsResponse.builder().failedRecordCount(0).records(successfulRecord()).build()));
+
+        // when
+        final CompletableFuture<Void> first = kinesisMessageSender.send(message("someKey", "first"));
+        final CompletableFuture<Void> second = kinesisMessageSender.send(message("someKey", "second"));
+
+        // then
+        verify(kinesisClient, times(1)).putRecords(any(PutRecordsRequest.class));
+        firstResponse.complete(PutRecordsResponse.builder().failedRecordCount(0).records(successfulRecord()).build());
+        verify(kinesisClient, times(2)).putRecords(any(PutRecordsRequest.class));
+        assertThat(first.isDone(), is(true));
+        assertThat(second.isDone(), is(true));
+    }
+
+    @Test
+    public void shouldFailWithRetryLimitExceededExceptionOnTooManyRetriesForBatch() {
         // given
         when(kinesisClient.putRecords(any(PutRecordsRequest.class)))
                 .thenReturn(completedFuture(PutRecordsResponse.builder()
@@ -426,11 +546,18 @@ public class KinesisMessageSenderV2Test {
                         .build()));
 
         // when
-        kinesisMessageSender.sendBatch(someEvents(10)).join();
+        try {
+            kinesisMessageSender.sendBatch(someEvents(10)).join();
+            fail("expected CompletionException");
+        } catch (final CompletionException e) {
+            // then
+            assertThat(e.getCause(), is(instanceOf(RetryLimitExceededException.class)));
+        }
+        verify(kinesisClient, times(15)).putRecords(any(PutRecordsRequest.class));
     }
 
-    @Test(expected = RetryLimitExceededException.class)
-    public void shouldThrowRetryLimitExceededExceptionOnTooManyRetriesForSingleMessage() {
+    @Test
+    public void shouldFailWithRetryLimitExceededExceptionOnTooManyRetriesForSingleMessage() {
         // given
         when(kinesisClient.putRecords(any(PutRecordsRequest.class)))
                 .thenReturn(completedFuture(PutRecordsResponse.builder()
@@ -439,7 +566,210 @@ public class KinesisMessageSenderV2Test {
                         .build()));
 
         // when
-        kinesisMessageSender.send(message("someKey", null)).join();
+        try {
+            kinesisMessageSender.send(message("someKey", null)).join();
+            fail("expected CompletionException");
+        } catch (final CompletionException e) {
+            // then
+            assertThat(e.getCause(), is(instanceOf(RetryLimitExceededException.class)));
+        }
+    }
+
+    @Test
+    public void shouldAggregateMessagesWithSamePartitionKey() {
+        // given
+        final KinesisMessageSender aggregatingSender = new KinesisMessageSender("test", interceptorRegistry, messageTranslator, kinesisClient, MessageFormat.V1, 50 * 1024, Duration.ZERO, Duration.ofMillis(1));
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(completedFuture(PutRecordsResponse.builder()
+                .failedRecordCount(0)
+                .records(successfulRecord(), successfulRecord())
+                .build()));
+
+        // when
+        aggregatingSender.sendBatch(Stream.of(
+                message(Key.of("someKey", "first"), "1"),
+                message(Key.of("otherKey"), "2"),
+                message(Key.of("someKey", "second"), "3"))).join();
+
+        // then
+        verify(kinesisClient).putRecords(putRecordsRequestCaptor.capture());
+        final List<PutRecordsRequestEntry> records = putRecordsRequestCaptor.getValue().records();
+        assertThat(partitionKeysOf(putRecordsRequestCaptor.getValue()), contains("someKey", "otherKey"));
+        assertThat(KinesisAggregatedRecord.decode(records.get(0).data().asByteArray()), contains(
+                new KinesisAggregatedRecord.Entry("first", "1".getBytes(UTF_8)),
+                new KinesisAggregatedRecord.Entry("second", "3".getBytes(UTF_8))));
+        assertThat(records.get(1).data().asUtf8String(), is("2"));
+    }
+
+    @Test
+    public void shouldSendAggregatedRecordsAfterLingerTime() {
+        // given
+        final KinesisMessageSender aggregatingSender = new KinesisMessageSender("test", interceptorRegistry, messageTranslator, kinesisClient, MessageFormat.V2, 50 * 1024, Duration.ofMillis(50), Duration.ofMillis(1));
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(completedFuture(PutRecordsResponse.builder()
+                .failedRecordCount(0)
+                .records(successfulRecord())
+                .build()));
+
+        // when
+        final CompletableFuture<Void> first = aggregatingSender.send(message("someKey", "1"));
+        final CompletableFuture<Void> second = aggregatingSender.send(message("someKey", "2"));
+
+        // then
+        assertThat(first.isDone(), is(false));
+        verify(kinesisClient, never()).putRecords(any(PutRecordsRequest.class));
+        CompletableFuture.allOf(first, second).join();
+        verify(kinesisClient).putRecords(putRecordsRequestCaptor.capture());
+        assertThat(putRecordsRequestCaptor.getValue().records(), hasSize(1));
+    }
+
+    @Test
+    public void shouldSendNextAggregatedRecordIfMaxRecordSizeIsExceeded() {
+        // given
+        final KinesisMessageSender aggregatingSender = new KinesisMessageSender("test", interceptorRegistry, messageTranslator, kinesisClient, MessageFormat.V1, 60, Duration.ZERO, Duration.ofMillis(1));
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(completedFuture(PutRecordsResponse.builder()
+                .failedRecordCount(0)
+                .records(successfulRecord(), successfulRecord(), successfulRecord())
+                .build()));
+
+        // when
+        aggregatingSender.sendBatch(IntStream.range(0, 6).mapToObj(i -> message("someKey", "payload-" + i))).join();
+
+        // then
+        verify(kinesisClient, atLeast(2)).putRecords(putRecordsRequestCaptor.capture());
+        final List<PutRecordsRequestEntry> records = recordsOf(putRecordsRequestCaptor.getAllValues());
+        records.forEach(record -> assertThat(record.data().asByteArray().length, is(lessThanOrEqualTo(60))));
+        final List<String> payloads = records.stream()
+                .flatMap(record -> KinesisAggregatedRecord.decode(record.data().asByteArray()).stream())
+                .map(entry -> new String(entry.getData(), UTF_8))
+                .collect(toList());
+        assertThat(payloads, contains("payload-0", "payload-1", "payload-2", "payload-3", "payload-4", "payload-5"));
+    }
+
+    @Test
+    public void shouldCountUtf8BytesOfPartitionKeyAgainstMaxRecordSize() {
+        // given
+        final String partitionKey = "äöüäöüäöüä";
+        final KinesisMessageSender aggregatingSender = new KinesisMessageSender("test", interceptorRegistry, messageTranslator, kinesisClient, MessageFormat.V1, 60, Duration.ZERO, Duration.ofMillis(1));
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(completedFuture(PutRecordsResponse.builder()
+                .failedRecordCount(0)
+                .records(successfulRecord(), successfulRecord(), successfulRecord(), successfulRecord())
+                .build()));
+
+        // when
+        aggregatingSender.sendBatch(IntStream.range(0, 6).mapToObj(i -> message(partitionKey, "payload-" + i))).join();
+
+        // then
+        verify(kinesisClient, atLeast(2)).putRecords(putRecordsRequestCaptor.capture());
+        recordsOf(putRecordsRequestCaptor.getAllValues()).forEach(record -> assertThat(
+                record.data().asByteArray().length + partitionKey.getBytes(UTF_8).length,
+                is(lessThanOrEqualTo(60))));
+    }
+
+    @Test
+    public void shouldSplitBatchesExceedingMaximumRequestSize() {
+        // given
+        final SdkBytes data = SdkBytes.fromByteArray(new byte[1024 * 1024 - 10]);
+        final List<PutRecordsRequestEntry> entries = IntStream.range(0, 10)
+                .mapToObj(i -> PutRecordsRequestEntry.builder().partitionKey("key-" + i).data(data).build())
+                .collect(toList());
+
+        // when
+        final List<List<PutRecordsRequestEntry>> batches = KinesisMessageSender.partition(entries);
+
+        // then
+        assertThat(batches.stream().map(List::size).collect(toList()), contains(5, 5));
+    }
+
+    @Test
+    public void shouldSplitBatchesExceedingMaximumNumberOfRecords() {
+        // given
+        final List<PutRecordsRequestEntry> entries = IntStream.range(0, 1200)
+                .mapToObj(i -> PutRecordsRequestEntry.builder().partitionKey("key-" + i).data(SdkBytes.fromUtf8String("{}")).build())
+                .collect(toList());
+
+        // when
+        final List<List<PutRecordsRequestEntry>> batches = KinesisMessageSender.partition(entries);
+
+        // then
+        assertThat(batches.stream().map(List::size).collect(toList()), contains(500, 500, 200));
+    }
+
+    @Test
+    public void shouldSendLargeRecordsInSeparateRequests() {
+        // given
+        final SdkBytes data = SdkBytes.fromByteArray(new byte[1024 * 1024]);
+        final List<PutRecordsRequestEntry> entries = IntStream.range(0, 6)
+                .mapToObj(i -> PutRecordsRequestEntry.builder().partitionKey("key-" + i).data(data).build())
+                .collect(toList());
+
+        // when
+        final List<List<PutRecordsRequestEntry>> batches = KinesisMessageSender.partition(entries);
+
+        // then
+        assertThat(batches.stream().map(List::size).collect(toList()), contains(4, 2));
+    }
+
+    @Test
+    public void shouldNotPutRecordsWithSamePartitionKeyIntoSameBatch() {
+        // given
+        final List<PutRecordsRequestEntry> entries = Stream.of("a", "b", "a", "a", "c", "b")
+                .map(key -> PutRecordsRequestEntry.builder().partitionKey(key).data(SdkBytes.fromUtf8String("{}")).build())
+                .collect(toList());
+
+        // when
+        final List<List<PutRecordsRequestEntry>> batches = KinesisMessageSender.partition(entries);
+
+        // then
+        assertThat(batches.stream()
+                .map(batch -> batch.stream().map(PutRecordsRequestEntry::partitionKey).collect(toList()))
+                .collect(toList()), contains(
+                        asList("a", "b", "c"),
+                        asList("a", "b"),
+                        singletonList("a")));
+    }
+
+    @Test
+    public void shouldKeepOrderOfRecordsWithSamePartitionKeyAcrossBatches() {
+        // given
+        final List<PutRecordsRequestEntry> entries = IntStream.range(0, 1000)
+                .mapToObj(i -> PutRecordsRequestEntry.builder().partitionKey("key-" + (i % 600)).data(SdkBytes.fromUtf8String(valueOf(i))).build())
+                .collect(toList());
+
+        // when
+        final List<List<PutRecordsRequestEntry>> batches = KinesisMessageSender.partition(entries);
+
+        // then
+        assertThat(batches.stream().map(List::size).collect(toList()), contains(500, 500));
+        assertThat(batches.get(0).get(499).data().asUtf8String(), is("499"));
+        assertThat(batches.get(1).get(0).data().asUtf8String(), is("500"));
+        assertThat(batches.get(1).get(100).data().asUtf8String(), is("600"));
+    }
+
+    private static PutRecordsResultEntry successfulRecord() {
+        return PutRecordsResultEntry.builder().sequenceNumber("42").shardId("shard-0").build();
+    }
+
+    private static PutRecordsResultEntry failedRecord() {
+        return PutRecordsResultEntry.builder().errorCode("ProvisionedThroughputExceededException").build();
+    }
+
+    private static List<String> partitionKeysOf(final PutRecordsRequest request) {
+        return request.records().stream().map(PutRecordsRequestEntry::partitionKey).collect(toList());
+    }
+
+    private static List<String> payloadsOf(final PutRecordsRequest request) {
+        return request.records().stream()
+                .map(record -> {
+                    try {
+                        return currentObjectMapper().readTree(record.data().asByteArray()).get(SYNAPSE_MSG_PAYLOAD).textValue();
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .collect(toList());
+    }
+
+    private static List<PutRecordsRequestEntry> recordsOf(final List<PutRecordsRequest> requests) {
+        return requests.stream().flatMap(request -> request.records().stream()).collect(toList());
     }
 
     private Stream<Message<String>> someEvents(int n) {
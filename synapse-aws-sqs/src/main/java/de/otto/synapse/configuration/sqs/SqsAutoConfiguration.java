@@ -30,14 +30,17 @@ import static software.amazon.awssdk.core.retry.conditions.RetryCondition.defaul
 
 @Configuration
 @Import({SynapseAwsAuthConfiguration.class, SynapseAutoConfiguration.class})
-@EnableConfigurationProperties(AwsProperties.class)
+@EnableConfigurationProperties({AwsProperties.class, SqsProperties.class})
 public class SqsAutoConfiguration {
 
     private final AwsProperties awsProperties;
+    private final SqsProperties sqsProperties;
 
     @Autowired
-    public SqsAutoConfiguration(final AwsProperties awsProperties) {
+    public SqsAutoConfiguration(final AwsProperties awsProperties,
+                                final SqsProperties sqsProperties) {
         this.awsProperties = awsProperties;
+        this.sqsProperties = sqsProperties;
     }
 
     @Bean
@@ -70,7 +73,7 @@ public class SqsAutoConfiguration {
     public MessageSenderEndpointFactory messageQueueSenderEndpointFactory(final MessageInterceptorRegistry registry,
                                                                           final SqsAsyncClient sqsAsyncClient,
                                                                           final @Value("${spring.application.name:Synapse Service}") String messageSenderName) {
-        return new SqsMessageSenderEndpointFactory(registry, sqsAsyncClient);
+        return new SqsMessageSenderEndpointFactory(registry, sqsAsyncClient, sqsProperties.getSender().getLingerTime());
     }
 
     @Bean
@@ -78,8 +81,9 @@ public class SqsAutoConfiguration {
     public MessageQueueReceiverEndpointFactory messageQueueReceiverEndpointFactory(final MessageInterceptorRegistry registry,
                                                                                    final SqsAsyncClient sqsAsyncClient,
                                                                                    final ApplicationEventPublisher eventPublisher) {
-
-        return new SqsMessageQueueReceiverEndpointFactory(registry, sqsAsyncClient, eventPublisher);
+        final SqsProperties.Receiver receiver = sqsProperties.getReceiver();
+        return new SqsMessageQueueReceiverEndpointFactory(registry, sqsAsyncClient, eventPublisher,
+                receiver.getReceiveConcurrency(), receiver.getWorkerThreads(), receiver.isOrderedByKey());
     }
 
 }
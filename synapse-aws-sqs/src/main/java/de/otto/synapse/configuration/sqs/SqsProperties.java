@@ -0,0 +1,79 @@
+package de.otto.synapse.configuration.sqs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "synapse.sqs")
+public class SqsProperties {
+
+    private final Receiver receiver = new Receiver();
+    private final Sender sender = new Sender();
+
+    public Receiver getReceiver() {
+        return receiver;
+    }
+
+    public Sender getSender() {
+        return sender;
+    }
+
+    public static class Receiver {
+
+        /**
+         * The number of concurrent long-polling ReceiveMessage requests per SQS queue.
+         */
+        private int receiveConcurrency = 2;
+
+        /**
+         * The number of threads used to process the messages received from a SQS queue.
+         */
+        private int workerThreads = 10;
+
+        /**
+         * If true, messages with the same partition key are processed in the order they were received. Messages
+         * without a key are processed by an additional pool of up to {@code workerThreads} threads.
+         */
+        private boolean orderedByKey = true;
+
+        public int getReceiveConcurrency() {
+            return receiveConcurrency;
+        }
+
+        public void setReceiveConcurrency(final int receiveConcurrency) {
+            this.receiveConcurrency = receiveConcurrency;
+        }
+
+        public int getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public void setWorkerThreads(final int workerThreads) {
+            this.workerThreads = workerThreads;
+        }
+
+        public boolean isOrderedByKey() {
+            return orderedByKey;
+        }
+
+        public void setOrderedByKey(final boolean orderedByKey) {
+            this.orderedByKey = orderedByKey;
+        }
+    }
+
+    public static class Sender {
+
+        /**
+         * The maximum time messages are buffered, before they are sent to SQS in a batch.
+         */
+        private Duration lingerTime = Duration.ofMillis(10);
+
+        public Duration getLingerTime() {
+            return lingerTime;
+        }
+
+        public void setLingerTime(final Duration lingerTime) {
+            this.lingerTime = lingerTime;
+        }
+    }
+}
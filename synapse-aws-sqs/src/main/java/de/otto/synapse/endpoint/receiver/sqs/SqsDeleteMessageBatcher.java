@@ -0,0 +1,127 @@
+package de.otto.synapse.endpoint.receiver.sqs;
+
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Coalesces the deletion of processed SQS messages into {@code DeleteMessageBatch} requests.
+ * <p>
+ *     A batch is sent as soon as it contains {@link #MAX_BATCH_SIZE} receipt handles, or after the linger time
+ *     has elapsed since the first receipt handle was added to the batch.
+ * </p>
+ */
+@ThreadSafe
+class SqsDeleteMessageBatcher {
+
+    private static final Logger LOG = getLogger(SqsDeleteMessageBatcher.class);
+
+    /** The maximum number of entries of a DeleteMessageBatch request supported by SQS. */
+    static final int MAX_BATCH_SIZE = 10;
+
+    private final SqsAsyncClient sqsAsyncClient;
+    private final String queueUrl;
+    private final Duration lingerTime;
+    private final ScheduledExecutorService scheduler;
+    /** Guarded by this. */
+    private List<String> pendingReceiptHandles = new ArrayList<>(MAX_BATCH_SIZE);
+    /** Guarded by this. */
+    private boolean flushScheduled;
+
+    SqsDeleteMessageBatcher(final SqsAsyncClient sqsAsyncClient,
+                            final String queueUrl,
+                            final Duration lingerTime,
+                            final ScheduledExecutorService scheduler) {
+        this.sqsAsyncClient = sqsAsyncClient;
+        this.queueUrl = queueUrl;
+        this.lingerTime = lingerTime;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds the receipt handle of a processed message to the next batch of deleted messages.
+     *
+     * @param receiptHandle the receipt handle of the message
+     */
+    void delete(final String receiptHandle) {
+        final List<String> batch;
+        synchronized (this) {
+            pendingReceiptHandles.add(receiptHandle);
+            if (pendingReceiptHandles.size() < MAX_BATCH_SIZE) {
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    scheduler.schedule(this::flush, lingerTime.toMillis(), MILLISECONDS);
+                }
+                return;
+            }
+            batch = takePendingReceiptHandles();
+        }
+        deleteMessageBatch(batch);
+    }
+
+    /**
+     * Immediately deletes all pending messages.
+     *
+     * @return future that is completed when the pending messages are deleted
+     */
+    CompletableFuture<Void> flush() {
+        final List<String> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = takePendingReceiptHandles();
+        }
+        return deleteMessageBatch(batch);
+    }
+
+    private List<String> takePendingReceiptHandles() {
+        final List<String> batch = pendingReceiptHandles;
+        pendingReceiptHandles = new ArrayList<>(MAX_BATCH_SIZE);
+        return batch;
+    }
+
+    private CompletableFuture<Void> deleteMessageBatch(final List<String> receiptHandles) {
+        if (receiptHandles.isEmpty()) {
+            return completedFuture(null);
+        }
+        final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(receiptHandles.size());
+        for (int i = 0; i < receiptHandles.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .receiptHandle(receiptHandles.get(i))
+                    .build());
+        }
+        LOG.debug("Deleting {} messages", entries.size());
+        try {
+            return sqsAsyncClient
+                    .deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                            .queueUrl(queueUrl)
+                            .entries(entries)
+                            .build())
+                    .handle((response, throwable) -> {
+                        if (throwable != null) {
+                            LOG.error("Received exception while deleting messages: " + throwable.getMessage());
+                        } else if (response.failed() != null && !response.failed().isEmpty()) {
+                            response.failed().forEach(failed -> LOG.error("Failed to delete message: code={}, message={}", failed.code(), failed.message()));
+                        } else {
+                            LOG.debug("Received DeleteMessageBatchResponse={}", response);
+                        }
+                        return null;
+                    });
+        } catch (final RuntimeException e) {
+            LOG.error("Error deleting messages: " + e.getMessage(), e);
+            return completedFuture(null);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package de.otto.synapse.endpoint.receiver.sqs;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.receiver.AbstractMessageReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageQueueReceiverEndpoint;
@@ -15,15 +16,40 @@ import software.amazon.awssdk.services.sqs.model.*;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static de.otto.synapse.message.Key.NO_KEY;
 import static java.time.Duration.ofMillis;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * Receiver endpoint used to consume messages from a SQS queue.
+ * <p>
+ *     Messages are received by a configurable number of concurrent long-polling requests, each receiving up to
+ *     {@link #MAX_NUMBER_OF_MESSAGES} messages. The received messages are processed by a pool of
+ *     {@link SqsMessageWorkers workers}, optionally ordered by the partition key of the messages. The number of
+ *     received but not yet processed messages is limited, so messages are only received if there are workers
+ *     available to process them.
+ * </p>
+ * <p>
+ *     The visibility timeout of messages taking a long time to be processed is extended automatically. Processed
+ *     messages are deleted using {@code DeleteMessageBatch} requests.
+ * </p>
+ */
 public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndpoint implements MessageQueueReceiverEndpoint {
 
     private static final Logger LOG = getLogger(SqsMessageQueueReceiverEndpoint.class);
@@ -33,6 +59,9 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
     /**
      * The visibility timeout should be high enough to process the message, otherwise messages
      * might be processed multiple times, if more than one consumer is listening to the channel.
+     * <p>
+     *     The visibility timeout of messages that are not processed after two thirds of the timeout is extended.
+     * </p>
      */
     private static final int VISIBILITY_TIMEOUT = 5;
     /**
@@ -40,11 +69,27 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
      */
     private static final int WAIT_TIME_SECONDS = 2;
     /**
-     * Duration to wait during stop(), until the receiver thread has to stop.
+     * Duration to wait during stop(), until received messages are processed by the workers.
+     */
+    private static final int DRAIN_TIMEOUT_SECONDS = 3;
+    /**
+     * Duration to wait during stop(), until the last DeleteMessageBatch request is completed.
+     */
+    private static final int FLUSH_TIMEOUT_SECONDS = 2;
+    /**
+     * Duration to wait during stop(), until the receiver threads have stopped.
      *
-     * Should be greater than WAIT_TIME_SECONDS
+     * Covers the pending long-polling calls, processing of received messages and deletion of processed messages.
+     */
+    private static final int STOP_TIMEOUT_SECONDS = WAIT_TIME_SECONDS + DRAIN_TIMEOUT_SECONDS + FLUSH_TIMEOUT_SECONDS + 1;
+    /**
+     * The maximum number of messages received by a single ReceiveMessage request, as supported by SQS.
+     */
+    static final int MAX_NUMBER_OF_MESSAGES = 10;
+    /**
+     * The maximum time processed messages are waiting to be deleted in a DeleteMessageBatch request.
      */
-    private static final int STOP_TIMEOUT_SECONDS = 3;
+    private static final Duration DELETE_LINGER_TIME = Duration.ofMillis(100);
 
     private static final MessageAttributeValue EMPTY_STRING_ATTR = MessageAttributeValue.builder().dataType("String").stringValue("").build();
     private static final String MSG_KEY_ATTR = "synapse_msg_key";
@@ -54,6 +99,12 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
     @Nonnull
     private final ExecutorService executorService;
     private final String queueUrl;
+    private final int receiveConcurrency;
+    private final int maxInFlightMessages;
+    private final Semaphore inFlightMessages;
+    private final SqsMessageWorkers workers;
+    private final ScheduledExecutorService scheduler;
+    private final SqsDeleteMessageBatcher deleteMessageBatcher;
     private final AtomicBoolean stopSignal = new AtomicBoolean(false);
     private final CompletableFuture<Void> stopped = new CompletableFuture<>();
 
@@ -62,9 +113,37 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
                                            final @Nonnull SqsAsyncClient sqsAsyncClient,
                                            final @Nonnull ExecutorService executorService,
                                            final @Nullable ApplicationEventPublisher eventPublisher) {
+        this(channelName, interceptorRegistry, sqsAsyncClient, executorService, eventPublisher, 1, 1, true);
+    }
+
+    /**
+     * Creates a SqsMessageQueueReceiverEndpoint.
+     *
+     * @param channelName the name of the SQS queue
+     * @param interceptorRegistry registry used to intercept messages
+     * @param sqsAsyncClient the SQS client
+     * @param executorService executor used to run the long-polling receive loops. Must be able to run
+     *                        {@code receiveConcurrency} tasks concurrently.
+     * @param eventPublisher optional publisher of MessageReceiverNotifications
+     * @param receiveConcurrency the number of concurrent long-polling receive loops
+     * @param workerThreads the number of threads used to process received messages
+     * @param orderedByKey true, if messages having the same partition key must be processed in order
+     */
+    public SqsMessageQueueReceiverEndpoint(final @Nonnull String channelName,
+                                           final @Nonnull MessageInterceptorRegistry interceptorRegistry,
+                                           final @Nonnull SqsAsyncClient sqsAsyncClient,
+                                           final @Nonnull ExecutorService executorService,
+                                           final @Nullable ApplicationEventPublisher eventPublisher,
+                                           final int receiveConcurrency,
+                                           final int workerThreads,
+                                           final boolean orderedByKey) {
         super(channelName, interceptorRegistry, eventPublisher);
+        if (receiveConcurrency < 1) {
+            throw new IllegalArgumentException("receiveConcurrency must be greater than zero");
+        }
         this.sqsAsyncClient = sqsAsyncClient;
         this.executorService = executorService;
+        this.receiveConcurrency = receiveConcurrency;
         try {
             this.queueUrl = sqsAsyncClient.getQueueUrl(GetQueueUrlRequest
                     .builder()
@@ -79,43 +158,132 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
             stopped.complete(null);
             throw new RuntimeException(e.getMessage(), e);
         }
+        this.maxInFlightMessages = Math.max(workerThreads, receiveConcurrency) * MAX_NUMBER_OF_MESSAGES;
+        this.inFlightMessages = new Semaphore(maxInFlightMessages);
+        this.workers = new SqsMessageWorkers(workerThreads, orderedByKey, channelName);
+        this.scheduler = newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("sqs-" + channelName + "-scheduler-%d").setDaemon(true).build()
+        );
+        this.deleteMessageBatcher = new SqsDeleteMessageBatcher(sqsAsyncClient, queueUrl, DELETE_LINGER_TIME, scheduler);
     }
 
     @Override
     public CompletableFuture<Void> consume() {
-        return CompletableFuture.runAsync(() -> {
+        final CompletableFuture<?>[] receiveLoops = new CompletableFuture<?>[receiveConcurrency];
+        for (int i = 0; i < receiveConcurrency; i++) {
+            receiveLoops[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    do {
+                        receiveAndProcess();
+                    } while (!stopSignal.get());
+                } catch (final RuntimeException e) {
+                    // stop the other receive loops as well:
+                    stopSignal.set(true);
+                    throw e;
+                }
+            }, executorService);
+        }
+        return CompletableFuture.allOf(receiveLoops).whenComplete((ignored, throwable) -> {
             try {
-                do {
-                    receiveAndProcess();
-                } while (!stopSignal.get());
+                awaitProcessedMessages();
+                awaitDeletedMessages();
             } finally {
+                workers.shutdown();
+                scheduler.shutdown();
                 stopped.complete(null);
             }
-        }, executorService);
+        });
     }
 
     private void receiveAndProcess() {
+        final int permits = acquireInFlightPermits();
+        if (permits == 0) {
+            return;
+        }
         try {
             LOG.debug("Sending receiveMessage request...");
-            sqsAsyncClient.receiveMessage(ReceiveMessageRequest.builder()
+            final ReceiveMessageResponse response = sqsAsyncClient.receiveMessage(ReceiveMessageRequest.builder()
                     .queueUrl(queueUrl)
                     .visibilityTimeout(VISIBILITY_TIMEOUT)
+                    .maxNumberOfMessages(permits)
                     .messageAttributeNames(".*")
                     .waitTimeSeconds(WAIT_TIME_SECONDS)
                     .build())
-                    .thenAccept(this::processResponse)
                     .join();
+            final List<software.amazon.awssdk.services.sqs.model.Message> messages = response.messages() != null
+                    ? response.messages()
+                    : emptyList();
+            LOG.debug("Received {} messages from SQS.", messages.size());
+            inFlightMessages.release(permits - Math.min(messages.size(), permits));
+            messages.forEach(this::submitMessage);
         } catch (Exception e) {
+            inFlightMessages.release(permits);
             LOG.error(e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
-    private void processResponse(ReceiveMessageResponse response) {
-        if (response.messages() != null) {
-            LOG.debug("Received {} messages from SQS.", response.messages().size());
-            response.messages()
-                    .forEach(this::processMessage);
+    /**
+     * Acquires up to {@link #MAX_NUMBER_OF_MESSAGES} permits to receive messages, waiting until at least one
+     * permit is available or the endpoint is stopped.
+     *
+     * @return the number of acquired permits
+     */
+    private int acquireInFlightPermits() {
+        try {
+            while (!inFlightMessages.tryAcquire(100, MILLISECONDS)) {
+                if (stopSignal.get()) {
+                    return 0;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        int permits = 1;
+        while (permits < MAX_NUMBER_OF_MESSAGES && inFlightMessages.tryAcquire()) {
+            ++permits;
+        }
+        return permits;
+    }
+
+    private void awaitProcessedMessages() {
+        try {
+            if (inFlightMessages.tryAcquire(maxInFlightMessages, DRAIN_TIMEOUT_SECONDS, SECONDS)) {
+                inFlightMessages.release(maxInFlightMessages);
+            } else {
+                LOG.warn("Timeout while waiting for messages of channel {} to be processed", getChannelName());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitDeletedMessages() {
+        try {
+            deleteMessageBatcher.flush().get(FLUSH_TIMEOUT_SECONDS, SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            LOG.warn("Failed to delete processed messages of channel {}: {}", getChannelName(), e.getMessage());
+        }
+    }
+
+    private void submitMessage(final software.amazon.awssdk.services.sqs.model.Message sqsMessage) {
+        final VisibilityExtension visibilityExtension = new VisibilityExtension(sqsMessage);
+        try {
+            workers.execute(messageKeyOf(sqsMessage), () -> {
+                try {
+                    processMessage(sqsMessage);
+                } finally {
+                    visibilityExtension.cancel();
+                    inFlightMessages.release();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            visibilityExtension.cancel();
+            inFlightMessages.release();
+            LOG.warn("Unable to process message {} after the endpoint was stopped", sqsMessage.messageId());
         }
     }
 
@@ -132,7 +300,7 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
                 LOG.debug("Dispatching message {} ", interceptedMessage);
                 getMessageDispatcher().accept(interceptedMessage);
             }
-            deleteMessage(sqsMessage);
+            deleteMessageBatcher.delete(sqsMessage.receiptHandle());
         } catch (final Exception e) {
             LOG.error("Failed to process SQS message " + sqsMessage);
         }
@@ -162,26 +330,59 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
         }
     }
 
-    private void deleteMessage(software.amazon.awssdk.services.sqs.model.Message sqsMessage) {
-        try {
-            LOG.debug("Deleting message with receiptHandle={}", sqsMessage.receiptHandle());
-            sqsAsyncClient
-                    .deleteMessage(DeleteMessageRequest.builder()
-                            .queueUrl(queueUrl)
-                            .receiptHandle(sqsMessage.receiptHandle())
-                            .build())
-                    .handle((response, throwable) -> {
-                        if (response != null) {
-                            LOG.debug("Received DeleteMessageResponse={}", response);
-                            return response;
-                        } else {
-                            LOG.info("Received exception while deleting message: " + throwable.getMessage());
-                            throw new RuntimeException(throwable);
-                        }
-                    });
-        } catch (final RuntimeException e) {
-            LOG.error("Error deleting message: " + e.getMessage(), e);
-            throw e;
+    /**
+     * Periodically extends the visibility timeout of a message, until the message is processed.
+     */
+    private class VisibilityExtension implements Runnable {
+
+        private final software.amazon.awssdk.services.sqs.model.Message sqsMessage;
+        private volatile ScheduledFuture<?> scheduledExtension;
+        private volatile boolean cancelled;
+
+        private VisibilityExtension(final software.amazon.awssdk.services.sqs.model.Message sqsMessage) {
+            this.sqsMessage = sqsMessage;
+            schedule();
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            LOG.debug("Extending visibility timeout of message {}", sqsMessage.messageId());
+            try {
+                sqsAsyncClient.changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                        .queueUrl(queueUrl)
+                        .receiptHandle(sqsMessage.receiptHandle())
+                        .visibilityTimeout(VISIBILITY_TIMEOUT)
+                        .build())
+                        .whenComplete((response, throwable) -> {
+                            if (throwable != null) {
+                                LOG.warn("Failed to extend visibility timeout of message {}: {}", sqsMessage.messageId(), throwable.getMessage());
+                            }
+                        });
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to extend visibility timeout of message {}: {}", sqsMessage.messageId(), e.getMessage());
+            }
+            schedule();
+        }
+
+        void cancel() {
+            cancelled = true;
+            final ScheduledFuture<?> extension = scheduledExtension;
+            if (extension != null) {
+                extension.cancel(false);
+            }
+        }
+
+        private void schedule() {
+            try {
+                if (!cancelled) {
+                    scheduledExtension = scheduler.schedule(this, VISIBILITY_TIMEOUT * 2000L / 3, MILLISECONDS);
+                }
+            } catch (final RejectedExecutionException e) {
+                // endpoint is stopped
+            }
         }
     }
 
@@ -21,13 +21,36 @@ public class SqsMessageQueueReceiverEndpointFactory implements MessageQueueRecei
     private final MessageInterceptorRegistry registry;
     private final SqsAsyncClient sqsAsyncClient;
     private final ApplicationEventPublisher eventPublisher;
+    private final int receiveConcurrency;
+    private final int workerThreads;
+    private final boolean orderedByKey;
 
     public SqsMessageQueueReceiverEndpointFactory(final MessageInterceptorRegistry registry,
                                                   final SqsAsyncClient sqsAsyncClient,
                                                   final ApplicationEventPublisher eventPublisher) {
+        this(registry, sqsAsyncClient, eventPublisher, 1, 1, true);
+    }
+
+    /**
+     * @param registry registry used to intercept messages
+     * @param sqsAsyncClient the SQS client
+     * @param eventPublisher optional publisher of MessageReceiverNotifications
+     * @param receiveConcurrency the number of concurrent long-polling receive loops per endpoint
+     * @param workerThreads the number of threads per endpoint used to process received messages
+     * @param orderedByKey true, if messages having the same partition key must be processed in order
+     */
+    public SqsMessageQueueReceiverEndpointFactory(final MessageInterceptorRegistry registry,
+                                                  final SqsAsyncClient sqsAsyncClient,
+                                                  final ApplicationEventPublisher eventPublisher,
+                                                  final int receiveConcurrency,
+                                                  final int workerThreads,
+                                                  final boolean orderedByKey) {
         this.registry = registry;
         this.sqsAsyncClient = sqsAsyncClient;
         this.eventPublisher = eventPublisher;
+        this.receiveConcurrency = receiveConcurrency;
+        this.workerThreads = workerThreads;
+        this.orderedByKey = orderedByKey;
     }
 
     @Override
@@ -36,6 +59,7 @@ public class SqsMessageQueueReceiverEndpointFactory implements MessageQueueRecei
         final ExecutorService executorService = newCachedThreadPool(
                 new ThreadFactoryBuilder().setNameFormat("sqs-message-queue-%d").build()
         );
-        return new SqsMessageQueueReceiverEndpoint(channelName, registry, sqsAsyncClient, executorService, eventPublisher);
+        return new SqsMessageQueueReceiverEndpoint(channelName, registry, sqsAsyncClient, executorService, eventPublisher,
+                receiveConcurrency, workerThreads, orderedByKey);
     }
 }
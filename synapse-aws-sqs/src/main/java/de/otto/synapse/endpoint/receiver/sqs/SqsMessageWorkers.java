@@ -0,0 +1,95 @@
+package de.otto.synapse.endpoint.receiver.sqs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.otto.synapse.message.Key;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static de.otto.synapse.message.Key.NO_KEY;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Pool of worker threads used to process the messages received from a SQS queue.
+ * <p>
+ *     If the workers are ordered by key, every worker has a lane of its own, and messages are striped over the
+ *     lanes by the hash of their {@link Key#partitionKey() partition key}. All messages having the same partition
+ *     key are then processed by the same worker, in the order they were received. Messages without a key
+ *     ({@link Key#NO_KEY}) do not have an order to be preserved; they are processed by a shared pool of workers,
+ *     so they are not all queued into a single lane. Otherwise, messages are processed by the next idle worker.
+ * </p>
+ */
+final class SqsMessageWorkers {
+
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    private final List<ExecutorService> lanes;
+    /** Workers used to process messages without a key, or null, if the workers are not ordered by key. */
+    private final ExecutorService unorderedWorkers;
+
+    /**
+     * @param numberOfWorkers the number of worker threads
+     * @param orderedByKey true, if messages with the same partition key must be processed in order
+     * @param channelName the name of the channel, used to name the worker threads
+     */
+    SqsMessageWorkers(final int numberOfWorkers,
+                      final boolean orderedByKey,
+                      final String channelName) {
+        if (numberOfWorkers < 1) {
+            throw new IllegalArgumentException("numberOfWorkers must be greater than zero");
+        }
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("sqs-" + channelName + "-worker-%d")
+                .build();
+        if (orderedByKey) {
+            this.lanes = new ArrayList<>(numberOfWorkers);
+            for (int i = 0; i < numberOfWorkers; i++) {
+                lanes.add(newSingleThreadExecutor(threadFactory));
+            }
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers,
+                    IDLE_TIMEOUT_SECONDS, SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+            // threads of the shared pool are only kept while messages without a key are received:
+            executor.allowCoreThreadTimeOut(true);
+            this.unorderedWorkers = executor;
+        } else {
+            this.lanes = new ArrayList<>(1);
+            lanes.add(newFixedThreadPool(numberOfWorkers, threadFactory));
+            this.unorderedWorkers = null;
+        }
+    }
+
+    /**
+     * Executes a task processing the message with the given key.
+     *
+     * @param key the key of the message
+     * @param task the task processing the message
+     */
+    void execute(final @Nonnull Key key, final @Nonnull Runnable task) {
+        if (unorderedWorkers != null && NO_KEY.equals(key)) {
+            unorderedWorkers.execute(task);
+        } else {
+            lanes.get(laneOf(key)).execute(task);
+        }
+    }
+
+    /**
+     * Shuts down the workers. Previously submitted tasks are executed, but no new tasks will be accepted.
+     */
+    void shutdown() {
+        lanes.forEach(ExecutorService::shutdown);
+        if (unorderedWorkers != null) {
+            unorderedWorkers.shutdown();
+        }
+    }
+
+    int laneOf(final @Nonnull Key key) {
+        return Math.floorMod(key.partitionKey().hashCode(), lanes.size());
+    }
+}
@@ -1,78 +1,291 @@
 package de.otto.synapse.endpoint.sender.sqs;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.sender.AbstractMessageSenderEndpoint;
 import de.otto.synapse.message.TextMessage;
 import de.otto.synapse.translator.MessageTranslator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
 import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
 import static java.lang.String.valueOf;
-import static java.util.stream.Collectors.toList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+/**
+ * Sender endpoint used to send messages to a SQS queue.
+ * <p>
+ *     Messages are sent using {@code SendMessageBatch} requests of up to {@link #MAX_BATCH_SIZE} entries and
+ *     {@link #MAX_BATCH_PAYLOAD_SIZE} bytes. Messages sent using {@link #send(de.otto.synapse.message.Message)}
+ *     are buffered for a short linger time, so concurrently sent messages are shared in a single batch.
+ *     Entries reported as failed by SQS are retried using exponential backoff with full jitter, until
+ *     {@link #MAX_RETRIES} is exceeded. Entries failing because of an error of the sender are not retried.
+ * </p>
+ * <p>
+ *     The future returned for a message is completed with the result of the message's own entry.
+ * </p>
+ */
 public class SqsMessageSender extends AbstractMessageSenderEndpoint {
 
     private static final Logger LOG = LoggerFactory.getLogger(SqsMessageSender.class);
 
     public static final String MSG_KEY_ATTR = "synapse_msg_key";
 
+    /** The maximum number of entries of a SendMessageBatch request supported by SQS. */
+    static final int MAX_BATCH_SIZE = 10;
+    /** The maximum total size of the messages of a SendMessageBatch request supported by SQS. */
+    static final int MAX_BATCH_PAYLOAD_SIZE = 256 * 1024;
+    private static final int MAX_RETRIES = 15;
+    private static final Duration DEFAULT_LINGER_TIME = Duration.ofMillis(10);
+    private static final Duration DEFAULT_BASE_RETRY_DELAY = Duration.ofMillis(200);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(5);
+    private static final ScheduledExecutorService SCHEDULER = newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("sqs-message-sender-%d").setDaemon(true).build()
+    );
+
     private final String queueUrl;
     private final SqsAsyncClient sqsAsyncClient;
+    private final Duration lingerTime;
+    private final Duration baseRetryDelay;
+    /** Messages waiting to be sent. Guarded by this. */
+    private List<PendingEntry> pendingEntries = new ArrayList<>(MAX_BATCH_SIZE);
+    /** Guarded by this. */
+    private int pendingPayloadSize;
+    /** Guarded by this. */
+    private boolean flushScheduled;
 
     public SqsMessageSender(final String channelName,
                             final String queueUrl,
                             final MessageInterceptorRegistry interceptorRegistry,
                             final MessageTranslator<TextMessage> messageTranslator,
                             final SqsAsyncClient sqsAsyncClient) {
+        this(channelName, queueUrl, interceptorRegistry, messageTranslator, sqsAsyncClient, DEFAULT_LINGER_TIME);
+    }
+
+    /**
+     * Creates a SqsMessageSender.
+     *
+     * @param channelName the name of the SQS queue
+     * @param queueUrl the URL of the SQS queue
+     * @param interceptorRegistry registry used to intercept messages
+     * @param messageTranslator translator used to translate messages into TextMessages
+     * @param sqsAsyncClient the SQS client
+     * @param lingerTime the maximum time single messages are buffered, before they are sent in a batch;
+     *                   {@code Duration.ZERO} sends every message immediately
+     */
+    public SqsMessageSender(final String channelName,
+                            final String queueUrl,
+                            final MessageInterceptorRegistry interceptorRegistry,
+                            final MessageTranslator<TextMessage> messageTranslator,
+                            final SqsAsyncClient sqsAsyncClient,
+                            final Duration lingerTime) {
+        this(channelName, queueUrl, interceptorRegistry, messageTranslator, sqsAsyncClient, lingerTime, DEFAULT_BASE_RETRY_DELAY);
+    }
+
+    @VisibleForTesting
+    SqsMessageSender(final String channelName,
+                     final String queueUrl,
+                     final MessageInterceptorRegistry interceptorRegistry,
+                     final MessageTranslator<TextMessage> messageTranslator,
+                     final SqsAsyncClient sqsAsyncClient,
+                     final Duration lingerTime,
+                     final Duration baseRetryDelay) {
         super(channelName, interceptorRegistry, messageTranslator);
         this.queueUrl = queueUrl;
         this.sqsAsyncClient = sqsAsyncClient;
+        this.lingerTime = lingerTime;
+        this.baseRetryDelay = baseRetryDelay;
     }
 
     @Override
     protected CompletableFuture<Void> doSend(final @Nonnull TextMessage message) {
-        final CompletableFuture<SendMessageResponse> futureResponse = sqsAsyncClient
-                .sendMessage(toSendMessageRequest(message))
-                .whenComplete(logResponse(message));
-        // Just because we need a CompletableFuture<Void>, no CompletableFuture<SendMessageResponse>:
-        return CompletableFuture.allOf(futureResponse);
+        final PendingEntry entry = new PendingEntry(message);
+        final List<List<PendingEntry>> completedBatches = new ArrayList<>(2);
+        synchronized (this) {
+            if (!pendingEntries.isEmpty() && pendingPayloadSize + entry.payloadSize > MAX_BATCH_PAYLOAD_SIZE) {
+                completedBatches.add(takePendingEntries());
+            }
+            pendingEntries.add(entry);
+            pendingPayloadSize += entry.payloadSize;
+            if (pendingEntries.size() >= MAX_BATCH_SIZE || lingerTime.isZero() || lingerTime.isNegative()) {
+                completedBatches.add(takePendingEntries());
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                SCHEDULER.schedule(this::flush, lingerTime.toMillis(), MILLISECONDS);
+            }
+        }
+        completedBatches.forEach(batch -> sendWithRetries(batch, 0));
+        return entry.sent;
     }
 
     @Override
     protected CompletableFuture<Void> doSendBatch(final @Nonnull Stream<TextMessage> messageStream) {
-        final SendMessageBatchRequest sendMessageBatchRequest = toSendMessageBatchRequest(messageStream);
-        if (!sendMessageBatchRequest.entries().isEmpty()) {
-            final CompletableFuture<SendMessageBatchResponse> futureResponse = sqsAsyncClient
-                    .sendMessageBatch(sendMessageBatchRequest)
-                    .whenComplete(logBatchResponse());
-            // TODO: Introduce a response object and return it instead of Void
-            // Just because we need a CompletableFuture<Void>, no CompletableFuture<SendMessageBatchResponse>:
-            return CompletableFuture.allOf(futureResponse);
-        } else {
-            return CompletableFuture.completedFuture(null);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<PendingEntry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        int batchPayloadSize = 0;
+        for (final TextMessage message : (Iterable<TextMessage>) messageStream::iterator) {
+            final PendingEntry entry = new PendingEntry(message);
+            if (batch.size() == MAX_BATCH_SIZE
+                    || (!batch.isEmpty() && batchPayloadSize + entry.payloadSize > MAX_BATCH_PAYLOAD_SIZE)) {
+                sendWithRetries(batch, 0);
+                batch = new ArrayList<>(MAX_BATCH_SIZE);
+                batchPayloadSize = 0;
+            }
+            batch.add(entry);
+            batchPayloadSize += entry.payloadSize;
+            futures.add(entry.sent);
         }
+        if (!batch.isEmpty()) {
+            sendWithRetries(batch, 0);
+        }
+        // TODO: Introduce a response object and return it instead of Void
+        return allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Immediately sends all buffered messages.
+     */
+    void flush() {
+        final List<PendingEntry> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = takePendingEntries();
+        }
+        if (!batch.isEmpty()) {
+            sendWithRetries(batch, 0);
+        }
+    }
+
+    private List<PendingEntry> takePendingEntries() {
+        final List<PendingEntry> batch = pendingEntries;
+        pendingEntries = new ArrayList<>(MAX_BATCH_SIZE);
+        pendingPayloadSize = 0;
+        return batch;
+    }
+
+    private void sendWithRetries(final List<PendingEntry> batch, final int retry) {
+        if (batch.size() == 1 && retry == 0) {
+            sendSingleMessage(batch.get(0));
+            return;
+        }
+        final CompletableFuture<SendMessageBatchResponse> futureResponse;
+        try {
+            futureResponse = sqsAsyncClient.sendMessageBatch(toSendMessageBatchRequest(batch));
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to send batch of messages: " + e.getMessage(), e);
+            batch.forEach(entry -> entry.sent.completeExceptionally(e));
+            return;
+        }
+        futureResponse.whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                LOG.error("Failed to send batch of messages: " + throwable.getMessage(), throwable);
+                batch.forEach(entry -> entry.sent.completeExceptionally(throwable));
+            } else {
+                handleBatchResponse(batch, response, retry);
+            }
+        });
     }
 
-    private SendMessageBatchRequest toSendMessageBatchRequest(final @Nonnull Stream<TextMessage> messageStream) {
-        final AtomicInteger id = new AtomicInteger(0);
+    private void sendSingleMessage(final PendingEntry entry) {
+        try {
+            sqsAsyncClient
+                    .sendMessage(toSendMessageRequest(entry.message))
+                    .whenComplete(logResponse(entry.message))
+                    .whenComplete((response, throwable) -> {
+                        if (throwable != null) {
+                            entry.sent.completeExceptionally(throwable);
+                        } else {
+                            entry.sent.complete(null);
+                        }
+                    });
+        } catch (final RuntimeException e) {
+            LOG.error(String.format("Failed to send message %s", entry.message), e);
+            entry.sent.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Completes the futures of all entries that were successfully sent, and retries the failed entries. Entries
+     * that are not reported as failed by the response are considered to be sent.
+     */
+    private void handleBatchResponse(final List<PendingEntry> batch,
+                                     final SendMessageBatchResponse response,
+                                     final int retry) {
+        final Map<String, BatchResultErrorEntry> failures = new HashMap<>();
+        if (response.failed() != null) {
+            response.failed().forEach(failure -> failures.put(failure.id(), failure));
+        }
+        final List<PendingEntry> retryEntries = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            final PendingEntry entry = batch.get(i);
+            final BatchResultErrorEntry failure = failures.get(valueOf(i));
+            if (failure == null) {
+                entry.sent.complete(null);
+            } else if (Boolean.TRUE.equals(failure.senderFault()) || retry + 1 >= MAX_RETRIES) {
+                LOG.error("Failed to send message {}: code={}, message={}", entry.message, failure.code(), failure.message());
+                entry.sent.completeExceptionally(exceptionOf(failure));
+            } else {
+                retryEntries.add(entry);
+            }
+        }
+        LOG.debug("Successfully sent {} of {} messages in a batch", batch.size() - failures.size(), batch.size());
+        if (!retryEntries.isEmpty()) {
+            final int currentRetry = retry + 1;
+            LOG.warn("retry to send {} of {} messages to SQS for nth time: {}", retryEntries.size(), batch.size(), currentRetry);
+            SCHEDULER.schedule(
+                    () -> sendWithRetries(retryEntries, currentRetry),
+                    retryDelay(currentRetry).toMillis(),
+                    MILLISECONDS);
+        }
+    }
+
+    private Duration retryDelay(final int retry) {
+        final long maxDelay = Math.min(MAX_RETRY_DELAY.toMillis(), baseRetryDelay.toMillis() << Math.min(retry, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+    }
+
+    private static SqsException exceptionOf(final BatchResultErrorEntry failure) {
+        return (SqsException) SqsException.builder()
+                .message(failure.message())
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode(failure.code())
+                        .errorMessage(failure.message())
+                        .build())
+                .build();
+    }
+
+    private SendMessageBatchRequest toSendMessageBatchRequest(final @Nonnull List<PendingEntry> batch) {
+        final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final TextMessage message = batch.get(i).message;
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(valueOf(i))
+                    .messageAttributes(of(message))
+                    .messageBody(message.getPayload())
+                    .build());
+        }
         return SendMessageBatchRequest.builder()
                 .queueUrl(queueUrl)
-                .entries(
-                        messageStream.map(message -> SendMessageBatchRequestEntry.builder()
-                                .id(valueOf(id.getAndIncrement()))
-                                .messageAttributes(of(message))
-                                .messageBody(message.getPayload())
-                                .build()).collect(toList())
-                )
+                .entries(entries)
                 .build();
     }
 
@@ -112,20 +325,33 @@ public class SqsMessageSender extends AbstractMessageSenderEndpoint {
         };
     }
 
-    private BiConsumer<SendMessageBatchResponse, Throwable> logBatchResponse() {
-        return (result, exception) -> {
-                if (exception != null) {
-                    LOG.error("Failed to send batch of messages: " + exception.getMessage(), exception);
-                }
-                if (result != null) {
-                    if (!result.successful().isEmpty()) {
-                        LOG.debug("Successfully sent {} messages in a batch", result.successful().size());
-                    }
-                    if (!result.failed().isEmpty()) {
-                        LOG.error("Failed to sent {} messages in a batch: {}", result.failed().size(), result.failed());
-                    }
-                }
-        };
+    /**
+     * Returns the size of a message as calculated by SQS: the size of the body, plus the names, types and values
+     * of the message attributes.
+     */
+    private int payloadSizeOf(final @Nonnull TextMessage message) {
+        int size = message.getPayload() != null ? utf8Length(message.getPayload()) : 0;
+        for (final Map.Entry<String, MessageAttributeValue> attribute : of(message).entrySet()) {
+            size += utf8Length(attribute.getKey())
+                    + utf8Length(attribute.getValue().dataType())
+                    + utf8Length(attribute.getValue().stringValue());
+        }
+        return size;
+    }
+
+    private static int utf8Length(final String value) {
+        return value.getBytes(UTF_8).length;
+    }
+
+    private final class PendingEntry {
+        private final TextMessage message;
+        private final int payloadSize;
+        private final CompletableFuture<Void> sent = new CompletableFuture<>();
+
+        private PendingEntry(final TextMessage message) {
+            this.message = message;
+            this.payloadSize = payloadSizeOf(message);
+        }
     }
 
 }
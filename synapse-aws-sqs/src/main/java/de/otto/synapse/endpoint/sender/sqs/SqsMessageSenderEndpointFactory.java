@@ -12,24 +12,41 @@ import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 
 import javax.annotation.Nonnull;
+import java.time.Duration;
 
 public class SqsMessageSenderEndpointFactory implements MessageSenderEndpointFactory {
 
     private final MessageInterceptorRegistry registry;
     private final MessageTranslator<TextMessage> messageTranslator;
     private final SqsAsyncClient sqsAsyncClient;
+    private final Duration lingerTime;
 
     public SqsMessageSenderEndpointFactory(final MessageInterceptorRegistry registry,
                                            final SqsAsyncClient sqsAsyncClient) {
+        this(registry, sqsAsyncClient, null);
+    }
+
+    /**
+     * @param registry registry used to intercept messages
+     * @param sqsAsyncClient the SQS client
+     * @param lingerTime the maximum time single messages are buffered, before they are sent in a batch, or
+     *                   {@code null} to use the default of the {@link SqsMessageSender}
+     */
+    public SqsMessageSenderEndpointFactory(final MessageInterceptorRegistry registry,
+                                           final SqsAsyncClient sqsAsyncClient,
+                                           final Duration lingerTime) {
         this.registry = registry;
         this.messageTranslator = new TextMessageTranslator();
         this.sqsAsyncClient = sqsAsyncClient;
+        this.lingerTime = lingerTime;
     }
 
     @Override
     public MessageSenderEndpoint create(final @Nonnull String channelName) {
         try {
-            return new SqsMessageSender(channelName, urlOf(channelName), registry, messageTranslator, sqsAsyncClient);
+            return lingerTime != null
+                    ? new SqsMessageSender(channelName, urlOf(channelName), registry, messageTranslator, sqsAsyncClient, lingerTime)
+                    : new SqsMessageSender(channelName, urlOf(channelName), registry, messageTranslator, sqsAsyncClient);
         } catch (Exception e) {
             throw new RuntimeException("Failed to get queueUrl for channel=" + channelName + ": " + e.getMessage(), e);
         }
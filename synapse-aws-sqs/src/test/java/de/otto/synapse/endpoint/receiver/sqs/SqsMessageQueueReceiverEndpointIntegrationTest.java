@@ -5,6 +5,7 @@ import de.otto.synapse.annotation.EnableMessageSenderEndpoint;
 import de.otto.synapse.channel.selector.MessageQueue;
 import de.otto.synapse.configuration.aws.AwsProperties;
 import de.otto.synapse.configuration.sqs.SqsAutoConfiguration;
+import de.otto.synapse.configuration.sqs.SqsProperties;
 import de.otto.synapse.endpoint.SqsClientHelper;
 import de.otto.synapse.endpoint.sender.MessageSenderEndpoint;
 import org.junit.After;
@@ -93,7 +94,7 @@ public class SqsMessageQueueReceiverEndpointIntegrationTest {
                         AwsBasicCredentials.create("foobar", "foobar")))
                 .overrideConfiguration(ClientOverrideConfiguration.builder()
                         .apiCallAttemptTimeout(Duration.ofMillis(200))
-                        .retryPolicy(new SqsAutoConfiguration(awsProperties)
+                        .retryPolicy(new SqsAutoConfiguration(awsProperties, new SqsProperties())
                                 .sqsRetryPolicy()).build())
                 .endpointOverride(URI.create("http://localhost:8080/"))
                 .build();
@@ -23,15 +23,25 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
 import static de.otto.synapse.endpoint.MessageInterceptorRegistration.receiverChannelsWith;
 import static de.otto.synapse.endpoint.sender.sqs.SqsMessageSender.MSG_KEY_ATTR;
 import static java.util.Collections.singletonMap;
 import static java.util.Collections.synchronizedList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -55,6 +65,7 @@ public class SqsMessageQueueReceiverEndpointTest {
 
     private SqsMessageQueueReceiverEndpoint sqsQueueReceiver;
     private List<Message<String>> messages = synchronizedList(new ArrayList<>());
+    private List<String> deletedReceiptHandles = synchronizedList(new ArrayList<>());
     private MessageInterceptorRegistry interceptorRegistry;
 
 
@@ -64,7 +75,13 @@ public class SqsMessageQueueReceiverEndpointTest {
         MockitoAnnotations.initMocks(this);
         when(sqsAsyncClient.getQueueUrl(any(GetQueueUrlRequest.class)))
                 .thenReturn(completedFuture(GetQueueUrlResponse.builder().queueUrl(QUEUE_URL).build()));
-        when(sqsAsyncClient.deleteMessage(any(DeleteMessageRequest.class))).thenReturn(completedFuture(DeleteMessageResponse.builder().build()));
+        deletedReceiptHandles.clear();
+        when(sqsAsyncClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).thenAnswer(invocation -> {
+            final DeleteMessageBatchRequest request = invocation.getArgument(0);
+            assertThat(request.queueUrl(), is(QUEUE_URL));
+            request.entries().forEach(entry -> deletedReceiptHandles.add(entry.receiptHandle()));
+            return completedFuture(DeleteMessageBatchResponse.builder().build());
+        });
         interceptorRegistry = new MessageInterceptorRegistry();
         sqsQueueReceiver = new SqsMessageQueueReceiverEndpoint("channelName", interceptorRegistry, sqsAsyncClient, newSingleThreadExecutor(), null);
         sqsQueueReceiver.register(MessageConsumer.of(".*", String.class, (message) -> messages.add(message)));
@@ -164,8 +181,6 @@ public class SqsMessageQueueReceiverEndpointTest {
         sqsQueueReceiver = new SqsMessageQueueReceiverEndpoint("channelName", new MessageInterceptorRegistry(), sqsAsyncClient, newSingleThreadExecutor(), null);
         sqsQueueReceiver.register(MessageConsumer.of(".*", TestFoo.class, typedMessages::add));
 
-        final ArgumentCaptor<DeleteMessageRequest> deleteRequestCaptor = ArgumentCaptor.forClass(DeleteMessageRequest.class);
-
         // when: consumption is started
         sqsQueueReceiver.consume();
 
@@ -182,8 +197,11 @@ public class SqsMessageQueueReceiverEndpointTest {
         assertThat(typedMessages.get(0).getPayload(), is(new TestFoo("blue")));
 
         // and:
-        // expect delete message to be executed
-        verify(sqsAsyncClient, times(1)).deleteMessage(deleteRequestCaptor.capture());
+        // expect only the consumed message to be deleted
+        await()
+                .atMost(Duration.FIVE_SECONDS)
+                .until(() -> deletedReceiptHandles.size() == 1);
+        assertThat(deletedReceiptHandles, contains("receipt-third-" + PAYLOAD_3));
     }
 
     @Test
@@ -221,8 +239,6 @@ public class SqsMessageQueueReceiverEndpointTest {
                 sqsMessage("some of", PAYLOAD_2),
                 sqsMessage("some of", PAYLOAD_3));
 
-        ArgumentCaptor<DeleteMessageRequest> deleteRequestCaptor = ArgumentCaptor.forClass(DeleteMessageRequest.class);
-
         // when: consumption is started
         sqsQueueReceiver.consume();
 
@@ -233,14 +249,142 @@ public class SqsMessageQueueReceiverEndpointTest {
                 .until(() -> messages.size() >= EXPECTED_NUMBER_OF_ENTRIES);
 
         // and:
-        // expect delete message to be executed
-        verify(sqsAsyncClient, times(3)).deleteMessage(deleteRequestCaptor.capture());
+        // expect the messages to be deleted using a single batch request
+        await()
+                .atMost(Duration.FIVE_SECONDS)
+                .until(() -> deletedReceiptHandles.size() == 3);
+        verify(sqsAsyncClient, times(1)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(sqsAsyncClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+    }
 
-        //and: the request should contain the queue url
-        List<DeleteMessageRequest> deleteMessageRequests = deleteRequestCaptor.getAllValues();
-        deleteMessageRequests.forEach(req -> {
-            assertThat(req.queueUrl(), is(QUEUE_URL));
-        });
+    @Test
+    public void shouldReceiveBatchesOfUpToTenMessages() {
+        // given:
+        addSqsMessagesToQueue(sqsMessage("some of", PAYLOAD_1));
+        final ArgumentCaptor<ReceiveMessageRequest> receiveRequestCaptor = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+
+        // when: consumption is started
+        sqsQueueReceiver.consume();
+
+        // then:
+        await()
+                .atMost(Duration.FIVE_SECONDS)
+                .until(() -> messages.size() == 1);
+        verify(sqsAsyncClient, atLeastOnce()).receiveMessage(receiveRequestCaptor.capture());
+        assertThat(receiveRequestCaptor.getAllValues().get(0).maxNumberOfMessages(), is(10));
+        assertThat(receiveRequestCaptor.getAllValues().get(0).queueUrl(), is(QUEUE_URL));
+    }
+
+    @Test
+    public void shouldProcessMessagesWithSameKeyInOrder() {
+        // given:
+        addSqsMessagesToQueue(
+                sqsMessage("first", "1"),
+                sqsMessage("second", "1"),
+                sqsMessage("first", "2"),
+                sqsMessage("second", "2"),
+                sqsMessage("first", "3"),
+                sqsMessage("second", "3"));
+
+        sqsQueueReceiver = new SqsMessageQueueReceiverEndpoint("channelName", new MessageInterceptorRegistry(), sqsAsyncClient, newFixedThreadPool(2), null, 2, 4, true);
+        sqsQueueReceiver.register(MessageConsumer.of(".*", String.class, (message) -> messages.add(message)));
+
+        // when: consumption is started
+        sqsQueueReceiver.consume();
+
+        // then:
+        await()
+                .atMost(Duration.FIVE_SECONDS)
+                .until(() -> messages.size() == 6);
+        assertThat(payloadsOf("first"), contains("1", "2", "3"));
+        assertThat(payloadsOf("second"), contains("1", "2", "3"));
+    }
+
+    @Test
+    public void shouldProcessMessagesWithoutKeyConcurrently() {
+        // given:
+        addSqsMessagesToQueue(
+                sqsMessageWithoutKey("1"),
+                sqsMessageWithoutKey("2"));
+        final CountDownLatch bothProcessing = new CountDownLatch(2);
+
+        sqsQueueReceiver = new SqsMessageQueueReceiverEndpoint("channelName", new MessageInterceptorRegistry(), sqsAsyncClient, newSingleThreadExecutor(), null, 1, 2, true);
+        sqsQueueReceiver.register(MessageConsumer.of(".*", String.class, (message) -> {
+            bothProcessing.countDown();
+            // only completes if the other message is processed at the same time:
+            if (awaitUninterruptibly(bothProcessing, 5, SECONDS)) {
+                messages.add(message);
+            }
+        }));
+
+        // when: consumption is started
+        sqsQueueReceiver.consume();
+
+        // then:
+        await()
+                .atMost(Duration.FIVE_SECONDS)
+                .until(() -> messages.size() == 2);
+    }
+
+    @Test
+    public void shouldExtendVisibilityTimeoutOfSlowMessages() {
+        // given:
+        addSqsMessagesToQueue(sqsMessage("some of", PAYLOAD_1));
+        when(sqsAsyncClient.changeMessageVisibility(any(ChangeMessageVisibilityRequest.class)))
+                .thenReturn(completedFuture(ChangeMessageVisibilityResponse.builder().build()));
+        final ArgumentCaptor<ChangeMessageVisibilityRequest> visibilityRequestCaptor = ArgumentCaptor.forClass(ChangeMessageVisibilityRequest.class);
+
+        sqsQueueReceiver = new SqsMessageQueueReceiverEndpoint("channelName", new MessageInterceptorRegistry(), sqsAsyncClient, newSingleThreadExecutor(), null);
+        sqsQueueReceiver.register(MessageConsumer.of(".*", String.class, (message) -> {
+            await()
+                    .atMost(Duration.FIVE_SECONDS)
+                    .until(() -> mockingDetails(sqsAsyncClient).getInvocations().stream()
+                            .anyMatch(invocation -> invocation.getMethod().getName().equals("changeMessageVisibility")));
+            messages.add(message);
+        }));
+
+        // when: consumption is started
+        sqsQueueReceiver.consume();
+
+        // then:
+        await()
+                .atMost(Duration.TEN_SECONDS)
+                .until(() -> messages.size() == 1);
+        verify(sqsAsyncClient, atLeastOnce()).changeMessageVisibility(visibilityRequestCaptor.capture());
+        assertThat(visibilityRequestCaptor.getValue().receiptHandle(), is("receipt-some of-" + PAYLOAD_1));
+        assertThat(visibilityRequestCaptor.getValue().queueUrl(), is(QUEUE_URL));
+        await()
+                .atMost(Duration.FIVE_SECONDS)
+                .until(() -> deletedReceiptHandles.size() == 1);
+    }
+
+    @Test
+    public void shouldWaitForLongPollingAndProcessingOfMessagesOnStop() {
+        // given:
+        final ReceiveMessageResponse emptyResponse = ReceiveMessageResponse.builder().messages(ImmutableList.of()).build();
+        when(sqsAsyncClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(completedFuture(ReceiveMessageResponse.builder().messages(sqsMessage("some of", PAYLOAD_1)).build()))
+                .thenAnswer(invocation -> CompletableFuture.supplyAsync(() -> {
+                    // long-polling request without new messages:
+                    sleepUninterruptibly(2, SECONDS);
+                    return emptyResponse;
+                }));
+        final CountDownLatch processing = new CountDownLatch(1);
+        sqsQueueReceiver = new SqsMessageQueueReceiverEndpoint("channelName", new MessageInterceptorRegistry(), sqsAsyncClient, newSingleThreadExecutor(), null);
+        sqsQueueReceiver.register(MessageConsumer.of(".*", String.class, (message) -> {
+            processing.countDown();
+            sleepUninterruptibly(3500, MILLISECONDS);
+            messages.add(message);
+        }));
+        sqsQueueReceiver.consume();
+        awaitUninterruptibly(processing);
+
+        // when
+        sqsQueueReceiver.stop();
+
+        // then
+        assertThat(messages, hasSize(1));
+        assertThat(deletedReceiptHandles, contains("receipt-some of-" + PAYLOAD_1));
     }
 
     @Test
@@ -311,7 +455,9 @@ public class SqsMessageQueueReceiverEndpointTest {
 
         // and:
         // expect the message to be deleted
-        verify(sqsAsyncClient, times(2)).deleteMessage(any(DeleteMessageRequest.class));
+        await()
+                .atMost(Duration.FIVE_SECONDS)
+                .until(() -> deletedReceiptHandles.size() == 2);
     }
 
     @Test(expected = RuntimeException.class)
@@ -325,19 +471,26 @@ public class SqsMessageQueueReceiverEndpointTest {
     }
 
     private void expectExceptionToBeThrownAndNotDeleteMessage() throws Throwable{
-        ArgumentCaptor<DeleteMessageRequest> deleteRequestCaptor = ArgumentCaptor.forClass(DeleteMessageRequest.class);
-
         try {
             sqsQueueReceiver.consume().get();
             fail();
         } catch (ExecutionException e) {
             // and:
-            // expect delete message to be executed
-            verify(sqsAsyncClient, never()).deleteMessage(deleteRequestCaptor.capture());
+            // expect no message to be deleted
+            assertThat(deletedReceiptHandles, is(empty()));
             throw e.getCause();
         }
     }
 
+    private List<String> payloadsOf(final String key) {
+        synchronized (messages) {
+            return messages.stream()
+                    .filter(message -> message.getKey().equals(Key.of(key)))
+                    .map(Message::getPayload)
+                    .collect(toList());
+        }
+    }
+
 
     private void addSqsMessagesToQueue(software.amazon.awssdk.services.sqs.model.Message... sqsMessages) {
         //and: some records
@@ -354,10 +507,19 @@ public class SqsMessageQueueReceiverEndpointTest {
                 .thenReturn(CompletableFuture.completedFuture(emptyResponse));
     }
 
+    private software.amazon.awssdk.services.sqs.model.Message sqsMessageWithoutKey(String body) {
+        return software.amazon.awssdk.services.sqs.model.Message
+                .builder()
+                .receiptHandle("receipt-" + body)
+                .body(body)
+                .build();
+    }
+
     private software.amazon.awssdk.services.sqs.model.Message sqsMessage(String key, String body) {
         return software.amazon.awssdk.services.sqs.model.Message
                 .builder()
                 .messageAttributes(singletonMap(MSG_KEY_ATTR, MessageAttributeValue.builder().dataType("String").stringValue(key).build()))
+                .receiptHandle("receipt-" + key + "-" + body)
                 .body(body)
                 .build();
     }
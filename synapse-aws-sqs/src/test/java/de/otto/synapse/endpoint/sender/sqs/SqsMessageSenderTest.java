@@ -1,6 +1,7 @@
 package de.otto.synapse.endpoint.sender.sqs;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Strings;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.message.Header;
 import de.otto.synapse.message.Message;
@@ -17,15 +18,23 @@ import org.mockito.junit.MockitoJUnitRunner;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static com.google.common.collect.ImmutableMap.of;
 import static de.otto.synapse.endpoint.MessageInterceptorRegistration.senderChannelsWith;
 import static de.otto.synapse.message.Message.message;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.allOf;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -250,6 +259,142 @@ public class SqsMessageSenderTest {
         assertThat(requestArgumentCaptor.getValue().messageBody(), is(nullValue()));
     }
 
+    @Test
+    public void shouldSplitBatchIntoBatchesOfTenEntries() {
+        // given
+        when(sqsAsyncClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> completedFuture(SendMessageBatchResponse.builder().build()));
+
+        // when
+        sqsMessageSender.sendBatch(IntStream.range(0, 25).mapToObj(i -> message("key-" + i, new ExampleJsonObject("value-" + i)))).join();
+
+        // then
+        verify(sqsAsyncClient, times(3)).sendMessageBatch(batchRequestArgumentCaptor.capture());
+        final List<SendMessageBatchRequest> capturedRequests = batchRequestArgumentCaptor.getAllValues();
+        assertThat(capturedRequests.get(0).entries(), hasSize(10));
+        assertThat(capturedRequests.get(1).entries(), hasSize(10));
+        assertThat(capturedRequests.get(2).entries(), hasSize(5));
+        assertThat(capturedRequests.get(2).entries().get(4).messageBody(), is("{\"value\":\"value-24\"}"));
+    }
+
+    @Test
+    public void shouldSplitBatchExceedingMaxPayloadSize() {
+        // given
+        final String largeValue = Strings.repeat("x", 100 * 1024);
+        when(sqsAsyncClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> completedFuture(SendMessageBatchResponse.builder().build()));
+        when(sqsAsyncClient.sendMessage(any(SendMessageRequest.class))).thenReturn(completedFuture(SendMessageResponse.builder().build()));
+
+        // when
+        sqsMessageSender.sendBatch(Stream.of(
+                message("a", new ExampleJsonObject(largeValue)),
+                message("b", new ExampleJsonObject(largeValue)),
+                message("c", new ExampleJsonObject(largeValue))
+        )).join();
+
+        // then
+        verify(sqsAsyncClient).sendMessageBatch(batchRequestArgumentCaptor.capture());
+        verify(sqsAsyncClient).sendMessage(requestArgumentCaptor.capture());
+        assertThat(batchRequestArgumentCaptor.getValue().entries(), hasSize(2));
+        assertThat(requestArgumentCaptor.getValue().messageAttributes(), hasEntry("synapse_msg_key", MessageAttributeValue.builder().dataType("String").stringValue("c").build()));
+    }
+
+    @Test
+    public void shouldBufferSingleMessagesIntoSharedBatch() {
+        // given
+        sqsMessageSender = new SqsMessageSender("test", "https://example.com/test", interceptorRegistry, messageTranslator, sqsAsyncClient, Duration.ofSeconds(10));
+        when(sqsAsyncClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> completedFuture(SendMessageBatchResponse.builder().build()));
+
+        // when
+        final List<CompletableFuture<Void>> futures = IntStream.range(0, 10)
+                .mapToObj(i -> sqsMessageSender.send(message("key-" + i, new ExampleJsonObject("value-" + i))))
+                .collect(toList());
+        futures.forEach(CompletableFuture::join);
+
+        // then
+        verify(sqsAsyncClient).sendMessageBatch(batchRequestArgumentCaptor.capture());
+        verify(sqsAsyncClient, never()).sendMessage(any(SendMessageRequest.class));
+        assertThat(batchRequestArgumentCaptor.getValue().entries(), hasSize(10));
+    }
+
+    @Test
+    public void shouldSendBufferedMessagesAfterLingerTime() {
+        // given
+        sqsMessageSender = new SqsMessageSender("test", "https://example.com/test", interceptorRegistry, messageTranslator, sqsAsyncClient, Duration.ofMillis(50));
+        when(sqsAsyncClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> completedFuture(SendMessageBatchResponse.builder().build()));
+
+        // when
+        final CompletableFuture<Void> first = sqsMessageSender.send(message("a", new ExampleJsonObject("apple")));
+        final CompletableFuture<Void> second = sqsMessageSender.send(message("b", new ExampleJsonObject("banana")));
+        allOf(first, second).join();
+
+        // then
+        verify(sqsAsyncClient).sendMessageBatch(batchRequestArgumentCaptor.capture());
+        assertThat(batchRequestArgumentCaptor.getValue().entries(), hasSize(2));
+    }
+
+    @Test
+    public void shouldRetryOnlyFailedEntries() {
+        // given
+        sqsMessageSender = new SqsMessageSender("test", "https://example.com/test", interceptorRegistry, messageTranslator, sqsAsyncClient, Duration.ZERO, Duration.ofMillis(1));
+        when(sqsAsyncClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenReturn(completedFuture(SendMessageBatchResponse.builder()
+                        .successful(SendMessageBatchResultEntry.builder().id("0").build(), SendMessageBatchResultEntry.builder().id("2").build())
+                        .failed(BatchResultErrorEntry.builder().id("1").code("ServiceUnavailable").senderFault(false).build())
+                        .build()))
+                .thenReturn(completedFuture(SendMessageBatchResponse.builder()
+                        .successful(SendMessageBatchResultEntry.builder().id("0").build())
+                        .build()));
+
+        // when
+        sqsMessageSender.sendBatch(Stream.of(
+                message("a", new ExampleJsonObject("apple")),
+                message("b", new ExampleJsonObject("banana")),
+                message("c", new ExampleJsonObject("cherry"))
+        )).join();
+
+        // then
+        verify(sqsAsyncClient, times(2)).sendMessageBatch(batchRequestArgumentCaptor.capture());
+        final SendMessageBatchRequest retryRequest = batchRequestArgumentCaptor.getAllValues().get(1);
+        assertThat(retryRequest.entries(), hasSize(1));
+        assertThat(retryRequest.entries().get(0).id(), is("0"));
+        assertThat(retryRequest.entries().get(0).messageBody(), is("{\"value\":\"banana\"}"));
+    }
+
+    @Test
+    public void shouldCompleteFuturesFromOwnEntryResult() {
+        // given
+        sqsMessageSender = new SqsMessageSender("test", "https://example.com/test", interceptorRegistry, messageTranslator, sqsAsyncClient, Duration.ofSeconds(10), Duration.ofMillis(1));
+        when(sqsAsyncClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> {
+            final SendMessageBatchRequest request = invocation.getArgument(0);
+            return completedFuture(SendMessageBatchResponse.builder()
+                    .failed(request.entries().stream()
+                            .filter(entry -> entry.messageBody().contains("broken"))
+                            .map(entry -> BatchResultErrorEntry.builder().id(entry.id()).code("InvalidMessageContents").senderFault(true).build())
+                            .collect(toList()))
+                    .build());
+        });
+
+        // when
+        final List<CompletableFuture<Void>> futures = IntStream.range(0, 10)
+                .mapToObj(i -> sqsMessageSender.send(message("key-" + i, new ExampleJsonObject(i == 3 ? "broken" : "value-" + i))))
+                .collect(toList());
+
+        // then
+        for (int i = 0; i < futures.size(); i++) {
+            if (i == 3) {
+                try {
+                    futures.get(i).join();
+                    fail();
+                } catch (final CompletionException e) {
+                    assertThat(e.getCause(), instanceOf(SqsException.class));
+                    assertThat(((SqsException) e.getCause()).awsErrorDetails().errorCode(), is("InvalidMessageContents"));
+                }
+            } else {
+                futures.get(i).join();
+            }
+        }
+        verify(sqsAsyncClient, times(1)).sendMessageBatch(any(SendMessageBatchRequest.class));
+    }
+
     private static class ExampleJsonObject {
         @JsonProperty
         private String value;
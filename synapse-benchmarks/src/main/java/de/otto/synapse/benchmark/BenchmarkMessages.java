@@ -0,0 +1,61 @@
+package de.otto.synapse.benchmark;
+
+import de.otto.synapse.message.Header;
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+
+/**
+ * Test data shared by the different benchmarks.
+ */
+public final class BenchmarkMessages {
+
+    public static final String CHANNEL_NAME = "benchmark-channel";
+
+    /**
+     * A typical (small) entity payload.
+     */
+    public static final String PAYLOAD = "{" +
+            "\"id\":\"4711\"," +
+            "\"name\":\"Some Product\"," +
+            "\"brand\":\"Some Brand\"," +
+            "\"price\":4200," +
+            "\"available\":true," +
+            "\"tags\":[\"foo\",\"bar\",\"foobar\"]," +
+            "\"variation\":{\"size\":\"XL\",\"color\":\"red\"}" +
+            "}";
+
+    /**
+     * Returns a list of text messages with distinct keys, a shard position and some header attributes.
+     *
+     * @param numberOfMessages the number of messages
+     * @param numberOfKeys the number of distinct keys
+     * @return list of messages
+     */
+    public static List<TextMessage> someTextMessages(final int numberOfMessages,
+                                                     final int numberOfKeys) {
+        final List<TextMessage> messages = new ArrayList<>(numberOfMessages);
+        for (int i = 0; i < numberOfMessages; i++) {
+            messages.add(someTextMessage(i, i % numberOfKeys));
+        }
+        return messages;
+    }
+
+    public static TextMessage someTextMessage(final int sequenceNumber, final int keyNumber) {
+        return TextMessage.of(
+                Key.of("product-" + keyNumber, "ProductUpdated#product-" + keyNumber),
+                Header.builder()
+                        .withShardPosition(fromPosition("shard-" + (keyNumber % 4), String.valueOf(sequenceNumber)))
+                        .withAttribute("synapse_msg_sender", "synapse-benchmarks")
+                        .withAttribute("some-attribute", "some-value")
+                        .build(),
+                PAYLOAD);
+    }
+
+    private BenchmarkMessages() {
+    }
+}
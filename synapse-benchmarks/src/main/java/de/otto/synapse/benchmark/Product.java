@@ -0,0 +1,19 @@
+package de.otto.synapse.benchmark;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entity matching the {@link BenchmarkMessages#PAYLOAD} that is used by benchmarks deserializing payloads.
+ */
+public class Product {
+
+    public String id;
+    public String name;
+    public String brand;
+    public long price;
+    public boolean available;
+    public List<String> tags;
+    public Map<String, String> variation;
+
+}
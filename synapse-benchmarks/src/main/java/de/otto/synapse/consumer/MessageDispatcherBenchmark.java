@@ -0,0 +1,54 @@
+package de.otto.synapse.consumer;
+
+import de.otto.synapse.benchmark.Product;
+import de.otto.synapse.message.TextMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.benchmark.BenchmarkMessages.someTextMessage;
+
+/**
+ * Measures {@link MessageDispatcher#accept(TextMessage)} with several consumers registered for the same channel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageDispatcherBenchmark {
+
+    @Param({"1", "6", "10"})
+    public int numberOfConsumers;
+
+    private MessageDispatcher messageDispatcher;
+    private TextMessage message;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        final List<MessageConsumer<?>> consumers = new ArrayList<>();
+        for (int i = 0; i < numberOfConsumers; i++) {
+            switch (i % 3) {
+                case 0:
+                    consumers.add(MessageConsumer.of(".*", Product.class, blackhole::consume));
+                    break;
+                case 1:
+                    consumers.add(MessageConsumer.of("ProductUpdated#.*", Product.class, blackhole::consume));
+                    break;
+                default:
+                    consumers.add(MessageConsumer.of("(Product|Price)Updated#product-[0-9]+", String.class, blackhole::consume));
+            }
+        }
+        messageDispatcher = new MessageDispatcher(consumers);
+        message = someTextMessage(42, 42);
+    }
+
+    @Benchmark
+    public void accept() {
+        messageDispatcher.accept(message);
+    }
+}
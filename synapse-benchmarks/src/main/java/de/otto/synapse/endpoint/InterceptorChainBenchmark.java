@@ -0,0 +1,42 @@
+package de.otto.synapse.endpoint;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.message.TextMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.benchmark.BenchmarkMessages.someTextMessage;
+
+/**
+ * Measures {@link InterceptorChain#intercept(TextMessage)} using the default receiver and sender interceptors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorChainBenchmark {
+
+    @Param({"0", "1", "5"})
+    public int numberOfInterceptors;
+
+    private InterceptorChain interceptorChain;
+    private TextMessage message;
+
+    @Setup
+    public void setup() {
+        final ImmutableList.Builder<MessageInterceptor> interceptors = ImmutableList.builder();
+        for (int i = 0; i < numberOfInterceptors; i++) {
+            interceptors.add(message -> TextMessage.of(message.getKey(), message.getHeader(), message.getPayload()));
+        }
+        interceptorChain = new InterceptorChain(interceptors.build());
+        message = someTextMessage(42, 42);
+    }
+
+    @Benchmark
+    public TextMessage intercept() {
+        return interceptorChain.intercept(message);
+    }
+}
@@ -0,0 +1,50 @@
+package de.otto.synapse.endpoint.receiver.kinesis;
+
+import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.translator.MessageFormat;
+import de.otto.synapse.translator.TextEncoder;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.model.Record;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.benchmark.BenchmarkMessages.someTextMessage;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures decoding of Kinesis {@link Record records} into {@link TextMessage text messages} using the
+ * {@link KinesisDecoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KinesisDecoderBenchmark {
+
+    @Param({"V1", "V2", "V3"})
+    public MessageFormat messageFormat;
+
+    private KinesisDecoder decoder;
+    private RecordWithShard record;
+
+    @Setup
+    public void setup() {
+        decoder = new KinesisDecoder();
+        final TextMessage message = someTextMessage(42, 42);
+        record = new RecordWithShard("shard-0", Record.builder()
+                .partitionKey(message.getKey().partitionKey())
+                .sequenceNumber("49590338271490256608559692538361571095921575989136588898")
+                .approximateArrivalTimestamp(Instant.now())
+                .data(SdkBytes.fromString(new TextEncoder(messageFormat).apply(message), UTF_8))
+                .build());
+    }
+
+    @Benchmark
+    public TextMessage decode() {
+        return decoder.apply(record);
+    }
+}
@@ -0,0 +1,39 @@
+package de.otto.synapse.endpoint.sender.kinesis;
+
+import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.translator.MessageFormat;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.benchmark.BenchmarkMessages.someTextMessage;
+
+/**
+ * Measures encoding of messages into Kinesis {@link PutRecordsRequestEntry records} using the {@link KinesisEncoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KinesisEncoderBenchmark {
+
+    @Param({"V1", "V2", "V3"})
+    public MessageFormat messageFormat;
+
+    private KinesisEncoder encoder;
+    private TextMessage message;
+
+    @Setup
+    public void setup() {
+        encoder = new KinesisEncoder(messageFormat);
+        message = someTextMessage(42, 42);
+    }
+
+    @Benchmark
+    public PutRecordsRequestEntry encode() {
+        return encoder.apply(message);
+    }
+}
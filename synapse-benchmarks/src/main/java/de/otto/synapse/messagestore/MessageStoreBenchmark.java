@@ -0,0 +1,93 @@
+package de.otto.synapse.messagestore;
+
+import de.otto.synapse.message.TextMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.benchmark.BenchmarkMessages.CHANNEL_NAME;
+import static de.otto.synapse.benchmark.BenchmarkMessages.someTextMessages;
+import static de.otto.synapse.messagestore.Indexers.partitionKeyIndexer;
+
+/**
+ * Measures {@link MessageStore#add(MessageStoreEntry)} and {@link MessageStore#stream()} of the different
+ * {@link MessageStore} implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageStoreBenchmark {
+
+    private static final int NUMBER_OF_ENTRIES = 10_000;
+    private static final int NUMBER_OF_KEYS = 1_000;
+
+    @Param({"OnHeapIndexing", "OnHeapCompacting", "OnHeapRingBuffer", "OffHeapIndexing", "OffHeapCompacting"})
+    public String messageStoreType;
+
+    private MessageStoreEntry[] entries;
+    private MessageStore addStore;
+    private MessageStore streamStore;
+    private int nextEntry;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final List<TextMessage> messages = someTextMessages(NUMBER_OF_ENTRIES, NUMBER_OF_KEYS);
+        entries = new MessageStoreEntry[messages.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = MessageStoreEntry.of(CHANNEL_NAME, messages.get(i));
+        }
+        streamStore = createMessageStore();
+        for (final MessageStoreEntry entry : entries) {
+            streamStore.add(entry);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        addStore = createMessageStore();
+        nextEntry = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        addStore.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        streamStore.close();
+    }
+
+    @Benchmark
+    public void add() {
+        addStore.add(entries[nextEntry++ % entries.length]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void stream(final Blackhole blackhole) {
+        streamStore.stream().forEach(blackhole::consume);
+    }
+
+    private MessageStore createMessageStore() {
+        switch (messageStoreType) {
+            case "OnHeapIndexing":
+                return new OnHeapIndexingMessageStore(partitionKeyIndexer());
+            case "OnHeapCompacting":
+                return new OnHeapCompactingMessageStore(true);
+            case "OnHeapRingBuffer":
+                return new OnHeapRingBufferMessageStore(NUMBER_OF_ENTRIES);
+            case "OffHeapIndexing":
+                return new OffHeapIndexingMessageStore("benchmark", partitionKeyIndexer());
+            case "OffHeapCompacting":
+                return new OffHeapCompactingMessageStore(true);
+            default:
+                throw new IllegalArgumentException("Unknown MessageStore type " + messageStoreType);
+        }
+    }
+}
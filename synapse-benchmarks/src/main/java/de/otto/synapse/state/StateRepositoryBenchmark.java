@@ -0,0 +1,86 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.benchmark.Product;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.benchmark.BenchmarkMessages.PAYLOAD;
+import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
+
+/**
+ * Measures {@link StateRepository#compute(String, java.util.function.BiFunction)} and
+ * {@link StateRepository#get(String)} of the on-heap and off-heap {@link StateRepository} implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateRepositoryBenchmark {
+
+    private static final int NUMBER_OF_KEYS = 10_000;
+
+    @Param({"ConcurrentMap", "ChronicleMap", "ChronicleMapSmile"})
+    public String stateRepositoryType;
+
+    private StateRepository<Product> stateRepository;
+    private String[] keys;
+    private Product product;
+    private int nextKey;
+
+    @Setup
+    public void setup() throws IOException {
+        product = currentObjectMapper().readValue(PAYLOAD, Product.class);
+        stateRepository = createStateRepository();
+        keys = new String[NUMBER_OF_KEYS];
+        for (int i = 0; i < NUMBER_OF_KEYS; i++) {
+            keys[i] = "product-" + i;
+            stateRepository.put(keys[i], product);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        stateRepository.close();
+    }
+
+    @Benchmark
+    public Optional<Product> get() {
+        return stateRepository.get(nextKey());
+    }
+
+    @Benchmark
+    public Optional<Product> compute() {
+        return stateRepository.compute(nextKey(), (key, previous) -> {
+            final Product updated = previous.orElse(product);
+            updated.price++;
+            return updated;
+        });
+    }
+
+    private String nextKey() {
+        return keys[nextKey++ % NUMBER_OF_KEYS];
+    }
+
+    private StateRepository<Product> createStateRepository() {
+        switch (stateRepositoryType) {
+            case "ConcurrentMap":
+                return new ConcurrentMapStateRepository<>("benchmark");
+            case "ChronicleMap":
+                return ChronicleMapStateRepository.builder(Product.class)
+                        .withName("benchmark")
+                        .build();
+            case "ChronicleMapSmile":
+                return ChronicleMapStateRepository.builder(Product.class)
+                        .withName("benchmark")
+                        .withValueCodec(ValueCodecs.smile(Product.class))
+                        .build();
+            default:
+                throw new IllegalArgumentException("Unknown StateRepository type " + stateRepositoryType);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package de.otto.synapse.translator;
+
+import de.otto.synapse.message.TextMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.benchmark.BenchmarkMessages.someTextMessage;
+
+/**
+ * Measures encoding and decoding of messages using {@link TextEncoder} and {@link TextDecoder} for every
+ * supported {@link MessageFormat}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextCodecBenchmark {
+
+    @Param({"V1", "V2", "V3"})
+    public MessageFormat messageFormat;
+
+    private TextEncoder encoder;
+    private TextDecoder decoder;
+    private TextMessage message;
+    private String encodedMessage;
+
+    @Setup
+    public void setup() {
+        encoder = new TextEncoder(messageFormat);
+        decoder = new TextDecoder();
+        message = someTextMessage(42, 42);
+        encodedMessage = encoder.apply(message);
+    }
+
+    @Benchmark
+    public String encode() {
+        return encoder.apply(message);
+    }
+
+    @Benchmark
+    public TextMessage decode() {
+        return decoder.apply(encodedMessage);
+    }
+}
@@ -1,6 +1,7 @@
 package de.otto.synapse.compaction.s3;
 
 import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardResponse;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
 import de.otto.synapse.eventsource.EventSource;
@@ -11,7 +12,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 
+import java.io.File;
 import java.time.Clock;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import static de.otto.synapse.channel.StopCondition.*;
 import static de.otto.synapse.translator.MessageFormat.defaultMessageFormat;
@@ -24,6 +31,9 @@ public class CompactionService {
     private final SnapshotWriteService snapshotWriteService;
     private final EventSourceBuilder eventSourceBuilder;
     private final MessageLogReceiverEndpointFactory messageLogReceiverEndpointFactory;
+    private final SnapshotReadService snapshotReadService;
+    private final int maxDeltaSnapshots;
+    private final SnapshotParser snapshotParser = new SnapshotParser();
     private final Clock clock;
 
     public CompactionService(final SnapshotWriteService snapshotWriteService,
@@ -39,15 +49,113 @@ public class CompactionService {
                              final EventSourceBuilder eventSourceBuilder,
                              final MessageLogReceiverEndpointFactory messageLogReceiverEndpointFactory,
                              final Clock clock)
+    {
+        this(snapshotWriteService, stateRepository, eventSourceBuilder, messageLogReceiverEndpointFactory, null, 0, clock);
+    }
+
+    /**
+     * Creates a CompactionService that is compacting channels incrementally.
+     *
+     * <p>
+     *     As long as less than {@code maxDeltaSnapshots} delta snapshots were written for the latest base snapshot,
+     *     only the messages received after the latest snapshot are consumed, and a delta snapshot containing the
+     *     changed and deleted messages is written. Otherwise, the base snapshot and all delta snapshots are merged
+     *     into a new base snapshot.
+     * </p>
+     * <p>
+     *     Delta snapshots require the {@link SnapshotFormat#PARTITIONED partitioned} snapshot format. If the
+     *     snapshotWriteService is writing legacy snapshots, channels are always compacted fully.
+     * </p>
+     *
+     * @param snapshotWriteService the service used to write snapshots
+     * @param stateRepository the repository used to hold the compacted messages
+     * @param eventSourceBuilder the builder used to create the EventSource that is reading the full snapshot
+     * @param messageLogReceiverEndpointFactory the factory used to create message-log receiver endpoints
+     * @param snapshotReadService the service used to retrieve the latest base and delta snapshots
+     * @param maxDeltaSnapshots the maximum number of delta snapshots per base snapshot. 0 disables incremental
+     *                          compaction.
+     * @param clock the clock used to determine the end of the compacted message log
+     */
+    public CompactionService(final SnapshotWriteService snapshotWriteService,
+                             final StateRepository<String> stateRepository,
+                             final EventSourceBuilder eventSourceBuilder,
+                             final MessageLogReceiverEndpointFactory messageLogReceiverEndpointFactory,
+                             final SnapshotReadService snapshotReadService,
+                             final int maxDeltaSnapshots,
+                             final Clock clock)
     {
         this.snapshotWriteService = snapshotWriteService;
         this.stateRepository = stateRepository;
         this.eventSourceBuilder = eventSourceBuilder;
         this.messageLogReceiverEndpointFactory = messageLogReceiverEndpointFactory;
+        this.snapshotReadService = snapshotReadService;
         this.clock = clock;
+        if (maxDeltaSnapshots > 0 && snapshotWriteService.getFormat() != SnapshotFormat.PARTITIONED) {
+            LOG.warn("Incremental compaction is disabled: delta snapshots require the partitioned snapshot format, but format is {}", snapshotWriteService.getFormat());
+            this.maxDeltaSnapshots = 0;
+        } else {
+            this.maxDeltaSnapshots = maxDeltaSnapshots;
+        }
     }
 
     public String compact(final String channelName, final MessageFormat messageFormat, final Marker marker) {
+        if (snapshotReadService != null && maxDeltaSnapshots > 0) {
+            final Optional<String> baseSnapshot = snapshotReadService.retrieveLatestSnapshotName(channelName);
+            if (baseSnapshot.isPresent()) {
+                final List<File> deltaSnapshots = snapshotReadService.retrieveDeltaSnapshots(channelName, baseSnapshot.get());
+                if (deltaSnapshots.size() < maxDeltaSnapshots) {
+                    return compactIncrementally(channelName, messageFormat, marker, baseSnapshot.get(), deltaSnapshots);
+                }
+                LOG.info(marker, "Merging {} delta snapshots into a new base snapshot", deltaSnapshots.size());
+            }
+        }
+        return compactFully(channelName, messageFormat, marker);
+    }
+
+    private String compactIncrementally(final String channelName,
+                                        final MessageFormat messageFormat,
+                                        final Marker marker,
+                                        final String baseSnapshot,
+                                        final List<File> deltaSnapshots) {
+        final String latestSnapshot;
+        final ChannelPosition startFrom;
+        if (deltaSnapshots.isEmpty()) {
+            latestSnapshot = baseSnapshot;
+            startFrom = snapshotReadService.retrieveChannelPosition(channelName, baseSnapshot);
+        } else {
+            final File latestDeltaSnapshot = deltaSnapshots.get(deltaSnapshots.size() - 1);
+            latestSnapshot = latestDeltaSnapshot.getName();
+            startFrom = snapshotParser.parseChannelPosition(latestDeltaSnapshot);
+        }
+        LOG.info(marker, "Start incremental compaction of channel {} with MessageFormat {} from snapshot {}", channelName, messageFormat, latestSnapshot);
+        stateRepository.clear();
+        final Set<String> deletedKeys = ConcurrentHashMap.newKeySet();
+        final MessageLogReceiverEndpoint messageLog = messageLogReceiverEndpointFactory.create(channelName);
+        messageLog.register(
+                new SnapshotMessageConsumer(
+                        messageFormat,
+                        stateRepository,
+                        deletedKeys)
+        );
+        try {
+            final ChannelPosition currentPosition = messageLog
+                    .consumeUntil(startFrom, stopCondition())
+                    .get();
+
+            LOG.info(marker, "Finished reading changes. {} entries were changed, {} entries were deleted.", stateRepository.size(), deletedKeys.size());
+            if (stateRepository.size() == 0 && deletedKeys.isEmpty()) {
+                return latestSnapshot;
+            }
+            return snapshotWriteService.writeDeltaSnapshot(channelName, baseSnapshot, currentPosition, stateRepository, deletedKeys);
+        } catch (Exception e) {
+            LOG.error(marker, "Exception during compaction.", e);
+            throw new RuntimeException(e);
+        } finally {
+            stateRepository.clear();
+        }
+    }
+
+    private String compactFully(final String channelName, final MessageFormat messageFormat, final Marker marker) {
         LOG.info(marker, "Start compacting channel {} with MessageFormat {}", channelName, messageFormat);
         stateRepository.clear();
         LOG.info(marker, "Start loading entries from snapshot");
@@ -61,11 +169,7 @@ public class CompactionService {
         LOG.info(marker, "Reading event source until either end of channel is reached or messages are younger than {}.", clock.instant());
         try {
             final ChannelPosition currentPosition = compactingKinesisEventSource
-                    .consumeUntil(
-                            endOfChannel()
-                                    .and(emptyResponse())
-                                    .or(arrivalTimestampAfterNow(clock))
-                    )
+                    .consumeUntil(stopCondition())
                     .get();
 
             LOG.info(marker, "Finished updating snapshot data. StateRepository now holds {} entries.", stateRepository.size());
@@ -79,6 +183,12 @@ public class CompactionService {
         }
     }
 
+    private Predicate<ShardResponse> stopCondition() {
+        return endOfChannel()
+                .and(emptyResponse())
+                .or(arrivalTimestampAfterNow(clock));
+    }
+
     public String compact(final String channelName) {
         return compact(channelName, defaultMessageFormat(), null);
     }
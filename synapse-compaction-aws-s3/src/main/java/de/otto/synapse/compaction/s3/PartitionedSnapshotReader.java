@@ -0,0 +1,300 @@
+package de.otto.synapse.compaction.s3;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.message.Header;
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.translator.Decoder;
+import org.slf4j.Logger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Reads the messages of a partitioned snapshot as described by {@link SnapshotManifest}.
+ * <p>
+ *     The chunks of the snapshot are decompressed, verified and decoded in parallel. The {@link SnapshotCodec}
+ *     of every chunk is detected by its magic header. The decoded messages are handed over in batches to the
+ *     thread iterating over the messages, so messages can be dispatched in a single thread. Messages of
+ *     different chunks are returned in no particular order.
+ * </p>
+ */
+@NotThreadSafe
+public class PartitionedSnapshotReader implements Closeable {
+
+    private static final Logger LOG = getLogger(PartitionedSnapshotReader.class);
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAGIC_HEADER_SIZE = 4;
+    private static final Batch END_OF_SNAPSHOT = new Batch(Collections.emptyList(), null);
+
+    private final ZipFile zipFile;
+    private final SnapshotManifest manifest;
+    private final int parallelism;
+    private ExecutorService executorService;
+
+    /**
+     * @param snapshot the partitioned snapshot file
+     * @param parallelism the number of threads used to read the chunks of the snapshot
+     * @throws IOException if the snapshot could not be opened, or if it does not contain a valid manifest
+     */
+    public PartitionedSnapshotReader(final File snapshot,
+                                     final int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be greater than zero");
+        }
+        this.parallelism = parallelism;
+        this.zipFile = new ZipFile(snapshot);
+        try {
+            final ZipEntry manifestEntry = zipFile.getEntry(SnapshotManifest.MANIFEST_ENTRY);
+            if (manifestEntry == null) {
+                throw new IOException("Snapshot " + snapshot.getName() + " does not contain a manifest");
+            }
+            try (final InputStream inputStream = zipFile.getInputStream(manifestEntry)) {
+                this.manifest = SnapshotManifest.readFrom(inputStream);
+            }
+        } catch (final IOException | RuntimeException e) {
+            zipFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true, if the snapshot file is a partitioned snapshot containing a {@link SnapshotManifest manifest}.
+     *
+     * @param snapshot the snapshot file
+     * @return true if the snapshot is partitioned, false if it is a snapshot in the legacy format
+     * @throws IOException if the snapshot is not a valid ZIP file
+     */
+    public static boolean isPartitioned(final File snapshot) throws IOException {
+        try (final ZipFile zipFile = new ZipFile(snapshot)) {
+            return zipFile.getEntry(SnapshotManifest.MANIFEST_ENTRY) != null;
+        }
+    }
+
+    public SnapshotManifest getManifest() {
+        return manifest;
+    }
+
+    public ChannelPosition getChannelPosition() {
+        return manifest.getChannelPosition();
+    }
+
+    /**
+     * Starts reading the chunks of the snapshot and returns an iterator over the messages.
+     * <p>
+     *     The iterator throws an {@link UncheckedIOException} if a chunk can not be read, or if the checksum or
+     *     message count of a chunk does not match the manifest.
+     * </p>
+     *
+     * @param header the header of the returned messages
+     * @return iterator over the messages of the snapshot
+     */
+    public Iterator<TextMessage> messages(final Header header) {
+        if (executorService != null) {
+            throw new IllegalStateException("Messages of the snapshot are already read");
+        }
+        final List<SnapshotManifest.Chunk> chunks = manifest.getChunks();
+        final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(parallelism * 4);
+        executorService = newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("snapshot-reader-%d")
+                .setDaemon(true)
+                .build());
+        if (chunks.isEmpty()) {
+            batches.add(END_OF_SNAPSHOT);
+        }
+        final AtomicInteger remainingChunks = new AtomicInteger(chunks.size());
+        chunks.forEach(chunk -> executorService.execute(() -> {
+            try {
+                readChunk(chunk, header, batches);
+                if (remainingChunks.decrementAndGet() == 0) {
+                    batches.put(END_OF_SNAPSHOT);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final Exception e) {
+                LOG.error("Failed to read chunk {} of snapshot: {}", chunk.getEntryName(), e.getMessage());
+                try {
+                    batches.put(new Batch(Collections.emptyList(), e));
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+        return new MessageIterator(batches);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        zipFile.close();
+    }
+
+    private void readChunk(final SnapshotManifest.Chunk chunk,
+                           final Header header,
+                           final BlockingQueue<Batch> batches) throws IOException, InterruptedException {
+        final byte[] bytes = inflate(chunk);
+        final Decoder<SnapshotMessage> decoder = new SnapshotMessageDecoder();
+        long messages = 0;
+        List<TextMessage> batch = new ArrayList<>(BATCH_SIZE);
+        try (final JsonParser parser = JSON_FACTORY.createParser(bytes)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY, chunk);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                expect(parser.nextToken(), JsonToken.FIELD_NAME, chunk);
+                final String key = parser.getCurrentName();
+                final JsonToken valueToken = parser.nextToken();
+                final String value;
+                if (valueToken == JsonToken.START_OBJECT || valueToken == JsonToken.START_ARRAY) {
+                    final int start = (int) parser.getTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    final int end = (int) parser.getCurrentLocation().getByteOffset();
+                    value = new String(bytes, start, end - start, UTF_8);
+                } else {
+                    value = parser.getValueAsString();
+                }
+                expect(parser.nextToken(), JsonToken.END_OBJECT, chunk);
+                batch.add(decoder.apply(new SnapshotMessage(Key.of(key), header, value)));
+                ++messages;
+                if (batch.size() == BATCH_SIZE) {
+                    batches.put(new Batch(batch, null));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+        }
+        if (messages != chunk.getMessages()) {
+            throw new IOException("Chunk " + chunk.getEntryName() + " contains " + messages + " messages, expected " + chunk.getMessages());
+        }
+        if (!batch.isEmpty()) {
+            batches.put(new Batch(batch, null));
+        }
+    }
+
+    private byte[] inflate(final SnapshotManifest.Chunk chunk) throws IOException {
+        final ZipEntry zipEntry = zipFile.getEntry(chunk.getEntryName());
+        if (zipEntry == null) {
+            throw new IOException("Snapshot does not contain chunk " + chunk.getEntryName());
+        }
+        final byte[] bytes = new byte[Math.toIntExact(chunk.getSize())];
+        try (final InputStream inputStream = decompress(chunk, new BufferedInputStream(zipFile.getInputStream(zipEntry)))) {
+            ByteStreams.readFully(inputStream, bytes);
+            if (inputStream.read() != -1) {
+                throw new IOException("Chunk " + chunk.getEntryName() + " is larger than " + chunk.getSize() + " bytes");
+            }
+        }
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        if (crc32.getValue() != chunk.getCrc32()) {
+            throw new IOException("Checksum mismatch of chunk " + chunk.getEntryName());
+        }
+        return bytes;
+    }
+
+    /**
+     * Detects the {@link SnapshotCodec} of the chunk by the magic header of the entry, and returns the input
+     * stream used to read the decompressed chunk.
+     */
+    private static InputStream decompress(final SnapshotManifest.Chunk chunk,
+                                          final BufferedInputStream inputStream) throws IOException {
+        final byte[] header = new byte[MAGIC_HEADER_SIZE];
+        inputStream.mark(MAGIC_HEADER_SIZE);
+        final int headerSize = ByteStreams.read(inputStream, header, 0, MAGIC_HEADER_SIZE);
+        inputStream.reset();
+        final SnapshotCodec codec = SnapshotCodecs.detect(Arrays.copyOf(header, headerSize))
+                .orElseThrow(() -> new IOException("Unknown codec of chunk " + chunk.getEntryName()));
+        return codec.decompress(inputStream);
+    }
+
+    private static void expect(final JsonToken actual,
+                               final JsonToken expected,
+                               final SnapshotManifest.Chunk chunk) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed chunk " + chunk.getEntryName() + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    private static final class Batch {
+        private final List<TextMessage> messages;
+        private final Exception failure;
+
+        private Batch(final List<TextMessage> messages, final Exception failure) {
+            this.messages = messages;
+            this.failure = failure;
+        }
+    }
+
+    private static final class MessageIterator implements Iterator<TextMessage> {
+
+        private final BlockingQueue<Batch> batches;
+        private Iterator<TextMessage> currentBatch = Collections.emptyIterator();
+        private boolean endOfSnapshot;
+
+        private MessageIterator(final BlockingQueue<Batch> batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentBatch.hasNext() && !endOfSnapshot) {
+                final Batch batch;
+                try {
+                    batch = batches.take();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while reading snapshot", e);
+                }
+                if (batch == END_OF_SNAPSHOT) {
+                    endOfSnapshot = true;
+                } else if (batch.failure != null) {
+                    endOfSnapshot = true;
+                    throw batch.failure instanceof IOException
+                            ? new UncheckedIOException(batch.failure.getMessage(), (IOException) batch.failure)
+                            : new IllegalStateException(batch.failure.getMessage(), batch.failure);
+                } else {
+                    currentBatch = batch.messages.iterator();
+                }
+            }
+            return currentBatch.hasNext();
+        }
+
+        @Override
+        public TextMessage next() {
+            if (hasNext()) {
+                return currentBatch.next();
+            } else {
+                throw new NoSuchElementException("No more messages available");
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package de.otto.synapse.compaction.s3;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.otto.synapse.channel.ChannelPosition;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a partitioned snapshot as described by {@link SnapshotManifest} to an output stream.
+ * <p>
+ *     Messages are buffered per partition. As soon as the buffer of a partition exceeds the chunk size, the
+ *     buffered messages are written as a separately compressed chunk, using the configured {@link SnapshotCodec}.
+ *     The manifest is written as the last entry, after all chunks are written.
+ * </p>
+ */
+@NotThreadSafe
+class PartitionedSnapshotWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final ZipOutputStream zipOutputStream;
+    private final int chunkSize;
+    private final SnapshotCodec codec;
+    private final PartitionBuffer[] partitionBuffers;
+    private final List<SnapshotManifest.Chunk> chunks = new ArrayList<>();
+
+    /**
+     * @param zipOutputStream the stream used to write the snapshot
+     * @param partitions the number of partitions
+     * @param chunkSize the maximum uncompressed size of a chunk in bytes. The size is exceeded, if a single
+     *                  message is larger than the chunk size.
+     */
+    PartitionedSnapshotWriter(final ZipOutputStream zipOutputStream,
+                              final int partitions,
+                              final int chunkSize) throws IOException {
+        this(zipOutputStream, partitions, chunkSize, SnapshotCodecs.DEFLATE);
+    }
+
+    /**
+     * @param zipOutputStream the stream used to write the snapshot
+     * @param partitions the number of partitions
+     * @param chunkSize the maximum uncompressed size of a chunk in bytes. The size is exceeded, if a single
+     *                  message is larger than the chunk size.
+     * @param codec the codec used to compress the chunks
+     */
+    PartitionedSnapshotWriter(final ZipOutputStream zipOutputStream,
+                              final int partitions,
+                              final int chunkSize,
+                              final SnapshotCodec codec) throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be greater than zero");
+        }
+        this.zipOutputStream = zipOutputStream;
+        this.chunkSize = chunkSize;
+        this.codec = codec;
+        this.partitionBuffers = new PartitionBuffer[partitions];
+        for (int i = 0; i < partitions; i++) {
+            partitionBuffers[i] = new PartitionBuffer(i);
+        }
+    }
+
+    /**
+     * Adds a message to the partition of the key.
+     *
+     * @param key the key of the message
+     * @param value the payload of the message, or null if the message was deleted
+     * @throws IOException if writing a chunk failed
+     */
+    void write(final String key, final @Nullable String value) throws IOException {
+        final PartitionBuffer partitionBuffer = partitionBuffers[partitionOf(key, partitionBuffers.length)];
+        partitionBuffer.write(key, value);
+        if (partitionBuffer.size() >= chunkSize) {
+            partitionBuffer.writeChunk();
+        }
+    }
+
+    /**
+     * Writes all remaining chunks, followed by the manifest of the snapshot. The zip output stream is finished,
+     * but not closed.
+     *
+     * @param channelPosition the channel position of the snapshot
+     * @return manifest of the snapshot
+     * @throws IOException if writing the snapshot failed
+     */
+    SnapshotManifest finish(final ChannelPosition channelPosition) throws IOException {
+        return finish(channelPosition, null);
+    }
+
+    /**
+     * Writes all remaining chunks, followed by the manifest of the snapshot. The zip output stream is finished,
+     * but not closed.
+     *
+     * @param channelPosition the channel position of the snapshot
+     * @param baseSnapshot the name of the base snapshot, if a delta snapshot is written, or null
+     * @return manifest of the snapshot
+     * @throws IOException if writing the snapshot failed
+     */
+    SnapshotManifest finish(final ChannelPosition channelPosition,
+                            final @Nullable String baseSnapshot) throws IOException {
+        for (final PartitionBuffer partitionBuffer : partitionBuffers) {
+            partitionBuffer.writeChunk();
+        }
+        final SnapshotManifest manifest = new SnapshotManifest(partitionBuffers.length, channelPosition, chunks, baseSnapshot);
+        final ZipEntry zipEntry = new ZipEntry(SnapshotManifest.MANIFEST_ENTRY);
+        zipEntry.setMethod(ZipEntry.DEFLATED);
+        zipOutputStream.putNextEntry(zipEntry);
+        manifest.writeTo(zipOutputStream);
+        zipOutputStream.closeEntry();
+        zipOutputStream.finish();
+        return manifest;
+    }
+
+    static int partitionOf(final String key, final int partitions) {
+        return Math.floorMod(key.hashCode(), partitions);
+    }
+
+    /**
+     * Returns true, if the value is a JSON object or array that can be embedded into the snapshot without
+     * escaping it as a JSON string.
+     */
+    static boolean isRawJson(final String value) {
+        if (value.isEmpty() || (value.charAt(0) != '{' && value.charAt(0) != '[')) {
+            return false;
+        }
+        try (final JsonParser parser = JSON_FACTORY.createParser(value)) {
+            parser.nextToken();
+            parser.skipChildren();
+            return parser.nextToken() == null;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    private final class PartitionBuffer {
+        private final int partition;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private JsonGenerator generator;
+        private long messages;
+        private int chunkNumber;
+
+        private PartitionBuffer(final int partition) {
+            this.partition = partition;
+        }
+
+        void write(final String key, final String value) throws IOException {
+            if (generator == null) {
+                generator = JSON_FACTORY.createGenerator(buffer, JsonEncoding.UTF8);
+                generator.writeStartArray();
+            }
+            generator.writeStartObject();
+            generator.writeFieldName(key);
+            if (value == null) {
+                generator.writeNull();
+            } else if (isRawJson(value)) {
+                generator.writeRawValue(value);
+            } else {
+                generator.writeString(value);
+            }
+            generator.writeEndObject();
+            ++messages;
+        }
+
+        int size() throws IOException {
+            if (generator != null) {
+                generator.flush();
+            }
+            return buffer.size();
+        }
+
+        void writeChunk() throws IOException {
+            if (generator == null) {
+                return;
+            }
+            generator.writeEndArray();
+            generator.close();
+            final byte[] bytes = buffer.toByteArray();
+            final CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+            final String entryName = "data-" + partition + "-" + chunkNumber++;
+            final ZipEntry zipEntry = new ZipEntry(entryName);
+            zipEntry.setMethod(codec.getZipMethod());
+            if (codec.getZipMethod() == ZipEntry.STORED) {
+                final byte[] compressed = compress(bytes);
+                final CRC32 entryCrc32 = new CRC32();
+                entryCrc32.update(compressed);
+                zipEntry.setSize(compressed.length);
+                zipEntry.setCompressedSize(compressed.length);
+                zipEntry.setCrc(entryCrc32.getValue());
+                zipOutputStream.putNextEntry(zipEntry);
+                zipOutputStream.write(compressed);
+            } else {
+                // the chunk is compressed by the ZipOutputStream:
+                zipOutputStream.putNextEntry(zipEntry);
+                zipOutputStream.write(bytes);
+            }
+            zipOutputStream.closeEntry();
+            chunks.add(new SnapshotManifest.Chunk(entryName, partition, messages, bytes.length, crc32.getValue()));
+            buffer.reset();
+            generator = null;
+            messages = 0;
+        }
+
+        private byte[] compress(final byte[] bytes) throws IOException {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (final OutputStream outputStream = codec.compress(compressed)) {
+                outputStream.write(bytes);
+            }
+            return compressed.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.otto.synapse.compaction.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec used to compress the chunks of a partitioned snapshot.
+ * <p>
+ *     The chunks are stored as entries of the snapshot's ZIP file. Codecs relying on the compression of the
+ *     ZIP file store their chunks as {@link java.util.zip.ZipEntry#DEFLATED deflated} entries, all other codecs
+ *     are compressing the chunk themselves and store the result as an uncompressed entry. When a snapshot is
+ *     read, the codec of every chunk is detected by the magic header of the entry, so snapshots written using
+ *     different codecs can be read without further configuration.
+ * </p>
+ *
+ * @see SnapshotCodecs
+ */
+public interface SnapshotCodec {
+
+    /**
+     * The name of the codec, as used in the {@code synapse.snapshot.codec} property.
+     *
+     * @return name of the codec
+     */
+    String getName();
+
+    /**
+     * The compression method of the ZIP entries containing the chunks of the snapshot.
+     *
+     * @return {@link java.util.zip.ZipEntry#DEFLATED} or {@link java.util.zip.ZipEntry#STORED}
+     */
+    int getZipMethod();
+
+    /**
+     * Returns true, if the header of a ZIP entry identifies a chunk compressed by this codec.
+     *
+     * @param header the first bytes of the (possibly inflated) ZIP entry. The header may contain less than four
+     *               bytes, if the entry is shorter.
+     * @return true, if this codec is able to decompress the entry
+     */
+    boolean matches(byte[] header);
+
+    /**
+     * Wraps the output stream used to write a chunk, so the chunk is compressed by this codec.
+     * <p>
+     *     Closing the returned stream finishes the compressed data and closes the wrapped stream. Codecs using
+     *     {@link java.util.zip.ZipEntry#DEFLATED deflated} ZIP entries are not compressing the chunks themselves,
+     *     so this method is only used for codecs storing uncompressed entries.
+     * </p>
+     *
+     * @param outputStream the output stream
+     * @return compressing output stream
+     * @throws IOException if the compressed stream could not be created
+     */
+    OutputStream compress(OutputStream outputStream) throws IOException;
+
+    /**
+     * Wraps the input stream used to read a chunk, so the chunk is decompressed by this codec.
+     *
+     * @param inputStream the input stream
+     * @return decompressing input stream
+     * @throws IOException if the compressed stream could not be opened
+     */
+    InputStream decompress(InputStream inputStream) throws IOException;
+}
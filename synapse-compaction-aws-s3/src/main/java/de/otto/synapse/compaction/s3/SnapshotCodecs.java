@@ -0,0 +1,171 @@
+package de.otto.synapse.compaction.s3;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.collect.ImmutableList;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+
+/**
+ * The {@link SnapshotCodec codecs} supported by partitioned snapshots.
+ * <p>
+ *     {@link #DEFLATE} is the default codec, as it is readable by all versions supporting partitioned snapshots.
+ *     {@link #ZSTD} and {@link #LZ4} are inflating chunks several times faster than DEFLATE, and should be
+ *     preferred as soon as all services consuming the snapshots of a channel are able to read them.
+ * </p>
+ */
+public final class SnapshotCodecs {
+
+    /**
+     * Chunks are stored as deflated ZIP entries.
+     */
+    public static final SnapshotCodec DEFLATE = new DeflateCodec();
+
+    /**
+     * Chunks are compressed using the LZ4 frame format.
+     */
+    public static final SnapshotCodec LZ4 = new Lz4Codec();
+
+    /**
+     * Chunks are compressed using Zstandard.
+     */
+    public static final SnapshotCodec ZSTD = new ZstdCodec();
+
+    private static final List<SnapshotCodec> CODECS = ImmutableList.of(DEFLATE, LZ4, ZSTD);
+
+    private static final int ZSTD_LEVEL = 3;
+
+    private SnapshotCodecs() {
+    }
+
+    /**
+     * Returns the codec with the given name.
+     *
+     * @param name the name of the codec, ignoring case
+     * @return codec
+     * @throws IllegalArgumentException if the codec is not supported
+     */
+    public static SnapshotCodec forName(final String name) {
+        return CODECS.stream()
+                .filter(codec -> codec.getName().equalsIgnoreCase(name))
+                .findAny()
+                .orElseThrow(() -> new IllegalArgumentException("Unsupported snapshot codec: " + name));
+    }
+
+    /**
+     * Detects the codec of a chunk by the magic header of the ZIP entry.
+     *
+     * @param header the first bytes of the (possibly inflated) ZIP entry
+     * @return the codec of the chunk, or empty if the codec is unknown
+     */
+    public static Optional<SnapshotCodec> detect(final byte[] header) {
+        return CODECS.stream()
+                .filter(codec -> codec.matches(header))
+                .findFirst();
+    }
+
+    private static boolean startsWith(final byte[] header, final int magicNumber) {
+        // magic numbers of LZ4 and Zstandard frames are little endian:
+        return header.length >= 4
+                && header[0] == (byte) magicNumber
+                && header[1] == (byte) (magicNumber >>> 8)
+                && header[2] == (byte) (magicNumber >>> 16)
+                && header[3] == (byte) (magicNumber >>> 24);
+    }
+
+    private static final class DeflateCodec implements SnapshotCodec {
+
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public int getZipMethod() {
+            return ZipEntry.DEFLATED;
+        }
+
+        @Override
+        public boolean matches(final byte[] header) {
+            // chunks are inflated by the ZipFile, so the entry starts with the JSON array of messages:
+            return header.length > 0 && header[0] == '[';
+        }
+
+        @Override
+        public OutputStream compress(final OutputStream outputStream) {
+            return outputStream;
+        }
+
+        @Override
+        public InputStream decompress(final InputStream inputStream) {
+            return inputStream;
+        }
+    }
+
+    private static final class Lz4Codec implements SnapshotCodec {
+
+        private static final int MAGIC_NUMBER = 0x184D2204;
+
+        @Override
+        public String getName() {
+            return "lz4";
+        }
+
+        @Override
+        public int getZipMethod() {
+            return ZipEntry.STORED;
+        }
+
+        @Override
+        public boolean matches(final byte[] header) {
+            return startsWith(header, MAGIC_NUMBER);
+        }
+
+        @Override
+        public OutputStream compress(final OutputStream outputStream) throws IOException {
+            return new LZ4FrameOutputStream(outputStream);
+        }
+
+        @Override
+        public InputStream decompress(final InputStream inputStream) throws IOException {
+            return new LZ4FrameInputStream(inputStream);
+        }
+    }
+
+    private static final class ZstdCodec implements SnapshotCodec {
+
+        private static final int MAGIC_NUMBER = 0xFD2FB528;
+
+        @Override
+        public String getName() {
+            return "zstd";
+        }
+
+        @Override
+        public int getZipMethod() {
+            return ZipEntry.STORED;
+        }
+
+        @Override
+        public boolean matches(final byte[] header) {
+            return startsWith(header, MAGIC_NUMBER);
+        }
+
+        @Override
+        public OutputStream compress(final OutputStream outputStream) throws IOException {
+            return new ZstdOutputStream(outputStream, ZSTD_LEVEL);
+        }
+
+        @Override
+        public InputStream decompress(final InputStream inputStream) throws IOException {
+            return new ZstdInputStream(inputStream);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.regex.Matcher;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -42,6 +43,16 @@ public final class SnapshotFileHelper {
     }
 
     public static void removeTempFiles(String filePattern) {
+        removeTempFiles(filePattern, path -> false);
+    }
+
+    /**
+     * Removes all files in the temp directory matching the pattern, except the excluded ones.
+     *
+     * @param filePattern glob pattern of the files to remove
+     * @param excluded predicate used to exclude files from removal
+     */
+    public static void removeTempFiles(String filePattern, Predicate<Path> excluded) {
         String tmpDir = System.getProperty("java.io.tmpdir");
         final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(String.format("glob:%s/%s", tmpDir, filePattern));
         try {
@@ -49,7 +60,7 @@ public final class SnapshotFileHelper {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                     try {
-                        if (matcher.matches(file)) {
+                        if (matcher.matches(file) && !excluded.test(file)) {
                             LOG.info("delete file: " + file);
                             Files.delete(file);
                         }
@@ -102,6 +113,17 @@ public final class SnapshotFileHelper {
         return format("compaction-%s-snapshot-", channelName);
     }
 
+    /**
+     * Returns the prefix of the names of delta snapshots. Delta snapshots are using a prefix that is different
+     * from the prefix of base snapshots, so they are ignored by readers that are not able to apply them.
+     *
+     * @param channelName the name of the channel
+     * @return prefix of delta snapshot file names
+     */
+    public static String getDeltaSnapshotFileNamePrefix(String channelName) {
+        return format("compaction-%s-delta-", channelName);
+    }
+
     public static Instant getSnapshotTimestamp(String filename) {
         Pattern pattern = Pattern.compile(".*-snapshot-(.*)-[0-9]*.json.zip");
         Matcher matcher = pattern.matcher(filename);
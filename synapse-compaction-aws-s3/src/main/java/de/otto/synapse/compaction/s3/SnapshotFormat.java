@@ -0,0 +1,41 @@
+package de.otto.synapse.compaction.s3;
+
+import java.util.Arrays;
+
+/**
+ * The formats of snapshots written by the {@link SnapshotWriteService}.
+ * <p>
+ *     Snapshots are readable regardless of the configured format, but services using older versions of Synapse
+ *     are only able to read {@link #LEGACY} snapshots. {@link #LEGACY} is therefore the default, and
+ *     {@link #PARTITIONED} should be enabled as soon as all services consuming the snapshots of a channel are
+ *     able to read them.
+ * </p>
+ */
+public enum SnapshotFormat {
+
+    /**
+     * A single ZIP entry containing the channel position and all messages as one JSON document.
+     */
+    LEGACY,
+
+    /**
+     * Hash-partitioned, separately compressed chunks, described by a {@link SnapshotManifest}. Delta snapshots
+     * are only supported by this format.
+     */
+    PARTITIONED;
+
+    /**
+     * Returns the snapshot format with the given name.
+     *
+     * @param name the name of the format, ignoring case
+     * @return snapshot format
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static SnapshotFormat forName(final String name) {
+        return Arrays.stream(values())
+                .filter(format -> format.name().equalsIgnoreCase(name))
+                .findAny()
+                .orElseThrow(() -> new IllegalArgumentException("Unsupported snapshot format: " + name));
+    }
+
+}
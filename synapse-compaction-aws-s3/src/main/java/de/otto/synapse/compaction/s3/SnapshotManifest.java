@@ -0,0 +1,377 @@
+package de.otto.synapse.compaction.s3;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.StartFrom;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+
+/**
+ * The manifest of a partitioned snapshot.
+ * <p>
+ *     A partitioned snapshot is a ZIP file containing the {@link #MANIFEST_ENTRY manifest} and one or more
+ *     chunks per partition. The messages of the snapshot are distributed over the partitions by the hash of their
+ *     key. Every chunk is a separately compressed ZIP entry containing a JSON array of {@code {"<key>":<value>}}
+ *     objects. Values that are JSON objects or arrays are embedded as raw JSON, all other values are stored as
+ *     JSON strings.
+ * </p>
+ * <p>
+ *     The manifest contains the channel position of the snapshot, together with the number of messages, the
+ *     size and the CRC-32 checksum of every chunk, so chunks can be read and verified independently.
+ * </p>
+ * <p>
+ *     Delta snapshots are referring to the {@link #getBaseSnapshot() base snapshot} they were written for. They
+ *     only contain the messages that were changed after the previous snapshot. Deleted messages are contained
+ *     in delta snapshots with a {@code null} value.
+ * </p>
+ */
+@Immutable
+public final class SnapshotManifest {
+
+    /** The name of the ZIP entry containing the manifest. */
+    public static final String MANIFEST_ENTRY = "manifest";
+    /** The version of the snapshot format described by manifests. */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int formatVersion;
+    private final int partitions;
+    private final ChannelPosition channelPosition;
+    private final ImmutableList<Chunk> chunks;
+    private final String baseSnapshot;
+
+    public SnapshotManifest(final int partitions,
+                            final ChannelPosition channelPosition,
+                            final List<Chunk> chunks) {
+        this(FORMAT_VERSION, partitions, channelPosition, chunks, null);
+    }
+
+    /**
+     * @param partitions the number of partitions
+     * @param channelPosition the channel position of the snapshot
+     * @param chunks the chunks of the snapshot
+     * @param baseSnapshot the name of the base snapshot, if the snapshot is a delta snapshot, or null
+     */
+    public SnapshotManifest(final int partitions,
+                            final ChannelPosition channelPosition,
+                            final List<Chunk> chunks,
+                            final @Nullable String baseSnapshot) {
+        this(FORMAT_VERSION, partitions, channelPosition, chunks, baseSnapshot);
+    }
+
+    private SnapshotManifest(final int formatVersion,
+                             final int partitions,
+                             final ChannelPosition channelPosition,
+                             final List<Chunk> chunks,
+                             final String baseSnapshot) {
+        this.formatVersion = formatVersion;
+        this.partitions = partitions;
+        this.channelPosition = channelPosition;
+        this.chunks = ImmutableList.copyOf(chunks);
+        this.baseSnapshot = baseSnapshot;
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public ChannelPosition getChannelPosition() {
+        return channelPosition;
+    }
+
+    public ImmutableList<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the name of the base snapshot of a delta snapshot, or null if the snapshot is a base snapshot
+     */
+    @Nullable
+    public String getBaseSnapshot() {
+        return baseSnapshot;
+    }
+
+    public boolean isDelta() {
+        return baseSnapshot != null;
+    }
+
+    public long getMessageCount() {
+        return chunks.stream().mapToLong(Chunk::getMessages).sum();
+    }
+
+    /**
+     * Writes the manifest as JSON to the output stream. The stream is not closed.
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException if writing the manifest failed
+     */
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        final JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        generator.writeNumberField("formatVersion", formatVersion);
+        generator.writeNumberField("partitions", partitions);
+        if (baseSnapshot != null) {
+            generator.writeStringField("baseSnapshot", baseSnapshot);
+        }
+        generator.writeArrayFieldStart("startSequenceNumbers");
+        for (final String shardName : channelPosition.shards()) {
+            final ShardPosition shardPosition = channelPosition.shard(shardName);
+            generator.writeStartObject();
+            generator.writeStringField("shard", shardName);
+            generator.writeStringField("sequenceNumber", shardPosition.startFrom() == StartFrom.HORIZON ? "0" : shardPosition.position());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("chunks");
+        for (final Chunk chunk : chunks) {
+            generator.writeStartObject();
+            generator.writeStringField("entry", chunk.entryName);
+            generator.writeNumberField("partition", chunk.partition);
+            generator.writeNumberField("messages", chunk.messages);
+            generator.writeNumberField("size", chunk.size);
+            generator.writeNumberField("crc32", chunk.crc32);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    /**
+     * Reads a manifest from the input stream. The stream is not closed.
+     *
+     * @param inputStream the stream containing the JSON representation of the manifest
+     * @return manifest
+     * @throws IOException if reading the manifest failed
+     */
+    public static SnapshotManifest readFrom(final InputStream inputStream) throws IOException {
+        final JsonParser parser = JSON_FACTORY.createParser(inputStream);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        int formatVersion = 0;
+        int partitions = 0;
+        String baseSnapshot = null;
+        final List<ShardPosition> shardPositions = new ArrayList<>();
+        final List<Chunk> chunks = new ArrayList<>();
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case "formatVersion":
+                    formatVersion = parser.getIntValue();
+                    break;
+                case "partitions":
+                    partitions = parser.getIntValue();
+                    break;
+                case "baseSnapshot":
+                    baseSnapshot = parser.getValueAsString();
+                    break;
+                case "startSequenceNumbers":
+                    expect(parser.currentToken(), JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        String shardName = null;
+                        String sequenceNumber = null;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            final String name = parser.getCurrentName();
+                            parser.nextToken();
+                            if (name.equals("shard")) {
+                                shardName = parser.getValueAsString();
+                            } else if (name.equals("sequenceNumber")) {
+                                sequenceNumber = parser.getValueAsString();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                        if (shardName != null) {
+                            shardPositions.add(sequenceNumber != null && !sequenceNumber.equals("0") && !sequenceNumber.isEmpty()
+                                    ? fromPosition(shardName, sequenceNumber)
+                                    : fromHorizon(shardName));
+                        }
+                    }
+                    break;
+                case "chunks":
+                    expect(parser.currentToken(), JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        chunks.add(readChunk(parser));
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot format version " + formatVersion);
+        }
+        return new SnapshotManifest(formatVersion, partitions, channelPosition(shardPositions), chunks, baseSnapshot);
+    }
+
+    private static Chunk readChunk(final JsonParser parser) throws IOException {
+        String entryName = null;
+        int partition = 0;
+        long messages = 0;
+        long size = 0;
+        long crc32 = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+                case "entry":
+                    entryName = parser.getValueAsString();
+                    break;
+                case "partition":
+                    partition = parser.getIntValue();
+                    break;
+                case "messages":
+                    messages = parser.getLongValue();
+                    break;
+                case "size":
+                    size = parser.getLongValue();
+                    break;
+                case "crc32":
+                    crc32 = parser.getLongValue();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        if (entryName == null) {
+            throw new IOException("Missing entry name of snapshot chunk");
+        }
+        return new Chunk(entryName, partition, messages, size, crc32);
+    }
+
+    private static void expect(final JsonToken actual, final JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed snapshot manifest: expected " + expected + " but was " + actual);
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final SnapshotManifest that = (SnapshotManifest) o;
+        return formatVersion == that.formatVersion &&
+                partitions == that.partitions &&
+                Objects.equals(channelPosition, that.channelPosition) &&
+                Objects.equals(chunks, that.chunks) &&
+                Objects.equals(baseSnapshot, that.baseSnapshot);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(formatVersion, partitions, channelPosition, chunks, baseSnapshot);
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotManifest{" +
+                "formatVersion=" + formatVersion +
+                ", partitions=" + partitions +
+                ", channelPosition=" + channelPosition +
+                ", chunks=" + chunks +
+                ", baseSnapshot=" + baseSnapshot +
+                '}';
+    }
+
+    /**
+     * A separately compressed part of a partition.
+     */
+    @Immutable
+    public static final class Chunk {
+        private final String entryName;
+        private final int partition;
+        private final long messages;
+        private final long size;
+        private final long crc32;
+
+        public Chunk(final String entryName,
+                     final int partition,
+                     final long messages,
+                     final long size,
+                     final long crc32) {
+            this.entryName = entryName;
+            this.partition = partition;
+            this.messages = messages;
+            this.size = size;
+            this.crc32 = crc32;
+        }
+
+        /** @return the name of the ZIP entry containing the chunk */
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        /** @return the number of messages contained in the chunk */
+        public long getMessages() {
+            return messages;
+        }
+
+        /** @return the uncompressed size of the chunk in bytes */
+        public long getSize() {
+            return size;
+        }
+
+        /** @return the CRC-32 checksum of the uncompressed chunk */
+        public long getCrc32() {
+            return crc32;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Chunk chunk = (Chunk) o;
+            return partition == chunk.partition &&
+                    messages == chunk.messages &&
+                    size == chunk.size &&
+                    crc32 == chunk.crc32 &&
+                    Objects.equals(entryName, chunk.entryName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entryName, partition, messages, size, crc32);
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{" +
+                    "entryName='" + entryName + '\'' +
+                    ", partition=" + partition +
+                    ", messages=" + messages +
+                    ", size=" + size +
+                    ", crc32=" + crc32 +
+                    '}';
+        }
+    }
+}
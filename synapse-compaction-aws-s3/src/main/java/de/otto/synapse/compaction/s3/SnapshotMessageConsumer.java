@@ -10,7 +10,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.regex.Pattern;
@@ -27,6 +29,7 @@ public class SnapshotMessageConsumer implements MessageConsumer<String> {
     private final StateRepository<String> stateRepository;
     private final Function<? super Message<String>, String> keyMapper = (message) -> message.getKey().compactionKey();
     private final BiFunction<Optional<String>, ? super Message<String>, String> payloadToStateMapper;
+    private final Set<String> deletedKeys;
 
     /**
      * Creates a StatefulMessageConsumer.
@@ -40,12 +43,29 @@ public class SnapshotMessageConsumer implements MessageConsumer<String> {
      */
     public SnapshotMessageConsumer(final MessageFormat messageFormat,
                                    final StateRepository<String> stateRepository) {
+        this(messageFormat, stateRepository, null);
+    }
+
+    /**
+     * Creates a SnapshotMessageConsumer that is keeping track of deleted messages.
+     *
+     * <p>
+     *     The keys of deleted messages are added to {@code deletedKeys}, and removed again if the message is
+     *     updated afterwards. Used to write delta snapshots.
+     * </p>
+     *
+     * @param messageFormat the format used to write messages into the snapshot
+     * @param stateRepository the StateRepository that is holding the State
+     * @param deletedKeys thread-safe set used to collect the keys of deleted messages, or null
+     */
+    public SnapshotMessageConsumer(final MessageFormat messageFormat,
+                                   final StateRepository<String> stateRepository,
+                                   final @Nullable Set<String> deletedKeys) {
 
         final TextEncoder encoder = new TextEncoder(messageFormat);
         this.stateRepository = stateRepository;
         this.payloadToStateMapper = (_previousValue, message) -> encoder.apply(message);
-
-
+        this.deletedKeys = deletedKeys;
     }
 
 
@@ -75,7 +95,13 @@ public class SnapshotMessageConsumer implements MessageConsumer<String> {
     public void accept(final Message<String> message) {
         if (message.getPayload() == null) {
             stateRepository.remove(keyMapper.apply(message));
+            if (deletedKeys != null) {
+                deletedKeys.add(keyMapper.apply(message));
+            }
         } else {
+            if (deletedKeys != null) {
+                deletedKeys.remove(keyMapper.apply(message));
+            }
             stateRepository.compute(
                     keyMapper.apply(message),
                     (_key, previousValue) -> payloadToStateMapper.apply(previousValue, message));
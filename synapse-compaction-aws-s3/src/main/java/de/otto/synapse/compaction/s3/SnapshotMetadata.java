@@ -0,0 +1,87 @@
+package de.otto.synapse.compaction.s3;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.StartFrom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * The user-defined S3 metadata of snapshots.
+ * <p>
+ *     The channel position of a snapshot is stored in the metadata, so it can be retrieved without downloading
+ *     the snapshot. It is encoded as comma-separated {@code <shard>=<sequenceNumber>} pairs, using the sequence
+ *     number "0" for {@link StartFrom#HORIZON}, like in the snapshot itself. S3 limits the metadata of an object
+ *     to 2KB, so channel positions with too many shards are not stored.
+ * </p>
+ */
+final class SnapshotMetadata {
+
+    static final String CHANNEL_POSITION = "synapse-channel-position";
+
+    private static final int MAX_LENGTH = 1024;
+    private static final CharMatcher RESERVED = CharMatcher.anyOf(",=").or(CharMatcher.ascii().negate());
+
+    private SnapshotMetadata() {
+    }
+
+    /**
+     * Returns the metadata of a snapshot with the given channel position.
+     *
+     * @param channelPosition the channel position of the snapshot
+     * @return metadata, or an empty map, if the channel position can not be stored
+     */
+    static Map<String, String> snapshotMetadata(final ChannelPosition channelPosition) {
+        if (channelPosition.shards().stream().anyMatch(RESERVED::matchesAnyOf)) {
+            return emptyMap();
+        }
+        final String value = channelPosition.shards()
+                .stream()
+                .map(channelPosition::shard)
+                .map(shardPosition -> shardPosition.shardName() + "=" + sequenceNumberOf(shardPosition))
+                .collect(joining(","));
+        return value.length() <= MAX_LENGTH
+                ? singletonMap(CHANNEL_POSITION, value)
+                : emptyMap();
+    }
+
+    /**
+     * Returns the channel position stored in the metadata of a snapshot.
+     *
+     * @param metadata the metadata of the snapshot
+     * @return channel position, or empty, if the metadata does not contain the channel position
+     */
+    static Optional<ChannelPosition> channelPositionOf(final Map<String, String> metadata) {
+        final String value = metadata.get(CHANNEL_POSITION);
+        if (value == null) {
+            return Optional.empty();
+        }
+        final List<ShardPosition> shardPositions = new ArrayList<>();
+        for (final String shard : Splitter.on(',').omitEmptyStrings().split(value)) {
+            final int separator = shard.lastIndexOf('=');
+            if (separator < 1) {
+                return Optional.empty();
+            }
+            final String shardName = shard.substring(0, separator);
+            final String sequenceNumber = shard.substring(separator + 1);
+            shardPositions.add(sequenceNumber.isEmpty() || sequenceNumber.equals("0")
+                    ? ShardPosition.fromHorizon(shardName)
+                    : ShardPosition.fromPosition(shardName, sequenceNumber));
+        }
+        return Optional.of(channelPosition(shardPositions));
+    }
+
+    private static String sequenceNumberOf(final ShardPosition shardPosition) {
+        return shardPosition.startFrom() == StartFrom.HORIZON ? "0" : shardPosition.position();
+    }
+}
@@ -25,10 +25,90 @@ import static de.otto.synapse.channel.ShardPosition.fromPosition;
 public class SnapshotParser {
 
     private final JsonFactory jsonFactory = new JsonFactory();
+    private final int parallelism;
 
+    public SnapshotParser() {
+        this(PartitionedSnapshotReader.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism the number of threads used to read the chunks of partitioned snapshots
+     */
+    public SnapshotParser(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Parses a snapshot file and dispatches the contained messages. Both partitioned snapshots as described by
+     * {@link SnapshotManifest} and snapshots in the legacy single-entry format are supported.
+     *
+     * @param latestSnapshot the snapshot file
+     * @param messageDispatcher the dispatcher used to consume the messages of the snapshot
+     * @return the channel position of the snapshot
+     */
     public ChannelPosition parse(final File latestSnapshot,
                                  final MessageDispatcher messageDispatcher) {
+        try {
+            if (PartitionedSnapshotReader.isPartitioned(latestSnapshot)) {
+                return parsePartitioned(latestSnapshot, messageDispatcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return parseLegacy(latestSnapshot, messageDispatcher);
+    }
+
+    /**
+     * Reads the channel position of a snapshot, without reading the messages of the snapshot.
+     *
+     * @param snapshot the snapshot file
+     * @return the channel position of the snapshot
+     */
+    public ChannelPosition parseChannelPosition(final File snapshot) {
+        try {
+            if (PartitionedSnapshotReader.isPartitioned(snapshot)) {
+                try (PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshot, 1)) {
+                    return reader.getChannelPosition();
+                }
+            }
+            try (
+                    FileInputStream fileInputStream = new FileInputStream(snapshot);
+                    BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
+                    ZipInputStream zipInputStream = new ZipInputStream(bufferedInputStream)
+            ) {
+                zipInputStream.getNextEntry();
+                JsonParser parser = jsonFactory.createParser(zipInputStream);
+                while (!parser.isClosed()) {
+                    JsonToken currentToken = parser.nextToken();
+                    if (currentToken == JsonToken.FIELD_NAME) {
+                        if ("startSequenceNumbers".equals(parser.getValueAsString())) {
+                            return processSequenceNumbers(parser);
+                        }
+                        parser.nextToken();
+                        parser.skipChildren();
+                    }
+                }
+                return fromHorizon();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ChannelPosition parsePartitioned(final File latestSnapshot,
+                                             final MessageDispatcher messageDispatcher) throws IOException {
+        try (PartitionedSnapshotReader reader = new PartitionedSnapshotReader(latestSnapshot, parallelism)) {
+            final ChannelPosition channelPosition = reader.getChannelPosition();
+            final Header header = channelPosition.shards().isEmpty()
+                    ? Header.of()
+                    : Header.of(channelPosition.shard(channelPosition.shards().iterator().next()));
+            reader.messages(header).forEachRemaining(messageDispatcher);
+            return channelPosition;
+        }
+    }
 
+    private ChannelPosition parseLegacy(final File latestSnapshot,
+                                        final MessageDispatcher messageDispatcher) {
         try (
                 FileInputStream fileInputStream = new FileInputStream(latestSnapshot);
                 BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
@@ -1,5 +1,6 @@
 package de.otto.synapse.compaction.s3;
 
+import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.configuration.aws.SnapshotProperties;
 import de.otto.synapse.helper.s3.S3Helper;
 import org.slf4j.Logger;
@@ -8,13 +9,20 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
 import static de.otto.synapse.compaction.s3.SnapshotFileHelper.*;
+import static de.otto.synapse.compaction.s3.SnapshotMetadata.channelPositionOf;
+import static java.util.Collections.emptyList;
 import static java.util.Comparator.comparing;
 import static java.util.Comparator.reverseOrder;
+import static java.util.stream.Collectors.toList;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class SnapshotReadService {
@@ -23,6 +31,7 @@ public class SnapshotReadService {
 
     private final S3Helper s3Helper;
     private final String snapshotBucketName;
+    private final SnapshotParser snapshotParser = new SnapshotParser();
     private final Marker marker;
 
     private File forcedSnapshotFile = null;
@@ -35,7 +44,7 @@ public class SnapshotReadService {
     public SnapshotReadService(final SnapshotProperties properties,
                                final S3Client s3Client,
                                final Marker marker) {
-        this.s3Helper = new S3Helper(s3Client);
+        this.s3Helper = new S3Helper(s3Client, properties.getDownloadPartSize(), properties.getDownloadParallelism());
         this.snapshotBucketName = properties.getBucketName();
         this.marker = marker;
     }
@@ -72,20 +81,64 @@ public class SnapshotReadService {
         return latestSnapshot;
     }
 
+    /**
+     * Returns the name of the latest snapshot of a channel, without downloading the snapshot.
+     *
+     * @param channelName the name of the channel
+     * @return name of the latest snapshot, or empty if there is no snapshot
+     */
+    public Optional<String> retrieveLatestSnapshotName(final String channelName) {
+        if (forcedSnapshotFile != null) {
+            return Optional.of(forcedSnapshotFile.getName());
+        }
+        return fetchSnapshotMetadataFromS3(snapshotBucketName, channelName).map(S3Object::key);
+    }
+
+    /**
+     * Returns the channel position of the latest snapshot of a channel.
+     * <p>
+     *     The channel position is read from the S3 metadata of the snapshot. Only snapshots that were written
+     *     without channel position metadata are downloaded in order to read their channel position.
+     * </p>
+     *
+     * @param channelName the name of the channel
+     * @param snapshotName the name of the latest snapshot, as returned by {@link #retrieveLatestSnapshotName(String)}
+     * @return channel position of the snapshot
+     * @throws IllegalStateException if the snapshot could not be retrieved
+     */
+    public ChannelPosition retrieveChannelPosition(final String channelName, final String snapshotName) {
+        if (forcedSnapshotFile == null) {
+            final Optional<ChannelPosition> channelPosition = channelPositionOf(s3Helper.getMetadata(snapshotBucketName, snapshotName));
+            if (channelPosition.isPresent()) {
+                return channelPosition.get();
+            }
+            LOG.info(marker, "Snapshot {} has no channel position metadata, it needs to be downloaded", snapshotName);
+        }
+        final File snapshot = retrieveLatestSnapshot(channelName)
+                .filter(file -> file.getName().equals(snapshotName))
+                .orElseThrow(() -> new IllegalStateException("Failed to retrieve snapshot " + snapshotName));
+        return snapshotParser.parseChannelPosition(snapshot);
+    }
+
     Optional<File> getLatestSnapshot(final String channelName) {
         Optional<S3Object> s3Object = fetchSnapshotMetadataFromS3(snapshotBucketName, channelName);
         if (s3Object.isPresent()) {
             String latestSnapshotKey = s3Object.get().key();
             Path snapshotFile = getTempFile(latestSnapshotKey);
+            final long size = s3Object.get().size();
+            final String eTag = s3Object.get().eTag();
 
-            if (existsAndHasSize(snapshotFile, s3Object.get().size())) {
+            if (S3Helper.isDownloaded(snapshotFile, size, eTag)) {
                 LOG.info(marker, "Locally available snapshot file is the same as in S3, skip download and use it: {}", snapshotFile.toAbsolutePath().toString());
                 return Optional.of(snapshotFile.toFile());
             }
 
             removeTempFiles(String.format("*-%s-snapshot-*.json.zip", channelName));
+            // remove incomplete downloads of other snapshots, but keep the current one to resume it:
+            removeTempFiles(String.format("*-%s-snapshot-*.json.zip.*", channelName),
+                    path -> path.getFileName().toString().startsWith(snapshotFile.getFileName().toString()));
             LOG.info(marker, "Downloading snapshot file to {}", snapshotFile.getFileName().toAbsolutePath().toString());
-            if (s3Helper.download(snapshotBucketName, latestSnapshotKey, snapshotFile)) {
+            if (s3Helper.download(snapshotBucketName, latestSnapshotKey, size, eTag, snapshotFile)) {
                 return Optional.of(snapshotFile.toFile());
             }
             return Optional.empty();
@@ -95,6 +148,87 @@ public class SnapshotReadService {
     }
 
 
+    /**
+     * Retrieves the delta snapshots that were written for a base snapshot, in the order they were written.
+     * <p>
+     *     Delta snapshots referring to a different base snapshot are ignored. If a delta snapshot can not be
+     *     retrieved, the following delta snapshots are ignored as well, so the returned delta snapshots can
+     *     always be applied to the base snapshot without gaps.
+     * </p>
+     *
+     * @param channelName the name of the channel
+     * @param baseSnapshot the base snapshot, as returned by {@link #retrieveLatestSnapshot(String)}
+     * @return list of delta snapshot files
+     */
+    public List<File> retrieveDeltaSnapshots(final String channelName, final File baseSnapshot) {
+        return retrieveDeltaSnapshots(channelName, baseSnapshot.getName());
+    }
+
+    /**
+     * Retrieves the delta snapshots that were written for a base snapshot, in the order they were written. The
+     * base snapshot itself is not downloaded.
+     *
+     * @param channelName the name of the channel
+     * @param baseSnapshotName the name of the base snapshot
+     * @return list of delta snapshot files
+     * @see #retrieveDeltaSnapshots(String, File)
+     */
+    public List<File> retrieveDeltaSnapshots(final String channelName, final String baseSnapshotName) {
+        if (forcedSnapshotFile != null) {
+            return emptyList();
+        }
+        final List<S3Object> s3Objects = s3Helper.listAll(snapshotBucketName);
+        final Optional<S3Object> baseObject = s3Objects
+                .stream()
+                .filter(o -> o.key().equals(baseSnapshotName))
+                .findFirst();
+        if (!baseObject.isPresent()) {
+            return emptyList();
+        }
+        final List<S3Object> deltaObjects = fetchDeltaSnapshotMetadata(s3Objects, channelName, baseObject.get().lastModified());
+        removeTempFiles(String.format("*-%s-delta-*.json.zip*", channelName),
+                path -> deltaObjects.stream().anyMatch(o -> path.getFileName().toString().startsWith(o.key())));
+
+        final List<File> deltaSnapshots = new ArrayList<>();
+        for (final S3Object deltaObject : deltaObjects) {
+            final Path deltaFile = getTempFile(deltaObject.key());
+            if (!S3Helper.isDownloaded(deltaFile, deltaObject.size(), deltaObject.eTag())) {
+                LOG.info(marker, "Downloading delta snapshot file to {}", deltaFile.toAbsolutePath().toString());
+                if (!s3Helper.download(snapshotBucketName, deltaObject.key(), deltaObject.size(), deltaObject.eTag(), deltaFile)) {
+                    LOG.warn(marker, "Failed to download delta snapshot {}, ignoring following delta snapshots", deltaObject.key());
+                    break;
+                }
+            }
+            if (isDeltaOf(deltaFile.toFile(), baseSnapshotName)) {
+                deltaSnapshots.add(deltaFile.toFile());
+            } else {
+                LOG.warn(marker, "Ignoring delta snapshot {} that does not belong to base snapshot {}", deltaObject.key(), baseSnapshotName);
+            }
+        }
+        return deltaSnapshots;
+    }
+
+    private boolean isDeltaOf(final File deltaSnapshot, final String baseSnapshotName) {
+        try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(deltaSnapshot, 1)) {
+            return baseSnapshotName.equals(reader.getManifest().getBaseSnapshot());
+        } catch (final IOException e) {
+            LOG.error(marker, "Failed to read delta snapshot {}: {}", deltaSnapshot.getName(), e.getMessage());
+            return false;
+        }
+    }
+
+    List<S3Object> fetchDeltaSnapshotMetadata(final List<S3Object> s3Objects,
+                                              final String channelName,
+                                              final Instant writtenAfter) {
+        return s3Objects
+                .stream()
+                .filter(o -> o.key().startsWith(getDeltaSnapshotFileNamePrefix(channelName)))
+                .filter(o -> o.key().endsWith(COMPACTION_FILE_EXTENSION))
+                .filter(o -> !o.lastModified().isBefore(writtenAfter))
+                .sorted(comparing(S3Object::lastModified))
+                .collect(toList());
+    }
+
     Optional<S3Object> fetchSnapshotMetadataFromS3(String bucketName, String channelName) {
         return s3Helper.listAll(bucketName)
                 .stream()
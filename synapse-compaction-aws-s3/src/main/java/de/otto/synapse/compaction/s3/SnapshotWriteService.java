@@ -3,11 +3,10 @@ package de.otto.synapse.compaction.s3;
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.google.common.annotations.VisibleForTesting;
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.channel.StartFrom;
 import de.otto.synapse.configuration.aws.SnapshotProperties;
-import de.otto.synapse.helper.s3.S3Helper;
+import de.otto.synapse.helper.s3.S3MultipartUploadOutputStream;
 import de.otto.synapse.logging.ProgressLogger;
 import de.otto.synapse.state.StateRepository;
 import org.slf4j.Logger;
@@ -15,22 +14,18 @@ import org.slf4j.Marker;
 import software.amazon.awssdk.services.s3.S3Client;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
-import java.util.function.BiPredicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import static de.otto.synapse.compaction.s3.SnapshotFileHelper.*;
+import static de.otto.synapse.compaction.s3.SnapshotMetadata.snapshotMetadata;
 import static java.time.format.DateTimeFormatter.ofPattern;
+import static java.util.Collections.emptySet;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class SnapshotWriteService {
@@ -39,15 +34,20 @@ public class SnapshotWriteService {
     private static final DateTimeFormatter dateTimeFormatter = ofPattern("yyyy-MM-dd'T'HH-mmX").withZone(ZoneOffset.UTC);
 
     private static final String ZIP_ENTRY = "data";
-    //JSON Fields
+    //JSON Fields of legacy snapshots
     private static final String DATA_FIELD_NAME = "data";
     private static final String START_SEQUENCE_NUMBERS_FIELD_NAME = "startSequenceNumbers";
     private static final String SHARD_FIELD_NAME = "shard";
     private static final String SEQUENCE_NUMBER_FIELD_NAME = "sequenceNumber";
-    private static final int NUM_SNAPSHOTS_TO_KEEP = 6;
 
-    private final S3Helper s3Helper;
+    private final S3Client s3Client;
     private final String snapshotBucketName;
+    private final int uploadPartSize;
+    private final int uploadParallelism;
+    private final SnapshotFormat format;
+    private final int partitions;
+    private final int chunkSize;
+    private final SnapshotCodec codec;
     private final JsonFactory jsonFactory = new JsonFactory();
     private final Marker marker;
 
@@ -59,142 +59,206 @@ public class SnapshotWriteService {
     public SnapshotWriteService(final S3Client s3Client,
                                 final SnapshotProperties properties,
                                 final Marker marker) {
-        this.s3Helper = new S3Helper(s3Client);
+        this.s3Client = s3Client;
         this.snapshotBucketName = properties.getBucketName();
+        this.uploadPartSize = properties.getUploadPartSize();
+        this.uploadParallelism = properties.getUploadParallelism();
+        this.format = SnapshotFormat.forName(properties.getFormat());
+        this.partitions = properties.getPartitions();
+        this.chunkSize = properties.getChunkSize();
+        this.codec = SnapshotCodecs.forName(properties.getCodec());
         this.marker = marker;
+        if (format == SnapshotFormat.LEGACY && codec != SnapshotCodecs.DEFLATE) {
+            LOG.warn(marker, "Snapshot codec {} is ignored, because legacy snapshots are always deflated. Configure synapse.snapshot.format=partitioned to use it.", codec.getName());
+        }
     }
 
 
+    /**
+     * Writes a snapshot of the state repository to S3.
+     * <p>
+     *     The snapshot is written in the configured {@link SnapshotFormat}. The zipped snapshot is streamed into a multipart upload while it is written, so no local copy of the
+     *     snapshot is required. If writing the snapshot fails, the upload is aborted.
+     * </p>
+     *
+     * @param channelName the name of the channel
+     * @param position the position of the channel the state repository is reflecting
+     * @param stateRepository the state repository containing the compacted messages
+     * @return the name of the snapshot in S3
+     * @throws IOException if writing or uploading the snapshot failed
+     */
     public String writeSnapshot(final String channelName,
                                 final ChannelPosition position,
                                 final StateRepository<String> stateRepository) throws IOException {
-        File snapshotFile = null;
-        try {
-            LOG.info(marker, "Start creating new snapshot");
-            snapshotFile = createSnapshot(channelName, position, stateRepository);
-            LOG.info(marker, "Finished creating snapshot file: {}", snapshotFile.getAbsolutePath());
-            LOG.info(marker, "Starting uploading snapshot file {} to s3 bucket {}", snapshotFile.getAbsolutePath(), this.snapshotBucketName);
-            uploadSnapshot(this.snapshotBucketName, snapshotFile);
-            LOG.info(marker, "Finished uploading snapshot file {} to s3 bucket {}", snapshotFile.getAbsolutePath(), this.snapshotBucketName);
-            deleteOlderSnapshots(channelName);
-        } finally {
-            if (snapshotFile != null) {
-                LOG.info(marker, "delete file {}", snapshotFile.toPath().toString());
-                deleteFile(snapshotFile);
-            }
-        }
-        return snapshotFile.getName();
+        final String snapshotFileName = createSnapshotFileName(getSnapshotFileNamePrefix(channelName));
+        upload(snapshotFileName, position, outputStream -> writeSnapshot(outputStream, position, stateRepository));
+        return snapshotFileName;
     }
 
-    @VisibleForTesting
-    File createSnapshot(final String channelName,
-                        final ChannelPosition currentChannelPosition,
-                        final StateRepository<String> stateRepository) throws IOException {
-        File snapshotFile = createSnapshotFile(channelName);
-
-        try (FileOutputStream fos = new FileOutputStream(snapshotFile);
-             BufferedOutputStream bos = new BufferedOutputStream(fos);
-             ZipOutputStream zipOutputStream = new ZipOutputStream(bos)
-        ) {
-            ZipEntry zipEntry = new ZipEntry(ZIP_ENTRY);
-            zipEntry.setMethod(ZipEntry.DEFLATED);
-            zipOutputStream.putNextEntry(zipEntry);
-            JsonGenerator jGenerator = jsonFactory.createGenerator(zipOutputStream, JsonEncoding.UTF8);
-            jGenerator.writeStartObject();
-            writeSequenceNumbers(currentChannelPosition, jGenerator);
-            // write to data file
-            jGenerator.writeArrayFieldStart(DATA_FIELD_NAME);
-
-            ProgressLogger processedLogger = new ProgressLogger(LOG, stateRepository.size(), marker);
-            stateRepository.consumeAll((key, entry) -> {
-                try {
-                    processedLogger.incrementAndLog(10);
-                    if (!("".equals(entry))) {
-                        jGenerator.writeStartObject();
-                        jGenerator.writeStringField(key, entry);
-                        jGenerator.writeEndObject();
-                    }
-                } catch (IOException e) {
-                    LOG.error(marker, "Error during snapshot file creation", e);
-                    throw new UncheckedIOException(e);
-                }
-            });
+    /**
+     * Writes a delta snapshot to S3, containing the messages that were changed or deleted after the previous
+     * snapshot of the channel was written. Delta snapshots are only supported by the
+     * {@link SnapshotFormat#PARTITIONED partitioned} format.
+     *
+     * @param channelName the name of the channel
+     * @param baseSnapshot the name of the base snapshot the delta is applied to
+     * @param position the position of the channel after the changes were consumed
+     * @param changedMessages the state repository containing the changed messages
+     * @param deletedKeys the keys of the deleted messages
+     * @return the name of the delta snapshot in S3
+     * @throws IOException if writing or uploading the snapshot failed
+     * @throws IllegalStateException if snapshots are not written in the partitioned format
+     */
+    public String writeDeltaSnapshot(final String channelName,
+                                     final String baseSnapshot,
+                                     final ChannelPosition position,
+                                     final StateRepository<String> changedMessages,
+                                     final Set<String> deletedKeys) throws IOException {
+        if (format != SnapshotFormat.PARTITIONED) {
+            throw new IllegalStateException("Delta snapshots require the partitioned snapshot format, but format is " + format);
+        }
+        final String snapshotFileName = createSnapshotFileName(getDeltaSnapshotFileNamePrefix(channelName));
+        upload(snapshotFileName, position, outputStream -> writeSnapshot(outputStream, position, changedMessages, deletedKeys, baseSnapshot));
+        return snapshotFileName;
+    }
 
-            jGenerator.writeEndArray();
-            jGenerator.writeEndObject();
-            jGenerator.flush();
-            zipOutputStream.closeEntry();
-        } catch (Exception e) {
-            LOG.info(marker, "delete file {}", snapshotFile.toPath().toString());
-            deleteFile(snapshotFile);
+    private void upload(final String snapshotFileName,
+                        final ChannelPosition position,
+                        final SnapshotContent snapshotContent) throws IOException {
+        LOG.info(marker, "Start streaming new snapshot {} to s3 bucket {}", snapshotFileName, this.snapshotBucketName);
+        final S3MultipartUploadOutputStream uploadStream = new S3MultipartUploadOutputStream(
+                s3Client, snapshotBucketName, snapshotFileName, snapshotMetadata(position), uploadPartSize, uploadParallelism);
+        try {
+            snapshotContent.writeTo(uploadStream);
+        } catch (IOException | RuntimeException e) {
+            LOG.error(marker, "Failed to write snapshot {}, aborting upload", snapshotFileName);
+            uploadStream.abort();
             throw e;
-        } finally {
-            System.gc();
         }
-        return snapshotFile;
+        uploadStream.close();
+        LOG.info(marker, "Finished uploading snapshot {} to s3 bucket {}", snapshotFileName, this.snapshotBucketName);
     }
 
-    private void deleteOlderSnapshots(final String channelName) {
-        String snapshotFileNamePrefix = getSnapshotFileNamePrefix(channelName);
-        String snapshotFileSuffix = ".json.zip";
-        BiPredicate<Path, BasicFileAttributes> matchSnapshotFilePattern = (path, basicFileAttributes) -> (path.getFileName().toString().startsWith(snapshotFileNamePrefix) && path.getFileName().toString().endsWith(snapshotFileSuffix));
-        try (Stream<Path> pathStream = Files.find(Paths.get(getTempDir()), 1, matchSnapshotFilePattern)) {
-            List<File> oldestFiles = pathStream
-                    .sorted((path1, path2) -> (int) (path2.toFile().lastModified() - path1.toFile().lastModified()))
-                    .map(Path::toFile)
-                    .collect(Collectors.toList());
-            if (oldestFiles.size() > NUM_SNAPSHOTS_TO_KEEP) {
-                oldestFiles.subList(NUM_SNAPSHOTS_TO_KEEP, oldestFiles.size()).forEach(this::deleteSnapshotFile);
-            }
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+    /**
+     * Returns the format of the snapshots written by this service.
+     *
+     * @return snapshot format
+     */
+    public SnapshotFormat getFormat() {
+        return format;
     }
 
-    private void deleteSnapshotFile(File snapshotFile) {
-        boolean success = snapshotFile.delete();
-        if (success) {
-            LOG.info(marker, "deleted {}", snapshotFile.getName());
+    private void writeSnapshot(final OutputStream outputStream,
+                               final ChannelPosition currentChannelPosition,
+                               final StateRepository<String> stateRepository) throws IOException {
+        if (format == SnapshotFormat.PARTITIONED) {
+            writeSnapshot(outputStream, currentChannelPosition, stateRepository, emptySet(), null);
         } else {
-            LOG.warn(marker, "deletion of {} failed", snapshotFile.getName());
+            writeLegacySnapshot(outputStream, currentChannelPosition, stateRepository);
         }
     }
 
-    private void deleteFile(File file) {
-        if (file != null) {
-            boolean success = file.delete();
-            if (!success) {
-                LOG.error(marker, "failed to delete snapshot {}", file.getName());
+    /**
+     * Writes the zipped snapshot in the partitioned format to the output stream. The output stream is flushed,
+     * but not closed.
+     */
+    private void writeSnapshot(final OutputStream outputStream,
+                               final ChannelPosition currentChannelPosition,
+                               final StateRepository<String> stateRepository,
+                               final Set<String> deletedKeys,
+                               final String baseSnapshot) throws IOException {
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(outputStream));
+        final PartitionedSnapshotWriter snapshotWriter = new PartitionedSnapshotWriter(zipOutputStream, partitions, chunkSize, codec);
+
+        ProgressLogger processedLogger = new ProgressLogger(LOG, stateRepository.size(), marker);
+        stateRepository.consumeAll((key, entry) -> {
+            try {
+                processedLogger.incrementAndLog(10);
+                if (!("".equals(entry))) {
+                    snapshotWriter.write(key, entry);
+                }
+            } catch (IOException e) {
+                LOG.error(marker, "Error during snapshot file creation", e);
+                throw new UncheckedIOException(e);
             }
+        });
+
+        for (final String deletedKey : deletedKeys) {
+            snapshotWriter.write(deletedKey, null);
         }
-    }
 
-    private static File createSnapshotFile(String channelName) throws IOException {
-        return File.createTempFile(String.format("%s%s-", getSnapshotFileNamePrefix(channelName), dateTimeFormatter.format(Instant.now())), COMPACTION_FILE_EXTENSION);
+        final SnapshotManifest manifest = snapshotWriter.finish(currentChannelPosition, baseSnapshot);
+        LOG.info(marker, "Written snapshot with {} messages in {} chunks", manifest.getMessageCount(), manifest.getChunks().size());
+        zipOutputStream.flush();
     }
 
-    private void uploadSnapshot(String bucketName, final File snapshotFile) {
-        s3Helper.upload(bucketName, snapshotFile);
-    }
+    /**
+     * Writes the zipped snapshot in the legacy single-entry format to the output stream. The output stream is
+     * flushed, but not closed.
+     */
+    private void writeLegacySnapshot(final OutputStream outputStream,
+                                     final ChannelPosition currentChannelPosition,
+                                     final StateRepository<String> stateRepository) throws IOException {
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(outputStream));
+        final ZipEntry zipEntry = new ZipEntry(ZIP_ENTRY);
+        zipEntry.setMethod(ZipEntry.DEFLATED);
+        zipOutputStream.putNextEntry(zipEntry);
+        final JsonGenerator jGenerator = jsonFactory.createGenerator(zipOutputStream, JsonEncoding.UTF8);
+        jGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        jGenerator.writeStartObject();
+        writeSequenceNumbers(currentChannelPosition, jGenerator);
+        jGenerator.writeArrayFieldStart(DATA_FIELD_NAME);
 
-    private void writeSequenceNumbers(ChannelPosition currentChannelPosition, JsonGenerator jGenerator) throws IOException {
-        jGenerator.writeArrayFieldStart(START_SEQUENCE_NUMBERS_FIELD_NAME);
-        currentChannelPosition.shards().forEach(shardName -> {
+        ProgressLogger processedLogger = new ProgressLogger(LOG, stateRepository.size(), marker);
+        stateRepository.consumeAll((key, entry) -> {
             try {
-                jGenerator.writeStartObject();
-                jGenerator.writeStringField(SHARD_FIELD_NAME, shardName);
-                if (currentChannelPosition.shard(shardName).startFrom() == StartFrom.HORIZON) {
-                    jGenerator.writeStringField(SEQUENCE_NUMBER_FIELD_NAME, "0");
-                } else {
-                    jGenerator.writeStringField(SEQUENCE_NUMBER_FIELD_NAME, currentChannelPosition.shard(shardName).position());
+                processedLogger.incrementAndLog(10);
+                if (!("".equals(entry))) {
+                    jGenerator.writeStartObject();
+                    jGenerator.writeStringField(key, entry);
+                    jGenerator.writeEndObject();
                 }
-                jGenerator.writeEndObject();
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                LOG.error(marker, "Error during snapshot file creation", e);
+                throw new UncheckedIOException(e);
             }
         });
+
         jGenerator.writeEndArray();
+        jGenerator.writeEndObject();
+        jGenerator.flush();
+        zipOutputStream.closeEntry();
+        zipOutputStream.finish();
+        zipOutputStream.flush();
+        LOG.info(marker, "Written legacy snapshot with {} messages", stateRepository.size());
     }
 
+    private void writeSequenceNumbers(ChannelPosition currentChannelPosition, JsonGenerator jGenerator) throws IOException {
+        jGenerator.writeArrayFieldStart(START_SEQUENCE_NUMBERS_FIELD_NAME);
+        for (final String shardName : currentChannelPosition.shards()) {
+            jGenerator.writeStartObject();
+            jGenerator.writeStringField(SHARD_FIELD_NAME, shardName);
+            if (currentChannelPosition.shard(shardName).startFrom() == StartFrom.HORIZON) {
+                jGenerator.writeStringField(SEQUENCE_NUMBER_FIELD_NAME, "0");
+            } else {
+                jGenerator.writeStringField(SEQUENCE_NUMBER_FIELD_NAME, currentChannelPosition.shard(shardName).position());
+            }
+            jGenerator.writeEndObject();
+        }
+        jGenerator.writeEndArray();
+    }
+
+    private static String createSnapshotFileName(String prefix) {
+        return String.format("%s%s-%d%s",
+                prefix,
+                dateTimeFormatter.format(Instant.now()),
+                ThreadLocalRandom.current().nextLong(Long.MAX_VALUE),
+                COMPACTION_FILE_EXTENSION);
+    }
+
+    @FunctionalInterface
+    private interface SnapshotContent {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
 
 }
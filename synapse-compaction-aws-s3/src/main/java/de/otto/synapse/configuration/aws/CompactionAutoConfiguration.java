@@ -1,6 +1,7 @@
 package de.otto.synapse.configuration.aws;
 
 import de.otto.synapse.compaction.s3.CompactionService;
+import de.otto.synapse.compaction.s3.SnapshotReadService;
 import de.otto.synapse.compaction.s3.SnapshotWriteService;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
 import de.otto.synapse.eventsource.EventSourceBuilder;
@@ -13,6 +14,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
+import java.time.Clock;
+
 @Configuration
 @EnableConfigurationProperties(CompactionProperties.class)
 @Import(S3SnapshotAutoConfiguration.class)
@@ -30,7 +33,10 @@ public class CompactionAutoConfiguration {
     public CompactionService compactionService(final SnapshotWriteService snapshotWriteService,
                                                final StateRepository<String> compactionStateRepository,
                                                final EventSourceBuilder eventSourceBuilder,
-                                               final MessageLogReceiverEndpointFactory messageLogReceiverEndpointFactory) {
-        return new CompactionService(snapshotWriteService, compactionStateRepository, eventSourceBuilder, messageLogReceiverEndpointFactory);
+                                               final MessageLogReceiverEndpointFactory messageLogReceiverEndpointFactory,
+                                               final SnapshotReadService snapshotReadService,
+                                               final CompactionProperties compactionProperties) {
+        return new CompactionService(snapshotWriteService, compactionStateRepository, eventSourceBuilder, messageLogReceiverEndpointFactory,
+                snapshotReadService, compactionProperties.getMaxDeltaSnapshots(), Clock.systemDefaultZone());
     }
 }
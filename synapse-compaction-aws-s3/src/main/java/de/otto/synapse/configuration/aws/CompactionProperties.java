@@ -7,6 +7,13 @@ public class CompactionProperties {
 
     private boolean enabled = false;
 
+    /**
+     * The maximum number of delta snapshots that are written for a base snapshot, before the delta snapshots are
+     * merged into a new base snapshot. Delta snapshots only contain the messages that were changed since the
+     * previous snapshot was written. 0 disables incremental compaction.
+     */
+    private int maxDeltaSnapshots = 0;
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -15,5 +22,13 @@ public class CompactionProperties {
         this.enabled = enabled;
     }
 
+    public int getMaxDeltaSnapshots() {
+        return maxDeltaSnapshots;
+    }
+
+    public void setMaxDeltaSnapshots(int maxDeltaSnapshots) {
+        this.maxDeltaSnapshots = maxDeltaSnapshots;
+    }
+
 
 }
@@ -1,5 +1,6 @@
 package de.otto.synapse.configuration.aws;
 
+import de.otto.synapse.helper.s3.S3Helper;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 @ConfigurationProperties(prefix = "synapse.snapshot")
@@ -7,6 +8,53 @@ public class SnapshotProperties {
 
     private String bucketName = null;
 
+    /**
+     * The size of the parts of snapshots that are downloaded using parallel ranged GET requests, in bytes.
+     */
+    private long downloadPartSize = S3Helper.DEFAULT_DOWNLOAD_PART_SIZE;
+
+    /**
+     * The number of parts of a snapshot that are downloaded in parallel.
+     */
+    private int downloadParallelism = S3Helper.DEFAULT_DOWNLOAD_PARALLELISM;
+
+    /**
+     * The size of the parts of snapshots that are streamed to S3 using multipart uploads, in bytes. S3 requires
+     * parts to be at least 5MB.
+     */
+    private int uploadPartSize = 16 * 1024 * 1024;
+
+    /**
+     * The number of parts of a snapshot that are uploaded in parallel.
+     */
+    private int uploadParallelism = 4;
+
+    /**
+     * The format of written snapshots: legacy or partitioned. Snapshots are readable regardless of the configured
+     * format, but services using older versions of Synapse are only able to read legacy snapshots. The partitioned
+     * format is required for incremental compaction.
+     */
+    private String format = "legacy";
+
+    /**
+     * The number of partitions of partitioned snapshots. Messages are distributed over the partitions by the hash of their
+     * keys, so the partitions can be read in parallel.
+     */
+    private int partitions = 8;
+
+    /**
+     * The maximum uncompressed size of the separately compressed chunks of a partition, in bytes. The chunks of
+     * all partitions are buffered in memory while the snapshot is written.
+     */
+    private int chunkSize = 4 * 1024 * 1024;
+
+    /**
+     * The codec used to compress the chunks of snapshots: deflate, lz4 or zstd. Snapshots are readable
+     * regardless of the configured codec, but services using older versions of Synapse are only able to read
+     * deflated snapshots. The codec is only used by the partitioned format; legacy snapshots are always deflated.
+     */
+    private String codec = "deflate";
+
     public String getBucketName() {
         return bucketName;
     }
@@ -15,4 +63,68 @@ public class SnapshotProperties {
             this.bucketName = bucketName;
         }
 
+    public long getDownloadPartSize() {
+        return downloadPartSize;
+    }
+
+    public void setDownloadPartSize(long downloadPartSize) {
+        this.downloadPartSize = downloadPartSize;
+    }
+
+    public int getDownloadParallelism() {
+        return downloadParallelism;
+    }
+
+    public void setDownloadParallelism(int downloadParallelism) {
+        this.downloadParallelism = downloadParallelism;
+    }
+
+    public int getUploadPartSize() {
+        return uploadPartSize;
+    }
+
+    public void setUploadPartSize(int uploadPartSize) {
+        this.uploadPartSize = uploadPartSize;
+    }
+
+    public int getUploadParallelism() {
+        return uploadParallelism;
+    }
+
+    public void setUploadParallelism(int uploadParallelism) {
+        this.uploadParallelism = uploadParallelism;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
 }
@@ -1,6 +1,9 @@
 package de.otto.synapse.helper.s3;
 
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
@@ -8,11 +11,33 @@ import software.amazon.awssdk.services.s3.model.*;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.stream.Collectors.toList;
 import static org.slf4j.LoggerFactory.getLogger;
 import static software.amazon.awssdk.services.s3.model.Delete.builder;
@@ -21,10 +46,42 @@ public class S3Helper {
 
     private static final Logger LOG = getLogger(S3Helper.class);
 
+    /** Default size of the parts of a parallel download. */
+    public static final long DEFAULT_DOWNLOAD_PART_SIZE = 64L * 1024 * 1024;
+    /** Default number of parts that are downloaded in parallel. */
+    public static final int DEFAULT_DOWNLOAD_PARALLELISM = 8;
+
+    private static final String PART_FILE_SUFFIX = ".part";
+    private static final String PROGRESS_FILE_SUFFIX = ".part.progress";
+    private static final String ETAG_FILE_SUFFIX = ".etag";
+    /** User-defined metadata containing the hex-encoded MD5 digest of an object uploaded in a single request. */
+    static final String CONTENT_MD5_METADATA = "synapse-content-md5";
+    /** User-defined metadata containing the part size of an object uploaded in multiple parts. */
+    static final String PART_SIZE_METADATA = "synapse-part-size";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final S3Client s3Client;
+    private final long downloadPartSize;
+    private final int downloadParallelism;
 
     public S3Helper(final S3Client s3Client) {
+        this(s3Client, DEFAULT_DOWNLOAD_PART_SIZE, DEFAULT_DOWNLOAD_PARALLELISM);
+    }
+
+    /**
+     * @param s3Client the S3 client
+     * @param downloadPartSize the size of the parts of a parallel download in bytes
+     * @param downloadParallelism the number of parts that are downloaded in parallel
+     */
+    public S3Helper(final S3Client s3Client,
+                    final long downloadPartSize,
+                    final int downloadParallelism) {
+        if (downloadPartSize < 1 || downloadParallelism < 1) {
+            throw new IllegalArgumentException("downloadPartSize and downloadParallelism must be greater than zero");
+        }
         this.s3Client = s3Client;
+        this.downloadPartSize = downloadPartSize;
+        this.downloadParallelism = downloadParallelism;
     }
 
     public void createBucket(final String bucketName) {
@@ -42,12 +99,21 @@ public class S3Helper {
                 .collect(toList());
     }
 
+    /**
+     * Uploads a file in a single request. The MD5 digest of the file is stored in the metadata of the object, so
+     * downloads of the object can be validated.
+     *
+     * @param bucketName the name of the bucket
+     * @param file the uploaded file
+     */
     public void upload(final String bucketName,
                        final File file) {
         try (FileInputStream fis = new FileInputStream(file)) {
+            final String contentMd5 = digestOf(file.toPath(), Long.MAX_VALUE);
             final PutObjectResponse putObjectResponse = s3Client.putObject(PutObjectRequest.builder()
                             .bucket(bucketName)
                             .key(file.getName())
+                            .metadata(singletonMap(CONTENT_MD5_METADATA, contentMd5))
                             .build(),
                     RequestBody.fromInputStream(fis, file.length()));
             LOG.debug("upload {} to bucket {}: {}", file.getName(), bucketName, putObjectResponse.toString());
@@ -56,10 +122,154 @@ public class S3Helper {
         }
     }
 
+    /**
+     * Returns the user-defined metadata of an object, without downloading the object.
+     *
+     * @param bucketName the name of the bucket
+     * @param key the key of the object
+     * @return metadata of the object
+     */
+    public Map<String, String> getMetadata(final String bucketName,
+                                           final String key) {
+        return s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build()).metadata();
+    }
+
+    /**
+     * Downloads an object from S3.
+     *
+     * @param bucketName the name of the bucket
+     * @param fileName the key of the object
+     * @param destination the path of the downloaded file
+     * @return true if the download was successful, false otherwise
+     * @see #download(String, String, long, String, Path)
+     */
     public boolean download(final String bucketName,
                             final String fileName,
                             final Path destination) {
         try {
+            final HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(fileName).build());
+            return download(bucketName, fileName, head.contentLength(), head.eTag(), destination);
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to download {} from bucket {}: {}", fileName, bucketName, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Downloads an object with known size and ETag from S3.
+     * <p>
+     *     Objects larger than the part size are downloaded using parallel ranged GETs into a preallocated
+     *     {@code <destination>.part} file. Completed parts are recorded in a {@code <destination>.part.progress}
+     *     file, so a failed or interrupted download is resumed by the next call instead of starting again. Every
+     *     range is requested using {@code If-Match}, so the parts of an object that was modified in the meantime
+     *     are never mixed up.
+     * </p>
+     * <p>
+     *     Downloaded files are validated against the whole-object checksum of the object: objects uploaded in a
+     *     single request are validated against the MD5 digest stored in their metadata, or against their ETag.
+     *     Objects uploaded in multiple parts are validated against their ETag, which is calculated by S3 from the
+     *     MD5 digests of the parts, if the part size is stored in their metadata. ETags of objects encrypted
+     *     using SSE-KMS or SSE-C are no digests, so these objects are only validated, if the MD5 digest is stored
+     *     in their metadata.
+     * </p>
+     * <p>
+     *     After a successful download, the ETag is stored in {@code <destination>.etag}, so
+     *     {@link #isDownloaded(Path, long, String)} is able to detect an up-to-date local copy of the object.
+     * </p>
+     *
+     * @param bucketName the name of the bucket
+     * @param fileName the key of the object
+     * @param size the size of the object in bytes
+     * @param eTag the ETag of the object, or null if unknown
+     * @param destination the path of the downloaded file
+     * @return true if the download was successful, false otherwise
+     */
+    public boolean download(final String bucketName,
+                            final String fileName,
+                            final long size,
+                            final String eTag,
+                            final Path destination) {
+        if (eTag == null || size <= downloadPartSize) {
+            return downloadInSingleRequest(bucketName, fileName, eTag, destination);
+        }
+        final Path partFile = siblingOf(destination, PART_FILE_SUFFIX);
+        final Path progressFile = siblingOf(destination, PROGRESS_FILE_SUFFIX);
+        final ExecutorService executorService = newFixedThreadPool(downloadParallelism,
+                new ThreadFactoryBuilder().setNameFormat("s3-download-%d").setDaemon(true).build());
+        try {
+            final HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(fileName)
+                    .ifMatch(eTag)
+                    .build());
+            final Set<Long> completedParts = prepareDownload(partFile, progressFile, size, eTag);
+            final long numberOfParts = (size + downloadPartSize - 1) / downloadPartSize;
+            LOG.info("Downloading {} from bucket {} in {} parts ({} already downloaded)", fileName, bucketName, numberOfParts, completedParts.size());
+            try (FileChannel channel = FileChannel.open(partFile, WRITE)) {
+                final List<CompletableFuture<Void>> parts = new ArrayList<>();
+                for (long part = 0; part < numberOfParts; part++) {
+                    if (!completedParts.contains(part)) {
+                        final long partNumber = part;
+                        parts.add(runAsync(() -> {
+                            downloadPart(bucketName, fileName, eTag, channel, partNumber, size);
+                            markPartCompleted(progressFile, partNumber);
+                        }, executorService));
+                    }
+                }
+                allOf(parts.toArray(new CompletableFuture<?>[0])).join();
+                channel.force(false);
+            }
+            if (!isValid(partFile, eTag, head.metadata(), isETagDigest(head.serverSideEncryption(), head.sseCustomerAlgorithm()))) {
+                LOG.error("Downloaded file {} does not match checksum of object with ETag {}", fileName, eTag);
+                Files.deleteIfExists(progressFile);
+                Files.deleteIfExists(partFile);
+                return false;
+            }
+            Files.move(partFile, destination, REPLACE_EXISTING);
+            Files.deleteIfExists(progressFile);
+            Files.write(siblingOf(destination, ETAG_FILE_SUFFIX), eTag.getBytes(UTF_8));
+            LOG.debug("download {} from bucket {} completed", fileName, bucketName);
+            return true;
+        } catch (final IOException | RuntimeException e) {
+            LOG.error("Failed to download {} from bucket {}: {}", fileName, bucketName, e.getMessage());
+            return false;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns true, if the destination is a complete download of an object with the given size and ETag.
+     *
+     * @param destination the path of the downloaded file
+     * @param size the size of the object in bytes
+     * @param eTag the ETag of the object, or null, if only the size should be compared
+     * @return true if the file is an up-to-date copy of the object
+     */
+    public static boolean isDownloaded(final Path destination,
+                                       final long size,
+                                       final String eTag) {
+        final File file = destination.toFile();
+        if (!file.exists() || !file.canRead() || file.length() != size) {
+            return false;
+        }
+        if (eTag == null) {
+            return true;
+        }
+        try {
+            final Path eTagFile = siblingOf(destination, ETAG_FILE_SUFFIX);
+            return Files.exists(eTagFile) && new String(Files.readAllBytes(eTagFile), UTF_8).equals(eTag);
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    private boolean downloadInSingleRequest(final String bucketName,
+                                            final String fileName,
+                                            final String eTag,
+                                            final Path destination) {
+        try {
+            Files.deleteIfExists(siblingOf(destination, ETAG_FILE_SUFFIX));
             if (Files.exists(destination)) {
                 Files.delete(destination);
             }
@@ -71,13 +281,167 @@ public class S3Helper {
             final GetObjectRequest request = GetObjectRequest.builder().bucket(bucketName).key(fileName).build();
             final GetObjectResponse getObjectResponse = s3Client.getObject(request, destination);
             LOG.debug("download {} from bucket {}: {}", fileName, bucketName, getObjectResponse.toString());
+            final boolean eTagIsDigest = isETagDigest(getObjectResponse.serverSideEncryption(), getObjectResponse.sseCustomerAlgorithm());
+            if (!isValid(destination, getObjectResponse.eTag(), getObjectResponse.metadata(), eTagIsDigest)) {
+                LOG.error("Downloaded file {} does not match checksum of object with ETag {}", fileName, getObjectResponse.eTag());
+                Files.deleteIfExists(destination);
+                return false;
+            }
+            if (eTag != null) {
+                Files.write(siblingOf(destination, ETAG_FILE_SUFFIX), eTag.getBytes(UTF_8));
+            }
             return true;
-        } catch (final RuntimeException e) {
+        } catch (final IOException | RuntimeException e) {
             LOG.error("Failed to download {} from bucket {}: {}", fileName, bucketName, e.getMessage());
             return false;
         }
     }
 
+    /**
+     * Prepares the part file of a download and returns the parts that were already downloaded by an earlier,
+     * incomplete download of the same object.
+     */
+    private Set<Long> prepareDownload(final Path partFile,
+                                      final Path progressFile,
+                                      final long size,
+                                      final String eTag) throws IOException {
+        final Set<Long> completedParts = new HashSet<>();
+        if (Files.exists(progressFile) && Files.exists(partFile) && Files.size(partFile) == size) {
+            final List<String> lines = Files.readAllLines(progressFile, UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(eTag)) {
+                lines.stream().skip(1).filter(line -> !line.isEmpty()).map(Long::valueOf).forEach(completedParts::add);
+                return completedParts;
+            }
+        }
+        Files.deleteIfExists(partFile);
+        Files.write(progressFile, singletonList(eTag), UTF_8);
+        try (RandomAccessFile file = new RandomAccessFile(partFile.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        return completedParts;
+    }
+
+    private void downloadPart(final String bucketName,
+                              final String fileName,
+                              final String eTag,
+                              final FileChannel channel,
+                              final long partNumber,
+                              final long size) {
+        final long first = partNumber * downloadPartSize;
+        final long last = Math.min(first + downloadPartSize, size) - 1;
+        final GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileName)
+                .range("bytes=" + first + "-" + last)
+                .ifMatch(eTag)
+                .build();
+        try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(request)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long position = first;
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+            }
+            if (position != last + 1) {
+                throw new IOException("Incomplete download of part " + partNumber + ": received " + (position - first) + " of " + (last - first + 1) + " bytes");
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void markPartCompleted(final Path progressFile, final long partNumber) {
+        try {
+            Files.write(progressFile, singletonList(String.valueOf(partNumber)), UTF_8, APPEND);
+        } catch (final IOException e) {
+            // the part will be downloaded again if the download is resumed:
+            LOG.warn("Failed to record progress of download: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Validates the file against the whole-object checksum of an object.
+     *
+     * @param file the downloaded file
+     * @param eTag the ETag of the object, or null if unknown
+     * @param metadata the user-defined metadata of the object
+     * @param eTagIsDigest true, if the ETag of the object is calculated from MD5 digests
+     * @return false, if the file does not match the checksum, true if it matches or can not be validated
+     */
+    private static boolean isValid(final Path file,
+                                   final String eTag,
+                                   final Map<String, String> metadata,
+                                   final boolean eTagIsDigest) throws IOException {
+        final String contentMd5 = metadata != null ? metadata.get(CONTENT_MD5_METADATA) : null;
+        if (contentMd5 != null) {
+            return digestOf(file, Long.MAX_VALUE).equalsIgnoreCase(contentMd5);
+        }
+        if (eTag == null || !eTagIsDigest) {
+            return true;
+        }
+        final String digest = eTag.replace("\"", "");
+        if (digest.matches("[0-9a-fA-F]{32}")) {
+            return digestOf(file, Long.MAX_VALUE).equalsIgnoreCase(digest);
+        }
+        final String partSize = metadata != null ? metadata.get(PART_SIZE_METADATA) : null;
+        if (partSize != null && digest.matches("[0-9a-fA-F]{32}-[0-9]+")) {
+            return digestOf(file, Long.parseLong(partSize)).equalsIgnoreCase(digest);
+        }
+        LOG.debug("Unable to validate download of object with ETag {}: no checksum available", eTag);
+        return true;
+    }
+
+    /**
+     * Returns false, if the object is encrypted using SSE-KMS or SSE-C, so its ETag is not calculated from the
+     * MD5 digest of its content.
+     */
+    private static boolean isETagDigest(final ServerSideEncryption serverSideEncryption,
+                                        final String sseCustomerAlgorithm) {
+        return serverSideEncryption != ServerSideEncryption.AWS_KMS && sseCustomerAlgorithm == null;
+    }
+
+    /**
+     * Returns the hex-encoded MD5 digest of a file, as calculated by S3 for the ETag of an object that is
+     * uploaded in parts of the given size. If the file is not larger than the part size, this is the MD5 digest
+     * of the whole file.
+     */
+    static String digestOf(final Path file, final long partSize) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            final MessageDigest partDigest = MessageDigest.getInstance("MD5");
+            final MessageDigest multipartDigest = MessageDigest.getInstance("MD5");
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long positionInPart = 0;
+            int numberOfParts = 0;
+            int read;
+            while ((read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, partSize - positionInPart))) > 0) {
+                partDigest.update(buffer, 0, read);
+                positionInPart += read;
+                if (positionInPart == partSize) {
+                    multipartDigest.update(partDigest.digest());
+                    ++numberOfParts;
+                    positionInPart = 0;
+                }
+            }
+            if (numberOfParts == 0) {
+                return BaseEncoding.base16().lowerCase().encode(partDigest.digest());
+            }
+            if (positionInPart > 0) {
+                multipartDigest.update(partDigest.digest());
+                ++numberOfParts;
+            }
+            return BaseEncoding.base16().lowerCase().encode(multipartDigest.digest()) + "-" + numberOfParts;
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path siblingOf(final Path destination, final String suffix) {
+        return destination.resolveSibling(destination.getFileName() + suffix);
+    }
+
     public void deleteAllObjectsInBucket(final String bucketName) {
         try {
             LOG.debug("deleting all objects in bucket {}", bucketName);
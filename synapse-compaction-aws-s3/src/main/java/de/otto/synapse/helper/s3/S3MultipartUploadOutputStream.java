@@ -0,0 +1,302 @@
+package de.otto.synapse.helper.s3;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import static de.otto.synapse.helper.s3.S3Helper.CONTENT_MD5_METADATA;
+import static de.otto.synapse.helper.s3.S3Helper.PART_SIZE_METADATA;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * OutputStream that is streaming the written bytes into an S3 object using a multipart upload.
+ * <p>
+ *     The bytes are buffered until a part of {@code partSize} bytes is complete. The part is then uploaded in the
+ *     background, while the next part is written. Up to {@code maxPartsInFlight} parts are uploaded in parallel;
+ *     writing blocks if more parts are waiting to be uploaded. The upload is completed by {@link #close()}.
+ *     Objects smaller than a single part are uploaded using a single {@code PutObject} request.
+ * </p>
+ * <p>
+ *     The MD5 digest of objects uploaded in a single request, or the part size of objects uploaded in multiple
+ *     parts, is added to the user-defined metadata of the object, so {@link S3Helper} is able to validate
+ *     downloads of the object against its whole-object checksum.
+ * </p>
+ * <p>
+ *     If uploading a part fails, subsequent writes throw an {@link IOException}, and {@link #close()} aborts the
+ *     multipart upload before throwing an {@code IOException}. {@link #abort()} must be called to abort the upload,
+ *     if producing the content of the object fails.
+ * </p>
+ * <p>
+ *     S3 requires all parts, except the last one, to have a size of at least 5MB.
+ * </p>
+ */
+@NotThreadSafe
+public class S3MultipartUploadOutputStream extends OutputStream {
+
+    private static final Logger LOG = getLogger(S3MultipartUploadOutputStream.class);
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final String key;
+    private final Map<String, String> metadata;
+    private final int partSize;
+    private final Semaphore partsInFlight;
+    private final ExecutorService executorService;
+    private final List<CompletableFuture<CompletedPart>> uploadedParts = new ArrayList<>();
+    private byte[] buffer;
+    private int position;
+    private String uploadId;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    /**
+     * @param s3Client the S3 client
+     * @param bucketName the name of the bucket
+     * @param key the key of the uploaded object
+     * @param partSize the size of the uploaded parts in bytes
+     * @param maxPartsInFlight the maximum number of parts that are uploaded in parallel
+     */
+    public S3MultipartUploadOutputStream(final S3Client s3Client,
+                                         final String bucketName,
+                                         final String key,
+                                         final int partSize,
+                                         final int maxPartsInFlight) {
+        this(s3Client, bucketName, key, emptyMap(), partSize, maxPartsInFlight);
+    }
+
+    /**
+     * @param s3Client the S3 client
+     * @param bucketName the name of the bucket
+     * @param key the key of the uploaded object
+     * @param metadata the user-defined metadata of the uploaded object
+     * @param partSize the size of the uploaded parts in bytes
+     * @param maxPartsInFlight the maximum number of parts that are uploaded in parallel
+     */
+    public S3MultipartUploadOutputStream(final S3Client s3Client,
+                                         final String bucketName,
+                                         final String key,
+                                         final Map<String, String> metadata,
+                                         final int partSize,
+                                         final int maxPartsInFlight) {
+        if (partSize < 1 || maxPartsInFlight < 1) {
+            throw new IllegalArgumentException("partSize and maxPartsInFlight must be greater than zero");
+        }
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.metadata = metadata;
+        this.partSize = partSize;
+        this.partsInFlight = new Semaphore(maxPartsInFlight);
+        this.executorService = newFixedThreadPool(maxPartsInFlight,
+                new ThreadFactoryBuilder().setNameFormat("s3-upload-%d").setDaemon(true).build());
+        this.buffer = new byte[partSize];
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureOpen();
+        buffer[position++] = (byte) b;
+        if (position == partSize) {
+            uploadPart();
+        }
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        ensureOpen();
+        int written = 0;
+        while (written < length) {
+            final int chunk = Math.min(length - written, partSize - position);
+            System.arraycopy(bytes, offset + written, buffer, position, chunk);
+            position += chunk;
+            written += chunk;
+            if (position == partSize) {
+                uploadPart();
+            }
+        }
+    }
+
+    /**
+     * Uploads the remaining bytes and completes the upload.
+     *
+     * @throws IOException if the upload failed. The multipart upload is aborted in this case.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            ensureOpen();
+            if (uploadId == null) {
+                final byte[] content = copyOfBuffer();
+                s3Client.putObject(PutObjectRequest.builder().bucket(bucketName).key(key).metadata(metadataWith(CONTENT_MD5_METADATA, md5Of(content))).build(),
+                        RequestBody.fromBytes(content));
+                LOG.debug("uploaded {} bytes to {} in bucket {}", position, key, bucketName);
+            } else {
+                if (position > 0) {
+                    uploadPart();
+                }
+                final List<CompletedPart> parts = awaitUploadedParts();
+                s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                        .build());
+                LOG.debug("uploaded {} parts to {} in bucket {}", parts.size(), key, bucketName);
+            }
+        } catch (final IOException | RuntimeException e) {
+            abort();
+            throw e instanceof IOException ? (IOException) e : new IOException("Failed to upload " + key + ": " + e.getMessage(), e);
+        } finally {
+            closed = true;
+            buffer = null;
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Aborts the upload, if the stream is not yet closed. Parts that were already uploaded are deleted.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        executorService.shutdownNow();
+        if (uploadId != null) {
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build());
+                LOG.info("aborted multipart upload of {} to bucket {}", key, bucketName);
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to abort multipart upload of {} to bucket {}: {}", key, bucketName, e.getMessage());
+            }
+            uploadId = null;
+        }
+        closed = true;
+        buffer = null;
+    }
+
+    private void uploadPart() throws IOException {
+        if (uploadId == null) {
+            uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .metadata(metadataWith(PART_SIZE_METADATA, String.valueOf(partSize)))
+                    .build())
+                    .uploadId();
+        }
+        try {
+            partsInFlight.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for parts to be uploaded");
+        }
+        ensureOpen();
+        final byte[] part;
+        if (position == partSize) {
+            part = buffer;
+            buffer = new byte[partSize];
+        } else {
+            part = copyOfBuffer();
+        }
+        final int partNumber = uploadedParts.size() + 1;
+        final String currentUploadId = uploadId;
+        uploadedParts.add(supplyAsync(() -> {
+            try {
+                final String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucketName)
+                                .key(key)
+                                .uploadId(currentUploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) part.length)
+                                .build(),
+                        RequestBody.fromBytes(part))
+                        .eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (final RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                partsInFlight.release();
+            }
+        }, executorService));
+        position = 0;
+    }
+
+    private List<CompletedPart> awaitUploadedParts() throws IOException {
+        try {
+            allOf(uploadedParts.toArray(new CompletableFuture<?>[0])).join();
+        } catch (final CompletionException e) {
+            throw new IOException("Failed to upload part of " + key + ": " + e.getCause().getMessage(), e.getCause());
+        }
+        return uploadedParts.stream()
+                .map(CompletableFuture::join)
+                .sorted(Comparator.comparing(CompletedPart::partNumber))
+                .collect(toList());
+    }
+
+    private Map<String, String> metadataWith(final String name, final String value) {
+        final Map<String, String> result = new HashMap<>(metadata);
+        result.put(name, value);
+        return result;
+    }
+
+    private static String md5Of(final byte[] content) {
+        try {
+            return BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("MD5").digest(content));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] copyOfBuffer() {
+        final byte[] copy = new byte[position];
+        System.arraycopy(buffer, 0, copy, 0, position);
+        return copy;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        final Throwable failure = this.failure;
+        if (failure != null) {
+            throw new IOException("Failed to upload part of " + key + ": " + failure.getMessage(), failure);
+        }
+    }
+}
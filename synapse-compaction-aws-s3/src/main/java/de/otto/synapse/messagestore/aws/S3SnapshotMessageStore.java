@@ -5,9 +5,11 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Streams;
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.compaction.s3.PartitionedSnapshotReader;
 import de.otto.synapse.compaction.s3.SnapshotFileHelper;
 import de.otto.synapse.compaction.s3.SnapshotMessage;
 import de.otto.synapse.compaction.s3.SnapshotMessageDecoder;
@@ -29,7 +31,9 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.*;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
@@ -48,9 +52,11 @@ public class S3SnapshotMessageStore implements SnapshotMessageStore {
 
     private static final Logger LOG = getLogger(S3SnapshotMessageStore.class);
 
-    private MessageIterator messageIterator;
+    private Iterator<TextMessage> messageIterator;
     private ChannelPosition channelPosition;
     private ZipInputStream zipInputStream;
+    private PartitionedSnapshotReader partitionedSnapshotReader;
+    private final List<PartitionedSnapshotReader> deltaSnapshotReaders = new ArrayList<>();
     private Instant snapshotTimestamp;
     private final String channelName;
     private final ApplicationEventPublisher eventPublisher;
@@ -67,31 +73,23 @@ public class S3SnapshotMessageStore implements SnapshotMessageStore {
                 final File snapshot = latestSnapshot.get();
                 this.snapshotTimestamp = SnapshotFileHelper.getSnapshotTimestamp(snapshot.getName());
                 publishEvent(STARTED, "Retrieve snapshot file from S3.", snapshotTimestamp);
-                zipInputStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
-                zipInputStream.getNextEntry();
-                JsonFactory jsonFactory = new JsonFactory();
-                final JsonParser jsonParser = jsonFactory.createParser(zipInputStream);
-                while (!jsonParser.isClosed() && messageIterator == null) {
-                    JsonToken currentToken = jsonParser.nextToken();
-                    if (currentToken == JsonToken.FIELD_NAME) {
-                        switch (jsonParser.getValueAsString()) {
-                            case "startSequenceNumbers":
-                                channelPosition = processSequenceNumbers(jsonParser);
-                                break;
-                            case "data":
-                                // TODO: This expects "startSequenceNumbers" to come _before_ "data"
-                                messageIterator = new MessageIterator(jsonParser);
-                                break;
-                            default:
-                                break;
-                        }
-                    }
+                if (PartitionedSnapshotReader.isPartitioned(snapshot)) {
+                    partitionedSnapshotReader = new PartitionedSnapshotReader(snapshot, PartitionedSnapshotReader.DEFAULT_PARALLELISM);
+                    channelPosition = partitionedSnapshotReader.getChannelPosition();
+                    messageIterator = partitionedSnapshotReader.messages(Header.of());
+                } else {
+                    openLegacySnapshot(snapshot);
                 }
+                openDeltaSnapshots(snapshotReadService.retrieveDeltaSnapshots(channelName, snapshot));
             } else {
                 LOG.info("No Snapshot available. Returning emptyMessageStore MessageStore.");
             }
         } catch (final Exception e) {
             try {
+                closeDeltaSnapshots();
+                if (partitionedSnapshotReader != null) {
+                    partitionedSnapshotReader.close();
+                }
                 zipInputStream.close();
             } catch (final Exception e1) {
                 /* ignore */
@@ -102,6 +100,57 @@ public class S3SnapshotMessageStore implements SnapshotMessageStore {
 
     }
 
+    /**
+     * Applies the delta snapshots after the messages of the base snapshot. The delta snapshots are read
+     * lazily, after all messages of the preceding snapshots were consumed.
+     */
+    private void openDeltaSnapshots(final List<File> deltaSnapshots) throws IOException {
+        if (deltaSnapshots.isEmpty()) {
+            return;
+        }
+        for (final File deltaSnapshot : deltaSnapshots) {
+            final PartitionedSnapshotReader deltaSnapshotReader = new PartitionedSnapshotReader(deltaSnapshot, PartitionedSnapshotReader.DEFAULT_PARALLELISM);
+            deltaSnapshotReaders.add(deltaSnapshotReader);
+            channelPosition = deltaSnapshotReader.getChannelPosition();
+        }
+        LOG.info("Applying {} delta snapshots to the snapshot of channel {}", deltaSnapshots.size(), channelName);
+        final Iterator<TextMessage> deltaMessages = Iterators.concat(Iterators.transform(
+                deltaSnapshotReaders.iterator(),
+                deltaSnapshotReader -> deltaSnapshotReader.messages(Header.of())));
+        messageIterator = messageIterator != null
+                ? Iterators.concat(messageIterator, deltaMessages)
+                : deltaMessages;
+    }
+
+    private void closeDeltaSnapshots() throws IOException {
+        for (final PartitionedSnapshotReader deltaSnapshotReader : deltaSnapshotReaders) {
+            deltaSnapshotReader.close();
+        }
+    }
+
+    private void openLegacySnapshot(final File snapshot) throws IOException {
+        zipInputStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+        zipInputStream.getNextEntry();
+        JsonFactory jsonFactory = new JsonFactory();
+        final JsonParser jsonParser = jsonFactory.createParser(zipInputStream);
+        while (!jsonParser.isClosed() && messageIterator == null) {
+            JsonToken currentToken = jsonParser.nextToken();
+            if (currentToken == JsonToken.FIELD_NAME) {
+                switch (jsonParser.getValueAsString()) {
+                    case "startSequenceNumbers":
+                        channelPosition = processSequenceNumbers(jsonParser);
+                        break;
+                    case "data":
+                        // TODO: This expects "startSequenceNumbers" to come _before_ "data"
+                        messageIterator = new MessageIterator(jsonParser);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
     public void close() {
         LOG.info("Closing SnapshotMessageStore");
         publishEvent(FINISHED, "Finished to load snapshot from S3.", snapshotTimestamp);
@@ -109,6 +158,10 @@ public class S3SnapshotMessageStore implements SnapshotMessageStore {
             if (zipInputStream != null) {
                 zipInputStream.close();
             }
+            if (partitionedSnapshotReader != null) {
+                partitionedSnapshotReader.close();
+            }
+            closeDeltaSnapshots();
         } catch (final IOException e) {
             throw new UncheckedIOException(e.getMessage(), e);
         }
@@ -0,0 +1,279 @@
+package de.otto.synapse.compaction.s3;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.InMemoryChannel;
+import de.otto.synapse.configuration.aws.SnapshotProperties;
+import de.otto.synapse.consumer.MessageConsumer;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.eventsource.DefaultEventSource;
+import de.otto.synapse.messagestore.MessageStoreEntry;
+import de.otto.synapse.messagestore.aws.S3SnapshotMessageStore;
+import de.otto.synapse.state.ConcurrentMapStateRepository;
+import de.otto.synapse.testsupport.LocalS3Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.utils.IoUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.compaction.s3.SnapshotFileHelper.getTempFile;
+import static de.otto.synapse.message.TextMessage.of;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+public class CompactionServiceTest {
+
+    private static final String CHANNEL_NAME = "compaction-service-test";
+    private static final String BUCKET_NAME = "compaction-service-test-bucket";
+
+    private LocalS3Client s3Client;
+    private InMemoryChannel channel;
+    private SnapshotReadService snapshotReadService;
+    private CompactionService testee;
+
+    @Before
+    public void setUp() throws IOException {
+        deleteSnapshotFilesFromTemp();
+        s3Client = new LocalS3Client();
+        s3Client.createBucket(CreateBucketRequest.builder().bucket(BUCKET_NAME).build());
+        final SnapshotProperties properties = new SnapshotProperties();
+        properties.setBucketName(BUCKET_NAME);
+        properties.setFormat("partitioned");
+        snapshotReadService = new SnapshotReadService(properties, s3Client);
+        channel = new InMemoryChannel(CHANNEL_NAME, new MessageInterceptorRegistry());
+        testee = new CompactionService(
+                new SnapshotWriteService(s3Client, properties),
+                new ConcurrentMapStateRepository<>("test"),
+                messageLog -> new DefaultEventSource(new S3SnapshotMessageStore(CHANNEL_NAME, snapshotReadService, null), messageLog),
+                channelName -> channel,
+                snapshotReadService,
+                2,
+                Clock.systemDefaultZone());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteSnapshotFilesFromTemp();
+    }
+
+    @Test
+    public void shouldWriteDeltaSnapshotsContainingChangedAndDeletedMessages() throws Exception {
+        // given
+        sendMessages(1, 10, "first");
+        final String baseSnapshot = testee.compact(CHANNEL_NAME);
+        sendMessages(5, 12, "second");
+        channel.send(of("1", null));
+
+        // when
+        final String deltaSnapshot = testee.compact(CHANNEL_NAME);
+
+        // then
+        assertThat(baseSnapshot, startsWith("compaction-" + CHANNEL_NAME + "-snapshot-"));
+        assertThat(deltaSnapshot, startsWith("compaction-" + CHANNEL_NAME + "-delta-"));
+        final Optional<File> latestSnapshot = snapshotReadService.retrieveLatestSnapshot(CHANNEL_NAME);
+        final List<File> deltaSnapshots = snapshotReadService.retrieveDeltaSnapshots(CHANNEL_NAME, latestSnapshot.get());
+        assertThat(latestSnapshot.get().getName(), is(baseSnapshot));
+        assertThat(deltaSnapshots, hasSize(1));
+        try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(deltaSnapshots.get(0), 1)) {
+            assertThat(reader.getManifest().getBaseSnapshot(), is(baseSnapshot));
+            assertThat(reader.getManifest().getMessageCount(), is(9L));
+            assertThat(reader.getChannelPosition(), is(channelPosition(fromPosition(CHANNEL_NAME, "18"))));
+        }
+    }
+
+    @Test
+    public void shouldApplyDeltaSnapshotsToBaseSnapshot() throws Exception {
+        // given
+        sendMessages(1, 10, "first");
+        testee.compact(CHANNEL_NAME);
+        sendMessages(5, 12, "second");
+        channel.send(of("1", null));
+        testee.compact(CHANNEL_NAME);
+        Thread.sleep(10);
+        sendMessages(12, 13, "third");
+        testee.compact(CHANNEL_NAME);
+
+        // when
+        final Map<String, String> messages = new HashMap<>();
+        try (final S3SnapshotMessageStore messageStore = new S3SnapshotMessageStore(CHANNEL_NAME, snapshotReadService, null)) {
+            messageStore.stream()
+                    .map(MessageStoreEntry::getTextMessage)
+                    .forEach(message -> {
+                        if (message.getPayload() == null) {
+                            messages.remove(message.getKey().compactionKey());
+                        } else {
+                            messages.put(message.getKey().compactionKey(), message.getPayload());
+                        }
+                    });
+
+            // then
+            assertThat(messageStore.getLatestChannelPosition(), is(channelPosition(fromPosition(CHANNEL_NAME, "20"))));
+        }
+        assertThat(messages.size(), is(12));
+        assertThat(messages.get("1"), is(nullValue()));
+        assertThat(messages.get("2"), is("first-2"));
+        assertThat(messages.get("5"), is("second-5"));
+        assertThat(messages.get("12"), is("third-12"));
+        assertThat(messages.get("13"), is("third-13"));
+    }
+
+    @Test
+    public void shouldNotWriteDeltaSnapshotWithoutChanges() throws Exception {
+        // given
+        sendMessages(1, 10, "first");
+        final String baseSnapshot = testee.compact(CHANNEL_NAME);
+
+        // when
+        final String snapshot = testee.compact(CHANNEL_NAME);
+
+        // then
+        assertThat(snapshot, is(baseSnapshot));
+        assertThat(s3Client.listObjectsV2(ListObjectsV2Request.builder().bucket(BUCKET_NAME).build())
+                .contents()
+                .stream()
+                .map(S3Object::key)
+                .collect(Collectors.toList()), contains(baseSnapshot));
+    }
+
+    @Test
+    public void shouldMergeDeltaSnapshotsIntoNewBaseSnapshot() throws Exception {
+        // given
+        sendMessages(1, 10, "first");
+        testee.compact(CHANNEL_NAME);
+        sendMessages(5, 12, "second");
+        testee.compact(CHANNEL_NAME);
+        Thread.sleep(10);
+        sendMessages(12, 13, "third");
+        testee.compact(CHANNEL_NAME);
+        Thread.sleep(10);
+        sendMessages(14, 14, "fourth");
+
+        // when
+        final String snapshot = testee.compact(CHANNEL_NAME);
+
+        // then
+        assertThat(snapshot, startsWith("compaction-" + CHANNEL_NAME + "-snapshot-"));
+        final File latestSnapshot = snapshotReadService.retrieveLatestSnapshot(CHANNEL_NAME).get();
+        assertThat(latestSnapshot.getName(), is(snapshot));
+        assertThat(snapshotReadService.retrieveDeltaSnapshots(CHANNEL_NAME, latestSnapshot), hasSize(0));
+        final Map<String, String> messages = new HashMap<>();
+        final MessageConsumer<String> messageConsumer = MessageConsumer.of(".*", String.class,
+                (message) -> messages.put(message.getKey().compactionKey(), message.getPayload()));
+        final ChannelPosition channelPosition = new SnapshotParser().parse(
+                latestSnapshot,
+                new MessageDispatcher(singletonList(messageConsumer)));
+        assertThat(channelPosition, is(channelPosition(fromPosition(CHANNEL_NAME, "20"))));
+        assertThat(messages.size(), is(14));
+        assertThat(messages.get("14"), is("fourth-14"));
+    }
+
+    @Test
+    public void shouldNotDownloadBaseSnapshotForIncrementalCompaction() throws Exception {
+        // given
+        sendMessages(1, 10, "first");
+        final String baseSnapshot = testee.compact(CHANNEL_NAME);
+        sendMessages(5, 12, "second");
+
+        // when
+        final String deltaSnapshot = testee.compact(CHANNEL_NAME);
+
+        // then
+        assertThat(deltaSnapshot, startsWith("compaction-" + CHANNEL_NAME + "-delta-"));
+        assertThat(Files.exists(getTempFile(baseSnapshot)), is(false));
+    }
+
+    @Test
+    public void shouldDownloadBaseSnapshotWithoutChannelPositionMetadata() throws Exception {
+        // given
+        final SnapshotProperties properties = new SnapshotProperties();
+        properties.setBucketName(BUCKET_NAME);
+        properties.setFormat("partitioned");
+        final ConcurrentMapStateRepository<String> stateRepository = new ConcurrentMapStateRepository<>("test");
+        stateRepository.put("1", "first-1");
+        stateRepository.put("2", "first-2");
+        final String snapshotName = new SnapshotWriteService(s3Client, properties)
+                .writeSnapshot(CHANNEL_NAME, channelPosition(fromPosition(CHANNEL_NAME, "1")), stateRepository);
+        // replace the snapshot by a copy without metadata:
+        final byte[] snapshot = IoUtils.toByteArray(s3Client.getObject(GetObjectRequest.builder().bucket(BUCKET_NAME).key(snapshotName).build()));
+        s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET_NAME).key(snapshotName).build(), RequestBody.fromBytes(snapshot));
+        sendMessages(1, 2, "first");
+        sendMessages(3, 4, "second");
+
+        // when
+        final String deltaSnapshot = testee.compact(CHANNEL_NAME);
+
+        // then
+        assertThat(deltaSnapshot, startsWith("compaction-" + CHANNEL_NAME + "-delta-"));
+        try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshotReadService.retrieveDeltaSnapshots(CHANNEL_NAME, snapshotName).get(0), 1)) {
+            assertThat(reader.getManifest().getMessageCount(), is(2L));
+        }
+    }
+
+    @Test
+    public void shouldCompactFullyIfSnapshotsAreWrittenInLegacyFormat() throws Exception {
+        // given
+        final SnapshotProperties properties = new SnapshotProperties();
+        properties.setBucketName(BUCKET_NAME);
+        testee = new CompactionService(
+                new SnapshotWriteService(s3Client, properties),
+                new ConcurrentMapStateRepository<>("test"),
+                messageLog -> new DefaultEventSource(new S3SnapshotMessageStore(CHANNEL_NAME, snapshotReadService, null), messageLog),
+                channelName -> channel,
+                snapshotReadService,
+                2,
+                Clock.systemDefaultZone());
+        sendMessages(1, 10, "first");
+        testee.compact(CHANNEL_NAME);
+        Thread.sleep(10);
+        sendMessages(5, 12, "second");
+
+        // when
+        final String snapshot = testee.compact(CHANNEL_NAME);
+
+        // then
+        assertThat(snapshot, startsWith("compaction-" + CHANNEL_NAME + "-snapshot-"));
+        final File latestSnapshot = snapshotReadService.retrieveLatestSnapshot(CHANNEL_NAME).get();
+        assertThat(latestSnapshot.getName(), is(snapshot));
+        assertThat(PartitionedSnapshotReader.isPartitioned(latestSnapshot), is(false));
+    }
+
+    private void sendMessages(final int from, final int to, final String payloadPrefix) {
+        for (int i = from; i <= to; i++) {
+            channel.send(of(String.valueOf(i), payloadPrefix + "-" + i));
+        }
+    }
+
+    private void deleteSnapshotFilesFromTemp() throws IOException {
+        final List<Path> snapshotFiles = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))
+                .filter(p -> p.toFile().getName().startsWith("compaction-" + CHANNEL_NAME + "-"))
+                .collect(Collectors.toList());
+        for (final Path snapshotFile : snapshotFiles) {
+            Files.deleteIfExists(snapshotFile);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package de.otto.synapse.compaction.s3;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import de.otto.synapse.annotation.EnableEventSourcing;
+import de.otto.synapse.annotation.EnableMessageSenderEndpoint;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.selector.MessageLog;
+import de.otto.synapse.configuration.InMemoryMessageLogTestConfiguration;
+import de.otto.synapse.consumer.MessageConsumer;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.sender.MessageSenderEndpoint;
+import de.otto.synapse.helper.s3.S3Helper;
+import de.otto.synapse.message.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static de.otto.synapse.message.Message.message;
+import static java.lang.String.valueOf;
+import static java.lang.Thread.sleep;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringRunner.class)
+@EnableAutoConfiguration
+@ComponentScan(basePackages = {"de.otto.synapse"})
+@SpringBootTest(classes = {InMemPartitionedCompactionAcceptanceTest.class, InMemoryMessageLogTestConfiguration.class})
+@TestPropertySource(properties = {
+        "spring.main.allow-bean-definition-overriding=true",
+        "synapse.snapshot.bucket-name=de-otto-promo-compaction-test-snapshots",
+        "synapse.compaction.enabled=true",
+        "synapse.snapshot.format=partitioned"}
+)
+@EnableEventSourcing
+@DirtiesContext
+@EnableMessageSenderEndpoint(name = "compactionTestSender", channelName = "promo-compaction-test", selector = MessageLog.class)
+public class InMemPartitionedCompactionAcceptanceTest {
+
+    private static final String INTEGRATION_TEST_STREAM = "promo-compaction-test";
+    private static final String INTEGRATION_TEST_BUCKET = "de-otto-promo-compaction-test-snapshots";
+
+    @Autowired
+    private MessageSenderEndpoint compactionTestSender;
+
+    @Autowired
+    private S3Client s3Client;
+
+    @Autowired
+    private CompactionService compactionService;
+
+    private S3Helper s3Helper;
+
+    @Before
+    public void setup() throws IOException {
+        deleteSnapshotFilesFromTemp();
+        s3Helper = new S3Helper(s3Client);
+        s3Helper.createBucket(INTEGRATION_TEST_BUCKET);
+        s3Helper.deleteAllObjectsInBucket(INTEGRATION_TEST_BUCKET);
+    }
+
+    @After
+    public void tearDown() {
+        s3Helper.deleteAllObjectsInBucket(INTEGRATION_TEST_BUCKET);
+    }
+
+    @Test
+    public void shouldCompactData() throws Exception {
+        //given
+        sendTestMessages(Range.closed(1, 100), "first");
+
+        String filenameBefore = compactionService.compact(INTEGRATION_TEST_STREAM);
+
+        Map<String, String> json1 = fetchAndParseSnapshotFileFromS3(filenameBefore);
+        assertSnapshotFileStructureAndSize(json1, 100);
+
+        //when write additional data with partially existing ids
+        sendTestMessages(Range.closed(50, 150), "second");
+
+        //Write an emptyMessageStore object for of 100000 - should be removed during compaction
+        compactionTestSender.send(message("100000", null));
+
+
+        String fileName = compactionService.compact(INTEGRATION_TEST_STREAM);
+
+        //then
+        Map<String, String> json2 = fetchAndParseSnapshotFileFromS3(fileName);
+
+        assertSnapshotFileStructureAndSize(json2, 150);
+
+        assertMessageForKey(json2, "1", "first-1");
+        assertMessageForKey(json2, "49", "first-49");
+        assertMessageForKey(json2, "50", "second-50");
+        assertMessageForKey(json2, "150", "second-150");
+
+        assertMessageDoesNotExist(json2, "151");
+        assertMessageDoesNotExist(json2, "100000");
+
+    }
+
+    @Test
+    public void shouldCompactDataWithCompoundKeys() throws Exception {
+        //given
+        sendTestMessagesWithCompoundKey(Range.closed(1000, 1100), "first");
+
+        String filenameBefore = compactionService.compact(INTEGRATION_TEST_STREAM);
+
+        Map<String, String> json1 = fetchAndParseSnapshotFileFromS3(filenameBefore);
+        assertSnapshotFileStructureAndSize(json1, 200);
+
+        //when write additional data with partially existing ids
+        sendTestMessagesWithCompoundKey(Range.closed(1050, 1150), "second");
+
+        //Write an emptyMessageStore object for of 100000 - should be removed during compaction
+        compactionTestSender.send(message("110000", null));
+
+
+        String fileName = compactionService.compact(INTEGRATION_TEST_STREAM);
+
+        //then
+        Map<String, String> json2 = fetchAndParseSnapshotFileFromS3(fileName);
+
+        assertSnapshotFileStructureAndSize(json2, 300);
+
+        assertMessageForKey(json2, "PRICE#1000", "first-1000");
+        assertMessageForKey(json2, "AVAILABILITY#1000", "first-1000");
+        assertMessageForKey(json2, "PRICE#1049", "first-1049");
+        assertMessageForKey(json2, "AVAILABILITY#1049", "first-1049");
+        assertMessageForKey(json2, "PRICE#1050", "second-1050");
+        assertMessageForKey(json2, "AVAILABILITY#1050", "second-1050");
+        assertMessageForKey(json2, "PRICE#1150", "second-1150");
+        assertMessageForKey(json2, "AVAILABILITY#1150", "second-1150");
+
+        assertMessageDoesNotExist(json2, "PRICE#1151");
+        assertMessageDoesNotExist(json2, "AVAILABILITY#1151");
+        assertMessageDoesNotExist(json2, "110000");
+    }
+
+    private Map<String, String> fetchAndParseSnapshotFileFromS3(String snapshotFileName) {
+        GetObjectRequest request = GetObjectRequest.builder().bucket(INTEGRATION_TEST_BUCKET).key(snapshotFileName).build();
+        try {
+            final Path snapshot = Files.createTempFile("compaction-acceptance-test-", ".json.zip");
+            try {
+                Files.delete(snapshot);
+                s3Client.getObject(request, snapshot);
+                assertThat(PartitionedSnapshotReader.isPartitioned(snapshot.toFile()), is(true));
+                final Map<String, String> data = new HashMap<>();
+                final MessageConsumer<String> messageConsumer = MessageConsumer.of(".*", String.class,
+                        (message) -> data.put(message.getKey().compactionKey(), message.getPayload()));
+                final ChannelPosition channelPosition = new SnapshotParser().parse(
+                        snapshot.toFile(),
+                        new MessageDispatcher(singletonList(messageConsumer)));
+                assertThat(channelPosition.shards(), not(empty()));
+                return data;
+            } finally {
+                Files.deleteIfExists(snapshot);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void assertSnapshotFileStructureAndSize(Map<String, String> data, int expectedNumberOfRecords) {
+        assertThat(data.size(), is(greaterThanOrEqualTo(expectedNumberOfRecords)));
+    }
+
+    private void assertMessageForKey(Map<String, String> data, final String key, String expectedPayload) {
+        assertThat(data.get(key), is(expectedPayload));
+    }
+
+    private void assertMessageDoesNotExist(Map<String, String> data, final String key) {
+        assertThat(data.containsKey(key), is(false));
+    }
+
+    private void sendTestMessages(final Range<Integer> messageKeyRange, final String payloadPrefix) throws InterruptedException {
+        ContiguousSet.create(messageKeyRange, DiscreteDomain.integers())
+                .forEach(key -> compactionTestSender.send(message(valueOf(key), payloadPrefix + "-" + key)).join());
+        sleep(20);
+    }
+
+    private void sendTestMessagesWithCompoundKey(final Range<Integer> messageKeyRange, final String payloadPrefix) throws InterruptedException {
+        ContiguousSet.create(messageKeyRange, DiscreteDomain.integers())
+                .forEach(key -> compactionTestSender.send(message(Key.of(valueOf(key), "PRICE#" + key), payloadPrefix + "-" + key)).join());
+        ContiguousSet.create(messageKeyRange, DiscreteDomain.integers())
+                .forEach(key -> compactionTestSender.send(message(Key.of(valueOf(key),"AVAILABILITY#" + key), payloadPrefix + "-" + key)).join());
+        sleep(20);
+    }
+
+    private void deleteSnapshotFilesFromTemp() throws IOException {
+        getSnapshotFilePaths()
+                .forEach(path -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
+    private List<Path> getSnapshotFilePaths() throws IOException {
+        return Files.list(Paths.get(System.getProperty("java.io.tmpdir")))
+                .filter(p -> p.toFile().getName().startsWith("compaction-promo-compaction-test-snapshot-"))
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,175 @@
+package de.otto.synapse.compaction.s3;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.message.Header;
+import de.otto.synapse.message.TextMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static com.google.common.io.ByteStreams.toByteArray;
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class PartitionedSnapshotReaderTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldWriteManifestAndEmbedJsonValuesAsRawJson() throws IOException {
+        // given
+        final File snapshot = temporaryFolder.newFile("snapshot.json.zip");
+        final ChannelPosition channelPosition = channelPosition(fromPosition("shard1", "42"), fromHorizon("shard2"));
+
+        // when
+        try (final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(snapshot))) {
+            final PartitionedSnapshotWriter writer = new PartitionedSnapshotWriter(zipOutputStream, 1, 1024);
+            writer.write("first", "{\"some\":\"json\"}");
+            writer.write("second", "some text");
+            writer.write("third", "{not json");
+            writer.finish(channelPosition);
+        }
+
+        // then
+        try (final ZipFile zipFile = new ZipFile(snapshot);
+             final InputStream manifestStream = zipFile.getInputStream(zipFile.getEntry(SnapshotManifest.MANIFEST_ENTRY));
+             final InputStream chunkStream = zipFile.getInputStream(zipFile.getEntry("data-0-0"))) {
+            final SnapshotManifest manifest = SnapshotManifest.readFrom(manifestStream);
+            assertThat(manifest.getChannelPosition(), is(channelPosition));
+            assertThat(manifest.getPartitions(), is(1));
+            assertThat(manifest.getChunks().size(), is(1));
+            assertThat(manifest.getMessageCount(), is(3L));
+            assertThat(new String(toByteArray(chunkStream), UTF_8), is(
+                    "[{\"first\":{\"some\":\"json\"}},{\"second\":\"some text\"},{\"third\":\"{not json\"}]"));
+        }
+    }
+
+    @Test
+    public void shouldReadChunksOfAllPartitionsInParallel() throws IOException {
+        // given
+        final File snapshot = temporaryFolder.newFile("snapshot.json.zip");
+        final ChannelPosition channelPosition = channelPosition(fromPosition("shard1", "42"));
+        try (final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(snapshot))) {
+            final PartitionedSnapshotWriter writer = new PartitionedSnapshotWriter(zipOutputStream, 4, 256);
+            for (int i = 0; i < 5000; i++) {
+                writer.write("key-" + i, "{\"value\":[" + i + ",\"ä\"]}");
+            }
+            writer.finish(channelPosition);
+        }
+
+        // when
+        final Map<String, String> messages = new HashMap<>();
+        try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshot, 4)) {
+            reader.messages(Header.of()).forEachRemaining(message -> messages.put(message.getKey().compactionKey(), message.getPayload()));
+
+            // then
+            assertThat(reader.getChannelPosition(), is(channelPosition));
+            assertThat(reader.getManifest().getChunks().size(), greaterThan(4));
+        }
+        assertThat(messages.size(), is(5000));
+        assertThat(messages.get("key-4711"), is("{\"value\":[4711,\"ä\"]}"));
+    }
+
+    @Test
+    public void shouldReadChunksCompressedByAllCodecs() throws IOException {
+        for (final SnapshotCodec codec : ImmutableList.of(SnapshotCodecs.DEFLATE, SnapshotCodecs.LZ4, SnapshotCodecs.ZSTD)) {
+            // given
+            final File snapshot = temporaryFolder.newFile("snapshot-" + codec.getName() + ".json.zip");
+            try (final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(snapshot))) {
+                final PartitionedSnapshotWriter writer = new PartitionedSnapshotWriter(zipOutputStream, 2, 256, codec);
+                for (int i = 0; i < 1000; i++) {
+                    writer.write("key-" + i, "{\"value\":[" + i + ",\"ä\"]}");
+                }
+                writer.finish(channelPosition(fromPosition("shard1", "42")));
+            }
+
+            // when
+            final Map<String, String> messages = new HashMap<>();
+            try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshot, 2)) {
+                reader.messages(Header.of()).forEachRemaining(message -> messages.put(message.getKey().compactionKey(), message.getPayload()));
+            }
+
+            // then
+            try (final ZipFile zipFile = new ZipFile(snapshot)) {
+                assertThat(zipFile.getEntry("data-0-0").getMethod(), is(codec.getZipMethod()));
+            }
+            assertThat(messages.size(), is(1000));
+            assertThat(messages.get("key-42"), is("{\"value\":[42,\"ä\"]}"));
+        }
+    }
+
+    @Test
+    public void shouldReadEmptySnapshot() throws IOException {
+        // given
+        final File snapshot = temporaryFolder.newFile("snapshot.json.zip");
+        try (final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(snapshot))) {
+            new PartitionedSnapshotWriter(zipOutputStream, 8, 1024).finish(channelPosition(fromHorizon("shard1")));
+        }
+
+        // when
+        try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshot, 2)) {
+            // then
+            assertThat(reader.messages(Header.of()).hasNext(), is(false));
+            assertThat(reader.getChannelPosition(), is(channelPosition(fromHorizon("shard1"))));
+        }
+    }
+
+    @Test
+    public void shouldFailIfChecksumOfChunkDoesNotMatch() throws IOException {
+        // given
+        final File snapshot = temporaryFolder.newFile("snapshot.json.zip");
+        final byte[] chunk = "[{\"key\":\"value\"}]".getBytes(UTF_8);
+        try (final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(snapshot))) {
+            zipOutputStream.putNextEntry(new ZipEntry("data-0-0"));
+            zipOutputStream.write(chunk);
+            zipOutputStream.closeEntry();
+            zipOutputStream.putNextEntry(new ZipEntry(SnapshotManifest.MANIFEST_ENTRY));
+            new SnapshotManifest(1, channelPosition(fromHorizon("shard1")), ImmutableList.of(
+                    new SnapshotManifest.Chunk("data-0-0", 0, 1, chunk.length, 4711L))).writeTo(zipOutputStream);
+            zipOutputStream.closeEntry();
+        }
+
+        // when
+        try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshot, 1)) {
+            final Iterator<TextMessage> messages = reader.messages(Header.of());
+            messages.hasNext();
+            fail("expected exception");
+        } catch (final UncheckedIOException e) {
+            // then
+            assertThat(e.getMessage(), is("Checksum mismatch of chunk data-0-0"));
+        }
+    }
+
+    @Test
+    public void shouldDetectLegacySnapshots() throws IOException {
+        final File legacySnapshot = new File(getClass().getClassLoader()
+                .getResource("compaction-integrationtest-snapshot-2017-09-29T09-02Z-3053797267191232636.json.zip").getFile());
+        final File snapshot = temporaryFolder.newFile("snapshot.json.zip");
+        try (final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(snapshot))) {
+            new PartitionedSnapshotWriter(zipOutputStream, 1, 1024).finish(channelPosition(fromHorizon("shard1")));
+        }
+
+        assertThat(PartitionedSnapshotReader.isPartitioned(legacySnapshot), is(false));
+        assertThat(PartitionedSnapshotReader.isPartitioned(snapshot), is(true));
+    }
+}
@@ -0,0 +1,65 @@
+package de.otto.synapse.compaction.s3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static com.google.common.io.ByteStreams.toByteArray;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SnapshotCodecsTest {
+
+    @Test
+    public void shouldGetCodecByName() {
+        assertThat(SnapshotCodecs.forName("deflate"), is(SnapshotCodecs.DEFLATE));
+        assertThat(SnapshotCodecs.forName("LZ4"), is(SnapshotCodecs.LZ4));
+        assertThat(SnapshotCodecs.forName("zstd"), is(SnapshotCodecs.ZSTD));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToGetUnknownCodec() {
+        SnapshotCodecs.forName("snappy");
+    }
+
+    @Test
+    public void shouldDetectCodecByMagicHeader() throws IOException {
+        final byte[] chunk = "[{\"key\":{\"some\":\"value\"}}]".getBytes(UTF_8);
+
+        assertThat(SnapshotCodecs.detect(chunk), is(Optional.of(SnapshotCodecs.DEFLATE)));
+        assertThat(SnapshotCodecs.detect(header(compress(SnapshotCodecs.LZ4, chunk))), is(Optional.of(SnapshotCodecs.LZ4)));
+        assertThat(SnapshotCodecs.detect(header(compress(SnapshotCodecs.ZSTD, chunk))), is(Optional.of(SnapshotCodecs.ZSTD)));
+        assertThat(SnapshotCodecs.detect("{}".getBytes(UTF_8)), is(Optional.empty()));
+        assertThat(SnapshotCodecs.detect(new byte[0]), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldCompressAndDecompressChunks() throws IOException {
+        final byte[] chunk = "[{\"key\":{\"some\":\"value\"}},{\"other\":\"välue\"}]".getBytes(UTF_8);
+
+        for (final SnapshotCodec codec : Arrays.asList(SnapshotCodecs.LZ4, SnapshotCodecs.ZSTD)) {
+            try (final InputStream inputStream = codec.decompress(new ByteArrayInputStream(compress(codec, chunk)))) {
+                assertThat(toByteArray(inputStream), is(chunk));
+            }
+        }
+    }
+
+    private static byte[] compress(final SnapshotCodec codec, final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final OutputStream outputStream = codec.compress(compressed)) {
+            outputStream.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] header(final byte[] bytes) {
+        return Arrays.copyOf(bytes, 4);
+    }
+}
@@ -0,0 +1,54 @@
+package de.otto.synapse.compaction.s3;
+
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardPosition;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.compaction.s3.SnapshotMetadata.CHANNEL_POSITION;
+import static de.otto.synapse.compaction.s3.SnapshotMetadata.channelPositionOf;
+import static de.otto.synapse.compaction.s3.SnapshotMetadata.snapshotMetadata;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SnapshotMetadataTest {
+
+    @Test
+    public void shouldReadChannelPositionFromMetadata() {
+        final ChannelPosition channelPosition = channelPosition(
+                fromPosition("shardId-000000000000", "49590338271490256608559692538361571095921575989136588898"),
+                fromHorizon("shardId-000000000001"));
+
+        assertThat(channelPositionOf(snapshotMetadata(channelPosition)), is(Optional.of(channelPosition)));
+    }
+
+    @Test
+    public void shouldNotReadChannelPositionFromMissingMetadata() {
+        assertThat(channelPositionOf(emptyMap()), is(Optional.empty()));
+        assertThat(channelPositionOf(ImmutableMap.of(CHANNEL_POSITION, "no-sequence-number")), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldNotStoreChannelPositionExceedingMetadataSize() {
+        final List<ShardPosition> shardPositions = IntStream.range(0, 100)
+                .mapToObj(i -> fromPosition("shardId-" + i, "49590338271490256608559692538361571095921575989136588898"))
+                .collect(toList());
+
+        assertThat(snapshotMetadata(channelPosition(shardPositions)), is(emptyMap()));
+    }
+
+    @Test
+    public void shouldNotStoreChannelPositionWithReservedCharacters() {
+        assertThat(snapshotMetadata(channelPosition(fromPosition("some,shard", "42"))), is(emptyMap()));
+        assertThat(snapshotMetadata(channelPosition(fromPosition("some-shärd", "42"))), is(emptyMap()));
+    }
+}
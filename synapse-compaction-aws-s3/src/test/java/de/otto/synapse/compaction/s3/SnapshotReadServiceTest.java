@@ -19,6 +19,7 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class SnapshotReadServiceTest {
@@ -131,4 +132,35 @@ public class SnapshotReadServiceTest {
             Files.delete(SnapshotFileHelper.getTempFile("/compaction-testStream-snapshot-1.json.zip"));
         }
     }
+
+    @Test
+    public void shouldDownloadSnapshotIfLocalFileHasDifferentETag() throws IOException {
+        // given
+        S3Object obj = S3Object.builder()
+                .key("compaction-testStream-snapshot-2.json.zip")
+                .size(0L)
+                .eTag("\"some-etag\"")
+                .build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder().keyCount(1).contents(obj).build());
+        when(s3Client.getObject(any(GetObjectRequest.class), any(Path.class))).thenReturn(GetObjectResponse.builder().build());
+
+        final Path tempFile = SnapshotFileHelper.getTempFile("compaction-testStream-snapshot-2.json.zip");
+        final Path eTagFile = SnapshotFileHelper.getTempFile("compaction-testStream-snapshot-2.json.zip.etag");
+        Files.deleteIfExists(tempFile);
+        Files.createFile(tempFile);
+        Files.write(eTagFile, "\"other-etag\"".getBytes());
+
+        try {
+            // when
+            Optional<File> fileOptional = testee.retrieveLatestSnapshot("testStream");
+
+            // then
+            verify(s3Client).getObject(any(GetObjectRequest.class), any(Path.class));
+            assertThat(fileOptional.isPresent(), is(true));
+            assertThat(new String(Files.readAllBytes(eTagFile)), is("\"some-etag\""));
+        } finally {
+            Files.deleteIfExists(tempFile);
+            Files.deleteIfExists(eTagFile);
+        }
+    }
 }
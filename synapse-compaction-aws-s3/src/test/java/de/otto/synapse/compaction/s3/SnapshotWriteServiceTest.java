@@ -2,15 +2,19 @@ package de.otto.synapse.compaction.s3;
 
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.consumer.MessageConsumer;
+import de.otto.synapse.configuration.aws.SnapshotProperties;
 import de.otto.synapse.consumer.MessageDispatcher;
 import de.otto.synapse.state.ConcurrentMapStateRepository;
 import de.otto.synapse.state.StateRepository;
+import de.otto.synapse.testsupport.LocalS3Client;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 
@@ -23,14 +27,19 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
 
 import static com.google.common.collect.ImmutableMap.of;
 import static de.otto.synapse.channel.ChannelPosition.channelPosition;
 import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.compaction.s3.SnapshotServiceTestUtils.snapshotProperties;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.StringStartsWith.startsWith;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
@@ -72,6 +81,134 @@ public class SnapshotWriteServiceTest {
         assertFalse(file.exists());
     }
 
+    @Test
+    public void shouldStreamSnapshotToS3UsingMultipartUpload() throws Exception {
+        // given
+        final LocalS3Client localS3Client = new LocalS3Client();
+        localS3Client.createBucket(CreateBucketRequest.builder().bucket(snapshotProperties().getBucketName()).build());
+        final SnapshotProperties properties = snapshotProperties();
+        properties.setUploadPartSize(64);
+        testee = new SnapshotWriteService(localS3Client, properties);
+
+        StateRepository<String> stateRepository = new ConcurrentMapStateRepository<>("test");
+        for (int i = 0; i < 100; i++) {
+            stateRepository.put("testKey" + i, "{\"testValue\": \"value" + i + "\"}");
+        }
+        ChannelPosition channelPosition = channelPosition(fromPosition("shard1", "1234"));
+
+        // when
+        String fileName = testee.writeSnapshot(STREAM_NAME, channelPosition, stateRepository);
+
+        // then
+        final Path snapshot = Files.createTempFile("snapshot-test", ".json.zip");
+        try {
+            Files.delete(snapshot);
+            localS3Client.getObject(GetObjectRequest.builder().bucket(properties.getBucketName()).key(fileName).build(), snapshot);
+            Map<String, Map> data = new HashMap<>();
+            final MessageConsumer<Map> messageConsumer = MessageConsumer.of(".*", Map.class,
+                    (event) -> data.put(event.getKey().compactionKey(), event.getPayload()));
+            ChannelPosition actualChannelPosition = new SnapshotParser().parse(
+                    snapshot.toFile(),
+                    new MessageDispatcher(singletonList(messageConsumer)));
+
+            assertThat(actualChannelPosition, is(channelPosition));
+            assertThat(data.size(), is(100));
+            assertThat(data.get("testKey42"), is(of("testValue", "value42")));
+            assertThat(localS3Client.countIncompleteMultipartUploads(), is(0));
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test
+    public void shouldWriteDeltaSnapshotWithChangedAndDeletedMessages() throws Exception {
+        // given
+        final LocalS3Client localS3Client = new LocalS3Client();
+        localS3Client.createBucket(CreateBucketRequest.builder().bucket(snapshotProperties().getBucketName()).build());
+        final SnapshotProperties properties = snapshotProperties();
+        properties.setFormat("partitioned");
+        testee = new SnapshotWriteService(localS3Client, properties);
+
+        StateRepository<String> changedMessages = new ConcurrentMapStateRepository<>("test");
+        changedMessages.put("testKey", "{\"testValue\": \"value\"}");
+        ChannelPosition channelPosition = channelPosition(fromPosition("shard1", "1234"));
+
+        // when
+        String fileName = testee.writeDeltaSnapshot(STREAM_NAME, "some-base-snapshot.json.zip", channelPosition, changedMessages, singleton("deletedKey"));
+
+        // then
+        assertThat(fileName, startsWith("compaction-" + STREAM_NAME + "-delta-"));
+        final Path snapshot = Files.createTempFile("snapshot-test", ".json.zip");
+        try {
+            Files.delete(snapshot);
+            localS3Client.getObject(GetObjectRequest.builder().bucket(snapshotProperties().getBucketName()).key(fileName).build(), snapshot);
+            Map<String, Map> data = new HashMap<>();
+            final MessageConsumer<Map> messageConsumer = MessageConsumer.of(".*", Map.class,
+                    (event) -> data.put(event.getKey().compactionKey(), event.getPayload()));
+            ChannelPosition actualChannelPosition = new SnapshotParser().parse(
+                    snapshot.toFile(),
+                    new MessageDispatcher(singletonList(messageConsumer)));
+
+            assertThat(actualChannelPosition, is(channelPosition));
+            assertThat(data.size(), is(2));
+            assertThat(data.get("testKey"), is(of("testValue", "value")));
+            assertThat(data.containsKey("deletedKey"), is(true));
+            assertThat(data.get("deletedKey"), is(nullValue()));
+            try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshot.toFile(), 1)) {
+                assertThat(reader.getManifest().isDelta(), is(true));
+                assertThat(reader.getManifest().getBaseSnapshot(), is("some-base-snapshot.json.zip"));
+            }
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotWriteDeltaSnapshotInLegacyFormat() throws Exception {
+        // given
+        StateRepository<String> changedMessages = new ConcurrentMapStateRepository<>("test");
+        changedMessages.put("testKey", "{\"testValue\": \"value\"}");
+
+        // when
+        testee.writeDeltaSnapshot(STREAM_NAME, "some-base-snapshot.json.zip", fromHorizon(), changedMessages, emptySet());
+    }
+
+    @Test
+    public void shouldCreateLegacySnapshotByDefault() throws Exception {
+        // given
+        StateRepository<String> stateRepository = new ConcurrentMapStateRepository<>("test");
+        stateRepository.put("testKey", "{\"testValue1\": \"value1\"}");
+
+        // when
+        File snapshot = writeSnapshotToFile(snapshotProperties(), channelPosition(fromPosition("shard1", "1234")), stateRepository);
+
+        // then
+        assertThat(testee.getFormat(), is(SnapshotFormat.LEGACY));
+        assertThat(PartitionedSnapshotReader.isPartitioned(snapshot), is(false));
+        try (ZipFile zipFile = new ZipFile(snapshot)) {
+            assertThat(zipFile.size(), is(1));
+            assertThat(zipFile.getEntry("data"), is(notNullValue()));
+        }
+    }
+
+    @Test
+    public void shouldCreatePartitionedSnapshotIfConfigured() throws Exception {
+        // given
+        final SnapshotProperties properties = snapshotProperties();
+        properties.setFormat("partitioned");
+        StateRepository<String> stateRepository = new ConcurrentMapStateRepository<>("test");
+        stateRepository.put("testKey", "{\"testValue1\": \"value1\"}");
+
+        // when
+        File snapshot = writeSnapshotToFile(properties, channelPosition(fromPosition("shard1", "1234")), stateRepository);
+
+        // then
+        assertThat(PartitionedSnapshotReader.isPartitioned(snapshot), is(true));
+        try (final PartitionedSnapshotReader reader = new PartitionedSnapshotReader(snapshot, 1)) {
+            assertThat(reader.getManifest().getMessageCount(), is(1L));
+        }
+    }
+
     @Test
     public void shouldCreateCorrectSnapshotFile() throws Exception {
         StateRepository<String> stateRepository = new ConcurrentMapStateRepository<>("test");
@@ -82,7 +219,7 @@ public class SnapshotWriteServiceTest {
         ChannelPosition channelPosition = channelPosition(
                 fromPosition("shard1", "1234"),
                 fromPosition("shard2", "abcde"));
-        File snapshot = testee.createSnapshot(STREAM_NAME, channelPosition, stateRepository);
+        File snapshot = writeSnapshotToFile(snapshotProperties(), channelPosition, stateRepository);
 
         //then
         Map<String, Map> data = new HashMap<>();
@@ -141,6 +278,20 @@ public class SnapshotWriteServiceTest {
         assertThat(getSnapshotFilePaths().size(), is(0));
     }
 
+    /**
+     * Writes a snapshot to a local S3 bucket and downloads it into a file that is deleted after the test.
+     */
+    private File writeSnapshotToFile(final SnapshotProperties properties,
+                                     final ChannelPosition channelPosition,
+                                     final StateRepository<String> stateRepository) throws IOException {
+        final LocalS3Client localS3Client = new LocalS3Client();
+        localS3Client.createBucket(CreateBucketRequest.builder().bucket(properties.getBucketName()).build());
+        final String fileName = new SnapshotWriteService(localS3Client, properties).writeSnapshot(STREAM_NAME, channelPosition, stateRepository);
+        final Path snapshot = Paths.get(System.getProperty("java.io.tmpdir"), fileName);
+        localS3Client.getObject(GetObjectRequest.builder().bucket(properties.getBucketName()).key(fileName).build(), snapshot);
+        return snapshot.toFile();
+    }
+
     private void deleteSnapshotFilesFromTemp() throws IOException {
         getSnapshotFilePaths()
                 .forEach(path -> {
@@ -0,0 +1,287 @@
+package de.otto.synapse.helper.s3;
+
+import de.otto.synapse.testsupport.LocalS3Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.utils.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class S3HelperTest {
+
+    private static final String BUCKET = "some-bucket";
+    private static final String KEY = "some-object";
+
+    private final List<String> requestedRanges = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean failLastPart = new AtomicBoolean(false);
+    private final AtomicBoolean corruptDownloads = new AtomicBoolean(false);
+    private LocalS3Client s3Client;
+    private Path tempDir;
+    private Path destination;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        s3Client = new LocalS3Client() {
+            @Override
+            public ResponseInputStream<GetObjectResponse> getObject(final GetObjectRequest getObjectRequest) {
+                requestedRanges.add(getObjectRequest.range());
+                if (failLastPart.get() && "bytes=100-104".equals(getObjectRequest.range())) {
+                    throw new IllegalStateException("some network error");
+                }
+                final ResponseInputStream<GetObjectResponse> response = super.getObject(getObjectRequest);
+                if (corruptDownloads.get() && "bytes=0-9".equals(getObjectRequest.range())) {
+                    final byte[] content = corrupted(toByteArray(response));
+                    return new ResponseInputStream<>(response.response(), AbortableInputStream.create(new ByteArrayInputStream(content)));
+                }
+                return response;
+            }
+
+            @Override
+            public GetObjectResponse getObject(final GetObjectRequest getObjectRequest, final Path filePath) {
+                final GetObjectResponse response = super.getObject(getObjectRequest, filePath);
+                if (corruptDownloads.get()) {
+                    writeCorrupted(filePath);
+                }
+                return response;
+            }
+        };
+        s3Client.createBucket(CreateBucketRequest.builder().bucket(BUCKET).build());
+        data = new byte[105];
+        new Random(42).nextBytes(data);
+        putObject(data);
+        tempDir = Files.createTempDirectory("s3-helper-test");
+        destination = tempDir.resolve(KEY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.list(tempDir).forEach(path -> path.toFile().delete());
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void shouldDownloadObjectUsingParallelRangedRequests() throws IOException {
+        // given
+        final S3Helper s3Helper = new S3Helper(s3Client, 10, 4);
+
+        // when
+        final boolean downloaded = s3Helper.download(BUCKET, KEY, destination);
+
+        // then
+        assertThat(downloaded, is(true));
+        assertThat(Files.readAllBytes(destination), is(data));
+        assertThat(requestedRanges, hasSize(11));
+        assertThat(requestedRanges, containsInAnyOrder(
+                "bytes=0-9", "bytes=10-19", "bytes=20-29", "bytes=30-39", "bytes=40-49", "bytes=50-59",
+                "bytes=60-69", "bytes=70-79", "bytes=80-89", "bytes=90-99", "bytes=100-104"));
+        assertThat(S3Helper.isDownloaded(destination, data.length, objectETag()), is(true));
+    }
+
+    @Test
+    public void shouldResumeIncompleteDownload() throws IOException {
+        // given
+        final S3Helper s3Helper = new S3Helper(s3Client, 10, 4);
+        failLastPart.set(true);
+        assertThat(s3Helper.download(BUCKET, KEY, destination), is(false));
+        assertThat(Files.exists(destination), is(false));
+
+        // when
+        failLastPart.set(false);
+        requestedRanges.clear();
+        final boolean downloaded = s3Helper.download(BUCKET, KEY, destination);
+
+        // then
+        assertThat(downloaded, is(true));
+        assertThat(requestedRanges, containsInAnyOrder("bytes=100-104"));
+        assertThat(Files.readAllBytes(destination), is(data));
+    }
+
+    @Test
+    public void shouldRestartDownloadIfObjectWasModified() throws IOException {
+        // given
+        final S3Helper s3Helper = new S3Helper(s3Client, 10, 4);
+        failLastPart.set(true);
+        s3Helper.download(BUCKET, KEY, destination);
+
+        // when
+        failLastPart.set(false);
+        requestedRanges.clear();
+        final byte[] modifiedData = new byte[95];
+        new Random(4711).nextBytes(modifiedData);
+        putObject(modifiedData);
+        final boolean downloaded = s3Helper.download(BUCKET, KEY, destination);
+
+        // then
+        assertThat(downloaded, is(true));
+        assertThat(requestedRanges, hasSize(10));
+        assertThat(Files.readAllBytes(destination), is(modifiedData));
+    }
+
+    @Test
+    public void shouldFailToDownloadObjectModifiedDuringDownload() {
+        // given
+        final S3Helper s3Helper = new S3Helper(s3Client, 10, 4);
+        final String outdatedETag = objectETag();
+        putObject(new byte[105]);
+
+        // when
+        final boolean downloaded = s3Helper.download(BUCKET, KEY, data.length, outdatedETag, destination);
+
+        // then
+        assertThat(downloaded, is(false));
+        assertThat(Files.exists(destination), is(false));
+    }
+
+    @Test
+    public void shouldNotDetectDownloadWithDifferentETag() throws IOException {
+        // given
+        final S3Helper s3Helper = new S3Helper(s3Client, 10, 4);
+        s3Helper.download(BUCKET, KEY, destination);
+
+        // then
+        assertThat(S3Helper.isDownloaded(destination, data.length, objectETag()), is(true));
+        assertThat(S3Helper.isDownloaded(destination, data.length, "\"some-other-etag\""), is(false));
+        assertThat(S3Helper.isDownloaded(destination, data.length + 1, objectETag()), is(false));
+    }
+
+    @Test
+    public void shouldValidateParallelDownloadOfObjectUploadedInParts() throws IOException {
+        // given
+        uploadInParts(data, 10);
+        final S3Helper s3Helper = new S3Helper(s3Client, 20, 4);
+
+        // when
+        final boolean downloaded = s3Helper.download(BUCKET, KEY, destination);
+
+        // then
+        assertThat(objectETag(), endsWith("-11\""));
+        assertThat(downloaded, is(true));
+        assertThat(Files.readAllBytes(destination), is(data));
+    }
+
+    @Test
+    public void shouldRejectCorruptedParallelDownloadOfObjectUploadedInParts() {
+        // given
+        uploadInParts(data, 10);
+        final S3Helper s3Helper = new S3Helper(s3Client, 10, 4);
+        corruptDownloads.set(true);
+
+        // when
+        final boolean downloaded = s3Helper.download(BUCKET, KEY, destination);
+
+        // then
+        assertThat(downloaded, is(false));
+        assertThat(Files.exists(destination), is(false));
+    }
+
+    @Test
+    public void shouldRejectCorruptedDownloadOfObjectUploadedInPartsInSingleRequest() {
+        // given
+        uploadInParts(data, 10);
+        final S3Helper s3Helper = new S3Helper(s3Client, 1000, 4);
+        corruptDownloads.set(true);
+
+        // when
+        final boolean downloaded = s3Helper.download(BUCKET, KEY, destination);
+
+        // then
+        assertThat(downloaded, is(false));
+        assertThat(Files.exists(destination), is(false));
+    }
+
+    @Test
+    public void shouldRejectCorruptedDownloadInSingleRequest() throws IOException {
+        // given
+        final File file = tempDir.resolve("some-file").toFile();
+        Files.write(file.toPath(), data);
+        new S3Helper(s3Client).upload(BUCKET, file);
+        Files.delete(file.toPath());
+        corruptDownloads.set(true);
+
+        // when
+        final boolean downloaded = new S3Helper(s3Client).download(BUCKET, "some-file", destination);
+
+        // then
+        assertThat(downloaded, is(false));
+        assertThat(Files.exists(destination), is(false));
+    }
+
+    @Test
+    public void shouldStoreChecksumOfUploadedFile() throws IOException {
+        // given
+        final File file = tempDir.resolve("some-file").toFile();
+        Files.write(file.toPath(), data);
+
+        // when
+        new S3Helper(s3Client).upload(BUCKET, file);
+
+        // then
+        assertThat(new S3Helper(s3Client).getMetadata(BUCKET, "some-file"),
+                hasEntry(S3Helper.CONTENT_MD5_METADATA, S3Helper.digestOf(file.toPath(), Long.MAX_VALUE)));
+        Files.delete(file.toPath());
+    }
+
+    private void uploadInParts(final byte[] data, final int partSize) {
+        try (S3MultipartUploadOutputStream outputStream = new S3MultipartUploadOutputStream(s3Client, BUCKET, KEY, partSize, 2)) {
+            outputStream.write(data);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] corrupted(final byte[] content) {
+        content[0] ^= 1;
+        return content;
+    }
+
+    private static void writeCorrupted(final Path file) {
+        try {
+            Files.write(file, corrupted(Files.readAllBytes(file)));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] toByteArray(final InputStream inputStream) {
+        try {
+            return IoUtils.toByteArray(inputStream);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void putObject(final byte[] data) {
+        s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key(KEY).build(), RequestBody.fromBytes(data));
+    }
+
+    private String objectETag() {
+        return new S3Helper(s3Client).listAll(BUCKET).stream().map(S3Object::eTag).findFirst().get();
+    }
+}
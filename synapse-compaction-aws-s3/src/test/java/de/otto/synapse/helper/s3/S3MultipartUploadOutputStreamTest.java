@@ -0,0 +1,137 @@
+package de.otto.synapse.helper.s3;
+
+import de.otto.synapse.testsupport.LocalS3Client;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.utils.IoUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class S3MultipartUploadOutputStreamTest {
+
+    private static final String BUCKET = "some-bucket";
+    private static final String KEY = "some-object";
+
+    private final AtomicInteger uploadedParts = new AtomicInteger();
+    private volatile int failingPartNumber = -1;
+    private LocalS3Client s3Client;
+
+    @Before
+    public void setUp() {
+        s3Client = new LocalS3Client() {
+            @Override
+            public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest, final RequestBody requestBody) {
+                if (uploadPartRequest.partNumber() == failingPartNumber) {
+                    throw new IllegalStateException("some network error");
+                }
+                uploadedParts.incrementAndGet();
+                return super.uploadPart(uploadPartRequest, requestBody);
+            }
+        };
+        s3Client.createBucket(CreateBucketRequest.builder().bucket(BUCKET).build());
+    }
+
+    @Test
+    public void shouldUploadObjectInParts() throws IOException {
+        // given
+        final byte[] data = randomBytes(95);
+
+        // when
+        try (S3MultipartUploadOutputStream outputStream = new S3MultipartUploadOutputStream(s3Client, BUCKET, KEY, 10, 3)) {
+            outputStream.write(data, 0, 42);
+            outputStream.write(data[42]);
+            outputStream.write(data, 43, 52);
+        }
+
+        // then
+        assertThat(uploadedParts.get(), is(10));
+        assertThat(contentOf(KEY), is(data));
+        assertThat(s3Client.countIncompleteMultipartUploads(), is(0));
+        assertThat(new S3Helper(s3Client).getMetadata(BUCKET, KEY), hasEntry(S3Helper.PART_SIZE_METADATA, "10"));
+    }
+
+    @Test
+    public void shouldUploadSmallObjectInSingleRequest() throws IOException {
+        // given
+        final byte[] data = randomBytes(9);
+
+        // when
+        try (S3MultipartUploadOutputStream outputStream = new S3MultipartUploadOutputStream(s3Client, BUCKET, KEY, 10, 3)) {
+            outputStream.write(data);
+        }
+
+        // then
+        assertThat(uploadedParts.get(), is(0));
+        assertThat(contentOf(KEY), is(data));
+        assertThat(new S3Helper(s3Client).getMetadata(BUCKET, KEY), hasEntry(S3Helper.CONTENT_MD5_METADATA, md5Of(data)));
+    }
+
+    @Test
+    public void shouldAbortUploadIfUploadingPartFails() {
+        // given
+        failingPartNumber = 3;
+
+        // when
+        IOException exception = null;
+        try (S3MultipartUploadOutputStream outputStream = new S3MultipartUploadOutputStream(s3Client, BUCKET, KEY, 10, 3)) {
+            outputStream.write(randomBytes(95));
+        } catch (final IOException e) {
+            exception = e;
+        }
+
+        // then
+        assertThat(exception, is(notNullValue()));
+        assertThat(s3Client.countIncompleteMultipartUploads(), is(0));
+        assertThat(new S3Helper(s3Client).listAllFiles(BUCKET), is(empty()));
+    }
+
+    @Test
+    public void shouldAbortUpload() throws IOException {
+        // given
+        final S3MultipartUploadOutputStream outputStream = new S3MultipartUploadOutputStream(s3Client, BUCKET, KEY, 10, 3);
+        outputStream.write(randomBytes(25));
+
+        // when
+        outputStream.abort();
+        outputStream.close();
+
+        // then
+        assertThat(s3Client.countIncompleteMultipartUploads(), is(0));
+        assertThat(new S3Helper(s3Client).listAllFiles(BUCKET), is(empty()));
+    }
+
+    private byte[] contentOf(final String key) throws IOException {
+        return IoUtils.toByteArray(s3Client.getObject(GetObjectRequest.builder().bucket(BUCKET).key(key).build()));
+    }
+
+    private static String md5Of(final byte[] data) throws IOException {
+        final Path file = Files.createTempFile("s3-upload-test", ".bin");
+        try {
+            Files.write(file, data);
+            return S3Helper.digestOf(file, Long.MAX_VALUE);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
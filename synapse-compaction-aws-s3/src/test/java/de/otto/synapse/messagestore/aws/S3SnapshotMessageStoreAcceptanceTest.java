@@ -107,7 +107,7 @@ public class S3SnapshotMessageStoreAcceptanceTest {
             final List<Message<String>> messages = new ArrayList<>();
             snapshotMessageStore.stream().map(MessageStoreEntry::getTextMessage).forEach(messages::add);
             assertThat(messages, hasSize(10));
-            assertThat(messages.stream().map(Message::getKey).map(Key::partitionKey).collect(toList()), contains("1", "2", "3", "4", "5", "6", "7", "8", "9", "10"));
+            assertThat(messages.stream().map(Message::getKey).map(Key::partitionKey).collect(toList()), containsInAnyOrder("1", "2", "3", "4", "5", "6", "7", "8", "9", "10"));
             final ChannelPosition channelPosition = snapshotMessageStore.getLatestChannelPosition();
             assertThat(channelPosition, is(channelPosition(fromPosition("promo-compaction-test", "9"))));
         }
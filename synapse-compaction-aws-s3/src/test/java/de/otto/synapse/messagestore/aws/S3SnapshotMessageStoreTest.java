@@ -1,24 +1,40 @@
 package de.otto.synapse.messagestore.aws;
 
+import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.compaction.s3.SnapshotReadService;
+import de.otto.synapse.compaction.s3.SnapshotWriteService;
+import de.otto.synapse.configuration.aws.SnapshotProperties;
 import de.otto.synapse.info.SnapshotReaderNotification;
 import de.otto.synapse.info.SnapshotReaderStatus;
+import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.messagestore.MessageStoreEntry;
+import de.otto.synapse.state.ConcurrentMapStateRepository;
+import de.otto.synapse.state.StateRepository;
+import de.otto.synapse.testsupport.LocalS3Client;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.ClassPathResource;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.Optional;
 
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.info.SnapshotReaderNotification.builder;
 import static java.time.Instant.parse;
+import static java.util.stream.Collectors.toMap;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -30,6 +46,9 @@ public class S3SnapshotMessageStoreTest {
 
     private static final String STREAM_NAME = "test-stream";
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock
     private SnapshotReadService snapshotReadService;
 
@@ -115,6 +134,40 @@ public class S3SnapshotMessageStoreTest {
         verifyNoMoreInteractions(eventPublisher);
     }
 
+    @Test
+    public void shouldStreamMessagesOfPartitionedSnapshot() throws IOException {
+        // given
+        final LocalS3Client s3Client = new LocalS3Client();
+        s3Client.createBucket(CreateBucketRequest.builder().bucket("test-bucket").build());
+        final SnapshotProperties properties = new SnapshotProperties();
+        properties.setBucketName("test-bucket");
+        properties.setFormat("partitioned");
+        properties.setPartitions(4);
+        properties.setChunkSize(128);
+        final StateRepository<String> stateRepository = new ConcurrentMapStateRepository<>("test");
+        for (int i = 0; i < 100; i++) {
+            stateRepository.put("key-" + i, "{\"value\":" + i + "}");
+        }
+        final ChannelPosition channelPosition = channelPosition(fromPosition("shard1", "42"));
+        final String snapshotName = new SnapshotWriteService(s3Client, properties).writeSnapshot(STREAM_NAME, channelPosition, stateRepository);
+        final File snapshotFile = new File(temporaryFolder.getRoot(), snapshotName);
+        s3Client.getObject(GetObjectRequest.builder().bucket("test-bucket").key(snapshotName).build(), snapshotFile.toPath());
+        when(snapshotReadService.retrieveLatestSnapshot(any())).thenReturn(Optional.of(snapshotFile));
+
+        // when
+        final Map<String, String> messages;
+        try (final S3SnapshotMessageStore messageStore = new S3SnapshotMessageStore(STREAM_NAME, snapshotReadService, eventPublisher)) {
+            messages = messageStore.stream()
+                    .map(MessageStoreEntry::getTextMessage)
+                    .collect(toMap(message -> message.getKey().compactionKey(), TextMessage::getPayload));
+
+            // then
+            assertThat(messageStore.getLatestChannelPosition(), is(channelPosition));
+        }
+        assertThat(messages.size(), is(100));
+        assertThat(messages.get("key-42"), is("{\"value\":42}"));
+    }
+
     //@Test
     public void measureRuntimeFor5000Messages() throws IOException {
         final File bigFile = new ClassPathResource("compaction-integrationtest-snapshot-2017-09-29T09-02Z-3053797267191232636.json.zip").getFile();
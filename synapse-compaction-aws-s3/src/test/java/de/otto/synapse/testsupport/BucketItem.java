@@ -2,12 +2,17 @@ package de.otto.synapse.testsupport;
 
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
 
+import static java.util.Collections.emptyMap;
+
 public class BucketItem {
 
     private final String name;
     private final byte[] data;
+    private final Map<String, String> metadata;
+    private final String eTag;
 
     private final Instant lastModified;
 
@@ -19,6 +24,17 @@ public class BucketItem {
         return data;
     }
 
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Returns the ETag of the item, or null if the ETag is the MD5 digest of the data.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
     public Instant getLastModified() {
         return lastModified;
     }
@@ -26,6 +42,8 @@ public class BucketItem {
     private BucketItem(Builder builder) {
         name = builder.name;
         data = builder.data;
+        metadata = builder.metadata;
+        eTag = builder.eTag;
         lastModified = builder.lastModified;
     }
 
@@ -51,6 +69,8 @@ public class BucketItem {
         Builder builder = new Builder();
         builder.name = copy.getName();
         builder.data = copy.getData();
+        builder.metadata = copy.getMetadata();
+        builder.eTag = copy.getETag();
         builder.lastModified = copy.lastModified;
         return builder;
     }
@@ -58,6 +78,8 @@ public class BucketItem {
     public static final class Builder {
         private String name;
         private byte[] data;
+        private Map<String, String> metadata = emptyMap();
+        private String eTag;
         private Instant lastModified;
 
         private Builder() {
@@ -73,6 +95,16 @@ public class BucketItem {
             return this;
         }
 
+        public Builder withMetadata(Map<String, String> val) {
+            metadata = val;
+            return this;
+        }
+
+        public Builder withETag(String val) {
+            eTag = val;
+            return this;
+        }
+
         public Builder withLastModified(Instant val) {
             lastModified = val;
             return this;
@@ -1,5 +1,6 @@
 package de.otto.synapse.testsupport;
 
+import com.google.common.io.BaseEncoding;
 import org.slf4j.Logger;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.exception.SdkClientException;
@@ -10,16 +11,22 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static com.google.common.io.ByteStreams.toByteArray;
@@ -34,6 +41,8 @@ public class LocalS3Client implements S3Client {
     private static final Instant BUCKET_DEFAULT_CREATION_DATE = Instant.parse("2017-01-01T10:00:00.00Z");
 
     private Map<String, Map<String, BucketItem>> bucketsWithContents;
+    private final Map<String, Map<Integer, byte[]>> multipartUploads = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> multipartUploadMetadata = new ConcurrentHashMap<>();
 
     public LocalS3Client() {
         this.bucketsWithContents = new HashMap<>();
@@ -47,6 +56,7 @@ public class LocalS3Client implements S3Client {
                 .map(bucketItem -> S3Object.builder()
                         .key(bucketItem.getName())
                         .size((long) bucketItem.getData().length)
+                        .eTag(eTagOf(bucketItem))
                         .lastModified(bucketItem.getLastModified())
                         .build())
                 .collect(Collectors.toList());
@@ -71,6 +81,7 @@ public class LocalS3Client implements S3Client {
                     bucketItemBuilder()
                             .withName(putObjectRequest.key())
                             .withData(toByteArray(requestBody.contentStreamProvider().newStream()))
+                            .withMetadata(putObjectRequest.metadata())
                             .withLastModifiedNow()
                             .build());
             return PutObjectResponse.builder().build();
@@ -79,6 +90,82 @@ public class LocalS3Client implements S3Client {
         }
     }
 
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(final CreateMultipartUploadRequest createMultipartUploadRequest) throws S3Exception {
+        final String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new ConcurrentHashMap<>());
+        multipartUploadMetadata.put(uploadId, createMultipartUploadRequest.metadata());
+        return CreateMultipartUploadResponse.builder()
+                .bucket(createMultipartUploadRequest.bucket())
+                .key(createMultipartUploadRequest.key())
+                .uploadId(uploadId)
+                .build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest,
+                                         final RequestBody requestBody) throws S3Exception {
+        final Map<Integer, byte[]> parts = multipartUploads.get(uploadPartRequest.uploadId());
+        if (parts == null) {
+            throw NoSuchUploadException.builder().message("No such upload: " + uploadPartRequest.uploadId()).build();
+        }
+        try {
+            final byte[] data = toByteArray(requestBody.contentStreamProvider().newStream());
+            parts.put(uploadPartRequest.partNumber(), data);
+            return UploadPartResponse.builder()
+                    .eTag("\"" + BaseEncoding.base16().lowerCase().encode(md5Of(data)) + "\"")
+                    .build();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(final CompleteMultipartUploadRequest completeMultipartUploadRequest) throws S3Exception {
+        final Map<Integer, byte[]> parts = multipartUploads.remove(completeMultipartUploadRequest.uploadId());
+        if (parts == null) {
+            throw NoSuchUploadException.builder().message("No such upload: " + completeMultipartUploadRequest.uploadId()).build();
+        }
+        final Map<String, String> metadata = multipartUploadMetadata.remove(completeMultipartUploadRequest.uploadId());
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final ByteArrayOutputStream partDigests = new ByteArrayOutputStream();
+        completeMultipartUploadRequest.multipartUpload().parts().forEach(part -> {
+            final byte[] partData = parts.get(part.partNumber());
+            data.write(partData, 0, partData.length);
+            final byte[] partDigest = md5Of(partData);
+            partDigests.write(partDigest, 0, partDigest.length);
+        });
+        // S3 calculates the ETag of multipart uploads from the MD5 digests of the parts:
+        final String eTag = "\"" + BaseEncoding.base16().lowerCase().encode(md5Of(partDigests.toByteArray()))
+                + "-" + completeMultipartUploadRequest.multipartUpload().parts().size() + "\"";
+        bucketsWithContents.get(completeMultipartUploadRequest.bucket()).put(completeMultipartUploadRequest.key(),
+                bucketItemBuilder()
+                        .withName(completeMultipartUploadRequest.key())
+                        .withData(data.toByteArray())
+                        .withMetadata(metadata)
+                        .withETag(eTag)
+                        .withLastModifiedNow()
+                        .build());
+        return CompleteMultipartUploadResponse.builder()
+                .bucket(completeMultipartUploadRequest.bucket())
+                .key(completeMultipartUploadRequest.key())
+                .build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(final AbortMultipartUploadRequest abortMultipartUploadRequest) throws S3Exception {
+        multipartUploads.remove(abortMultipartUploadRequest.uploadId());
+        multipartUploadMetadata.remove(abortMultipartUploadRequest.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    /**
+     * Returns the number of multipart uploads that are neither completed nor aborted.
+     */
+    public int countIncompleteMultipartUploads() {
+        return multipartUploads.size();
+    }
+
     @Override
     public DeleteObjectsResponse deleteObjects(final DeleteObjectsRequest deleteObjectsRequest) throws S3Exception {
         final Map<String, BucketItem> bucketItemMap = bucketsWithContents.get(deleteObjectsRequest.bucket());
@@ -112,31 +199,82 @@ public class LocalS3Client implements S3Client {
             throw SdkClientException.create("", e);
         }
 
-        return GetObjectResponse.builder().build();
+        return GetObjectResponse.builder()
+                .contentLength((long) bucketItem.getData().length)
+                .eTag(eTagOf(bucketItem))
+                .metadata(bucketItem.getMetadata())
+                .build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) throws S3Exception {
+        final BucketItem bucketItem = bucketsWithContents.get(headObjectRequest.bucket()).get(headObjectRequest.key());
+        if (bucketItem == null) {
+            throw NoSuchKeyException.builder().message("No such key: " + headObjectRequest.key()).build();
+        }
+        return HeadObjectResponse.builder()
+                .contentLength((long) bucketItem.getData().length)
+                .eTag(eTagOf(bucketItem))
+                .metadata(bucketItem.getMetadata())
+                .build();
     }
 
+    /**
+     * Returns the content of an object. Supports single byte ranges ({@code bytes=<first>-<last>}) and
+     * {@code If-Match} conditions.
+     */
     @SuppressWarnings("unchecked")
     @Override
     public ResponseInputStream<GetObjectResponse> getObject(final GetObjectRequest getObjectRequest) throws S3Exception {
         final Map<String, BucketItem> bucketItemMap = bucketsWithContents.get(getObjectRequest.bucket());
         final BucketItem bucketItem = bucketItemMap.get(getObjectRequest.key());
+        if (getObjectRequest.ifMatch() != null && !getObjectRequest.ifMatch().equals(eTagOf(bucketItem))) {
+            throw (S3Exception) S3Exception.builder().statusCode(412).message("Precondition Failed").build();
+        }
+        byte[] data = bucketItem.getData();
+        if (getObjectRequest.range() != null) {
+            final String[] range = getObjectRequest.range().substring("bytes=".length()).split("-");
+            final int first = Integer.parseInt(range[0]);
+            final int last = Math.min(Integer.parseInt(range[1]), data.length - 1);
+            data = Arrays.copyOfRange(data, first, last + 1);
+        }
         try {
-            return new ResponseInputStream<>(GetObjectResponse.builder().build(), toAbortableInputStream(bucketItem));
+            return new ResponseInputStream<>(GetObjectResponse.builder()
+                    .contentLength((long) data.length)
+                    .eTag(eTagOf(bucketItem))
+                    .build(), toAbortableInputStream(data));
         } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException | InstantiationException e) {
             throw SdkClientException.create("", e);
         }
 
     }
 
-    private AbortableInputStream toAbortableInputStream(final BucketItem bucketItem) throws NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
+    private AbortableInputStream toAbortableInputStream(final byte[] data) throws NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
         final Constructor<AbortableInputStream> constructor = AbortableInputStream.class.getDeclaredConstructor(InputStream.class, Abortable.class);
         constructor.setAccessible(true);
         return constructor.newInstance(
-                new ByteArrayInputStream(bucketItem.getData()),
+                new ByteArrayInputStream(data),
                 (Abortable) () -> {}
         );
     }
 
+    /**
+     * Returns the ETag of an object, as calculated by S3.
+     */
+    private static String eTagOf(final BucketItem bucketItem) {
+        return bucketItem.getETag() != null
+                ? bucketItem.getETag()
+                : "\"" + BaseEncoding.base16().lowerCase().encode(md5Of(bucketItem.getData())) + "\"";
+    }
+
+    private static byte[] md5Of(final byte[] data) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public void close() {
         LOG.debug("s3 closing...");
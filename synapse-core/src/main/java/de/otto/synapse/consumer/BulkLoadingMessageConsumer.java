@@ -0,0 +1,41 @@
+package de.otto.synapse.consumer;
+
+import de.otto.synapse.message.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+
+/**
+ * A {@link MessageConsumer} that is able to bulk-load batches of messages, for example when a snapshot is
+ * restored by an {@link de.otto.synapse.eventsource.EventSource}.
+ * <p>
+ *     If all consumers registered at an EventSource are BulkLoadingMessageConsumers, and no
+ *     {@link de.otto.synapse.endpoint.MessageInterceptor interceptors} are registered for the channel, the
+ *     messages of the {@link de.otto.synapse.messagestore.MessageStore} are decoded and handed over to
+ *     {@link #acceptAll(List)} in batches, instead of dispatching every single message.
+ * </p>
+ * <p>
+ *     Batches may be processed concurrently, but all messages with the same
+ *     {@link de.otto.synapse.message.Key#partitionKey() partition key} are part of the same sequence of batches,
+ *     in the order they were read from the message store.
+ * </p>
+ *
+ * @param <T> the type of the messages's payload
+ */
+@ThreadSafe
+public interface BulkLoadingMessageConsumer<T> extends MessageConsumer<T> {
+
+    /**
+     * Accepts a batch of messages. The result must be the same as calling {@link #accept(Object)} for every
+     * message of the batch, in order.
+     * <p>
+     *     If acceptAll throws an exception, the {@link MessageDispatcher} assumes that no message of the batch
+     *     has been applied, and accepts the messages of the batch one by one. Implementations that may fail
+     *     after applying some messages of the batch must therefore handle these failures themselves.
+     * </p>
+     *
+     * @param messages the messages of the batch
+     */
+    void acceptAll(@Nonnull List<? extends Message<T>> messages);
+}
@@ -0,0 +1,78 @@
+package de.otto.synapse.consumer;
+
+import javax.annotation.Nonnull;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A predicate used to match {@link de.otto.synapse.message.Key#compactionKey() compaction keys} against the
+ * {@link MessageConsumer#keyPattern() key pattern} of a {@link MessageConsumer}.
+ *
+ * <p>
+ *     Most consumers are using patterns like {@code .*}, {@code some-prefix.*} or literal keys. These patterns are
+ *     matched without using the regex engine. All other patterns are matched using {@link Pattern#matcher(CharSequence)}.
+ * </p>
+ */
+final class KeyPatternMatcher implements Predicate<String> {
+
+    private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final Pattern pattern;
+    private final String literal;
+    private final boolean prefixOnly;
+    private final boolean dotAll;
+
+    private KeyPatternMatcher(final @Nonnull Pattern pattern) {
+        this.pattern = pattern;
+        final String regex = pattern.pattern();
+        final int flags = pattern.flags() & ~Pattern.DOTALL;
+        if (flags == 0 && isLiteral(regex)) {
+            this.literal = regex;
+            this.prefixOnly = false;
+        } else if (flags == 0 && regex.endsWith(".*") && isLiteral(regex.substring(0, regex.length() - 2))) {
+            this.literal = regex.substring(0, regex.length() - 2);
+            this.prefixOnly = true;
+        } else {
+            this.literal = null;
+            this.prefixOnly = false;
+        }
+        this.dotAll = (pattern.flags() & Pattern.DOTALL) != 0;
+    }
+
+    static KeyPatternMatcher of(final @Nonnull Pattern pattern) {
+        return new KeyPatternMatcher(pattern);
+    }
+
+    @Override
+    public boolean test(final @Nonnull String key) {
+        if (literal == null) {
+            return pattern.matcher(key).matches();
+        }
+        if (prefixOnly) {
+            return key.startsWith(literal) && (dotAll || !containsLineTerminator(key, literal.length()));
+        }
+        return key.equals(literal);
+    }
+
+    private static boolean isLiteral(final String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            if (META_CHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Without {@link Pattern#DOTALL}, the {@code .} of a pattern does not match line terminators.
+     */
+    private static boolean containsLineTerminator(final String key, final int fromIndex) {
+        for (int i = fromIndex; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,19 +1,23 @@
 package de.otto.synapse.consumer;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import de.otto.synapse.message.Message;
 import de.otto.synapse.message.TextMessage;
 import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import static de.otto.synapse.message.Message.message;
 import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
-import static java.util.Collections.synchronizedList;
-import static java.util.Collections.unmodifiableList;
 import static java.util.regex.Pattern.compile;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -37,22 +41,30 @@ public class MessageDispatcher implements Consumer<TextMessage> {
     private static final Logger LOG = getLogger(MessageDispatcher.class);
     private static final Pattern ACCEPT_ALL = compile(".*");
 
-    private final List<MessageConsumer<?>> messageConsumers;
+    private final Object lock = new Object();
+    private volatile ImmutableList<MessageConsumer<?>> messageConsumers;
+    private volatile DispatchPlan dispatchPlan;
 
     public MessageDispatcher() {
-        this.messageConsumers = synchronizedList(new ArrayList<>());
+        this(ImmutableList.of());
     }
 
     public MessageDispatcher(final List<MessageConsumer<?>> messageConsumers) {
-        this.messageConsumers = synchronizedList(new ArrayList<>(messageConsumers));
+        this.messageConsumers = ImmutableList.copyOf(messageConsumers);
+        this.dispatchPlan = DispatchPlan.empty(currentObjectMapper());
     }
 
     public void add(final MessageConsumer<?> messageConsumer) {
-        this.messageConsumers.add(messageConsumer);
+        synchronized (lock) {
+            this.messageConsumers = ImmutableList.<MessageConsumer<?>>builder()
+                    .addAll(messageConsumers)
+                    .add(messageConsumer)
+                    .build();
+        }
     }
 
     public List<MessageConsumer<?>> getAll() {
-        return unmodifiableList(messageConsumers);
+        return messageConsumers;
     }
 
     /**
@@ -81,38 +93,275 @@ public class MessageDispatcher implements Consumer<TextMessage> {
      * translates the JSON payload into the expected {@link MessageConsumer#payloadType()} of the receiving
      * MessageConsumer.
      *
+     * <p>
+     *     The JSON payload is translated only once per payload type, even if multiple consumers are expecting
+     *     the same type. Consumers must therefore not modify the payload of the messages.
+     * </p>
+     *
      * @param message the input argument
      */
     @Override
     @SuppressWarnings({"unchecked", "raw"})
     public void accept(final TextMessage message) {
         LOG.debug("Accepting message={}", message);
-        messageConsumers
-                .stream()
-                .filter(consumer -> matchesKeyPattern(message, consumer.keyPattern()))
-                .forEach((MessageConsumer consumer) -> {
-                    try {
-                        final Class<?> payloadType = consumer.payloadType();
-                        if (payloadType.equals(String.class)) {
-                            consumer.accept(message);
-                        } else {
-                            Object payload = null;
-                            if (message.getPayload() != null) {
-                                payload = currentObjectMapper().readValue(message.getPayload(), payloadType);
-                            }
-                            final Message<?> tMessage = message(message.getKey(), message.getHeader(), payload);
-                            consumer.accept(tMessage);
+        final int numberOfConsumers = messageConsumers.size();
+        DispatchPlan plan = currentDispatchPlan(0);
+        final String compactionKey = message.getKey().compactionKey();
+        // There are never more payload types than consumers:
+        final Object[] payloads = new Object[numberOfConsumers];
+        for (int i = 0; i < numberOfConsumers; i++) {
+            if (i >= plan.targets.length) {
+                // Consumers are added to the plan right before they are needed, so consumers following a
+                // consumer that is failing to process the message are not touched at all:
+                plan = currentDispatchPlan(i + 1);
+            }
+            final DispatchTarget target = plan.targets[i];
+            if (target.keyMatcher.test(compactionKey)) {
+                try {
+                    if (target.payloadTypeSlot < 0) {
+                        ((MessageConsumer) target.messageConsumer).accept(message);
+                    } else {
+                        Object payload = payloads[target.payloadTypeSlot];
+                        if (payload == null && message.getPayload() != null) {
+                            payload = target.objectReader.readValue(message.getPayload());
+                            payloads[target.payloadTypeSlot] = payload;
                         }
-                    } catch (final Exception e) {
-                        LOG.error(e.getMessage(), e);
-                        throw new IllegalStateException(e.getMessage(), e);
+                        final Message<?> tMessage = message(message.getKey(), message.getHeader(), payload);
+                        ((MessageConsumer) target.messageConsumer).accept(tMessage);
                     }
-                });
+                } catch (final Exception e) {
+                    LOG.error(e.getMessage(), e);
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true, if at least one consumer is registered, and all registered consumers are
+     * {@link BulkLoadingMessageConsumer bulk-loading consumers}.
+     *
+     * @return true if messages can be dispatched using {@link #acceptAll(List)}
+     */
+    public boolean supportsBulkLoading() {
+        final ImmutableList<MessageConsumer<?>> consumers = messageConsumers;
+        return !consumers.isEmpty() && consumers.stream().allMatch(consumer -> consumer instanceof BulkLoadingMessageConsumer);
     }
 
-    private boolean matchesKeyPattern(final TextMessage message,
-                                      final Pattern keyPattern) {
-        return keyPattern.matcher(message.getKey().compactionKey()).matches();
+    /**
+     * Accepts a batch of messages with JSON String payload, and dispatches the messages matching the
+     * {@link MessageConsumer#keyPattern()} of the registered {@link BulkLoadingMessageConsumer consumers} in a
+     * single batch per consumer.
+     *
+     * <p>
+     *     As with {@link #accept(TextMessage)}, payloads are translated only once per payload type.
+     * </p>
+     * <p>
+     *     If the payload of some message can not be translated into the payload type of a consumer, or if a
+     *     consumer fails to {@link BulkLoadingMessageConsumer#acceptAll(List) accept the batch}, the messages of
+     *     the batch are dispatched one by one to this consumer. Messages that are failing again are logged and
+     *     skipped. Other consumers are not affected, so every consumer is applying every message at most once.
+     * </p>
+     *
+     * @param messages the messages of the batch
+     * @throws IllegalStateException if some registered consumer is not a {@code BulkLoadingMessageConsumer}
+     */
+    @SuppressWarnings({"unchecked", "raw"})
+    public void acceptAll(final List<TextMessage> messages) {
+        LOG.debug("Accepting batch of {} messages", messages.size());
+        final DispatchPlan plan = currentDispatchPlan();
+        for (final DispatchTarget target : plan.targets) {
+            if (!(target.messageConsumer instanceof BulkLoadingMessageConsumer)) {
+                throw new IllegalStateException("Consumer " + target.messageConsumer + " is not able to bulk-load messages");
+            }
+        }
+        final Object[][] payloads = new Object[plan.numberOfPayloadTypes][];
+        for (final DispatchTarget target : plan.targets) {
+            final List<Message<?>> batch;
+            try {
+                batch = batchOf(target, messages, payloads);
+            } catch (final Exception e) {
+                LOG.error("Failed to translate batch of {} messages for consumer {}, dispatching them one by one: {}", messages.size(), target.messageConsumer, e.getMessage());
+                acceptOneByOne(target, messages);
+                continue;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    ((BulkLoadingMessageConsumer) target.messageConsumer).acceptAll(batch);
+                } catch (final Exception e) {
+                    LOG.error("Consumer " + target.messageConsumer + " failed to accept batch of " + batch.size() + " messages, dispatching them one by one: " + e.getMessage(), e);
+                    acceptOneByOne(target, messages);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the messages matching the key pattern of the target, translated into the payload type of the target.
+     * Translated payloads are shared between targets expecting the same payload type.
+     */
+    private List<Message<?>> batchOf(final DispatchTarget target,
+                                     final List<TextMessage> messages,
+                                     final Object[][] payloads) throws IOException {
+        final Object[] typedPayloads;
+        if (target.payloadTypeSlot < 0) {
+            typedPayloads = null;
+        } else if (payloads[target.payloadTypeSlot] == null) {
+            typedPayloads = new Object[messages.size()];
+            payloads[target.payloadTypeSlot] = typedPayloads;
+        } else {
+            typedPayloads = payloads[target.payloadTypeSlot];
+        }
+        final List<Message<?>> batch = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            final TextMessage message = messages.get(i);
+            if (target.keyMatcher.test(message.getKey().compactionKey())) {
+                if (typedPayloads == null) {
+                    batch.add(message);
+                } else {
+                    if (typedPayloads[i] == null && message.getPayload() != null) {
+                        typedPayloads[i] = target.objectReader.readValue(message.getPayload());
+                    }
+                    batch.add(message(message.getKey(), message.getHeader(), typedPayloads[i]));
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Dispatches the messages matching the key pattern of the target one by one. Failing messages are logged
+     * and skipped.
+     */
+    @SuppressWarnings({"unchecked", "raw"})
+    private void acceptOneByOne(final DispatchTarget target, final List<TextMessage> messages) {
+        for (final TextMessage message : messages) {
+            if (target.keyMatcher.test(message.getKey().compactionKey())) {
+                try {
+                    if (target.payloadTypeSlot < 0) {
+                        ((MessageConsumer) target.messageConsumer).accept(message);
+                    } else {
+                        final Object payload = message.getPayload() != null
+                                ? target.objectReader.readValue(message.getPayload())
+                                : null;
+                        ((MessageConsumer) target.messageConsumer).accept(message(message.getKey(), message.getHeader(), payload));
+                    }
+                } catch (final Exception e) {
+                    LOG.error("Consumer " + target.messageConsumer + " failed to accept message with key " + message.getKey() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the current DispatchPlan. The plan is lazily extended by consumers that have been added since the
+     * plan was built, and it is rebuilt if the ObjectMapper has been
+     * {@link de.otto.synapse.translator.ObjectMappers#overrideObjectMapper(ObjectMapper) overridden} in the meantime.
+     */
+    private DispatchPlan currentDispatchPlan() {
+        return currentDispatchPlan(messageConsumers.size());
+    }
+
+    /**
+     * Returns the current DispatchPlan, containing at least the targets of the first {@code numberOfTargets}
+     * registered consumers.
+     */
+    private DispatchPlan currentDispatchPlan(final int numberOfTargets) {
+        final DispatchPlan plan = dispatchPlan;
+        final ObjectMapper objectMapper = currentObjectMapper();
+        if (plan.objectMapper == objectMapper && plan.messageConsumers.size() >= numberOfTargets) {
+            return plan;
+        }
+        synchronized (lock) {
+            DispatchPlan current = dispatchPlan;
+            if (current.objectMapper != objectMapper) {
+                current = DispatchPlan.empty(objectMapper);
+            }
+            for (int i = current.messageConsumers.size(); i < numberOfTargets; i++) {
+                current = current.with(messageConsumers.get(i));
+            }
+            dispatchPlan = current;
+            return current;
+        }
+    }
+
+    /**
+     * Immutable plan used to dispatch messages to the registered consumers.
+     *
+     * <p>
+     *     Key patterns and payload types of the consumers are evaluated once, when a consumer is added to the plan
+     *     before dispatching the next message.
+     *     Consumers expecting the same payload type are sharing a slot, so the payload is only deserialized once
+     *     per type.
+     * </p>
+     */
+    private static final class DispatchPlan {
+        private final ImmutableList<MessageConsumer<?>> messageConsumers;
+        private final ObjectMapper objectMapper;
+        private final DispatchTarget[] targets;
+        private final ImmutableMap<Class<?>, DispatchTarget> payloadTypeTargets;
+        private final int numberOfPayloadTypes;
+
+        private DispatchPlan(final ImmutableList<MessageConsumer<?>> messageConsumers,
+                             final ObjectMapper objectMapper,
+                             final DispatchTarget[] targets,
+                             final ImmutableMap<Class<?>, DispatchTarget> payloadTypeTargets) {
+            this.messageConsumers = messageConsumers;
+            this.objectMapper = objectMapper;
+            this.targets = targets;
+            this.payloadTypeTargets = payloadTypeTargets;
+            this.numberOfPayloadTypes = payloadTypeTargets.size();
+        }
+
+        private static DispatchPlan empty(final ObjectMapper objectMapper) {
+            return new DispatchPlan(ImmutableList.of(), objectMapper, new DispatchTarget[0], ImmutableMap.of());
+        }
+
+        /**
+         * Returns a copy of this plan, extended by a target for the given consumer.
+         */
+        private DispatchPlan with(final MessageConsumer<?> messageConsumer) {
+            final Class<?> payloadType = messageConsumer.payloadType();
+            final KeyPatternMatcher keyMatcher = KeyPatternMatcher.of(messageConsumer.keyPattern());
+            final DispatchTarget target;
+            ImmutableMap<Class<?>, DispatchTarget> extendedPayloadTypeTargets = payloadTypeTargets;
+            if (payloadType.equals(String.class)) {
+                target = new DispatchTarget(messageConsumer, keyMatcher, -1, null);
+            } else if (payloadTypeTargets.containsKey(payloadType)) {
+                final DispatchTarget sameType = payloadTypeTargets.get(payloadType);
+                target = new DispatchTarget(messageConsumer, keyMatcher, sameType.payloadTypeSlot, sameType.objectReader);
+            } else {
+                target = new DispatchTarget(messageConsumer, keyMatcher, numberOfPayloadTypes, objectMapper.readerFor(payloadType));
+                extendedPayloadTypeTargets = ImmutableMap.<Class<?>, DispatchTarget>builder()
+                        .putAll(payloadTypeTargets)
+                        .put(payloadType, target)
+                        .build();
+            }
+            final DispatchTarget[] extendedTargets = Arrays.copyOf(targets, targets.length + 1);
+            extendedTargets[targets.length] = target;
+            return new DispatchPlan(
+                    ImmutableList.<MessageConsumer<?>>builder().addAll(messageConsumers).add(messageConsumer).build(),
+                    objectMapper,
+                    extendedTargets,
+                    extendedPayloadTypeTargets);
+        }
+    }
+
+    private static final class DispatchTarget {
+        private final MessageConsumer<?> messageConsumer;
+        private final KeyPatternMatcher keyMatcher;
+        private final int payloadTypeSlot;
+        private final ObjectReader objectReader;
+
+        private DispatchTarget(final MessageConsumer<?> messageConsumer,
+                               final KeyPatternMatcher keyMatcher,
+                               final int payloadTypeSlot,
+                               final ObjectReader objectReader) {
+            this.messageConsumer = messageConsumer;
+            this.keyMatcher = keyMatcher;
+            this.payloadTypeSlot = payloadTypeSlot;
+            this.objectReader = objectReader;
+        }
     }
 
 }
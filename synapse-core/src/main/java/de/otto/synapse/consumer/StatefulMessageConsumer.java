@@ -3,26 +3,42 @@ package de.otto.synapse.consumer;
 import de.otto.synapse.message.Key;
 import de.otto.synapse.message.Message;
 import de.otto.synapse.state.StateRepository;
+import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
+import static org.slf4j.LoggerFactory.getLogger;
+
 /**
  * A {@code MessageConsumer} that is updating a {@link StateRepository}.
+ * <p>
+ *     Batches of messages that are {@link #acceptAll(List) bulk-loaded} are folded per key, so every key is
+ *     written only once per batch.
+ * </p>
  *
  * @param <P> the type of the {@link Message} payload
  * @param <S> the type of the {@link StateRepository} entries
  */
-public class StatefulMessageConsumer<P, S> implements MessageConsumer<P> {
+public class StatefulMessageConsumer<P, S> implements BulkLoadingMessageConsumer<P> {
+
+    private static final Logger LOG = getLogger(StatefulMessageConsumer.class);
 
     private final Pattern keyPattern;
     private final StateRepository<S> stateRepository;
     private final Class<P> payloadType;
     private final Function<? super Message<P>, String> keyMapper;
     private final BiFunction<Optional<S>, ? super Message<P>, S> payloadToStateMapper;
+    /** false, if the payloadToStateMapper is ignoring the previous state, so it does not need to be read. */
+    private final boolean mapsPreviousState;
 
     /**
      * Creates a StatefulMessageConsumer.
@@ -81,6 +97,7 @@ public class StatefulMessageConsumer<P, S> implements MessageConsumer<P> {
         this.stateRepository = stateRepository;
         this.payloadToStateMapper = (_previousValue, message) -> payloadToStateMapper.apply(message);
         this.keyMapper = keyMapper;
+        this.mapsPreviousState = false;
     }
 
     /**
@@ -102,6 +119,7 @@ public class StatefulMessageConsumer<P, S> implements MessageConsumer<P> {
         this.stateRepository = stateRepository;
         this.payloadToStateMapper = payloadToStateMapper;
         this.keyMapper = keyMapper;
+        this.mapsPreviousState = true;
     }
 
     /**
@@ -137,4 +155,80 @@ public class StatefulMessageConsumer<P, S> implements MessageConsumer<P> {
         }
     }
 
+    /**
+     * Accepts a batch of messages.
+     *
+     * <p>
+     *     The messages of the batch are grouped by the keys of the repository entries. The messages of a key are
+     *     mapped in order, using the entity of the previous message as previous value. If the
+     *     {@code payloadToStateMapper} is using previous values, every key is updated atomically using a single
+     *     {@link StateRepository#compute(String, BiFunction) compute}, so concurrent updates of the same key are
+     *     never lost. Otherwise, the resulting entities are stored using a single
+     *     {@link StateRepository#putAll(Map) putAll}.
+     * </p>
+     * <p>
+     *     If mapping the messages of a key fails, the messages of this key are accepted one by one. Messages that
+     *     are failing are logged and skipped, so the other messages of the batch are applied exactly once.
+     * </p>
+     *
+     * @param messages the messages of the batch
+     */
+    @Override
+    public void acceptAll(final @Nonnull List<? extends Message<P>> messages) {
+        final Map<String, List<Message<P>>> messagesPerKey = new LinkedHashMap<>(messages.size() * 2);
+        for (final Message<P> message : messages) {
+            messagesPerKey.computeIfAbsent(keyMapper.apply(message), _key -> new ArrayList<>(1)).add(message);
+        }
+        if (mapsPreviousState) {
+            messagesPerKey.forEach((key, messagesOfKey) -> {
+                try {
+                    stateRepository.compute(key, (_key, previousValue) -> fold(previousValue, messagesOfKey));
+                } catch (final RuntimeException e) {
+                    acceptOneByOne(key, messagesOfKey, e);
+                }
+            });
+        } else {
+            final Map<String, S> updatedEntities = new HashMap<>(messagesPerKey.size() * 2);
+            messagesPerKey.forEach((key, messagesOfKey) -> {
+                try {
+                    final S entity = fold(Optional.empty(), messagesOfKey);
+                    if (entity == null) {
+                        stateRepository.remove(key);
+                    } else {
+                        updatedEntities.put(key, entity);
+                    }
+                } catch (final RuntimeException e) {
+                    acceptOneByOne(key, messagesOfKey, e);
+                }
+            });
+            stateRepository.putAll(updatedEntities);
+        }
+    }
+
+    /**
+     * Maps the messages of a single key in order, starting with the given previous value.
+     *
+     * @return the resulting entity, or null if the entity is removed by the last message
+     */
+    private S fold(final Optional<S> previousValue, final List<Message<P>> messages) {
+        Optional<S> entity = previousValue;
+        for (final Message<P> message : messages) {
+            entity = message.getPayload() == null
+                    ? Optional.empty()
+                    : Optional.ofNullable(payloadToStateMapper.apply(entity, message));
+        }
+        return entity.orElse(null);
+    }
+
+    private void acceptOneByOne(final String key, final List<Message<P>> messages, final RuntimeException cause) {
+        LOG.warn("Failed to accept {} messages with key {} as a batch, accepting them one by one: {}", messages.size(), key, cause.getMessage());
+        for (final Message<P> message : messages) {
+            try {
+                accept(message);
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to accept message with key " + message.getKey() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,37 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.channel.ChannelPosition;
+
+import javax.annotation.Nonnull;
+import java.util.Optional;
+
+/**
+ * Checkpoints of the {@link ChannelPosition channel positions} up to which the messages of a channel are contained
+ * in some persistent state, like a persisted {@link de.otto.synapse.state.ChronicleMapStateRepository}.
+ *
+ * <p>
+ *     After a restart, an {@link EventSource} is able to continue consuming the channel from the checkpointed
+ *     position, instead of replaying the whole {@link de.otto.synapse.messagestore.MessageStore} of the channel.
+ * </p>
+ */
+public interface ChannelCheckpoints {
+
+    /**
+     * Returns the checkpointed position of the channel, if the state of the channel was recovered from a previous
+     * run of the application.
+     *
+     * @param channelName the name of the channel
+     * @return the position of the channel, or {@code Optional.empty()} if the channel must be consumed from
+     *         the message store.
+     */
+    Optional<ChannelPosition> getCheckpoint(@Nonnull String channelName);
+
+    /**
+     * Checkpoints the position of a channel, after all messages up to this position were consumed.
+     *
+     * @param channelName the name of the channel
+     * @param channelPosition the position of the last consumed messages
+     */
+    void checkpoint(@Nonnull String channelName, @Nonnull ChannelPosition channelPosition);
+
+}
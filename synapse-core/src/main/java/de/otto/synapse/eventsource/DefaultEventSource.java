@@ -2,8 +2,12 @@ package de.otto.synapse.eventsource;
 
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.channel.ShardResponse;
+import de.otto.synapse.consumer.BulkLoadingMessageConsumer;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.InterceptorChain;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
 import de.otto.synapse.logging.LogHelper;
+import de.otto.synapse.message.TextMessage;
 import de.otto.synapse.messagestore.MessageStore;
 import de.otto.synapse.messagestore.MessageStoreEntry;
 import org.slf4j.Logger;
@@ -14,10 +18,12 @@ import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import javax.annotation.Nonnull;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
@@ -27,23 +33,85 @@ public class DefaultEventSource extends AbstractEventSource {
 
     private static final Logger LOG = getLogger(DefaultEventSource.class);
     private static final int LOG_MESSAGE_COUNTER_EVERY_NTH_MESSAGE = 100_000;
+    private static final int REPLAY_LANE_CAPACITY = 1_000;
+    private static final int BULK_LOAD_BATCH_SIZE = 1_000;
 
     private final MessageStore messageStore;
+    private final ChannelCheckpoints checkpoints;
     private final Marker marker;
+    private final int numberOfReplayLanes;
 
     public DefaultEventSource(final @Nonnull MessageStore messageStore,
                               final @Nonnull MessageLogReceiverEndpoint messageLog) {
-        super(messageLog);
-        this.messageStore = messageStore;
-        this.marker = null;
+        this(messageStore, messageLog, null, Runtime.getRuntime().availableProcessors());
     }
 
     public DefaultEventSource(final @Nonnull MessageStore messageStore,
                               final @Nonnull MessageLogReceiverEndpoint messageLog,
                               final @Nonnull Marker marker) {
+        this(messageStore, messageLog, marker, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a DefaultEventSource that is checkpointing the channel position, after the EventSource has finished
+     * consuming messages.
+     *
+     * @param messageStore the MessageStore used to initialize the EventSource
+     * @param messageLog the MessageLogReceiverEndpoint used to consume the message log
+     * @param checkpoints the ChannelCheckpoints used to store the channel position
+     */
+    public DefaultEventSource(final @Nonnull MessageStore messageStore,
+                              final @Nonnull MessageLogReceiverEndpoint messageLog,
+                              final @Nonnull ChannelCheckpoints checkpoints) {
+        this(messageStore, messageLog, checkpoints, null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a DefaultEventSource.
+     *
+     * <p>
+     *     Messages from the {@link MessageStore} are replayed using {@code numberOfReplayLanes} threads. Messages
+     *     are distributed over the threads by {@link de.otto.synapse.message.Key#partitionKey() partition key}, so
+     *     the ordering of messages having the same partition key is guaranteed.
+     * </p>
+     *
+     * @param messageStore the MessageStore used to initialize the EventSource
+     * @param messageLog the MessageLogReceiverEndpoint used to consume the message log
+     * @param marker optional marker used for logging
+     * @param numberOfReplayLanes the number of threads used to replay the messages from the MessageStore
+     */
+    public DefaultEventSource(final @Nonnull MessageStore messageStore,
+                              final @Nonnull MessageLogReceiverEndpoint messageLog,
+                              final Marker marker,
+                              final int numberOfReplayLanes) {
+        this(messageStore, messageLog, null, marker, numberOfReplayLanes);
+    }
+
+    /**
+     * Creates a DefaultEventSource.
+     *
+     * <p>
+     *     If {@code checkpoints} are given, the position of the channel is
+     *     {@link ChannelCheckpoints#checkpoint(String, ChannelPosition) checkpointed}, after the EventSource has
+     *     finished consuming messages without errors.
+     * </p>
+     *
+     * @param messageStore the MessageStore used to initialize the EventSource
+     * @param messageLog the MessageLogReceiverEndpoint used to consume the message log
+     * @param checkpoints optional ChannelCheckpoints used to store the channel position
+     * @param marker optional marker used for logging
+     * @param numberOfReplayLanes the number of threads used to replay the messages from the MessageStore
+     */
+    public DefaultEventSource(final @Nonnull MessageStore messageStore,
+                              final @Nonnull MessageLogReceiverEndpoint messageLog,
+                              final ChannelCheckpoints checkpoints,
+                              final Marker marker,
+                              final int numberOfReplayLanes) {
         super(messageLog);
         this.messageStore = messageStore;
+        this.checkpoints = checkpoints;
         this.marker = marker;
+        this.numberOfReplayLanes = numberOfReplayLanes;
     }
 
     @Nonnull
@@ -54,6 +122,8 @@ public class DefaultEventSource extends AbstractEventSource {
                 .handle((channelPosition, throwable) -> {
                     if (throwable != null) {
                         LOG.error(marker, "Failed to start consuming from EventSource {}: {}. Closing MessageStore.", getChannelName(), throwable.getMessage(), throwable);
+                    } else if (checkpoints != null && channelPosition != null) {
+                        checkpoint(channelPosition);
                     }
                     try {
                         messageStore.close();
@@ -64,73 +134,111 @@ public class DefaultEventSource extends AbstractEventSource {
                 });
     }
 
+    private void checkpoint(final ChannelPosition channelPosition) {
+        try {
+            LOG.info(marker, "Checkpointing position of channel '{}': {}", getChannelName(), channelPosition);
+            checkpoints.checkpoint(getChannelName(), channelPosition);
+        } catch (final RuntimeException e) {
+            LOG.error(marker, "Unable to checkpoint position of channel '" + getChannelName() + "': " + e.getMessage(), e);
+        }
+    }
 
     private CompletableFuture<ChannelPosition> consumeMessageStore() {
 
-        int numberOfDispatcherThreads = 1;
-        if (messageStore.isCompacting()) {
-            numberOfDispatcherThreads = Runtime.getRuntime().availableProcessors();
-        }
-
-        final ExecutorService executorService = Executors.newCachedThreadPool(new CustomizableThreadFactory("synapse-messagestore-dispatcher-"));
-        final Semaphore lock = new Semaphore(numberOfDispatcherThreads);
         final String channelName = getChannelName();
 
         LOG.info(marker, "Starting to read message store for channel '{}'.", channelName);
         Instant startTime = Instant.now();
 
-        final AtomicLong messageCounter = new AtomicLong();
+        final AtomicLong messageCount = new AtomicLong();
         final long firstMessageLogTime = System.currentTimeMillis();
         final AtomicLong previousMessageLogTime = new AtomicLong(System.currentTimeMillis());
 
         final Map<String, String> copyOfContextMap = MDC.getCopyOfContextMap();
 
-        return CompletableFuture.supplyAsync(() -> {
+        final ExecutorService executorService = newSingleThreadExecutor(
+                new CustomizableThreadFactory("synapse-eventsource-")
+        );
+        final CompletableFuture<ChannelPosition> result = CompletableFuture.supplyAsync(() -> {
             if (copyOfContextMap != null) {
                 MDC.setContextMap(copyOfContextMap);
             }
-            messageStore
-                    .stream()
-                    .filter(entry -> entry.getChannelName().equals(channelName))
-                    .map(MessageStoreEntry::getTextMessage)
-                    .map(message -> getMessageLogReceiverEndpoint().intercept(message))
-                    .filter(Objects::nonNull)
-                    .forEach(message -> {
-                        try {
-                            lock.acquire();
-                        } catch (InterruptedException e) {
-                            LOG.error(marker, e.getMessage(), e);
-                        }
-                        executorService.execute(() -> {
-                            if (copyOfContextMap != null) {
-                                MDC.setContextMap(copyOfContextMap);
-                            }
+            final Consumer<TextMessage> messageCounter = message -> {
+                long counter = messageCount.getAndIncrement();
+                if (counter > 0 && counter % LOG_MESSAGE_COUNTER_EVERY_NTH_MESSAGE == 0) {
+                    double messagesPerSecond = LogHelper.calculateMessagesPerSecond(previousMessageLogTime.getAndSet(System.currentTimeMillis()), LOG_MESSAGE_COUNTER_EVERY_NTH_MESSAGE);
+                    LOG.info(marker, "Consumed {} messages ({} per second) from message store for channel '{}'", counter, String.format( "%.2f", messagesPerSecond), channelName );
+                }
+            };
+            final KeyOrderedReplayExecutor replayExecutor;
+            if (isBulkLoadingSupported()) {
+                LOG.info(marker, "Bulk-loading messages from message store for channel '{}'.", channelName);
+                replayExecutor = new KeyOrderedReplayExecutor(
+                        numberOfReplayLanes,
+                        REPLAY_LANE_CAPACITY,
+                        BULK_LOAD_BATCH_SIZE,
+                        batch -> {
                             try {
-                                getMessageLogReceiverEndpoint().getMessageDispatcher().accept(message);
+                                getMessageLogReceiverEndpoint().getMessageDispatcher().acceptAll(batch);
                             } finally {
-                                long counter = messageCounter.getAndIncrement();
-                                if (counter > 0 && counter % LOG_MESSAGE_COUNTER_EVERY_NTH_MESSAGE == 0) {
-                                    double messagesPerSecond = LogHelper.calculateMessagesPerSecond(previousMessageLogTime.getAndSet(System.currentTimeMillis()), LOG_MESSAGE_COUNTER_EVERY_NTH_MESSAGE);
-                                    LOG.info(marker, "Consumed {} messages ({} per second) from message store for channel '{}'", counter, String.format( "%.2f", messagesPerSecond), channelName );
+                                batch.forEach(messageCounter);
+                            }
+                        },
+                        marker);
+            } else {
+                replayExecutor = new KeyOrderedReplayExecutor(
+                        numberOfReplayLanes,
+                        REPLAY_LANE_CAPACITY,
+                        message -> {
+                            try {
+                                final TextMessage interceptedMessage = getMessageLogReceiverEndpoint().intercept(message);
+                                if (interceptedMessage != null) {
+                                    getMessageLogReceiverEndpoint().getMessageDispatcher().accept(interceptedMessage);
                                 }
-                                lock.release();
+                            } finally {
+                                messageCounter.accept(message);
                             }
-                        });
-                    });
-            executorService.shutdown();
+                        },
+                        marker);
+            }
             try {
-                executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
-                LOG.info(marker, "Consumed a total of {} messages from message store for channel '{}', totalMessagesPerSecond={}", messageCounter.get(), channelName, String.format( "%.2f", LogHelper.calculateMessagesPerSecond(firstMessageLogTime, messageCounter.get())));
-            } catch (InterruptedException e) {
+                final Iterator<MessageStoreEntry> entries = messageStore.stream().iterator();
+                while (entries.hasNext()) {
+                    final MessageStoreEntry entry = entries.next();
+                    if (entry.getChannelName().equals(channelName)) {
+                        replayExecutor.submit(entry.getTextMessage());
+                    }
+                }
+                replayExecutor.awaitCompletion();
+                LOG.info(marker, "Consumed a total of {} messages from message store for channel '{}', totalMessagesPerSecond={}", messageCount.get(), channelName, String.format( "%.2f", LogHelper.calculateMessagesPerSecond(firstMessageLogTime, messageCount.get())));
+            } catch (final InterruptedException e) {
                 LOG.error(marker, e.getMessage(), e);
+                replayExecutor.abort();
+                Thread.currentThread().interrupt();
+            } catch (final RuntimeException e) {
+                replayExecutor.abort();
+                throw e;
             }
 
             LOG.info(marker, "Finished reading message store for channel '{}'. Duration was {}.", channelName, Duration.between(startTime, Instant.now()));
 
             return messageStore.getLatestChannelPosition(channelName);
-        }, newSingleThreadExecutor(
-                new CustomizableThreadFactory("synapse-eventsource-")
-        ));
+        }, executorService);
+        executorService.shutdown();
+        return result;
+    }
+
+    /**
+     * Messages from the message store are bulk-loaded, if no interceptors need to see the messages, and all
+     * registered consumers are {@link BulkLoadingMessageConsumer bulk-loading consumers}.
+     */
+    private boolean isBulkLoadingSupported() {
+        final MessageDispatcher messageDispatcher = getMessageLogReceiverEndpoint().getMessageDispatcher();
+        final InterceptorChain interceptorChain = getMessageLogReceiverEndpoint().getInterceptorChain();
+        return messageDispatcher != null
+                && interceptorChain != null
+                && interceptorChain.getInterceptors().isEmpty()
+                && messageDispatcher.supportsBulkLoading();
     }
 
 }
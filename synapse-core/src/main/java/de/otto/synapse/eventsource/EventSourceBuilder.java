@@ -1,6 +1,13 @@
 package de.otto.synapse.eventsource;
 
+import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+
+import java.util.Optional;
+
+import static de.otto.synapse.messagestore.MessageStores.emptyMessageStore;
 
 /**
  * A builder used to build {@link EventSource instances}.
@@ -16,4 +23,33 @@ public interface EventSourceBuilder {
      */
     EventSource buildEventSource(final MessageLogReceiverEndpoint messageLogReceiverEndpoint);
 
+    /**
+     * Returns an EventSourceBuilder that is building {@link DefaultEventSource event sources} which are
+     * {@link ChannelCheckpoints#checkpoint(String, ChannelPosition) checkpointing} the channel position, after
+     * they have finished consuming.
+     *
+     * <p>
+     *     If a checkpoint is available for the channel of an event source, the channel is consumed from the
+     *     checkpointed position. The {@link MessageStore} of the channel is only created, if there is no checkpoint.
+     * </p>
+     * <p>
+     *     Only usable, if all the state that is derived from the channels of the event sources is recovered
+     *     together with the checkpoints. Other consumers would miss the messages of the skipped message stores.
+     * </p>
+     *
+     * @param messageStoreFactory the factory used to create the message stores of channels without checkpoint
+     * @param checkpoints the checkpoints of the channels
+     * @return EventSourceBuilder
+     */
+    static EventSourceBuilder checkpointing(final MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                            final ChannelCheckpoints checkpoints) {
+        return (messageLogReceiverEndpoint) -> {
+            final String channelName = messageLogReceiverEndpoint.getChannelName();
+            final Optional<ChannelPosition> checkpoint = checkpoints.getCheckpoint(channelName);
+            final MessageStore messageStore = checkpoint.isPresent()
+                    ? emptyMessageStore(checkpoint.get())
+                    : messageStoreFactory.createMessageStoreFor(channelName);
+            return new DefaultEventSource(messageStore, messageLogReceiverEndpoint, checkpoints);
+        };
+    }
 }
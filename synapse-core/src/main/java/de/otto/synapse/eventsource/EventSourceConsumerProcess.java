@@ -4,21 +4,44 @@ package de.otto.synapse.eventsource;
 import org.slf4j.Logger;
 import org.springframework.context.SmartLifecycle;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class EventSourceConsumerProcess implements SmartLifecycle {
 
     private static final Logger LOG = getLogger(EventSourceConsumerProcess.class);
     private static final String THREAD_NAME_PREFIX = "synapse-consumer-";
+    private static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
 
     private final List<EventSource> eventSources;
+    private final Duration shutdownTimeout;
+    private final List<CompletableFuture<?>> consumeFutures = new CopyOnWriteArrayList<>();
 
     private volatile boolean running = false;
 
     public EventSourceConsumerProcess(final List<EventSource> eventSources) {
+        this(eventSources, DEFAULT_SHUTDOWN_TIMEOUT);
+    }
+
+    /**
+     * Creates an EventSourceConsumerProcess.
+     *
+     * @param eventSources the EventSources to consume
+     * @param shutdownTimeout the maximum duration to wait for the EventSources to finish consuming on
+     *                        {@link #stop()}, so the final channel positions can be checkpointed before the
+     *                        state repositories are closed.
+     */
+    public EventSourceConsumerProcess(final List<EventSource> eventSources,
+                                      final Duration shutdownTimeout) {
         this.eventSources = eventSources;
+        this.shutdownTimeout = shutdownTimeout;
     }
 
     @Override
@@ -46,7 +69,10 @@ public class EventSourceConsumerProcess implements SmartLifecycle {
             eventSources.forEach(eventSource -> {
                 try {
                     LOG.info("Starting {}...", eventSource.getChannelName());
-                    eventSource.consume();
+                    final CompletableFuture<?> consumeFuture = eventSource.consume();
+                    if (consumeFuture != null) {
+                        consumeFutures.add(consumeFuture);
+                    }
                 } catch (Exception e) {
                     LOG.error("Starting failed: " + e.getMessage(), e);
                     stop();
@@ -62,10 +88,37 @@ public class EventSourceConsumerProcess implements SmartLifecycle {
     public void stop() {
         LOG.info("Shutting down...");
         eventSources.forEach(EventSource::stop);
+        awaitTermination();
         running = false;
         LOG.info("...done.");
     }
 
+    /**
+     * Waits until all EventSources have finished consuming. The EventSources are checkpointing their channel
+     * positions after consumption has finished, so stop() must not return before, as the
+     * {@link ChannelCheckpoints} are closed afterwards.
+     */
+    private void awaitTermination() {
+        if (consumeFutures.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture
+                    .allOf(consumeFutures.toArray(new CompletableFuture<?>[0]))
+                    .get(shutdownTimeout.toMillis(), MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for EventSources to finish consuming");
+        } catch (final ExecutionException e) {
+            // already logged by the failing EventSource
+            LOG.debug("EventSource finished exceptionally: {}", e.getMessage());
+        } catch (final TimeoutException e) {
+            LOG.warn("EventSources did not finish consuming within {}", shutdownTimeout);
+        } finally {
+            consumeFutures.clear();
+        }
+    }
+
     /**
      * Check whether this component is currently running.
      * <p>In the case of a container, this will return {@code true} only if <i>all</i>
@@ -0,0 +1,174 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.TextMessage;
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Replays messages to a consumer using a fixed number of worker lanes.
+ *
+ * <p>
+ *     Messages are striped over the lanes by the hash of their {@link Key#partitionKey() partition key}, so all
+ *     messages having the same partition key are processed by the same lane in the order of their submission.
+ *     Messages with different partition keys are processed in parallel.
+ * </p>
+ * <p>
+ *     Every lane has a bounded queue: if a lane is not able to keep up with the producer, {@link #submit(TextMessage)}
+ *     blocks until there is room for the message.
+ * </p>
+ * <p>
+ *     The worker threads are started on construction and terminated by {@link #awaitCompletion()}.
+ * </p>
+ */
+final class KeyOrderedReplayExecutor {
+
+    private static final Logger LOG = getLogger(KeyOrderedReplayExecutor.class);
+
+    private static final TextMessage END_OF_REPLAY = TextMessage.of(Key.of("synapse-end-of-replay"), null);
+
+    private final List<BlockingQueue<TextMessage>> lanes;
+    private final List<Thread> workers;
+    private final int maxBatchSize;
+    private final Consumer<List<TextMessage>> batchConsumer;
+    private final Marker marker;
+
+    /**
+     * Creates and starts a KeyOrderedReplayExecutor.
+     *
+     * @param numberOfLanes the number of worker lanes (and threads) used to process messages
+     * @param laneCapacity the maximum number of messages waiting in a single lane
+     * @param consumer the consumer used to process the messages. Must be thread safe.
+     * @param marker optional marker used for logging
+     */
+    KeyOrderedReplayExecutor(final int numberOfLanes,
+                             final int laneCapacity,
+                             final @Nonnull Consumer<TextMessage> consumer,
+                             final Marker marker) {
+        this(numberOfLanes, laneCapacity, 1, batch -> consumer.accept(batch.get(0)), marker);
+    }
+
+    /**
+     * Creates and starts a KeyOrderedReplayExecutor that is processing messages in batches.
+     *
+     * <p>
+     *     Every lane hands over the messages waiting in the lane as a single batch of up to {@code maxBatchSize}
+     *     messages. A batch only contains messages of a single lane, in the order of their submission.
+     * </p>
+     *
+     * @param numberOfLanes the number of worker lanes (and threads) used to process messages
+     * @param laneCapacity the maximum number of messages waiting in a single lane
+     * @param maxBatchSize the maximum number of messages of a batch
+     * @param batchConsumer the consumer used to process batches of messages. Must be thread safe.
+     * @param marker optional marker used for logging
+     */
+    KeyOrderedReplayExecutor(final int numberOfLanes,
+                             final int laneCapacity,
+                             final int maxBatchSize,
+                             final @Nonnull Consumer<List<TextMessage>> batchConsumer,
+                             final Marker marker) {
+        if (numberOfLanes < 1) {
+            throw new IllegalArgumentException("numberOfLanes must be greater than zero");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than zero");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.batchConsumer = batchConsumer;
+        this.marker = marker;
+        this.lanes = new ArrayList<>(numberOfLanes);
+        this.workers = new ArrayList<>(numberOfLanes);
+        final Map<String, String> copyOfContextMap = MDC.getCopyOfContextMap();
+        final ThreadFactory threadFactory = new CustomizableThreadFactory("synapse-messagestore-dispatcher-");
+        for (int i = 0; i < numberOfLanes; i++) {
+            final BlockingQueue<TextMessage> lane = new ArrayBlockingQueue<>(laneCapacity);
+            final Thread worker = threadFactory.newThread(() -> {
+                if (copyOfContextMap != null) {
+                    MDC.setContextMap(copyOfContextMap);
+                }
+                drain(lane);
+            });
+            lanes.add(lane);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Submits a message to the lane selected by the partition key of the message.
+     *
+     * @param message the message
+     * @throws InterruptedException if the current thread was interrupted while waiting for the lane
+     */
+    void submit(final @Nonnull TextMessage message) throws InterruptedException {
+        lanes.get(laneOf(message.getKey())).put(message);
+    }
+
+    /**
+     * Signals the end of the replay to all lanes and waits until all submitted messages are processed.
+     *
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    void awaitCompletion() throws InterruptedException {
+        for (final BlockingQueue<TextMessage> lane : lanes) {
+            lane.put(END_OF_REPLAY);
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Interrupts all worker threads. Messages that are not yet processed are discarded.
+     */
+    void abort() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    int laneOf(final @Nonnull Key key) {
+        return Math.floorMod(key.partitionKey().hashCode(), lanes.size());
+    }
+
+    private void drain(final BlockingQueue<TextMessage> lane) {
+        try {
+            boolean endOfReplay = false;
+            while (!endOfReplay) {
+                final List<TextMessage> batch = new ArrayList<>(maxBatchSize);
+                batch.add(lane.take());
+                lane.drainTo(batch, maxBatchSize - 1);
+                // END_OF_REPLAY is the last message submitted to the lane:
+                if (batch.get(batch.size() - 1) == END_OF_REPLAY) {
+                    batch.remove(batch.size() - 1);
+                    endOfReplay = true;
+                }
+                if (!batch.isEmpty()) {
+                    try {
+                        batchConsumer.accept(batch);
+                    } catch (final RuntimeException e) {
+                        if (batch.size() == 1) {
+                            LOG.error(marker, "Failed to replay message with key={}: {}", batch.get(0).getKey(), e.getMessage(), e);
+                        } else {
+                            LOG.error(marker, "Failed to replay batch of {} messages: {}", batch.size(), e.getMessage(), e);
+                        }
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            LOG.warn(marker, "Interrupted while replaying messages");
+            Thread.currentThread().interrupt();
+        }
+    }
+}
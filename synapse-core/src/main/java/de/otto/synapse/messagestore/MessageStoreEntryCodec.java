@@ -0,0 +1,133 @@
+package de.otto.synapse.messagestore;
+
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.StartFrom;
+import de.otto.synapse.message.Header;
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.TextMessage;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact binary representation of {@link MessageStoreEntry entries}, used by message stores that are keeping
+ * their entries off the heap.
+ */
+final class MessageStoreEntryCodec {
+
+    private static final StartFrom[] START_FROM_VALUES = StartFrom.values();
+
+    private MessageStoreEntryCodec() {
+    }
+
+    static byte[] encode(final @Nonnull MessageStoreEntry entry) {
+        final TextMessage message = entry.getTextMessage();
+        final String payload = message.getPayload();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload != null ? payload.length() + 128 : 128);
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, entry.getChannelName());
+            out.writeInt(entry.getFilterValues().size());
+            for (final Map.Entry<Index, String> filterValue : entry.getFilterValues().entrySet()) {
+                writeString(out, filterValue.getKey().getName());
+                writeString(out, filterValue.getValue());
+            }
+            writeString(out, message.getKey().partitionKey());
+            writeString(out, message.getKey().compactionKey());
+            final ShardPosition shardPosition = message.getHeader().getShardPosition().orElse(null);
+            out.writeBoolean(shardPosition != null);
+            if (shardPosition != null) {
+                writeString(out, shardPosition.shardName());
+                out.writeByte(shardPosition.startFrom().ordinal());
+                writeString(out, shardPosition.position());
+                final Instant timestamp = shardPosition.timestamp();
+                out.writeLong(timestamp != null ? timestamp.getEpochSecond() : 0L);
+                out.writeInt(timestamp != null ? timestamp.getNano() : 0);
+            }
+            out.writeInt(message.getHeader().getAll().size());
+            for (final Map.Entry<String, String> attribute : message.getHeader().getAll().entrySet()) {
+                writeString(out, attribute.getKey());
+                writeString(out, attribute.getValue());
+            }
+            writeString(out, payload);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static MessageStoreEntry decode(final @Nonnull byte[] bytes) {
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            final String channelName = readString(in);
+            final int numberOfFilterValues = in.readInt();
+            final ImmutableMap.Builder<Index, String> filterValues = ImmutableMap.builder();
+            for (int i = 0; i < numberOfFilterValues; i++) {
+                filterValues.put(Index.valueOf(readString(in)), readString(in));
+            }
+            final Key key = Key.of(readString(in), readString(in));
+            final ShardPosition shardPosition = in.readBoolean()
+                    ? readShardPosition(in)
+                    : null;
+            final int numberOfAttributes = in.readInt();
+            final ImmutableMap.Builder<String, String> attributes = ImmutableMap.builder();
+            for (int i = 0; i < numberOfAttributes; i++) {
+                attributes.put(readString(in), readString(in));
+            }
+            final Header header = shardPosition != null
+                    ? Header.of(shardPosition, attributes.build())
+                    : Header.of(attributes.build());
+            return MessageStoreEntry.of(channelName, filterValues.build(), TextMessage.of(key, header, readString(in)));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ShardPosition readShardPosition(final DataInputStream in) throws IOException {
+        final String shardName = readString(in);
+        final StartFrom startFrom = START_FROM_VALUES[in.readByte()];
+        final String position = readString(in);
+        final long epochSecond = in.readLong();
+        final int nanos = in.readInt();
+        switch (startFrom) {
+            case HORIZON:
+                return ShardPosition.fromHorizon(shardName);
+            case POSITION:
+                return ShardPosition.fromPosition(shardName, position);
+            case AT_POSITION:
+                return ShardPosition.atPosition(shardName, position);
+            case TIMESTAMP:
+                return ShardPosition.fromTimestamp(shardName, Instant.ofEpochSecond(epochSecond, nanos));
+            default:
+                throw new IllegalStateException("Unsupported StartFrom " + startFrom);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
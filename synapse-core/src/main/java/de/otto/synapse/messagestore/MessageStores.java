@@ -21,7 +21,28 @@ public class MessageStores {
         return EMPTY_MESSAGE_STORE;
     }
 
-    private static final MessageStore EMPTY_MESSAGE_STORE = new MessageStore() {
+    /**
+     * Returns an empty MessageStore, positioned at the given channel position.
+     *
+     * <p>Used to continue consuming a channel from a {@link de.otto.synapse.eventsource.ChannelCheckpoints checkpoint},
+     * without replaying the messages of the channel.</p>
+     *
+     * @param latestChannelPosition the position returned by {@link MessageStore#getLatestChannelPosition(String)}
+     * @return empty MessageStore
+     */
+    public static MessageStore emptyMessageStore(final ChannelPosition latestChannelPosition) {
+        return new EmptyMessageStore(latestChannelPosition);
+    }
+
+    private static final MessageStore EMPTY_MESSAGE_STORE = new EmptyMessageStore(fromHorizon());
+
+    private static final class EmptyMessageStore implements MessageStore {
+
+        private final ChannelPosition latestChannelPosition;
+
+        private EmptyMessageStore(final ChannelPosition latestChannelPosition) {
+            this.latestChannelPosition = latestChannelPosition;
+        }
 
         @Override
         public Set<String> getChannelNames() {
@@ -35,12 +56,12 @@ public class MessageStores {
 
         @Override
         public ChannelPosition getLatestChannelPosition(String channelName) {
-            return ChannelPosition.fromHorizon();
+            return latestChannelPosition;
         }
 
         @Override
         public ChannelPosition getLatestChannelPosition() {
-            return fromHorizon();
+            return latestChannelPosition;
         }
 
         @Override
@@ -65,5 +86,5 @@ public class MessageStores {
             throw new UnsupportedOperationException();
         }
 
-    };
+    }
 }
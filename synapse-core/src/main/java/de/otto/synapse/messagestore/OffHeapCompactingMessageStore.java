@@ -0,0 +1,398 @@
+package de.otto.synapse.messagestore;
+
+import com.google.common.collect.ImmutableSet;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.message.Key;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Thread-safe implementation of a MessageStore that is compacting entries by the message's
+ * {@link Key#compactionKey()} and that is storing the compacted entries off the heap.
+ *
+ * <p><em>Features:</em></p>
+ * <ul>
+ *     <li>Thread-Safe</li>
+ *     <li>Entries are serialized into a {@code ChronicleMap}, so large channels can be compacted without
+ *     inflating the heap.</li>
+ *     <li>Supports a maximum capacity, with eviction of least-recently added messages</li>
+ *     <li>Supports instant compaction of messages.</li>
+ *     <li>No indexing of messages is supported.</li>
+ * </ul>
+ *
+ * <p>
+ *     {@link #stream()} is returning the messages in the order they were added to the store. Just like in a
+ *     compacted log, a message that is replacing an earlier message with the same compaction key is moved to the
+ *     position of the latest message.
+ * </p>
+ * <p>
+ *     Besides the off-heap maps, only a {@link BitSet} with one bit per position in the store is kept on the heap.
+ *     If the positions of the entries are getting sparse, for example because some entries are never updated while
+ *     others are updated over and over again, the entries are renumbered, so the size of the {@code BitSet} is
+ *     bounded by the number of entries in the store.
+ * </p>
+ */
+@ThreadSafe
+public class OffHeapCompactingMessageStore implements MessageStore {
+
+    private static final int DEFAULT_KEY_SIZE_BYTES = 128;
+    private static final int DEFAULT_VALUE_SIZE_BYTES = 1024;
+    private static final long DEFAULT_ENTRY_COUNT = 100_000;
+    private static final double MAX_BLOAT_FACTOR = 10.0;
+    /** Minimum distance between the first and the latest position before entries are renumbered. */
+    private static final long DEFAULT_RENUMBERING_THRESHOLD = 1 << 20;
+
+    private final long maxCapacity;
+    private final long renumberingThreshold;
+    private final boolean removeNullPayloadMessages;
+    private final ChannelPositions channelPositions = new ChannelPositions();
+    private final ChronicleMap<Long, byte[]> entries;
+    private final ChronicleMap<String, Long> internalKeyToIndexMapping;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Positions of the entries in the store, relative to {@link #firstIndex}. */
+    private BitSet positions = new BitSet();
+    private long firstIndex = 0;
+    /** Lower bound of the index of the oldest entry. The index of the oldest entry never decreases. */
+    private long oldestIndex = 0;
+    private long nextIndex = 0;
+    /** The current numbering of the entries, used by streams to detect that entries have been renumbered. */
+    private Numbering numbering = new Numbering();
+
+    /**
+     * Creates an OffHeapCompactingMessageStore without a maximum capacity.
+     *
+     * <p>The off-heap maps are sized for 100,000 entries and are able to grow up to ten times of this value.
+     * Use {@link #OffHeapCompactingMessageStore(boolean, long)} for larger channels.</p>
+     *
+     * @param removeNullPayloadMessages if true, messages with null payload are removing messages with the same
+     *                                  compaction key from the store
+     */
+    public OffHeapCompactingMessageStore(final boolean removeNullPayloadMessages) {
+        this(removeNullPayloadMessages, Long.MAX_VALUE, DEFAULT_ENTRY_COUNT, DEFAULT_VALUE_SIZE_BYTES);
+    }
+
+    /**
+     * Creates an OffHeapCompactingMessageStore that is sizing the off-heap maps from the maximum capacity.
+     *
+     * @param removeNullPayloadMessages if true, messages with null payload are removing messages with the same
+     *                                  compaction key from the store
+     * @param maxCapacity the maximum number of messages in the store
+     */
+    public OffHeapCompactingMessageStore(final boolean removeNullPayloadMessages,
+                                         final long maxCapacity) {
+        this(removeNullPayloadMessages, maxCapacity, expectedEntriesFor(maxCapacity), DEFAULT_VALUE_SIZE_BYTES);
+    }
+
+    /**
+     * @param removeNullPayloadMessages if true, messages with null payload are removing messages with the same
+     *                                  compaction key from the store
+     * @param maxCapacity the maximum number of messages in the store, or {@code Long.MAX_VALUE} if the capacity is
+     *                    only limited by the size of the off-heap maps
+     * @param expectedEntries the number of entries used to size the off-heap maps. The maps are able to grow up to
+     *                        ten times of this value.
+     * @param averageEntrySize the average size of the serialized entries in bytes
+     * @throws IllegalArgumentException if the off-heap maps are not able to grow up to {@code maxCapacity} entries
+     */
+    public OffHeapCompactingMessageStore(final boolean removeNullPayloadMessages,
+                                         final long maxCapacity,
+                                         final long expectedEntries,
+                                         final int averageEntrySize) {
+        this(removeNullPayloadMessages, maxCapacity, expectedEntries, averageEntrySize, DEFAULT_RENUMBERING_THRESHOLD);
+    }
+
+    OffHeapCompactingMessageStore(final boolean removeNullPayloadMessages,
+                                  final long maxCapacity,
+                                  final long expectedEntries,
+                                  final int averageEntrySize,
+                                  final long renumberingThreshold) {
+        if (maxCapacity != Long.MAX_VALUE && maxCapacity > expectedEntries * MAX_BLOAT_FACTOR) {
+            throw new IllegalArgumentException("maxCapacity=" + maxCapacity + " exceeds the maximum size of the off-heap maps, sized for expectedEntries=" + expectedEntries);
+        }
+        this.removeNullPayloadMessages = removeNullPayloadMessages;
+        this.maxCapacity = maxCapacity;
+        this.renumberingThreshold = renumberingThreshold;
+        this.entries = ChronicleMapBuilder.of(Long.class, byte[].class)
+                .averageValueSize(averageEntrySize)
+                .entries(expectedEntries)
+                .maxBloatFactor(MAX_BLOAT_FACTOR)
+                .create();
+        this.internalKeyToIndexMapping = ChronicleMapBuilder.of(String.class, Long.class)
+                .averageKeySize(DEFAULT_KEY_SIZE_BYTES)
+                .entries(expectedEntries)
+                .maxBloatFactor(MAX_BLOAT_FACTOR)
+                .create();
+    }
+
+    @Override
+    public void add(final MessageStoreEntry entry) {
+        lock.writeLock().lock();
+        try {
+            final String internalKey = entry.getChannelName() + ":" + entry.getTextMessage().getKey().compactionKey();
+            final Long previousIndex = internalKeyToIndexMapping.get(internalKey);
+            if (previousIndex != null) {
+                removeEntry(previousIndex);
+            }
+            if (entry.getTextMessage().getPayload() == null && removeNullPayloadMessages) {
+                internalKeyToIndexMapping.remove(internalKey);
+            } else {
+                final long index = nextIndex++;
+                entries.put(index, MessageStoreEntryCodec.encode(entry));
+                internalKeyToIndexMapping.put(internalKey, index);
+                positions.set(toPosition(index));
+                evictLeastRecentlyAddedEntries();
+            }
+            shrinkPositions();
+            renumberSparseEntries();
+            channelPositions.updateFrom(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getChannelNames() {
+        lock.readLock().lock();
+        try {
+            return channelPositions.getChannelNames();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ImmutableSet<Index> getIndexes() {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public ChannelPosition getLatestChannelPosition(final String channelName) {
+        lock.readLock().lock();
+        try {
+            return channelPositions.getLatestChannelPosition(channelName);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a stream of the messages in the order they were added to the store.
+     *
+     * <p>The stream is weakly consistent: it reflects some, but not necessarily all, of the changes made to the
+     * store after the stream was created.</p>
+     *
+     * @return stream of message-store entries
+     */
+    @Override
+    public Stream<MessageStoreEntry> stream() {
+        final Spliterator<MessageStoreEntry> spliterator = new Spliterators.AbstractSpliterator<MessageStoreEntry>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private long index = -1;
+            private Numbering numberingOfIndex;
+
+            @Override
+            public boolean tryAdvance(final Consumer<? super MessageStoreEntry> action) {
+                final byte[] bytes;
+                lock.readLock().lock();
+                try {
+                    bytes = nextEntry();
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (bytes != null) {
+                    action.accept(MessageStoreEntryCodec.decode(bytes));
+                    return true;
+                }
+                return false;
+            }
+
+            private byte[] nextEntry() {
+                if (numberingOfIndex == null) {
+                    numberingOfIndex = numbering;
+                }
+                while (numberingOfIndex.next != null) {
+                    index = numberingOfIndex.renumbered(index + 1) - 1;
+                    numberingOfIndex = numberingOfIndex.next;
+                }
+                index = Math.max(index + 1, firstIndex);
+                while (index < nextIndex) {
+                    final int position = positions.nextSetBit(toPosition(index));
+                    if (position < 0) {
+                        return null;
+                    }
+                    index = firstIndex + position;
+                    final byte[] bytes = entries.get(index);
+                    if (bytes != null) {
+                        return bytes;
+                    }
+                    ++index;
+                }
+                return null;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    @Override
+    public Stream<MessageStoreEntry> stream(Index index, String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            entries.close();
+            internalKeyToIndexMapping.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeEntry(final long index) {
+        entries.remove(index);
+        positions.clear(toPosition(index));
+    }
+
+    private void evictLeastRecentlyAddedEntries() {
+        while (entries.size() > maxCapacity) {
+            final long index = oldestIndex();
+            final MessageStoreEntry evicted = MessageStoreEntryCodec.decode(entries.get(index));
+            internalKeyToIndexMapping.remove(evicted.getChannelName() + ":" + evicted.getTextMessage().getKey().compactionKey());
+            removeEntry(index);
+        }
+    }
+
+    private long oldestIndex() {
+        final int position = positions.nextSetBit(toPosition(oldestIndex));
+        oldestIndex = position >= 0 ? firstIndex + position : nextIndex;
+        return oldestIndex;
+    }
+
+    /**
+     * Drops the leading positions of evicted or compacted entries, so the size of the {@code BitSet} is bounded
+     * by the distance between the oldest and the latest entry in the store.
+     */
+    private void shrinkPositions() {
+        final int firstPosition = toPosition(oldestIndex());
+        if (firstPosition > 0 && firstPosition >= positions.length() / 2) {
+            positions = positions.get(firstPosition, Math.max(firstPosition, positions.length()));
+            firstIndex += firstPosition;
+        }
+    }
+
+    /**
+     * Renumbers the entries if most of the positions between the oldest and the latest entry are unused.
+     * Entries are renumbered at most once per {@code size()} added entries.
+     */
+    private void renumberSparseEntries() {
+        final long span = nextIndex - firstIndex;
+        if (span >= renumberingThreshold && span > 2 * entries.size()) {
+            renumberEntries();
+        }
+    }
+
+    /**
+     * Moves all entries to consecutive indexes following the latest index, keeping the order of the entries.
+     */
+    void renumberEntries() {
+        lock.writeLock().lock();
+        try {
+            final long renumberedFirstIndex = nextIndex;
+            final BitSet renumberedPositions = new BitSet();
+            int renumberedPosition = 0;
+            for (int position = positions.nextSetBit(0); position >= 0; position = positions.nextSetBit(position + 1)) {
+                final byte[] bytes = entries.remove(firstIndex + position);
+                if (bytes != null) {
+                    final long renumberedIndex = renumberedFirstIndex + renumberedPosition;
+                    final MessageStoreEntry entry = MessageStoreEntryCodec.decode(bytes);
+                    entries.put(renumberedIndex, bytes);
+                    internalKeyToIndexMapping.put(entry.getChannelName() + ":" + entry.getTextMessage().getKey().compactionKey(), renumberedIndex);
+                    renumberedPositions.set(renumberedPosition++);
+                }
+            }
+            final Numbering renumbering = new Numbering();
+            numbering.renumberedTo(renumbering, positions, firstIndex, renumberedFirstIndex);
+            numbering = renumbering;
+            positions = renumberedPositions;
+            firstIndex = renumberedFirstIndex;
+            oldestIndex = renumberedFirstIndex;
+            nextIndex = renumberedFirstIndex + renumberedPosition;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of positions between the oldest and the latest entry
+     */
+    long span() {
+        lock.readLock().lock();
+        try {
+            return nextIndex - firstIndex;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int toPosition(final long index) {
+        return Math.toIntExact(index - firstIndex);
+    }
+
+    static long expectedEntriesFor(final long maxCapacity) {
+        if (maxCapacity == Long.MAX_VALUE) {
+            return DEFAULT_ENTRY_COUNT;
+        }
+        return Math.max(
+                Math.min(maxCapacity, DEFAULT_ENTRY_COUNT),
+                (long) Math.ceil(maxCapacity / MAX_BLOAT_FACTOR));
+    }
+
+    /**
+     * A numbering of the entries in the store. If the entries are renumbered, the numbering is linked to the next
+     * numbering, so streams are able to translate their current index.
+     *
+     * <p>Guarded by the lock of the store.</p>
+     */
+    private static final class Numbering {
+        private Numbering next;
+        private BitSet positions;
+        private long firstIndex;
+        private long renumberedFirstIndex;
+
+        private void renumberedTo(final Numbering next,
+                                  final BitSet positions,
+                                  final long firstIndex,
+                                  final long renumberedFirstIndex) {
+            this.next = next;
+            this.positions = positions;
+            this.firstIndex = firstIndex;
+            this.renumberedFirstIndex = renumberedFirstIndex;
+        }
+
+        /**
+         * Returns the index in the next numbering, that is following all entries located before the given index.
+         */
+        private long renumbered(final long index) {
+            final long position = Math.min(index - firstIndex, positions.length());
+            return position > 0
+                    ? renumberedFirstIndex + positions.get(0, (int) position).cardinality()
+                    : renumberedFirstIndex;
+        }
+    }
+}
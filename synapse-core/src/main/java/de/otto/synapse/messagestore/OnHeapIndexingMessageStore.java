@@ -9,8 +9,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static de.otto.synapse.messagestore.Indexers.noOpIndexer;
@@ -25,13 +24,18 @@ import static de.otto.synapse.messagestore.Indexers.noOpIndexer;
  *     <li>No support for compaction.</li>
  *     <li>Supports ndexing of messages.</li>
  * </ul>
+ *
+ * <p>
+ *     Messages are added without a global lock, so multiple threads (for example, the shards of a channel) are
+ *     able to add messages concurrently. Concurrently added messages of different threads may be visible in
+ *     {@link #stream()} before they are visible in {@link #stream(Index, String)}.
+ * </p>
  */
 @ThreadSafe
 public class OnHeapIndexingMessageStore implements MessageStore {
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Deque<MessageStoreEntry> entries = new ConcurrentLinkedDeque<>();
-    private final ConcurrentMap<String, Deque<MessageStoreEntry>> indexes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Index, ConcurrentMap<String, Deque<MessageStoreEntry>>> indexes = new ConcurrentHashMap<>();
     private final ChannelPositions channelPositions = new ChannelPositions();
     private final Indexer indexer;
 
@@ -45,31 +49,18 @@ public class OnHeapIndexingMessageStore implements MessageStore {
 
     @Override
     public void add(final MessageStoreEntry entry) {
-        lock.writeLock().lock();
-        try {
-            final MessageStoreEntry indexedEntry = indexer.index(entry);
-            entries.add(indexedEntry);
-            indexedEntry.getFilterValues().forEach((key, value) -> {
-                final String indexKey = indexKeyOf(key, value);
-                if (!indexes.containsKey(indexKey)) {
-                    indexes.put(indexKey, new ConcurrentLinkedDeque<>());
-                }
-                indexes.get(indexKey).addLast(indexedEntry);
-            });
-            channelPositions.updateFrom(indexedEntry);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        final MessageStoreEntry indexedEntry = indexer.index(entry);
+        entries.add(indexedEntry);
+        indexedEntry.getFilterValues().forEach((index, value) -> {
+            final ConcurrentMap<String, Deque<MessageStoreEntry>> valuesOfIndex = getOrCreate(indexes, index, i -> new ConcurrentHashMap<>());
+            getOrCreate(valuesOfIndex, value, v -> new ConcurrentLinkedDeque<>()).addLast(indexedEntry);
+        });
+        channelPositions.updateFrom(indexedEntry);
     }
 
     @Override
     public Set<String> getChannelNames() {
-        lock.readLock().lock();
-        try {
-            return channelPositions.getChannelNames();
-        } finally {
-          lock.readLock().unlock();
-        }
+        return channelPositions.getChannelNames();
     }
 
     @Override
@@ -79,32 +70,21 @@ public class OnHeapIndexingMessageStore implements MessageStore {
 
     @Override
     public ChannelPosition getLatestChannelPosition(final String channelName) {
-        lock.readLock().lock();
-        try {
-            return channelPositions.getLatestChannelPosition(channelName);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return channelPositions.getLatestChannelPosition(channelName);
     }
 
     @Override
     public Stream<MessageStoreEntry> stream() {
-        lock.readLock().lock();
-        try {
-            return entries.stream();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return entries.stream();
     }
 
     @Override
     public Stream<MessageStoreEntry> stream(Index index, String value) {
-        String indexKey = indexKeyOf(index, value);
-        if (indexes.containsKey(indexKey)) {
-            return indexes.get(indexKey).stream();
-        } else {
-            return Stream.empty();
-        }
+        final ConcurrentMap<String, Deque<MessageStoreEntry>> valuesOfIndex = indexes.get(index);
+        final Deque<MessageStoreEntry> indexedEntries = valuesOfIndex != null ? valuesOfIndex.get(value) : null;
+        return indexedEntries != null
+                ? indexedEntries.stream()
+                : Stream.empty();
     }
 
     @Override
@@ -112,7 +92,16 @@ public class OnHeapIndexingMessageStore implements MessageStore {
         return entries.size();
     }
 
-    private String indexKeyOf(Index index, String value) {
-        return index.getName() + "#" + value;
+    /**
+     * Other than {@link ConcurrentHashMap#computeIfAbsent(Object, Function)} in Java 8, this method is not
+     * locking if the key is already present.
+     */
+    private static <K, V> V getOrCreate(final ConcurrentMap<K, V> map,
+                                        final K key,
+                                        final Function<K, V> factory) {
+        final V existing = map.get(key);
+        return existing != null
+                ? existing
+                : map.computeIfAbsent(key, factory);
     }
 }
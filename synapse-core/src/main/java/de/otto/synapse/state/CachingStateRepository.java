@@ -0,0 +1,200 @@
+package de.otto.synapse.state;
+
+import com.google.common.util.concurrent.Striped;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link StateRepository} that is caching the entities of a delegate repository on the heap.
+ *
+ * <p>Intended to be used in front of repositories like {@link ChronicleMapStateRepository}, that need to deserialize
+ * the entities on every {@link #get(String)}. The cache is bounded and evicts least-recently used (LRU) entities.</p>
+ *
+ * <p><em>Features:</em></p>
+ * <ul>
+ *     <li>Thread-Safe</li>
+ *     <li>Supports a maximum number of cached entities, or a maximum weight of the cached entities</li>
+ *     <li>Cached entities are invalidated on {@link #put(String, Object)}, {@link #compute(String, BiFunction)},
+ *     {@link #remove(String)} etc.</li>
+ *     <li>Counts cache hits and misses</li>
+ * </ul>
+ *
+ * <p>The cached entities are shared by all callers of {@code get()}, so they must not be modified.</p>
+ *
+ * @param <V> The type of the event-sourced entities stored in the {@code StateRepository}
+ */
+@ThreadSafe
+public class CachingStateRepository<V> extends DelegatingStateRepository<V> {
+
+    private static final int NUMBER_OF_LOCK_STRIPES = 64;
+
+    private final ConcurrentMap<String, V> cache;
+    /** Used to serialize cache loads and modifications of the same key. */
+    private final Striped<Lock> locks = Striped.lock(NUMBER_OF_LOCK_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a CachingStateRepository that is caching up to {@code maximumSize} entities.
+     *
+     * @param delegate the repository used to store the entities
+     * @param maximumSize the maximum number of cached entities
+     */
+    public CachingStateRepository(final StateRepository<V> delegate,
+                                  final long maximumSize) {
+        this(delegate, maximumSize, value -> 1);
+    }
+
+    /**
+     * Creates a CachingStateRepository that is caching entities up to a maximum total weight, for example the
+     * approximate size of the entities in bytes.
+     *
+     * @param delegate the repository used to store the entities
+     * @param maximumWeight the maximum total weight of the cached entities
+     * @param weigher function used to calculate the weight of an entity
+     */
+    public CachingStateRepository(final StateRepository<V> delegate,
+                                  final long maximumWeight,
+                                  final ToIntFunction<? super V> weigher) {
+        super(delegate);
+        this.cache = new ConcurrentLinkedHashMap.Builder<String, V>()
+                .maximumWeightedCapacity(maximumWeight)
+                .weigher((Weigher<V>) value -> Math.max(1, weigher.applyAsInt(value)))
+                .build();
+    }
+
+    @Override
+    public Optional<V> get(final String key) {
+        final V cachedValue = cache.get(key);
+        if (cachedValue != null) {
+            hits.increment();
+            return Optional.of(cachedValue);
+        }
+        misses.increment();
+        return withLock(key, () -> {
+            final Optional<V> value = super.get(key);
+            value.ifPresent(v -> cache.put(key, v));
+            return value;
+        });
+    }
+
+    @Override
+    public Optional<V> put(final String key, final V value) {
+        return withLock(key, () -> {
+            try {
+                return super.put(key, value);
+            } finally {
+                cache.remove(key);
+            }
+        });
+    }
+
+    @Override
+    public void putAll(final Map<String, ? extends V> entries) {
+        final List<Lock> stripes = new ArrayList<>();
+        locks.bulkGet(entries.keySet()).forEach(stripes::add);
+        stripes.forEach(Lock::lock);
+        try {
+            super.putAll(entries);
+        } finally {
+            entries.keySet().forEach(cache::remove);
+            stripes.forEach(Lock::unlock);
+        }
+    }
+
+    @Override
+    public Optional<V> compute(final String key,
+                               final BiFunction<? super String, ? super Optional<V>, ? extends V> remappingFunction) {
+        return withLock(key, () -> {
+            try {
+                return super.compute(key, remappingFunction);
+            } finally {
+                cache.remove(key);
+            }
+        });
+    }
+
+    @Override
+    public Optional<V> remove(final String key) {
+        return withLock(key, () -> {
+            try {
+                return super.remove(key);
+            } finally {
+                cache.remove(key);
+            }
+        });
+    }
+
+    @Override
+    public void clear() {
+        withAllLocks(() -> {
+            try {
+                super.clear();
+            } finally {
+                cache.clear();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws Exception {
+        cache.clear();
+        super.close();
+    }
+
+    /**
+     * @return the number of {@link #get(String)} calls that were answered from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of {@link #get(String)} calls that needed to access the delegate repository
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of currently cached entities
+     */
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    private <T> T withLock(final String key, final Supplier<T> supplier) {
+        final Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void withAllLocks(final Runnable runnable) {
+        for (int i = 0; i < locks.size(); i++) {
+            locks.getAt(i).lock();
+        }
+        try {
+            runnable.run();
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.getAt(i).unlock();
+            }
+        }
+    }
+}
@@ -5,6 +5,9 @@ import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.core.util.ReadResolvable;
 import net.openhft.chronicle.hash.serialization.BytesReader;
 import net.openhft.chronicle.hash.serialization.BytesWriter;
+import net.openhft.chronicle.wire.Marshallable;
+import net.openhft.chronicle.wire.WireIn;
+import net.openhft.chronicle.wire.WireOut;
 
 import java.io.IOException;
 
@@ -13,26 +16,39 @@ import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
 public final class ChronicleMapBytesMarshaller<V> implements
         BytesWriter<V>,
         BytesReader<V>,
-        ReadResolvable<ChronicleMapBytesMarshaller> {
+        ReadResolvable<ChronicleMapBytesMarshaller>,
+        Marshallable {
 
-    private final ObjectMapper objectMapper;
-    private final Class<V> clazz;
+    /**
+     * The value codec of marshallers that are read from the header of a persisted ChronicleMap. Value codecs are
+     * not persisted, so the codec must be provided when a persisted map is opened.
+     */
+    private static final ThreadLocal<ValueCodec<?>> RECOVERED_VALUE_CODEC = new ThreadLocal<>();
+
+    private ValueCodec<V> valueCodec;
 
     public ChronicleMapBytesMarshaller(Class<V> clazz) {
-        this.objectMapper = currentObjectMapper();
-        this.clazz = clazz;
+        this(currentObjectMapper(), clazz);
     }
 
     public ChronicleMapBytesMarshaller(ObjectMapper objectMapper,
                                        Class<V> clazz) {
-        this.objectMapper = objectMapper;
-        this.clazz = clazz;
+        this(ValueCodecs.jackson(objectMapper, clazz));
+    }
+
+    /**
+     * Creates a marshaller that is using the given {@link ValueCodec} to serialize and deserialize values.
+     *
+     * @param valueCodec the codec of the values
+     */
+    public ChronicleMapBytesMarshaller(ValueCodec<V> valueCodec) {
+        this.valueCodec = valueCodec;
     }
 
     @Override
     public V read(Bytes in, V using) {
         try {
-            return objectMapper.readValue(in.inputStream(), clazz);
+            return valueCodec.read(in.inputStream());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -41,12 +57,49 @@ public final class ChronicleMapBytesMarshaller<V> implements
     @Override
     public void write(Bytes out, V toWrite) {
         try {
-            objectMapper.writeValue(out.writer(), toWrite);
+            valueCodec.write(out.outputStream(), toWrite);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public void writeMarshallable(final WireOut wire) {
+        /* the value codec is not persisted */
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void readMarshallable(final WireIn wire) {
+        valueCodec = (ValueCodec<V>) RECOVERED_VALUE_CODEC.get();
+        if (valueCodec == null) {
+            throw new IllegalStateException("No ValueCodec provided to read the values of a persisted ChronicleMap");
+        }
+    }
+
+    /**
+     * Opens a persisted ChronicleMap, using the given value codec to read and write the values of the map.
+     *
+     * @param valueCodec the value codec of the persisted map
+     * @param opener the function used to open the map
+     * @param <T> the type of the opened map
+     * @return the opened map
+     * @throws IOException if opening the map failed
+     */
+    static <T> T openPersisted(final ValueCodec<?> valueCodec, final PersistedMapOpener<T> opener) throws IOException {
+        RECOVERED_VALUE_CODEC.set(valueCodec);
+        try {
+            return opener.open();
+        } finally {
+            RECOVERED_VALUE_CODEC.remove();
+        }
+    }
+
+    @FunctionalInterface
+    interface PersistedMapOpener<T> {
+        T open() throws IOException;
+    }
+
     @Override
     public ChronicleMapBytesMarshaller readResolve() {
         return this;
@@ -1,15 +1,36 @@
 package de.otto.synapse.state;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.eventsource.ChannelCheckpoints;
 import net.openhft.chronicle.hash.ChronicleHashClosedException;
 import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.ChronicleMapBuilder;
+import net.openhft.chronicle.map.MapSegmentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.emptyMap;
 
 /**
  * A {@code StateRepository} that is using a {@code ChronicleMap} to store the event-sourced entities off the heap.
@@ -20,19 +41,73 @@ import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
  * <p>In order to be able to access the {@link #keySet()} of the stored entities, this implementation is storing
  * a copy of the keys in a separate {@link java.util.concurrent.ConcurrentSkipListSet}</p>
  *
+ * <p>If a {@link Builder#withPersistenceFile(File) persistence file} is configured, the entities are persisted to
+ * this file. When the repository is closed, the {@link #checkpoint(String, ChannelPosition) checkpointed} channel
+ * positions are written to a separate checkpoint file. After a restart, the persisted entities are only reused, if
+ * a checkpoint was found: the event sources are then able to continue consuming from the checkpointed
+ * {@link #getCheckpoint(String) channel positions}, without replaying the snapshots of the channels. Otherwise,
+ * for example after a crash, the persisted entities are discarded.</p>
+ *
  * @param <V> The type of the event-sourced entities stored in the {@code StateRepository}
  */
-public class ChronicleMapStateRepository<V> extends ConcurrentMapStateRepository<V> {
+public class ChronicleMapStateRepository<V> extends ConcurrentMapStateRepository<V> implements ChannelCheckpoints {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChronicleMapStateRepository.class);
 
     private static final int DEFAULT_KEY_SIZE_BYTES = 128;
     private static final double DEFAULT_VALUE_SIZE_BYTES = 512;
     private static final long DEFAULT_ENTRY_COUNT = 100_000;
+    private static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+
+    private final ChronicleMap<String, V> chronicleMap;
+    private final File persistenceFile;
+    private final Map<String, ChannelPosition> recoveredCheckpoints;
+    private final ConcurrentMap<String, ChannelPosition> checkpoints = new ConcurrentHashMap<>();
 
     private ChronicleMapStateRepository(final String name,
-                                        final ChronicleMap<String, V> chronicleMap) {
-        super(name, chronicleMap);
+                                        final ChronicleMap<String, V> chronicleMap,
+                                        final List<StateIndexer<V>> indexers,
+                                        final File persistenceFile,
+                                        final Map<String, ChannelPosition> recoveredCheckpoints) {
+        super(name, chronicleMap, indexers);
+        this.chronicleMap = chronicleMap;
+        this.persistenceFile = persistenceFile;
+        this.recoveredCheckpoints = recoveredCheckpoints;
+    }
+
+    /**
+     * Returns the position of the channel, up to which the messages of the channel are contained in the entities
+     * recovered from the persistence file.
+     *
+     * @param channelName the name of the channel
+     * @return checkpointed position, or {@code Optional.empty()} if the repository is not persisted, or if the
+     *         entities were not recovered from a previous run.
+     */
+    @Override
+    public Optional<ChannelPosition> getCheckpoint(final @Nonnull String channelName) {
+        return Optional.ofNullable(recoveredCheckpoints.get(channelName));
+    }
+
+    /**
+     * Checkpoints the position of a channel. The checkpoints are written, when the repository is closed.
+     * Checkpoints of repositories without persistence file are ignored.
+     *
+     * @param channelName the name of the channel
+     * @param channelPosition the position of the last consumed messages
+     */
+    @Override
+    public void checkpoint(final @Nonnull String channelName, final @Nonnull ChannelPosition channelPosition) {
+        if (persistenceFile != null) {
+            checkpoints.put(channelName, channelPosition);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        if (persistenceFile != null && !checkpoints.isEmpty()) {
+            writeCheckpoints(checkpointFileOf(persistenceFile), new HashMap<>(checkpoints));
+        }
     }
 
     @Override
@@ -45,6 +120,15 @@ public class ChronicleMapStateRepository<V> extends ConcurrentMapStateRepository
         }
     }
 
+    @Override
+    public void putAll(final Map<String, ? extends V> entries) {
+        try {
+            super.putAll(entries);
+        } catch (ChronicleHashClosedException e) {
+            LOG.warn("could not putAll on closed state repository", e);
+        }
+    }
+
     @Override
     public Optional<V> get(final String key) {
         try {
@@ -55,6 +139,70 @@ public class ChronicleMapStateRepository<V> extends ConcurrentMapStateRepository
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The keys are iterated segment by segment of the ChronicleMap, without deserializing the entities. The
+     * cursor is the index of the segment, followed by the number of keys of the segment that are already
+     * returned: {@code <segmentIndex>:<position>}. Only the keys of the current segment need to be skipped
+     * to continue the iteration.</p>
+     *
+     * <p>The position is not a stable reference to a key: if keys of the current segment are added or removed
+     * between two pages, the entries of the segment may be shifted, so keys of that segment may be skipped or
+     * returned twice. Keys of other segments are not affected.</p>
+     */
+    @Override
+    public KeyPage keyPage(final String cursor, final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be greater than zero");
+        }
+        int segmentIndex = 0;
+        long position = 0;
+        if (cursor != null) {
+            final int separator = cursor.indexOf(':');
+            try {
+                segmentIndex = Integer.parseInt(cursor.substring(0, separator));
+                position = Long.parseLong(cursor.substring(separator + 1));
+            } catch (final NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor " + cursor);
+            }
+        }
+        final List<String> keys = new ArrayList<>(pageSize);
+        try {
+            final int segments = chronicleMap.segments();
+            if (segmentIndex < 0 || segmentIndex >= segments || position < 0) {
+                throw new IllegalArgumentException("Invalid cursor " + cursor);
+            }
+            while (segmentIndex < segments) {
+                final long skipped = position;
+                final long[] current = {0};
+                final long segmentSize;
+                try (final MapSegmentContext<String, V, ?> segmentContext = chronicleMap.segmentContext(segmentIndex)) {
+                    segmentSize = segmentContext.size();
+                    segmentContext.forEachSegmentEntryWhile(entry -> {
+                        if (current[0]++ >= skipped) {
+                            keys.add(entry.key().get());
+                        }
+                        return keys.size() < pageSize;
+                    });
+                }
+                if (current[0] < segmentSize) {
+                    position = current[0];
+                } else {
+                    ++segmentIndex;
+                    position = 0;
+                }
+                if (keys.size() == pageSize) {
+                    break;
+                }
+            }
+            return KeyPage.keyPage(keys, segmentIndex < segments ? segmentIndex + ":" + position : null);
+        } catch (final ChronicleHashClosedException e) {
+            LOG.warn("could not get keys on closed state repository", e);
+            return KeyPage.keyPage(keys, null);
+        }
+    }
+
     @Override
     public long size() {
         try {
@@ -76,6 +224,9 @@ public class ChronicleMapStateRepository<V> extends ConcurrentMapStateRepository
         private String name;
         private ChronicleMapBuilder<String, V> chronicleMapBuilder;
         private boolean customValueMarshaller = false;
+        private ValueCodec<V> valueCodec;
+        private File persistenceFile;
+        private final List<StateIndexer<V>> indexers = new ArrayList<>();
 
 
         private Builder(Class<V> clazz) {
@@ -103,6 +254,45 @@ public class ChronicleMapStateRepository<V> extends ConcurrentMapStateRepository
             return this;
         }
 
+        /**
+         * Sets the {@link ValueCodec} used to serialize the entities stored in the ChronicleMap. By default,
+         * entities are stored as JSON text using the configured ObjectMapper.
+         *
+         * @param val the value codec, for example {@link ValueCodecs#smile(Class)}
+         * @return this
+         */
+        public Builder<V> withValueCodec(final ValueCodec<V> val) {
+            this.valueCodec = val;
+            return this;
+        }
+
+        /**
+         * Persists the entities of the repository to the given file, so they can be recovered after a restart.
+         *
+         * <p>The entities are only recovered, if the repository was closed properly and the checkpoints of the
+         * channels were written. The {@link ValueCodec} of the entities must not be changed between two runs.</p>
+         *
+         * @param val the file used to persist the ChronicleMap
+         * @return this
+         */
+        public Builder<V> withPersistenceFile(final File val) {
+            this.persistenceFile = val;
+            return this;
+        }
+
+        /**
+         * Adds a secondary index of the entities, that can be queried using
+         * {@link ChronicleMapStateRepository#findBy(de.otto.synapse.messagestore.Index, String)}. The indexes
+         * are maintained on the heap.
+         *
+         * @param val the indexer used to calculate the indexed values of the entities
+         * @return this
+         */
+        public Builder<V> withIndexer(final StateIndexer<V> val) {
+            this.indexers.add(val);
+            return this;
+        }
+
         public ChronicleMapStateRepository<V> build() {
 
             if (chronicleMapBuilder == null) {
@@ -113,11 +303,91 @@ public class ChronicleMapStateRepository<V> extends ConcurrentMapStateRepository
             }
 
             boolean doesClassNeedToBeSerialized = clazz != String.class;
-            if (!customValueMarshaller && doesClassNeedToBeSerialized) {
-                chronicleMapBuilder.valueMarshaller(new ChronicleMapBytesMarshaller<>(objectMapper, clazz));
+            ValueCodec<V> codec = null;
+            if (valueCodec != null) {
+                codec = valueCodec;
+            } else if (!customValueMarshaller && doesClassNeedToBeSerialized) {
+                codec = ValueCodecs.jackson(objectMapper, clazz);
+            }
+            if (codec != null) {
+                chronicleMapBuilder.valueMarshaller(new ChronicleMapBytesMarshaller<>(codec));
+            }
+
+            if (persistenceFile != null) {
+                return buildPersisted(codec);
+            }
+            return new ChronicleMapStateRepository<>(name, chronicleMapBuilder.create(), indexers, null, emptyMap());
+        }
+
+        private ChronicleMapStateRepository<V> buildPersisted(final ValueCodec<V> codec) {
+            final File checkpointFile = checkpointFileOf(persistenceFile);
+            // The checkpoint is only valid until the persisted map is modified again:
+            Map<String, ChannelPosition> recoveredCheckpoints = readCheckpoints(checkpointFile);
+            deleteIfExists(checkpointFile);
+            if (recoveredCheckpoints.isEmpty()) {
+                deleteIfExists(persistenceFile);
+            }
+            ChronicleMap<String, V> chronicleMap;
+            try {
+                chronicleMap = openPersisted(codec);
+            } catch (final IOException | RuntimeException e) {
+                if (recoveredCheckpoints.isEmpty()) {
+                    throw new IllegalStateException("Unable to create persisted ChronicleMap " + persistenceFile + ": " + e.getMessage(), e);
+                }
+                LOG.warn("Unable to recover persisted ChronicleMap {}: {}. Discarding persisted entities.", persistenceFile, e.getMessage());
+                recoveredCheckpoints = emptyMap();
+                deleteIfExists(persistenceFile);
+                try {
+                    chronicleMap = openPersisted(codec);
+                } catch (final IOException e2) {
+                    throw new IllegalStateException("Unable to create persisted ChronicleMap " + persistenceFile + ": " + e2.getMessage(), e2);
+                }
             }
+            if (!recoveredCheckpoints.isEmpty()) {
+                LOG.info("Recovered {} entities of StateRepository '{}' at checkpoints {}", chronicleMap.size(), name, recoveredCheckpoints);
+            }
+            return new ChronicleMapStateRepository<>(name, chronicleMap, indexers, persistenceFile, recoveredCheckpoints);
+        }
+
+        private ChronicleMap<String, V> openPersisted(final ValueCodec<V> codec) throws IOException {
+            return ChronicleMapBytesMarshaller.openPersisted(codec, () -> chronicleMapBuilder.createPersistedTo(persistenceFile));
+        }
+    }
+
+    private static File checkpointFileOf(final File persistenceFile) {
+        return new File(persistenceFile.getPath() + CHECKPOINT_FILE_SUFFIX);
+    }
 
-            return new ChronicleMapStateRepository<>(name, chronicleMapBuilder.create());
+    @SuppressWarnings("unchecked")
+    private static Map<String, ChannelPosition> readCheckpoints(final File checkpointFile) {
+        if (!checkpointFile.exists()) {
+            return emptyMap();
+        }
+        try (final InputStream in = Files.newInputStream(checkpointFile.toPath());
+             final ObjectInputStream objectIn = new ObjectInputStream(in)) {
+            return (Map<String, ChannelPosition>) objectIn.readObject();
+        } catch (final IOException | ClassNotFoundException | ClassCastException e) {
+            LOG.warn("Unable to read checkpoints from {}: {}", checkpointFile, e.getMessage());
+            return emptyMap();
+        }
+    }
+
+    private static void writeCheckpoints(final File checkpointFile,
+                                         final HashMap<String, ChannelPosition> checkpoints) throws IOException {
+        final Path tempFile = new File(checkpointFile.getPath() + ".tmp").toPath();
+        try (final OutputStream out = Files.newOutputStream(tempFile);
+             final ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(checkpoints);
+        }
+        Files.move(tempFile, checkpointFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        LOG.info("Wrote checkpoints {} to {}", checkpoints, checkpointFile);
+    }
+
+    private static void deleteIfExists(final File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to delete " + file + ": " + e.getMessage(), e);
         }
     }
 }
@@ -1,17 +1,25 @@
 package de.otto.synapse.state;
 
+import com.google.common.collect.ImmutableSet;
+import de.otto.synapse.messagestore.Index;
 import org.slf4j.Logger;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.unmodifiableSet;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toList;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class ConcurrentMapStateRepository<V> implements StateRepository<V> {
@@ -20,11 +28,15 @@ public class ConcurrentMapStateRepository<V> implements StateRepository<V> {
 
     private final String name;
     private final ConcurrentMap<String, V> concurrentMap;
+    private final StateIndexes<V> indexes;
 
     /**
      * Creates a StateRepository with the given name, that is using a {@code ConcurrentHashMap} to store
      * event-sourced entities.
      *
+     * <p>The keys of the repository are not ordered, so {@link #keyPage(String, int) paging} through the keys
+     * needs to skip the keys of all previous pages.</p>
+     *
      * @param name the {@link #getName() name}  of the repository.
      */
     public ConcurrentMapStateRepository(final String name) {
@@ -43,8 +55,29 @@ public class ConcurrentMapStateRepository<V> implements StateRepository<V> {
      */
     public ConcurrentMapStateRepository(final String name,
                                         final ConcurrentMap<String, V> map) {
+        this(name, map, emptyList());
+    }
+
+    /**
+     * Creates a StateRepository with the given name, that is using the given {@code ConcurrentMap} to store
+     * event-sourced entities, and that is maintaining secondary indexes of the entities.
+     *
+     * <p>The indexes are updated atomically with the modified entities. Entities already contained in the
+     * map are indexed on creation of the repository.</p>
+     *
+     * @param name the {@link #getName() name}  of the repository.
+     * @param map the delegate map used to store the entity state
+     * @param indexers the indexers used to calculate the {@link #findBy(Index, String) secondary indexes}
+     */
+    public ConcurrentMapStateRepository(final String name,
+                                        final ConcurrentMap<String, V> map,
+                                        final List<StateIndexer<V>> indexers) {
         this.name = requireNonNull(name, "Parameter 'name' must not be null");
         this.concurrentMap = requireNonNull(map, "Parameter 'map' must not be null");
+        this.indexes = new StateIndexes<>(requireNonNull(indexers, "Parameter 'indexers' must not be null"));
+        if (!indexes.isEmpty()) {
+            concurrentMap.forEach((key, value) -> indexes.update(key, null, value));
+        }
     }
 
     @Override
@@ -52,9 +85,26 @@ public class ConcurrentMapStateRepository<V> implements StateRepository<V> {
         return name;
     }
 
+    @Override
+    public ImmutableSet<Index> getIndexes() {
+        return indexes.getIndexes();
+    }
+
+    @Override
+    public Set<String> findKeys(final Index index, final String value) {
+        return indexes.findKeys(index, value);
+    }
+
     @Override
     public Optional<V> compute(final String key, final BiFunction<? super String, ? super Optional<V>, ? extends V> remappingFunction) {
-        return ofNullable(concurrentMap.compute(key, (k, v) -> remappingFunction.apply(k, ofNullable(v))));
+        if (indexes.isEmpty()) {
+            return ofNullable(concurrentMap.compute(key, (k, v) -> remappingFunction.apply(k, ofNullable(v))));
+        }
+        return ofNullable(concurrentMap.compute(key, (k, v) -> {
+            final V newValue = remappingFunction.apply(k, ofNullable(v));
+            indexes.update(k, v, newValue);
+            return newValue;
+        }));
     }
 
     @Override
@@ -64,17 +114,58 @@ public class ConcurrentMapStateRepository<V> implements StateRepository<V> {
 
     @Override
     public Optional<V> put(final String key, final V value) {
-        return ofNullable(concurrentMap.put(key, value));
+        if (indexes.isEmpty()) {
+            return ofNullable(concurrentMap.put(key, value));
+        }
+        requireNonNull(value);
+        return update(key, value);
+    }
+
+    @Override
+    public void putAll(final Map<String, ? extends V> entries) {
+        if (indexes.isEmpty()) {
+            concurrentMap.putAll(entries);
+        } else {
+            entries.forEach(this::put);
+        }
     }
 
     @Override
     public Optional<V> remove(final String key) {
-        return ofNullable(concurrentMap.remove(key));
+        if (indexes.isEmpty()) {
+            return ofNullable(concurrentMap.remove(key));
+        }
+        return update(key, null);
     }
 
+    /**
+     * Atomically replaces or removes the entity of a key, and updates the indexes.
+     */
+    private Optional<V> update(final String key, final V value) {
+        final AtomicReference<V> previousValue = new AtomicReference<>();
+        concurrentMap.compute(key, (k, v) -> {
+            previousValue.set(v);
+            indexes.update(k, v, value);
+            return value;
+        });
+        return ofNullable(previousValue.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Like {@link ConcurrentMap#clear()}, clearing the repository is not atomic: entities that are modified
+     * concurrently may or may not be contained in the repository after this call returns. If the repository is
+     * indexed, the entities are removed one by one, so the indexes are consistent with the entities that are
+     * still contained in the repository.</p>
+     */
     @Override
     public void clear() {
-        concurrentMap.clear();
+        if (indexes.isEmpty()) {
+            concurrentMap.clear();
+        } else {
+            concurrentMap.keySet().forEach(this::remove);
+        }
     }
 
     @Override
@@ -87,6 +178,36 @@ public class ConcurrentMapStateRepository<V> implements StateRepository<V> {
         return unmodifiableSet(concurrentMap.keySet());
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If the repository is using a {@link ConcurrentNavigableMap}, the keys are returned in ascending order,
+     * and the cursor is the last key of the previous page, so every page is retrieved in {@code O(log n + pageSize)}.</p>
+     *
+     * <p>Other maps, like the {@code ConcurrentHashMap} used by {@link #ConcurrentMapStateRepository(String)},
+     * have no stable position to continue from. The cursor is the offset of the page, and the keys of all
+     * previous pages are skipped, so iterating over all keys is quadratic in the number of keys. Repositories
+     * that are paged through should be created using a {@code ConcurrentSkipListMap} instead.</p>
+     */
+    @Override
+    public KeyPage keyPage(final String cursor, final int pageSize) {
+        if (!(concurrentMap instanceof ConcurrentNavigableMap)) {
+            return StateRepository.super.keyPage(cursor, pageSize);
+        }
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be greater than zero");
+        }
+        final ConcurrentNavigableMap<String, V> navigableMap = (ConcurrentNavigableMap<String, V>) concurrentMap;
+        final List<String> keys = (cursor != null ? navigableMap.tailMap(cursor, false) : navigableMap)
+                .keySet()
+                .stream()
+                .limit(pageSize + 1L)
+                .collect(toList());
+        return keys.size() > pageSize
+                ? KeyPage.keyPage(keys.subList(0, pageSize), keys.get(pageSize - 1))
+                : KeyPage.keyPage(keys, null);
+    }
+
     @Override
     public long size() {
         return concurrentMap.size();
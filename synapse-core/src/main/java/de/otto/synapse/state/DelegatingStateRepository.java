@@ -1,5 +1,9 @@
 package de.otto.synapse.state;
 
+import com.google.common.collect.ImmutableSet;
+import de.otto.synapse.messagestore.Index;
+
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.BiConsumer;
@@ -18,6 +22,16 @@ public class DelegatingStateRepository<V> implements StateRepository<V> {
         return delegate.getName();
     }
 
+    @Override
+    public ImmutableSet<Index> getIndexes() {
+        return delegate.getIndexes();
+    }
+
+    @Override
+    public Set<String> findKeys(Index index, String value) {
+        return delegate.findKeys(index, value);
+    }
+
     @Override
     public Optional<V> compute(String key, BiFunction<? super String, ? super Optional<V>, ? extends V> remappingFunction) {
         return delegate.compute(key, remappingFunction);
@@ -33,6 +47,11 @@ public class DelegatingStateRepository<V> implements StateRepository<V> {
         return delegate.put(key,value);
     }
 
+    @Override
+    public void putAll(Map<String, ? extends V> entries) {
+        delegate.putAll(entries);
+    }
+
     @Override
     public Optional<V> remove(String key) {
         return delegate.remove(key);
@@ -53,6 +72,11 @@ public class DelegatingStateRepository<V> implements StateRepository<V> {
         return delegate.keySet();
     }
 
+    @Override
+    public KeyPage keyPage(String cursor, int pageSize) {
+        return delegate.keyPage(cursor, pageSize);
+    }
+
     @Override
     public long size() {
         return delegate.size();
@@ -0,0 +1,79 @@
+package de.otto.synapse.state;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A page of keys of a {@link StateRepository}, returned by {@link StateRepository#keyPage(String, int)}.
+ *
+ * <p>The {@link #getNextCursor() next cursor} is used to continue the iteration with the next page. The format
+ * of the cursor depends on the implementation of the {@code StateRepository} and must be treated as opaque.</p>
+ */
+public final class KeyPage {
+
+    private final ImmutableList<String> keys;
+    private final String nextCursor;
+
+    private KeyPage(final @Nonnull List<String> keys,
+                    final @Nullable String nextCursor) {
+        this.keys = ImmutableList.copyOf(requireNonNull(keys));
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Creates a page of keys.
+     *
+     * @param keys the keys of the page
+     * @param nextCursor the cursor of the next page, or null if this is the last page
+     * @return KeyPage
+     */
+    public static KeyPage keyPage(final @Nonnull List<String> keys,
+                                  final @Nullable String nextCursor) {
+        return new KeyPage(keys, nextCursor);
+    }
+
+    /**
+     * @return immutable list of the keys contained in the page
+     */
+    @Nonnull
+    public ImmutableList<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the cursor used to retrieve the next page, or {@code Optional.empty()} if this is the last page
+     */
+    @Nonnull
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        KeyPage keyPage = (KeyPage) o;
+        return Objects.equals(keys, keyPage.keys) &&
+                Objects.equals(nextCursor, keyPage.nextCursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(keys, nextCursor);
+    }
+
+    @Override
+    public String toString() {
+        return "KeyPage{" +
+                "keys=" + keys +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,94 @@
+package de.otto.synapse.state;
+
+import com.google.common.annotations.Beta;
+import com.google.common.collect.ImmutableSet;
+import de.otto.synapse.messagestore.Index;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Calculates the values of a secondary {@link Index} of the entities stored in a {@link StateRepository}.
+ *
+ * <p>Entities can later be retrieved by exact match of the indexed values using
+ * {@link StateRepository#findBy(Index, String)}. For example, all products of some brand:</p>
+ *
+ * <pre>{@code
+ * ChronicleMapStateRepository.builder(Product.class)
+ *         .withIndexer(StateIndexer.indexer(Index.valueOf("brand"), Product::getBrand))
+ *         .build();
+ * }</pre>
+ *
+ * @param <V> The type of the event-sourced entities stored in the {@code StateRepository}
+ */
+@Beta
+public final class StateIndexer<V> {
+
+    private final Index index;
+    private final Function<? super V, ? extends Collection<String>> calculator;
+
+    private StateIndexer(final @Nonnull Index index,
+                         final @Nonnull Function<? super V, ? extends Collection<String>> calculator) {
+        this.index = requireNonNull(index);
+        this.calculator = requireNonNull(calculator);
+    }
+
+    /**
+     * Creates a {@code StateIndexer} that is calculating a single value per entity. Entities with a {@code null}
+     * value are not indexed.
+     *
+     * @param index the {@code Index} that is calculated by the {@code calculator} function
+     * @param calculator the function that is used to calculate the value for the index
+     * @param <V> The type of the indexed entities
+     * @return StateIndexer
+     */
+    public static <V> StateIndexer<V> indexer(final @Nonnull Index index,
+                                              final @Nonnull Function<? super V, String> calculator) {
+        requireNonNull(calculator);
+        return new StateIndexer<>(index, entity -> {
+            final String value = calculator.apply(entity);
+            return value != null ? ImmutableSet.of(value) : ImmutableSet.of();
+        });
+    }
+
+    /**
+     * Creates a {@code StateIndexer} that is calculating multiple values per entity, for example all
+     * categories of some product.
+     *
+     * @param index the {@code Index} that is calculated by the {@code calculator} function
+     * @param calculator the function that is used to calculate the values for the index
+     * @param <V> The type of the indexed entities
+     * @return StateIndexer
+     */
+    public static <V> StateIndexer<V> multiValueIndexer(final @Nonnull Index index,
+                                                        final @Nonnull Function<? super V, ? extends Collection<String>> calculator) {
+        return new StateIndexer<>(index, calculator);
+    }
+
+    /**
+     * @return the Index calculated by this indexer
+     */
+    @Nonnull
+    public Index getIndex() {
+        return index;
+    }
+
+    /**
+     * Calculates the indexed values of an entity.
+     *
+     * @param entity the entity, or null
+     * @return indexed values, or an empty set if the entity is null
+     */
+    @Nonnull
+    public Set<String> calc(final V entity) {
+        if (entity == null) {
+            return ImmutableSet.of();
+        }
+        final Collection<String> values = calculator.apply(entity);
+        return values != null ? ImmutableSet.copyOf(values) : ImmutableSet.of();
+    }
+}
@@ -0,0 +1,88 @@
+package de.otto.synapse.state;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import de.otto.synapse.messagestore.Index;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The secondary indexes of a {@link ConcurrentMapStateRepository}, mapping the indexed values to the keys of the
+ * entities.
+ *
+ * <p>Updates of the same key must be serialized by the caller.</p>
+ */
+@ThreadSafe
+final class StateIndexes<V> {
+
+    private final List<StateIndexer<V>> indexers;
+    private final Map<Index, ConcurrentMap<String, Set<String>>> indexes = new HashMap<>();
+
+    StateIndexes(final List<StateIndexer<V>> indexers) {
+        this.indexers = ImmutableList.copyOf(indexers);
+        this.indexers.forEach(indexer -> {
+            if (indexes.put(indexer.getIndex(), new ConcurrentHashMap<>()) != null) {
+                throw new IllegalArgumentException("Duplicate index " + indexer.getIndex().getName());
+            }
+        });
+    }
+
+    boolean isEmpty() {
+        return indexers.isEmpty();
+    }
+
+    ImmutableSet<Index> getIndexes() {
+        return ImmutableSet.copyOf(indexes.keySet());
+    }
+
+    /**
+     * Updates the indexes after the entity of a key was modified.
+     *
+     * @param key the key of the entity
+     * @param previousValue the previous entity, or null if the entity was created
+     * @param newValue the new entity, or null if the entity was removed
+     */
+    void update(final String key, final V previousValue, final V newValue) {
+        for (final StateIndexer<V> indexer : indexers) {
+            final ConcurrentMap<String, Set<String>> index = indexes.get(indexer.getIndex());
+            final Set<String> previousIndexValues = indexer.calc(previousValue);
+            final Set<String> newIndexValues = indexer.calc(newValue);
+            previousIndexValues.stream()
+                    .filter(indexValue -> !newIndexValues.contains(indexValue))
+                    .forEach(indexValue -> index.computeIfPresent(indexValue, (v, keys) -> {
+                        keys.remove(key);
+                        return keys.isEmpty() ? null : keys;
+                    }));
+            newIndexValues.stream()
+                    .filter(indexValue -> !previousIndexValues.contains(indexValue))
+                    .forEach(indexValue -> index.compute(indexValue, (v, keys) -> {
+                        final Set<String> result = keys != null ? keys : ConcurrentHashMap.newKeySet();
+                        result.add(key);
+                        return result;
+                    }));
+        }
+    }
+
+    /**
+     * Returns the keys of all entities having the given value of the index.
+     *
+     * @param index the Index
+     * @param value the indexed value
+     * @return immutable set of keys
+     * @throws IllegalArgumentException if the index is not supported
+     */
+    Set<String> findKeys(final Index index, final String value) {
+        final ConcurrentMap<String, Set<String>> valuesOfIndex = indexes.get(index);
+        if (valuesOfIndex == null) {
+            throw new IllegalArgumentException("Unknown index " + index.getName());
+        }
+        final Set<String> keys = valuesOfIndex.get(value);
+        return keys != null ? ImmutableSet.copyOf(keys) : ImmutableSet.of();
+    }
+}
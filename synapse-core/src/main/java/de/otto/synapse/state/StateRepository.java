@@ -3,12 +3,16 @@ package de.otto.synapse.state;
 import com.google.common.collect.ImmutableSet;
 import de.otto.synapse.messagestore.Index;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.stream.Stream;
 
+import static java.util.stream.Collectors.toList;
+
 /**
  * A {@code StateRepository} is used to store the aggregated state of event-sourced entities.
  *
@@ -34,6 +38,35 @@ public interface StateRepository<V> extends AutoCloseable {
         return ImmutableSet.of();
     }
 
+    /**
+     * Returns the keys of all entities having the given value of a secondary {@link Index}.
+     *
+     * @param index one of the {@link #getIndexes() indexes} of this repository
+     * @param value the indexed value
+     * @return immutable set of keys
+     * @throws IllegalArgumentException if the index is not supported by this repository
+     */
+    default Set<String> findKeys(final Index index, final String value) {
+        throw new IllegalArgumentException("Unknown index " + index.getName());
+    }
+
+    /**
+     * Returns all entities having the given value of a secondary {@link Index}, for example all products of
+     * some brand.
+     *
+     * @param index one of the {@link #getIndexes() indexes} of this repository
+     * @param value the indexed value
+     * @return stream of entities
+     * @throws IllegalArgumentException if the index is not supported by this repository
+     */
+    default Stream<V> findBy(final Index index, final String value) {
+        return findKeys(index, value)
+                .stream()
+                .map(this::get)
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
     /**
      * Returns an immutable set of the keys in this repository.
      *
@@ -41,6 +74,46 @@ public interface StateRepository<V> extends AutoCloseable {
      */
     Set<String> keySet();
 
+    /**
+     * Returns a page of keys of this repository. Iterating over all keys is done by passing the
+     * {@link KeyPage#getNextCursor() next cursor} of a page to the next call of {@code keyPage}, until the
+     * last page is returned.
+     *
+     * <p>The iteration is weakly consistent: keys that are added or removed during the iteration may or may not
+     * be returned.</p>
+     *
+     * <p>The default implementation is skipping the keys of all previous pages of the {@link #keySet()}.
+     * Implementations should override this method, if they are able to continue iterating from a cursor
+     * more efficiently.</p>
+     *
+     * @param cursor the next cursor of the previous page, or null to retrieve the first page
+     * @param pageSize the maximum number of keys of the page
+     * @return page of keys
+     * @throws IllegalArgumentException if the cursor is invalid, or if pageSize is less than one
+     */
+    default KeyPage keyPage(final String cursor, final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be greater than zero");
+        }
+        final long offset;
+        try {
+            offset = cursor != null ? Long.parseLong(cursor) : 0;
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        final List<String> keys = keySet()
+                .stream()
+                .skip(offset)
+                .limit(pageSize + 1L)
+                .collect(toList());
+        return keys.size() > pageSize
+                ? KeyPage.keyPage(keys.subList(0, pageSize), String.valueOf(offset + pageSize))
+                : KeyPage.keyPage(keys, null);
+    }
+
     /**
      * Returns the optional value to which the specified key is mapped,
      * or {@code Optional.empty()} if this repository contains no mapping for the key.
@@ -84,6 +157,20 @@ public interface StateRepository<V> extends AutoCloseable {
      */
     Optional<V> put(String key, V value);
 
+    /**
+     * Copies all of the mappings from the specified map to this repository. The effect of this call is
+     * equivalent to that of calling {@link #put(String, Object) put(k, v)} for every mapping of the map.
+     *
+     * <p>Used to bulk-load entities, for example when a snapshot is restored. Implementations may store the
+     * entities more efficiently than a sequence of single {@code put} operations.</p>
+     *
+     * @param entries mappings to be stored in this repository
+     * @throws NullPointerException if the specified map is null, or if it contains null keys or values
+     */
+    default void putAll(Map<String, ? extends V> entries) {
+        entries.forEach(this::put);
+    }
+
     /**
      * Attempts to compute a mapping for the specified key and its current
      * mapped value (or {@code null} if there is no current mapping). For
@@ -0,0 +1,36 @@
+package de.otto.synapse.state;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec used to serialize and deserialize the entities of {@link StateRepository StateRepositories} that are
+ * storing their entities as bytes, like the {@link ChronicleMapStateRepository}.
+ *
+ * <p>Implementations for JSON, Smile and CBOR are provided by {@link ValueCodecs}.</p>
+ *
+ * @param <V> The type of the entities
+ */
+@ThreadSafe
+public interface ValueCodec<V> {
+
+    /**
+     * Serializes the value to the output stream.
+     *
+     * @param outputStream the output stream
+     * @param value the value to serialize
+     * @throws IOException if serializing the value failed
+     */
+    void write(OutputStream outputStream, V value) throws IOException;
+
+    /**
+     * Deserializes a value from the input stream.
+     *
+     * @param inputStream the input stream
+     * @return deserialized value
+     * @throws IOException if deserializing the value failed
+     */
+    V read(InputStream inputStream) throws IOException;
+}
@@ -0,0 +1,111 @@
+package de.otto.synapse.state;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
+
+/**
+ * Factory methods for {@link ValueCodec value codecs} using Jackson.
+ *
+ * <p>The binary formats Smile and CBOR are considerably faster to parse than JSON text, and they are more
+ * compact. The codecs are caching the {@code ObjectReader} and {@code ObjectWriter} of the value type, so
+ * the type is only introspected once.</p>
+ */
+public final class ValueCodecs {
+
+    private ValueCodecs() {
+    }
+
+    /**
+     * Returns a codec using the {@link de.otto.synapse.translator.ObjectMappers#currentObjectMapper() current}
+     * ObjectMapper to store values as JSON text.
+     *
+     * @param valueType the type of the values
+     * @param <V> the type of the values
+     * @return ValueCodec
+     */
+    public static <V> ValueCodec<V> json(final Class<V> valueType) {
+        return jackson(currentObjectMapper(), valueType);
+    }
+
+    /**
+     * Returns a codec storing values using the binary Smile format.
+     *
+     * @param valueType the type of the values
+     * @param <V> the type of the values
+     * @return ValueCodec
+     */
+    public static <V> ValueCodec<V> smile(final Class<V> valueType) {
+        return jackson(binaryObjectMapper(new SmileFactory()), valueType);
+    }
+
+    /**
+     * Returns a codec storing values using the binary CBOR format.
+     *
+     * @param valueType the type of the values
+     * @param <V> the type of the values
+     * @return ValueCodec
+     */
+    public static <V> ValueCodec<V> cbor(final Class<V> valueType) {
+        return jackson(binaryObjectMapper(new CBORFactory()), valueType);
+    }
+
+    /**
+     * Returns a codec using the given ObjectMapper. The format of the values is determined by the
+     * {@code JsonFactory} of the ObjectMapper, so the ObjectMapper may be configured to use JSON text or any
+     * binary format supported by Jackson.
+     *
+     * @param objectMapper the ObjectMapper used to serialize and deserialize values
+     * @param valueType the type of the values
+     * @param <V> the type of the values
+     * @return ValueCodec
+     */
+    public static <V> ValueCodec<V> jackson(final ObjectMapper objectMapper,
+                                            final Class<V> valueType) {
+        return new JacksonValueCodec<>(objectMapper.readerFor(valueType), objectMapper.writerFor(valueType));
+    }
+
+    /**
+     * Creates an ObjectMapper for the given binary format, configured in the same way as the
+     * {@link de.otto.synapse.translator.ObjectMappers#defaultObjectMapper() default} ObjectMapper.
+     */
+    private static ObjectMapper binaryObjectMapper(final JsonFactory jsonFactory) {
+        final ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
+        objectMapper.findAndRegisterModules();
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.disable(DeserializationFeature.FAIL_ON_INVALID_SUBTYPE);
+        return objectMapper;
+    }
+
+    private static final class JacksonValueCodec<V> implements ValueCodec<V> {
+        private final ObjectReader objectReader;
+        private final ObjectWriter objectWriter;
+
+        private JacksonValueCodec(final ObjectReader objectReader,
+                                  final ObjectWriter objectWriter) {
+            this.objectReader = objectReader;
+            this.objectWriter = objectWriter;
+        }
+
+        @Override
+        public void write(final OutputStream outputStream, final V value) throws IOException {
+            objectWriter.writeValue(outputStream, value);
+        }
+
+        @Override
+        public V read(final InputStream inputStream) throws IOException {
+            return objectReader.readValue(inputStream);
+        }
+    }
+}
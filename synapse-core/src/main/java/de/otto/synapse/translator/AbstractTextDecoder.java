@@ -1,27 +1,25 @@
 package de.otto.synapse.translator;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import de.otto.synapse.message.Header;
 import de.otto.synapse.message.Key;
 import de.otto.synapse.message.TextMessage;
 import org.slf4j.Logger;
 
 import java.io.IOException;
-import java.util.Map;
 import java.util.Optional;
 
+import static com.fasterxml.jackson.core.JsonToken.*;
 import static de.otto.synapse.message.Header.copyOf;
 import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
-import static java.util.Collections.emptyMap;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public abstract class AbstractTextDecoder<T> implements Decoder<T> {
 
     private static final Logger LOG = getLogger(AbstractTextDecoder.class);
 
-    private static final TypeReference<Map<String, String>> MAP_TYPE_REFERENCE = new TypeReference<Map<String, String>>() {};
-
     protected TextMessage decode(final Key prototypeKey,
                                  final Header prototypeHeader,
                                  final String body) {
@@ -30,13 +28,14 @@ public abstract class AbstractTextDecoder<T> implements Decoder<T> {
                 return TextMessage.of(prototypeKey, prototypeHeader, body);
             case V2:
                 try {
-                    final JsonNode json = parseRecordBody(body);
-                    return TextMessage.of(
-                            keyFrom(json).orElse(prototypeKey),
-                            copyOf(prototypeHeader)
-                                    .withAttributes(attributesFrom(json))
-                                    .build(),
-                            payloadFrom(json));
+                    return decodeV2(prototypeKey, prototypeHeader, body);
+                } catch (final RuntimeException e) {
+                    LOG.error("Exception caught while parsing record {}: {}", body, e.getMessage());
+                    return TextMessage.of(prototypeKey, prototypeHeader, body);
+                }
+            case V3:
+                try {
+                    return V3MessageCodec.decode(prototypeKey, prototypeHeader, body);
                 } catch (final RuntimeException e) {
                     LOG.error("Exception caught while parsing record {}: {}", body, e.getMessage());
                     return TextMessage.of(prototypeKey, prototypeHeader, body);
@@ -46,50 +45,146 @@ public abstract class AbstractTextDecoder<T> implements Decoder<T> {
         }
     }
 
-    private static Map<String, String> attributesFrom(final JsonNode json) {
-        final JsonNode headersJson = json.get(MessageFormat.SYNAPSE_MSG_HEADERS);
-        if (headersJson != null) {
-            return currentObjectMapper().convertValue(
-                    headersJson,
-                    MAP_TYPE_REFERENCE
-            );
-        } else {
-            return emptyMap();
+    /**
+     * Decodes the binary representation of a message.
+     *
+     * <p>Messages in {@link MessageFormat#V3} format are decoded without converting the whole body into a
+     * String first. All other messages are decoded from the UTF-8 String representation of the body.</p>
+     *
+     * @param prototypeKey the key used, if the message does not contain a key
+     * @param prototypeHeader the header used to build the header of the message
+     * @param body the binary representation of the message, or null
+     * @return decoded TextMessage
+     */
+    protected TextMessage decode(final Key prototypeKey,
+                                 final Header prototypeHeader,
+                                 final byte[] body) {
+        if (body == null || body.length == 0) {
+            return decode(prototypeKey, prototypeHeader, (String) null);
+        }
+        if (V3MessageCodec.hasPrefix(body)) {
+            try {
+                return V3MessageCodec.decode(prototypeKey, prototypeHeader, body);
+            } catch (final RuntimeException e) {
+                LOG.error("Exception caught while parsing record: {}", e.getMessage());
+                return TextMessage.of(prototypeKey, prototypeHeader, new String(body, UTF_8));
+            }
+        }
+        return decode(prototypeKey, prototypeHeader, new String(body, UTF_8));
+    }
+
+    /**
+     * Decodes a message in {@link MessageFormat#V2} format using a streaming JsonParser.
+     *
+     * <p>JSON objects and arrays contained in the payload are not parsed into a tree. Instead, the
+     * parser is skipping the payload and the JSON text is copied from the body of the message.</p>
+     */
+    private static TextMessage decodeV2(final Key prototypeKey,
+                                        final Header prototypeHeader,
+                                        final String body) {
+        try (final JsonParser parser = currentObjectMapper().getFactory().createParser(body)) {
+            Key key = prototypeKey;
+            final Header.Builder header = copyOf(prototypeHeader);
+            String payload = null;
+            expect(parser.nextToken(), START_OBJECT, body);
+            while (parser.nextToken() == FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken valueToken = parser.nextToken();
+                switch (fieldName) {
+                    case MessageFormat.SYNAPSE_MSG_KEY:
+                        key = keyFrom(parser, valueToken, body).orElse(prototypeKey);
+                        break;
+                    case MessageFormat.SYNAPSE_MSG_HEADERS:
+                        attributesFrom(parser, valueToken, body, header);
+                        break;
+                    case MessageFormat.SYNAPSE_MSG_PAYLOAD:
+                        payload = payloadFrom(parser, valueToken, body);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return TextMessage.of(key, header.build(), payload);
+        } catch (final IOException e) {
+            LOG.error("Error parsing body={} from Kinesis record: {}", body, e.getMessage());
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static void attributesFrom(final JsonParser parser,
+                                       final JsonToken valueToken,
+                                       final String body,
+                                       final Header.Builder header) throws IOException {
+        if (valueToken == VALUE_NULL) {
+            return;
+        }
+        expect(valueToken, START_OBJECT, body);
+        while (parser.nextToken() == FIELD_NAME) {
+            final String attributeName = parser.getCurrentName();
+            final JsonToken attributeToken = parser.nextToken();
+            if (attributeToken.isScalarValue()) {
+                if (attributeToken != VALUE_NULL) {
+                    header.withAttribute(attributeName, parser.getText());
+                }
+            } else {
+                throw unexpectedToken(attributeToken, body);
+            }
         }
     }
 
-    private static Optional<Key> keyFrom(final JsonNode json) {
-        final JsonNode keyNode = json.get(MessageFormat.SYNAPSE_MSG_KEY);
-        if (keyNode == null || keyNode.isNull()) {
+    private static Optional<Key> keyFrom(final JsonParser parser,
+                                         final JsonToken valueToken,
+                                         final String body) throws IOException {
+        if (valueToken == VALUE_NULL) {
             return Optional.empty();
-        } else if (keyNode.isObject()) {
-            final String partitionKey = keyNode.get(MessageFormat.SYNAPSE_MSG_PARTITIONKEY).textValue();
-            final String compactionKey = keyNode.get(MessageFormat.SYNAPSE_MSG_COMPACTIONKEY).textValue();
-            return Optional.of(Key.of(partitionKey, compactionKey));
-        } else {
-            final String msg = "Unexpected json node containing " + json + ": ";
-            LOG.error(msg);
-            throw new IllegalStateException(msg);
         }
+        expect(valueToken, START_OBJECT, body);
+        String partitionKey = null;
+        String compactionKey = null;
+        while (parser.nextToken() == FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if (MessageFormat.SYNAPSE_MSG_PARTITIONKEY.equals(fieldName)) {
+                partitionKey = parser.getValueAsString();
+            } else if (MessageFormat.SYNAPSE_MSG_COMPACTIONKEY.equals(fieldName)) {
+                compactionKey = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (partitionKey == null || compactionKey == null) {
+            throw new IllegalStateException("Missing partitionKey or compactionKey in " + body);
+        }
+        return Optional.of(Key.of(partitionKey, compactionKey));
     }
 
-    private static String payloadFrom(final JsonNode json) {
-        final JsonNode payloadJson = json.get(MessageFormat.SYNAPSE_MSG_PAYLOAD);
-        if (payloadJson == null || payloadJson.isNull()) {
+    private static String payloadFrom(final JsonParser parser,
+                                      final JsonToken valueToken,
+                                      final String body) throws IOException {
+        if (valueToken == VALUE_NULL) {
             return null;
-        } else if (payloadJson.isObject()) {
-            return payloadJson.toString();
+        } else if (valueToken.isStructStart()) {
+            final int start = (int) parser.getTokenLocation().getCharOffset();
+            parser.skipChildren();
+            final int end = (int) parser.getCurrentLocation().getCharOffset();
+            return body.substring(start, end);
         } else {
-            return payloadJson.asText();
+            return parser.getText();
         }
     }
 
-    private static JsonNode parseRecordBody(String body) {
-        try {
-            return currentObjectMapper().readTree(body);
-        } catch (IOException e) {
-            LOG.error("Error parsing body={} from Kinesis record: {}", body, e.getMessage());
-            throw new IllegalStateException(e.getMessage(), e);
+    private static void expect(final JsonToken token,
+                               final JsonToken expected,
+                               final String body) {
+        if (token != expected) {
+            throw unexpectedToken(token, body);
         }
     }
+
+    private static IllegalStateException unexpectedToken(final JsonToken token,
+                                                         final String body) {
+        final String msg = "Unexpected json token " + token + " in " + body;
+        LOG.error(msg);
+        return new IllegalStateException(msg);
+    }
 }
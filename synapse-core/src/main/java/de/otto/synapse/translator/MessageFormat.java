@@ -1,7 +1,5 @@
 package de.otto.synapse.translator;
 
-import java.util.regex.Pattern;
-
 /**
  * Identifies the format used to encode or decode messages.
  */
@@ -10,7 +8,12 @@ public enum MessageFormat {
     /** String representation of the message only contains the message payload; no header attributes supported. */
     V1,
     /** String representation of the message contains version, header attributes and payload in JSON format */
-    V2;
+    V2,
+    /**
+     * Binary representation of the message, consisting of a magic prefix, a version byte and length-prefixed UTF-8
+     * fields for key, header attributes and payload.
+     */
+    V3;
 
     public static final String SYNAPSE_MSG_FORMAT = "_synapse_msg_format";
     public static final String SYNAPSE_MSG_KEY = "_synapse_msg_key";
@@ -19,7 +22,11 @@ public enum MessageFormat {
     public static final String SYNAPSE_MSG_HEADERS = "_synapse_msg_headers";
     public static final String SYNAPSE_MSG_PAYLOAD = "_synapse_msg_payload";
 
-    private static final Pattern V2_PATTERN = Pattern.compile("\\{\\s*\"" + SYNAPSE_MSG_FORMAT + "\"\\s*:\\s*\"v2\".+");
+    /** Magic prefix ({@code 0x1E 'S' 'Y'}) followed by the version byte {@code '3'} of V3 messages. */
+    static final String V3_PREFIX = "\u001ESY3";
+
+    private static final String V2_FORMAT_FIELD = "\"" + SYNAPSE_MSG_FORMAT + "\"";
+    private static final String V2_FORMAT_VALUE = "\"v2\"";
 
     /**
      * Returns the default message format used by Synapse to encode messages.
@@ -33,15 +40,43 @@ public enum MessageFormat {
     /**
      * Determines the {@code MessageFormat} from the string representation of some message.
      *
+     * <p>Only the {@link #V3_PREFIX} or the first JSON token of the message is inspected, so the costs of this
+     * method do not depend on the size of the message.</p>
+     *
      * @param message the string representation of some message
      * @return MessageFormat of the message
      */
     public static MessageFormat versionOf(final String message) {
         if (message != null) {
-            return V2_PATTERN.matcher(message).matches()
+            if (message.startsWith(V3_PREFIX)) {
+                return V3;
+            }
+            int pos = skipWhitespaces(message, 0);
+            if (pos >= message.length() || message.charAt(pos) != '{') {
+                return V1;
+            }
+            pos = skipWhitespaces(message, pos + 1);
+            if (!message.startsWith(V2_FORMAT_FIELD, pos)) {
+                return V1;
+            }
+            pos = skipWhitespaces(message, pos + V2_FORMAT_FIELD.length());
+            if (pos >= message.length() || message.charAt(pos) != ':') {
+                return V1;
+            }
+            pos = skipWhitespaces(message, pos + 1);
+            return message.startsWith(V2_FORMAT_VALUE, pos) && message.length() > pos + V2_FORMAT_VALUE.length()
                     ? V2
                     : V1;
         } else {
             return V1;
         }
-    }}
+    }
+
+    private static int skipWhitespaces(final String message, final int fromIndex) {
+        int pos = fromIndex;
+        while (pos < message.length() && Character.isWhitespace(message.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+}
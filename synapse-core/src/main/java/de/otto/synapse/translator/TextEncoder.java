@@ -1,14 +1,14 @@
 package de.otto.synapse.translator;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.NullNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.core.JsonParser;
 import de.otto.synapse.message.Message;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
 
 import static de.otto.synapse.translator.MessageFormat.*;
 import static de.otto.synapse.translator.ObjectMappers.currentObjectMapper;
@@ -38,6 +38,8 @@ public class TextEncoder implements Encoder<String> {
                 return message.getPayload();
             case V2:
                 return encodeV2(message);
+            case V3:
+                return V3MessageCodec.encode(message);
             default:
                 throw new IllegalStateException("Unsupported MessageFormat " + messageFormat);
         }
@@ -48,41 +50,82 @@ public class TextEncoder implements Encoder<String> {
     }
 
     private static String encodeV2(Message<String> message) {
-        ObjectMapper mapper = currentObjectMapper();
-        try {
-            ObjectNode root = mapper.createObjectNode();
-            root.put(SYNAPSE_MSG_FORMAT, "v2");
-            root.set(SYNAPSE_MSG_KEY, encodeKeysV2(message, mapper));
-            root.set(SYNAPSE_MSG_HEADERS, encodeHeadersV2(message, mapper));
-            root.set(SYNAPSE_MSG_PAYLOAD, encodePayloadV2(message, mapper));
-            return root.toString();
+        final JsonFactory jsonFactory = currentObjectMapper().getFactory();
+        final String payload = message.getPayload();
+        final StringWriter writer = new StringWriter(payload != null ? payload.length() + 256 : 256);
+        try (final JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField(SYNAPSE_MSG_FORMAT, "v2");
+            encodeKeysV2(message, generator);
+            encodeHeadersV2(message, generator);
+            encodePayloadV2(message, generator, jsonFactory);
+            generator.writeEndObject();
         } catch (IOException e) {
             throw new IllegalStateException(String.format("Cannot encode message %s", message), e);
         }
+        return writer.toString();
     }
 
-    private static ObjectNode encodeKeysV2(Message<String> message, ObjectMapper mapper) {
-        ObjectNode keyNode = mapper.createObjectNode();
-        keyNode.put(SYNAPSE_MSG_PARTITIONKEY, message.getKey().partitionKey());
-        keyNode.put(SYNAPSE_MSG_COMPACTIONKEY, message.getKey().compactionKey());
-        return keyNode;
+    private static void encodeKeysV2(Message<String> message, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart(SYNAPSE_MSG_KEY);
+        generator.writeStringField(SYNAPSE_MSG_PARTITIONKEY, message.getKey().partitionKey());
+        generator.writeStringField(SYNAPSE_MSG_COMPACTIONKEY, message.getKey().compactionKey());
+        generator.writeEndObject();
     }
 
-    private static JsonNode encodeHeadersV2(Message<String> message, ObjectMapper mapper) {
-        return mapper.convertValue(message.getHeader().getAll(), JsonNode.class);
+    private static void encodeHeadersV2(Message<String> message, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart(SYNAPSE_MSG_HEADERS);
+        for (final Map.Entry<String, String> attribute : message.getHeader().getAll().entrySet()) {
+            generator.writeStringField(attribute.getKey(), attribute.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the payload of the message. Valid JSON payloads are embedded into the message without building
+     * a JSON tree; all other payloads are written as JSON strings.
+     */
+    private static void encodePayloadV2(Message<String> message, JsonGenerator generator, JsonFactory jsonFactory) throws IOException {
+        final String payload = message.getPayload();
+        generator.writeFieldName(SYNAPSE_MSG_PAYLOAD);
+        if (payload == null) {
+            generator.writeNull();
+        } else if (isJson(payload, jsonFactory)) {
+            generator.writeRawValue(payload);
+        } else {
+            generator.writeString(payload);
+        }
+    }
+
+    /**
+     * Checks whether the payload is a single valid JSON value by streaming over its tokens.
+     */
+    private static boolean isJson(final String payload, final JsonFactory jsonFactory) throws IOException {
+        if (!startsLikeJson(payload)) {
+            return false;
+        }
+        try (final JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() == null) {
+                return false;
+            }
+            parser.skipChildren();
+            return parser.nextToken() == null;
+        } catch (final JsonParseException e) {
+            return false;
+        }
     }
 
-    private static JsonNode encodePayloadV2(Message<String> message, ObjectMapper mapper) throws IOException {
-        JsonNode jsonPayload;
-        try {
-            if (message.getPayload() == null) {
-                jsonPayload = NullNode.getInstance();
-            } else {
-                jsonPayload = mapper.readTree(message.getPayload());
+    /**
+     * Cheap check used to avoid parsing (and throwing exceptions) for payloads that obviously are not JSON.
+     */
+    private static boolean startsLikeJson(final String payload) {
+        for (int i = 0; i < payload.length(); i++) {
+            final char c = payload.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{' || c == '[' || c == '"' || c == '-' || (c >= '0' && c <= '9')
+                        || c == 't' || c == 'f' || c == 'n';
             }
-        } catch (JsonParseException e) {
-            jsonPayload = new TextNode(message.getPayload());
         }
-        return jsonPayload;
+        return false;
     }
 }
@@ -0,0 +1,265 @@
+package de.otto.synapse.translator;
+
+import de.otto.synapse.message.Header;
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.Message;
+import de.otto.synapse.message.TextMessage;
+
+import java.util.Map;
+
+import static de.otto.synapse.message.Header.copyOf;
+import static de.otto.synapse.translator.MessageFormat.V3_PREFIX;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes and decodes messages in {@link MessageFormat#V3} format.
+ *
+ * <p>The layout of V3 messages is:</p>
+ * <pre>
+ *     0x1E 'S' 'Y' '3'             magic prefix and version byte
+ *     field(partitionKey)
+ *     field(compactionKey)         '-' if the compaction key is equal to the partition key
+ *     count ':'                    number of header attributes
+ *     (field(name) field(value))*
+ *     field(payload)               '-' if the payload is null
+ *
+ *     field := length ':' UTF-8 bytes, where length is the decimal number of bytes
+ * </pre>
+ * <p>
+ *     All framing characters are ASCII, so the binary representation of a V3 message is valid UTF-8. The same
+ *     message can therefore be sent as bytes to Kinesis, or stored as a String in Redis or in snapshots, without
+ *     escaping any of the fields.
+ * </p>
+ */
+final class V3MessageCodec {
+
+    private static final char SEPARATOR = ':';
+    private static final char ABSENT = '-';
+    private static final int MAX_DIGITS = 9;
+
+    private V3MessageCodec() {
+    }
+
+    static String encode(final Message<String> message) {
+        final Key key = message.getKey();
+        final String payload = message.getPayload();
+        final StringBuilder builder = new StringBuilder(payload != null ? payload.length() + 64 : 64);
+        builder.append(V3_PREFIX);
+        appendField(builder, key.partitionKey());
+        appendField(builder, key.compactionKey().equals(key.partitionKey()) ? null : key.compactionKey());
+        final Map<String, String> attributes = message.getHeader().getAll();
+        builder.append(attributes.size()).append(SEPARATOR);
+        for (final Map.Entry<String, String> attribute : attributes.entrySet()) {
+            appendField(builder, attribute.getKey());
+            appendField(builder, attribute.getValue());
+        }
+        appendField(builder, payload);
+        return builder.toString();
+    }
+
+    static boolean hasPrefix(final byte[] body) {
+        if (body.length < V3_PREFIX.length()) {
+            return false;
+        }
+        for (int i = 0; i < V3_PREFIX.length(); i++) {
+            if (body[i] != V3_PREFIX.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static TextMessage decode(final Key prototypeKey,
+                              final Header prototypeHeader,
+                              final String body) {
+        return decode(prototypeKey, prototypeHeader, new StringFieldReader(body));
+    }
+
+    static TextMessage decode(final Key prototypeKey,
+                              final Header prototypeHeader,
+                              final byte[] body) {
+        return decode(prototypeKey, prototypeHeader, new ByteFieldReader(body));
+    }
+
+    private static TextMessage decode(final Key prototypeKey,
+                                      final Header prototypeHeader,
+                                      final FieldReader reader) {
+        final String partitionKey = reader.nextField();
+        final String compactionKey = reader.nextField();
+        final int numberOfAttributes = reader.nextNumber();
+        final Header.Builder header = copyOf(prototypeHeader);
+        for (int i = 0; i < numberOfAttributes; i++) {
+            final String name = reader.nextField();
+            final String value = reader.nextField();
+            if (name == null || value == null) {
+                throw reader.malformed();
+            }
+            header.withAttribute(name, value);
+        }
+        final String payload = reader.nextField();
+        if (reader.hasRemaining()) {
+            throw reader.malformed();
+        }
+        final Key key;
+        if (partitionKey != null) {
+            key = Key.of(partitionKey, compactionKey != null ? compactionKey : partitionKey);
+        } else {
+            key = prototypeKey;
+        }
+        return TextMessage.of(key, header.build(), payload);
+    }
+
+    private static void appendField(final StringBuilder builder, final String value) {
+        if (value == null) {
+            builder.append(ABSENT);
+        } else {
+            builder.append(utf8Length(value)).append(SEPARATOR).append(value);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the UTF-8 representation of the string, as produced by
+     * {@code value.getBytes(UTF_8)}.
+     */
+    private static int utf8Length(final String value) {
+        final int numberOfChars = value.length();
+        int length = numberOfChars;
+        for (int i = 0; i < numberOfChars; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                length += 1;
+            } else if (!Character.isSurrogate(c)) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < numberOfChars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 2;
+                ++i;
+            }
+            // unpaired surrogates are encoded as a single '?'
+        }
+        return length;
+    }
+
+    private abstract static class FieldReader {
+        int pos = V3_PREFIX.length();
+
+        abstract int length();
+
+        abstract int at(int index);
+
+        abstract String nextText(int byteLength);
+
+        abstract IllegalStateException malformed();
+
+        boolean hasRemaining() {
+            return pos < length();
+        }
+
+        String nextField() {
+            if (pos < length() && at(pos) == ABSENT) {
+                ++pos;
+                return null;
+            }
+            return nextText(nextNumber());
+        }
+
+        int nextNumber() {
+            int value = 0;
+            int digits = 0;
+            while (pos < length()) {
+                final int c = at(pos++);
+                if (c == SEPARATOR && digits > 0) {
+                    return value;
+                }
+                if (c < '0' || c > '9' || ++digits > MAX_DIGITS) {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            throw malformed();
+        }
+    }
+
+    private static final class StringFieldReader extends FieldReader {
+        private final String body;
+
+        StringFieldReader(final String body) {
+            this.body = body;
+        }
+
+        @Override
+        int length() {
+            return body.length();
+        }
+
+        @Override
+        int at(final int index) {
+            return body.charAt(index);
+        }
+
+        @Override
+        String nextText(final int byteLength) {
+            final int start = pos;
+            int remaining = byteLength;
+            while (remaining > 0 && pos < body.length()) {
+                final char c = body.charAt(pos++);
+                if (c < 0x80) {
+                    remaining -= 1;
+                } else if (c < 0x800) {
+                    remaining -= 2;
+                } else if (Character.isHighSurrogate(c) && pos < body.length() && Character.isLowSurrogate(body.charAt(pos))) {
+                    remaining -= 4;
+                    ++pos;
+                } else if (Character.isSurrogate(c)) {
+                    remaining -= 1;
+                } else {
+                    remaining -= 3;
+                }
+            }
+            if (remaining != 0) {
+                throw malformed();
+            }
+            return body.substring(start, pos);
+        }
+
+        @Override
+        IllegalStateException malformed() {
+            return new IllegalStateException("Malformed V3 message at position " + pos + ": " + body);
+        }
+    }
+
+    private static final class ByteFieldReader extends FieldReader {
+        private final byte[] body;
+
+        ByteFieldReader(final byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        int length() {
+            return body.length;
+        }
+
+        @Override
+        int at(final int index) {
+            return body[index];
+        }
+
+        @Override
+        String nextText(final int byteLength) {
+            if (byteLength > body.length - pos) {
+                throw malformed();
+            }
+            final String text = new String(body, pos, byteLength, UTF_8);
+            pos += byteLength;
+            return text;
+        }
+
+        @Override
+        IllegalStateException malformed() {
+            return new IllegalStateException("Malformed V3 message at position " + pos + ": " + new String(body, UTF_8));
+        }
+    }
+}
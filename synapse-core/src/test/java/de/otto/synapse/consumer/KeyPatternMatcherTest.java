@@ -0,0 +1,56 @@
+package de.otto.synapse.consumer;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.compile;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class KeyPatternMatcherTest {
+
+    @Test
+    public void shouldMatchEverythingWithAcceptAllPattern() {
+        final KeyPatternMatcher matcher = KeyPatternMatcher.of(compile(".*"));
+        assertThat(matcher.test(""), is(true));
+        assertThat(matcher.test("some-key"), is(true));
+    }
+
+    @Test
+    public void shouldMatchPrefixPattern() {
+        final KeyPatternMatcher matcher = KeyPatternMatcher.of(compile("apple#.*"));
+        assertThat(matcher.test("apple#42"), is(true));
+        assertThat(matcher.test("apple#"), is(true));
+        assertThat(matcher.test("banana#42"), is(false));
+        assertThat(matcher.test("apple"), is(false));
+    }
+
+    @Test
+    public void shouldMatchLiteralPattern() {
+        final KeyPatternMatcher matcher = KeyPatternMatcher.of(compile("apple-42"));
+        assertThat(matcher.test("apple-42"), is(true));
+        assertThat(matcher.test("apple-4"), is(false));
+        assertThat(matcher.test("apple-421"), is(false));
+    }
+
+    @Test
+    public void shouldMatchRegularExpressions() {
+        final KeyPatternMatcher matcher = KeyPatternMatcher.of(compile("(apple|banana)\\.[0-9]+"));
+        assertThat(matcher.test("apple.42"), is(true));
+        assertThat(matcher.test("banana.1"), is(true));
+        assertThat(matcher.test("cherry.1"), is(false));
+    }
+
+    @Test
+    public void shouldBehaveLikeRegexForLineTerminators() {
+        assertThat(KeyPatternMatcher.of(compile("apple.*")).test("apple\n42"), is(false));
+        assertThat(KeyPatternMatcher.of(compile("apple.*", Pattern.DOTALL)).test("apple\n42"), is(true));
+    }
+
+    @Test
+    public void shouldRespectPatternFlags() {
+        final KeyPatternMatcher matcher = KeyPatternMatcher.of(compile("apple.*", Pattern.CASE_INSENSITIVE));
+        assertThat(matcher.test("APPLE.42"), is(true));
+    }
+}
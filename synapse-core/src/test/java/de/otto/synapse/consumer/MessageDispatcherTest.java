@@ -1,16 +1,29 @@
 package de.otto.synapse.consumer;
 
+import de.otto.synapse.message.Key;
 import de.otto.synapse.message.Message;
 import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.state.ConcurrentMapStateRepository;
+import de.otto.synapse.state.StateRepository;
 import org.junit.Test;
 
+import java.util.regex.Pattern;
+
 import static de.otto.synapse.channel.ShardPosition.fromHorizon;
 import static de.otto.synapse.consumer.TestMessageConsumer.testEventConsumer;
 import static de.otto.synapse.message.Header.of;
 import static de.otto.synapse.message.Message.message;
 import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
 public class MessageDispatcherTest {
@@ -104,6 +117,138 @@ public class MessageDispatcherTest {
         verify(eventConsumerCherry, never()).accept(any(Message.class));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldDeserializePayloadOncePerPayloadType() {
+        // given
+        TestMessageConsumer<Apple> firstAppleConsumer = testEventConsumer(".*", Apple.class);
+        TestMessageConsumer<Apple> secondAppleConsumer = testEventConsumer("apple.*", Apple.class);
+        TestMessageConsumer<Banana> bananaConsumer = testEventConsumer(".*", Banana.class);
+
+        MessageDispatcher messageDispatcher = new MessageDispatcher(asList(firstAppleConsumer, secondAppleConsumer, bananaConsumer));
+
+        // when
+        messageDispatcher.accept(TextMessage.of("apple.123", of(fromHorizon("test")), "{}"));
+
+        // then
+        final Apple firstApple = firstAppleConsumer.getConsumedMessages().get(0).getPayload();
+        final Apple secondApple = secondAppleConsumer.getConsumedMessages().get(0).getPayload();
+        assertThat(firstApple, is(sameInstance(secondApple)));
+        assertThat(bananaConsumer.getConsumedMessages().get(0).getPayload(), is(new Banana()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldDispatchToConsumersAddedAfterFirstMessage() {
+        // given
+        TestMessageConsumer<Apple> appleConsumer = spy(testEventConsumer("apple.*", Apple.class));
+        MessageDispatcher messageDispatcher = new MessageDispatcher();
+        messageDispatcher.accept(TextMessage.of("apple.1", of(fromHorizon("test")), "{}"));
+
+        // when
+        messageDispatcher.add(appleConsumer);
+        messageDispatcher.accept(TextMessage.of("apple.2", of(fromHorizon("test")), "{}"));
+
+        // then
+        verify(appleConsumer).accept(message(Key.of("apple.2"), of(fromHorizon("test")), new Apple()));
+        assertThat(messageDispatcher.getAll(), contains(appleConsumer));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldDispatchNullPayloads() {
+        // given
+        TestMessageConsumer<Apple> appleConsumer = spy(testEventConsumer(".*", Apple.class));
+        MessageDispatcher messageDispatcher = new MessageDispatcher(singletonList(appleConsumer));
+
+        // when
+        messageDispatcher.accept(TextMessage.of("apple.1", of(fromHorizon("test")), null));
+
+        // then
+        verify(appleConsumer).accept(message(Key.of("apple.1"), of(fromHorizon("test")), null));
+    }
+
+    @Test
+    public void shouldBulkLoadMessagesIntoStatefulConsumers() {
+        // given
+        StateRepository<Apple> apples = new ConcurrentMapStateRepository<>("apples");
+        StateRepository<String> bananas = new ConcurrentMapStateRepository<>("bananas");
+        MessageDispatcher messageDispatcher = new MessageDispatcher(asList(
+                new StatefulMessageConsumer<>("apple.*", Apple.class, apples, Message::getPayload),
+                new StatefulMessageConsumer<>("banana.*", String.class, bananas, Message::getPayload)));
+
+        // when
+        messageDispatcher.acceptAll(asList(
+                TextMessage.of("apple.1", of(fromHorizon("test")), "{}"),
+                TextMessage.of("banana.1", of(fromHorizon("test")), "yellow"),
+                TextMessage.of("apple.2", of(fromHorizon("test")), "{}"),
+                TextMessage.of("apple.2", of(fromHorizon("test")), null)));
+
+        // then
+        assertThat(messageDispatcher.supportsBulkLoading(), is(true));
+        assertThat(apples.keySet(), contains("apple.1"));
+        assertThat(apples.get("apple.1").get(), is(new Apple()));
+        assertThat(bananas.get("banana.1").get(), is("yellow"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotBulkLoadMessagesIntoRegularConsumers() {
+        // given
+        MessageDispatcher messageDispatcher = new MessageDispatcher(asList(
+                new StatefulMessageConsumer<>(".*", String.class, new ConcurrentMapStateRepository<>("test"), Message::getPayload),
+                testEventConsumer(".*", String.class)));
+
+        // then
+        assertThat(messageDispatcher.supportsBulkLoading(), is(false));
+        messageDispatcher.acceptAll(singletonList(TextMessage.of("apple.1", of(fromHorizon("test")), "{}")));
+    }
+
+    @Test
+    public void shouldDispatchMessagesOneByOneIfSomePayloadIsNotReadable() {
+        // given
+        StateRepository<String> strings = new ConcurrentMapStateRepository<>("strings");
+        StateRepository<Apple> apples = new ConcurrentMapStateRepository<>("apples");
+        MessageDispatcher messageDispatcher = new MessageDispatcher(asList(
+                new StatefulMessageConsumer<>(".*", String.class, strings, Message::getPayload),
+                new StatefulMessageConsumer<>("apple.*", Apple.class, apples, Message::getPayload)));
+
+        // when
+        messageDispatcher.acceptAll(asList(
+                TextMessage.of("apple.1", of(fromHorizon("test")), "{}"),
+                TextMessage.of("apple.2", of(fromHorizon("test")), "not json"),
+                TextMessage.of("apple.3", of(fromHorizon("test")), "{}")));
+
+        // then
+        assertThat(strings.size(), is(3L));
+        assertThat(apples.keySet(), containsInAnyOrder("apple.1", "apple.3"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldDispatchMessagesOneByOneOnlyToConsumerFailingToAcceptBatch() {
+        // given
+        final BulkLoadingMessageConsumer<String> succeeding = mock(BulkLoadingMessageConsumer.class);
+        when(succeeding.keyPattern()).thenReturn(Pattern.compile(".*"));
+        when(succeeding.payloadType()).thenReturn(String.class);
+        final BulkLoadingMessageConsumer<String> failing = mock(BulkLoadingMessageConsumer.class);
+        when(failing.keyPattern()).thenReturn(Pattern.compile(".*"));
+        when(failing.payloadType()).thenReturn(String.class);
+        doThrow(new IllegalStateException("some error")).when(failing).acceptAll(anyList());
+        doThrow(new IllegalStateException("some error")).when(failing).accept(argThat(message -> message.getKey().compactionKey().equals("first")));
+        final TextMessage first = TextMessage.of("first", of(fromHorizon("test")), "1");
+        final TextMessage second = TextMessage.of("second", of(fromHorizon("test")), "2");
+        MessageDispatcher messageDispatcher = new MessageDispatcher(asList(succeeding, failing));
+
+        // when
+        messageDispatcher.acceptAll(asList(first, second));
+
+        // then
+        verify(succeeding).acceptAll(asList(first, second));
+        verify(succeeding, never()).accept(any());
+        verify(failing).accept(first);
+        verify(failing).accept(second);
+    }
+
     static class Apple {
         public boolean equals(Object o) {
             return o instanceof Apple;
@@ -8,9 +8,27 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.message.Header.of;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
 public class StatefulMessageConsumerTest {
@@ -87,6 +105,151 @@ public class StatefulMessageConsumerTest {
 
     }
 
+    @Test
+    public void shouldFoldMessagesPerKeyOnAcceptAll() {
+        //given
+        stateRepository.put("first", "0");
+        stateRepository.put("third", "0");
+        final StatefulMessageConsumer<String, String> consumer = new StatefulMessageConsumer<>(".*", String.class, stateRepository,
+                (previousValue, message) -> previousValue.orElse("") + message.getPayload(),
+                (message) -> message.getKey().partitionKey());
+
+        //when
+        consumer.acceptAll(asList(
+                Message.message("first", of(fromPosition("some-shard", "1")), "1"),
+                Message.message("second", of(fromPosition("some-shard", "2")), "1"),
+                Message.message("first", of(fromPosition("some-shard", "3")), "2"),
+                Message.message("third", of(fromPosition("some-shard", "4")), null),
+                Message.message("second", of(fromPosition("some-shard", "5")), null),
+                Message.message("second", of(fromPosition("some-shard", "6")), "2")
+        ));
+
+        //then
+        assertThat(stateRepository.get("first").get()).isEqualTo("012");
+        assertThat(stateRepository.get("second").get()).isEqualTo("2");
+        assertThat(stateRepository.get("third")).isEmpty();
+    }
+
+    @Test
+    public void shouldWriteEveryKeyOnlyOnceOnAcceptAll() {
+        //given
+        final StateRepository<String> repository = spy(stateRepository);
+        final StatefulMessageConsumer<String, String> consumer = new StatefulMessageConsumer<>(".*", String.class, repository, Message::getPayload);
+
+        //when
+        consumer.acceptAll(asList(
+                Message.message("first", of(fromPosition("some-shard", "1")), "1"),
+                Message.message("first", of(fromPosition("some-shard", "2")), "2"),
+                Message.message("first", of(fromPosition("some-shard", "3")), "3")
+        ));
+
+        //then
+        assertThat(repository.get("first").get()).isEqualTo("3");
+        verify(repository).putAll(singletonMap("first", "3"));
+        verify(repository, never()).compute(anyString(), any());
+        verify(repository, never()).put(anyString(), anyString());
+    }
+
+    @Test
+    public void shouldNotReadPreviousStateOnAcceptAllIfMapperIsIgnoringIt() {
+        //given
+        stateRepository.put("first", "0");
+        final StateRepository<String> repository = spy(stateRepository);
+        final StatefulMessageConsumer<String, String> consumer = new StatefulMessageConsumer<>(".*", String.class, repository, Message::getPayload);
+
+        //when
+        consumer.acceptAll(asList(
+                Message.message("first", of(fromPosition("some-shard", "1")), "1"),
+                Message.message("second", of(fromPosition("some-shard", "2")), "2")
+        ));
+
+        //then
+        verify(repository, never()).get(anyString());
+        assertThat(stateRepository.get("first").get()).isEqualTo("1");
+        assertThat(stateRepository.get("second").get()).isEqualTo("2");
+    }
+
+    @Test
+    public void shouldComputeEveryKeyOnlyOnceOnAcceptAllIfMapperIsUsingPreviousState() {
+        //given
+        final StateRepository<String> repository = spy(stateRepository);
+        final StatefulMessageConsumer<String, String> consumer = new StatefulMessageConsumer<>(".*", String.class, repository,
+                (previousValue, message) -> previousValue.orElse("") + message.getPayload(),
+                (message) -> message.getKey().partitionKey());
+
+        //when
+        consumer.acceptAll(asList(
+                Message.message("first", of(fromPosition("some-shard", "1")), "1"),
+                Message.message("first", of(fromPosition("some-shard", "2")), "2"),
+                Message.message("first", of(fromPosition("some-shard", "3")), "3")
+        ));
+
+        //then
+        assertThat(repository.get("first").get()).isEqualTo("123");
+        verify(repository, times(1)).compute(eq("first"), any());
+        verify(repository, never()).putAll(anyMap());
+        verify(repository, never()).put(anyString(), anyString());
+    }
+
+    @Test
+    public void shouldNotLoseUpdatesOfConcurrentAcceptAll() throws Exception {
+        //given
+        final StateRepository<Integer> counters = new ConcurrentMapStateRepository<>("counters");
+        final StatefulMessageConsumer<String, Integer> consumer = new StatefulMessageConsumer<String, Integer>(".*", String.class, counters,
+                (previousValue, message) -> previousValue.orElse(0) + 1,
+                (message) -> "counter");
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        //when
+        final List<Future<?>> writers = new ArrayList<>();
+        for (final String partitionKey : asList("first", "second")) {
+            writers.add(executorService.submit(() -> {
+                start.await();
+                for (int batch = 0; batch < 1000; batch++) {
+                    consumer.acceptAll(asList(
+                            Message.message(partitionKey, of(fromPosition("some-shard", "1")), "1"),
+                            Message.message(partitionKey, of(fromPosition("some-shard", "2")), "2")
+                    ));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (final Future<?> writer : writers) {
+            writer.get(10, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        //then
+        assertThat(counters.get("counter").get()).isEqualTo(4000);
+    }
+
+    @Test
+    public void shouldAcceptMessagesOneByOneIfSomeMessageOfKeyIsFailing() {
+        //given
+        final StatefulMessageConsumer<String, String> consumer = new StatefulMessageConsumer<>(".*", String.class, stateRepository,
+                (previousValue, message) -> {
+                    if (message.getPayload().equals("failing")) {
+                        throw new IllegalArgumentException("some error");
+                    }
+                    return previousValue.orElse("") + message.getPayload();
+                },
+                (message) -> message.getKey().partitionKey());
+
+        //when
+        consumer.acceptAll(asList(
+                Message.message("first", of(fromPosition("some-shard", "1")), "1"),
+                Message.message("second", of(fromPosition("some-shard", "2")), "1"),
+                Message.message("first", of(fromPosition("some-shard", "3")), "failing"),
+                Message.message("first", of(fromPosition("some-shard", "4")), "2")
+        ));
+
+        //then
+        assertThat(stateRepository.get("first").get()).isEqualTo("12");
+        assertThat(stateRepository.get("second").get()).isEqualTo("1");
+    }
+
     private StatefulMessageConsumer<String, String> statefulMessageConsumer() {
         return new StatefulMessageConsumer<>(".*", String.class, stateRepository, Message::getPayload);
     }
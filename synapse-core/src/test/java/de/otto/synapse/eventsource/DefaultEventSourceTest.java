@@ -2,14 +2,23 @@ package de.otto.synapse.eventsource;
 
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.consumer.StatefulMessageConsumer;
+import de.otto.synapse.endpoint.InterceptorChain;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
 import de.otto.synapse.message.Header;
 import de.otto.synapse.message.Key;
+import de.otto.synapse.message.Message;
 import de.otto.synapse.message.TextMessage;
 import de.otto.synapse.messagestore.MessageStore;
 import de.otto.synapse.messagestore.MessageStoreEntry;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+import de.otto.synapse.state.ConcurrentMapStateRepository;
+import de.otto.synapse.state.StateRepository;
 import org.junit.Test;
 
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -19,8 +28,11 @@ import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.channel.StopCondition.shutdown;
 import static de.otto.synapse.messagestore.MessageStores.emptyMessageStore;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -134,6 +146,69 @@ public class DefaultEventSourceTest {
         verify(messageDispatcher).accept(TextMessage.of(Key.of("1"), null));
     }
 
+    @Test
+    public void shouldBulkLoadMessagesFromMessageStore() throws ExecutionException, InterruptedException {
+        // given
+        // and some message store having some messages
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.stream()).thenReturn(Stream.of(
+                MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("1"), "first")),
+                MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("2"), "second")),
+                MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("1"), null))));
+        when(messageStore.getLatestChannelPosition(anyString())).thenReturn(fromHorizon());
+
+        // and some MessageLogReceiverEndpoint without interceptors, but with a StatefulMessageConsumer:
+        final StateRepository<String> stateRepository = new ConcurrentMapStateRepository<>("test");
+        final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
+        when(messageLog.getChannelName()).thenReturn("some-channel");
+        when(messageLog.getInterceptorChain()).thenReturn(new InterceptorChain());
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Predicate.class))).thenReturn(completedFuture(fromHorizon()));
+        when(messageLog.getMessageDispatcher()).thenReturn(new MessageDispatcher(singletonList(
+                new StatefulMessageConsumer<>(".*", String.class, stateRepository, Message::getPayload))));
+
+        // and our famous DefaultEventSource:
+        final DefaultEventSource eventSource = new DefaultEventSource(messageStore, messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(messageLog, never()).intercept(any(TextMessage.class));
+        assertThat(stateRepository.keySet(), contains("2"));
+        assertThat(stateRepository.get("2").get(), is("second"));
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void shouldNotDropValidMessagesOfBulkLoadedBatchIfSomeMessageIsFailing() throws ExecutionException, InterruptedException {
+        // given
+        // and some message store having some messages, one of them not being readable:
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.stream()).thenReturn(Stream.of(
+                MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("1"), "{}")),
+                MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("2"), "not json")),
+                MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("3"), "{}"))));
+        when(messageStore.getLatestChannelPosition(anyString())).thenReturn(fromHorizon());
+
+        // and some MessageLogReceiverEndpoint without interceptors, but with a StatefulMessageConsumer:
+        final StateRepository<Map> stateRepository = new ConcurrentMapStateRepository<>("test");
+        final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
+        when(messageLog.getChannelName()).thenReturn("some-channel");
+        when(messageLog.getInterceptorChain()).thenReturn(new InterceptorChain());
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Predicate.class))).thenReturn(completedFuture(fromHorizon()));
+        when(messageLog.getMessageDispatcher()).thenReturn(new MessageDispatcher(singletonList(
+                new StatefulMessageConsumer<>(".*", Map.class, stateRepository, Message::getPayload))));
+
+        // and our famous DefaultEventSource:
+        final DefaultEventSource eventSource = new DefaultEventSource(messageStore, messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        assertThat(stateRepository.keySet(), containsInAnyOrder("1", "3"));
+    }
+
     @Test
     public void shouldContinueWithChannelPositionFromMessageStore() throws ExecutionException, InterruptedException {
         // given
@@ -186,6 +261,78 @@ public class DefaultEventSourceTest {
         verify(messageStore).close();
     }
 
+    @Test
+    public void shouldCheckpointChannelPositionFromMessageLog() throws ExecutionException, InterruptedException {
+        // given
+        final ChannelPosition expectedChannelPosition = channelPosition(fromPosition("bar", "4711"));
+        final MessageStore messageStore = mockMessageStore(fromHorizon());
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(expectedChannelPosition);
+        final ChannelCheckpoints checkpoints = mock(ChannelCheckpoints.class);
+        final DefaultEventSource eventSource = new DefaultEventSource(messageStore, messageLog, checkpoints);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(checkpoints).checkpoint("some-channel", expectedChannelPosition);
+    }
+
+    @Test
+    public void shouldNotCheckpointChannelPositionIfConsumptionFailed() throws ExecutionException, InterruptedException {
+        // given
+        final MessageStore messageStore = mockMessageStore(fromHorizon());
+        final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
+        when(messageLog.getChannelName()).thenReturn("some-channel");
+        final CompletableFuture<ChannelPosition> failedFuture = new CompletableFuture<>();
+        failedFuture.completeExceptionally(new IllegalStateException("some error"));
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Predicate.class))).thenReturn(failedFuture);
+        final ChannelCheckpoints checkpoints = mock(ChannelCheckpoints.class);
+        final DefaultEventSource eventSource = new DefaultEventSource(messageStore, messageLog, checkpoints);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(checkpoints, never()).checkpoint(anyString(), any(ChannelPosition.class));
+    }
+
+    @Test
+    public void shouldContinueFromCheckpointWithoutCreatingMessageStore() throws ExecutionException, InterruptedException {
+        // given
+        final ChannelPosition checkpoint = channelPosition(fromPosition("bar", "42"));
+        final ChannelCheckpoints checkpoints = mock(ChannelCheckpoints.class);
+        when(checkpoints.getCheckpoint("some-channel")).thenReturn(Optional.of(checkpoint));
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint();
+        final EventSource eventSource = EventSourceBuilder.checkpointing(messageStoreFactory, checkpoints).buildEventSource(messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(messageStoreFactory, never()).createMessageStoreFor(anyString());
+        verify(messageLog).consumeUntil(checkpoint, shutdown());
+    }
+
+    @Test
+    public void shouldCreateMessageStoreWithoutCheckpoint() throws ExecutionException, InterruptedException {
+        // given
+        final ChannelCheckpoints checkpoints = mock(ChannelCheckpoints.class);
+        when(checkpoints.getCheckpoint("some-channel")).thenReturn(Optional.empty());
+        final MessageStore messageStore = mockMessageStore(fromHorizon());
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        when(messageStoreFactory.createMessageStoreFor("some-channel")).thenReturn(messageStore);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint();
+        final EventSource eventSource = EventSourceBuilder.checkpointing(messageStoreFactory, checkpoints).buildEventSource(messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(messageStore).stream();
+        verify(checkpoints).checkpoint("some-channel", fromHorizon());
+    }
+
     @Test
     public void shouldStopMessageLogReceiverEndpoint() {
         // given
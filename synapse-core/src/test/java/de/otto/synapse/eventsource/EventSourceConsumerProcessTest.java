@@ -1,22 +1,37 @@
 package de.otto.synapse.eventsource;
 
 import de.otto.synapse.channel.InMemoryChannel;
+import de.otto.synapse.consumer.MessageConsumer;
 import de.otto.synapse.consumer.TestMessageConsumer;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.message.Key;
 import de.otto.synapse.message.TextMessage;
+import de.otto.synapse.state.ChronicleMapStateRepository;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
 import static de.otto.synapse.consumer.TestMessageConsumer.testEventConsumer;
 import static de.otto.synapse.messagestore.MessageStores.emptyMessageStore;
 import static java.util.Collections.singletonList;
 import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.mockito.Mockito.*;
 
 public class EventSourceConsumerProcessTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void shouldStopEventSources() {
         final EventSource eventSource = mock(EventSource.class);
@@ -79,4 +94,55 @@ public class EventSourceConsumerProcessTest {
                 .until(() -> eventConsumerB.getConsumedMessages().size() == 1);
     }
 
+    @Test
+    public void shouldCheckpointChannelPositionBeforeStopReturns() throws Exception {
+        // given
+        final File file = new File(temporaryFolder.getRoot(), "some-repository.dat");
+        ChronicleMapStateRepository<String> repository = ChronicleMapStateRepository.builder(String.class)
+                .withPersistenceFile(file)
+                .build();
+        final InMemoryChannel channel = new InMemoryChannel("test", new MessageInterceptorRegistry());
+        final EventSource eventSource = new DefaultEventSource(emptyMessageStore(), channel, repository);
+        final CountDownLatch consuming = new CountDownLatch(1);
+        eventSource.register(MessageConsumer.of(".*", String.class, message -> {
+            consuming.countDown();
+            // still consuming, while the process is stopped:
+            sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
+        }));
+        channel.send(TextMessage.of(Key.of("test"), "some payload"));
+
+        final EventSourceConsumerProcess process = new EventSourceConsumerProcess(singletonList(eventSource));
+        process.start();
+        consuming.await(1, TimeUnit.SECONDS);
+
+        // when the application context is closed:
+        process.stop();
+        repository.close();
+
+        // then
+        repository = ChronicleMapStateRepository.builder(String.class)
+                .withPersistenceFile(file)
+                .build();
+        assertThat(repository.getCheckpoint("test").isPresent(), is(true));
+        repository.close();
+    }
+
+    @Test
+    public void shouldStopWaitingForEventSourcesAfterShutdownTimeout() {
+        // given
+        final EventSource eventSource = mock(EventSource.class);
+        when(eventSource.consume()).thenReturn(new CompletableFuture<>());
+
+        final EventSourceConsumerProcess process = new EventSourceConsumerProcess(singletonList(eventSource), Duration.ofMillis(100));
+        process.start();
+
+        // when
+        final long started = System.currentTimeMillis();
+        process.stop();
+
+        // then
+        assertThat(System.currentTimeMillis() - started, is(lessThan(1000L)));
+        assertThat(process.isRunning(), is(false));
+    }
+
 }
@@ -0,0 +1,129 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.TextMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class KeyOrderedReplayExecutorTest {
+
+    @Test
+    public void shouldReplayAllMessages() throws InterruptedException {
+        // given
+        final AtomicInteger counter = new AtomicInteger();
+        final KeyOrderedReplayExecutor executor = new KeyOrderedReplayExecutor(4, 10, message -> counter.incrementAndGet(), null);
+
+        // when
+        for (int i = 0; i < 1000; i++) {
+            executor.submit(TextMessage.of(Key.of("key-" + i), "payload"));
+        }
+        executor.awaitCompletion();
+
+        // then
+        assertThat(counter.get(), is(1000));
+    }
+
+    @Test
+    public void shouldKeepOrderingOfMessagesWithSamePartitionKey() throws InterruptedException {
+        // given
+        final Map<String, List<String>> payloadsPerKey = new ConcurrentHashMap<>();
+        final KeyOrderedReplayExecutor executor = new KeyOrderedReplayExecutor(8, 5, message -> payloadsPerKey
+                .computeIfAbsent(message.getKey().partitionKey(), k -> new CopyOnWriteArrayList<>())
+                .add(message.getPayload()), null);
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            for (int k = 0; k < 20; k++) {
+                executor.submit(TextMessage.of(Key.of("product-" + k, "update#product-" + k), String.valueOf(i)));
+            }
+        }
+        executor.awaitCompletion();
+
+        // then
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(String.valueOf(i));
+        }
+        for (int k = 0; k < 20; k++) {
+            assertThat(payloadsPerKey.get("product-" + k), contains(expected.toArray()));
+        }
+    }
+
+    @Test
+    public void shouldContinueAfterFailingMessage() throws InterruptedException {
+        // given
+        final AtomicInteger counter = new AtomicInteger();
+        final KeyOrderedReplayExecutor executor = new KeyOrderedReplayExecutor(1, 10, message -> {
+            if (message.getPayload() == null) {
+                throw new IllegalStateException("boom");
+            }
+            counter.incrementAndGet();
+        }, null);
+
+        // when
+        executor.submit(TextMessage.of(Key.of("1"), "first"));
+        executor.submit(TextMessage.of(Key.of("2"), null));
+        executor.submit(TextMessage.of(Key.of("3"), "third"));
+        executor.awaitCompletion();
+
+        // then
+        assertThat(counter.get(), is(2));
+    }
+
+    @Test
+    public void shouldReplayMessagesInBatches() throws InterruptedException {
+        // given
+        final Map<String, List<String>> payloadsPerKey = new ConcurrentHashMap<>();
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final KeyOrderedReplayExecutor executor = new KeyOrderedReplayExecutor(4, 100, 10, batch -> {
+            batchSizes.add(batch.size());
+            batch.forEach(message -> payloadsPerKey
+                    .computeIfAbsent(message.getKey().partitionKey(), k -> new CopyOnWriteArrayList<>())
+                    .add(message.getPayload()));
+        }, null);
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            for (int k = 0; k < 20; k++) {
+                executor.submit(TextMessage.of(Key.of("product-" + k), String.valueOf(i)));
+            }
+        }
+        executor.awaitCompletion();
+
+        // then
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(String.valueOf(i));
+        }
+        for (int k = 0; k < 20; k++) {
+            assertThat(payloadsPerKey.get("product-" + k), contains(expected.toArray()));
+        }
+        assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum(), is(2000));
+        assertThat(batchSizes.stream().allMatch(size -> size > 0 && size <= 10), is(true));
+    }
+
+    @Test
+    public void shouldSelectSameLaneForSamePartitionKey() {
+        // given
+        final KeyOrderedReplayExecutor executor = new KeyOrderedReplayExecutor(3, 1, message -> {}, null);
+
+        // then
+        assertThat(executor.laneOf(Key.of("foo", "bar")), is(executor.laneOf(Key.of("foo", "baz"))));
+        executor.abort();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectZeroLanes() {
+        new KeyOrderedReplayExecutor(0, 1, message -> {}, null);
+    }
+}
@@ -37,7 +37,8 @@ public class CompactingMessageStoreTest {
     @Parameters
     public static Iterable<? extends Supplier<MessageStore>> messageStores() {
         return asList(
-                () -> new OnHeapCompactingMessageStore(true)
+                () -> new OnHeapCompactingMessageStore(true),
+                () -> new OffHeapCompactingMessageStore(true)
         );
     }
 
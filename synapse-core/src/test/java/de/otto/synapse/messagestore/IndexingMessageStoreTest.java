@@ -140,6 +140,8 @@ public class IndexingMessageStoreTest {
                 assertThat(lastPositions.get(shard.shardName()), is(lessThanOrEqualTo(pos)));
             }
         });
+        assertThat(messageStore.stream(Index.CHANNEL_NAME, "first").count(), is(500L));
+        assertThat(messageStore.stream(Index.CHANNEL_NAME, "second").count(), is(500L));
         assertThat(messageStore.size(), is(1000L));
     }
 
@@ -40,7 +40,8 @@ public class MessageStoreTest {
                 () -> new OnHeapIndexingMessageStore(),
                 () -> new OffHeapIndexingMessageStore("test"),
                 () -> new OnHeapRingBufferMessageStore(1000),
-                () -> new OnHeapCompactingMessageStore(true)
+                () -> new OnHeapCompactingMessageStore(true),
+                () -> new OffHeapCompactingMessageStore(true)
         );
     }
 
@@ -0,0 +1,146 @@
+package de.otto.synapse.messagestore;
+
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.message.Header;
+import de.otto.synapse.message.Key;
+import de.otto.synapse.message.TextMessage;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static java.lang.String.valueOf;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class OffHeapCompactingMessageStoreTest {
+
+    @Test
+    public void shouldEvictLeastRecentlyAddedMessages() {
+        final MessageStore messageStore = new OffHeapCompactingMessageStore(true, 3);
+        for (int i = 0; i < 5; ++i) {
+            messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of(valueOf(i)), "some payload")));
+        }
+        assertThat(messageStore.size(), is(3L));
+        assertThat(compactionKeys(messageStore), contains("2", "3", "4"));
+    }
+
+    @Test
+    public void shouldNotEvictRecentlyUpdatedMessages() {
+        final MessageStore messageStore = new OffHeapCompactingMessageStore(true, 3);
+        for (int i = 0; i < 3; ++i) {
+            messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of(valueOf(i)), "some payload")));
+        }
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("0"), "some updated payload")));
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("3"), "some payload")));
+
+        assertThat(compactionKeys(messageStore), contains("2", "0", "3"));
+    }
+
+    @Test
+    public void shouldStreamMessagesInOrderOfLatestUpdates() {
+        final MessageStore messageStore = new OffHeapCompactingMessageStore(true);
+        for (int i = 0; i < 1000; ++i) {
+            messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of(valueOf(i % 10)), "some payload")));
+        }
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("5"), null)));
+
+        assertThat(messageStore.size(), is(9L));
+        assertThat(compactionKeys(messageStore), contains("0", "1", "2", "3", "4", "6", "7", "8", "9"));
+    }
+
+    @Test
+    public void shouldRestoreEntriesFromOffHeapMemory() {
+        final MessageStore messageStore = new OffHeapCompactingMessageStore(true);
+        final Instant now = Instant.now();
+        final MessageStoreEntry first = MessageStoreEntry.of(
+                "some-channel",
+                ImmutableMap.of(Index.PARTITION_KEY, "p1"),
+                TextMessage.of(Key.of("p1", "c1"), Header.of(fromPosition("shard-1", "42"), ImmutableMap.of("attr", "välue")), "{\"some\":\"payload\"}"));
+        final MessageStoreEntry second = MessageStoreEntry.of(
+                "other-channel",
+                TextMessage.of(Key.of("p2"), Header.of(ShardPosition.fromTimestamp("shard-2", now)), "ßome payload"));
+        final MessageStoreEntry third = MessageStoreEntry.of(
+                "other-channel",
+                TextMessage.of(Key.of("p3"), Header.of(), "some payload"));
+
+        messageStore.add(first);
+        messageStore.add(second);
+        messageStore.add(third);
+
+        assertThat(messageStore.stream().collect(toList()), contains(first, second, third));
+    }
+
+    @Test
+    public void shouldSizeOffHeapMapsFromMaxCapacity() {
+        assertThat(OffHeapCompactingMessageStore.expectedEntriesFor(100), is(100L));
+        assertThat(OffHeapCompactingMessageStore.expectedEntriesFor(500_000), is(100_000L));
+        assertThat(OffHeapCompactingMessageStore.expectedEntriesFor(20_000_000), is(2_000_000L));
+        assertThat(OffHeapCompactingMessageStore.expectedEntriesFor(Long.MAX_VALUE), is(100_000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToCreateStoreIfMaxCapacityExceedsOffHeapMaps() {
+        new OffHeapCompactingMessageStore(true, 1_001, 100, 64);
+    }
+
+    @Test
+    public void shouldKeepOrderOfMessagesWhenRenumberingEntries() {
+        final OffHeapCompactingMessageStore messageStore = new OffHeapCompactingMessageStore(true);
+        for (int i = 0; i < 100; ++i) {
+            messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of(valueOf(i % 5)), "some payload")));
+        }
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("2"), "some payload")));
+
+        messageStore.renumberEntries();
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("0"), "some payload")));
+
+        assertThat(messageStore.size(), is(5L));
+        assertThat(compactionKeys(messageStore), contains("1", "3", "4", "2", "0"));
+    }
+
+    @Test
+    public void shouldContinueStreamsWhenRenumberingEntries() {
+        final OffHeapCompactingMessageStore messageStore = new OffHeapCompactingMessageStore(true);
+        for (int i = 0; i < 100; ++i) {
+            messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of(valueOf(i % 5)), "some payload")));
+        }
+        final Iterator<MessageStoreEntry> iterator = messageStore.stream().iterator();
+        final List<String> compactionKeys = new ArrayList<>();
+        compactionKeys.add(iterator.next().getTextMessage().getKey().compactionKey());
+        compactionKeys.add(iterator.next().getTextMessage().getKey().compactionKey());
+
+        messageStore.renumberEntries();
+        messageStore.renumberEntries();
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("5"), "some payload")));
+        iterator.forEachRemaining(entry -> compactionKeys.add(entry.getTextMessage().getKey().compactionKey()));
+
+        assertThat(compactionKeys, contains("0", "1", "2", "3", "4", "5"));
+    }
+
+    @Test
+    public void shouldRenumberSparseEntries() {
+        final OffHeapCompactingMessageStore messageStore = new OffHeapCompactingMessageStore(true, Long.MAX_VALUE, 100, 64, 100);
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("pinned"), "some payload")));
+        for (int i = 0; i < 1000; ++i) {
+            messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("hot"), "some payload")));
+        }
+        messageStore.add(MessageStoreEntry.of("some-channel", TextMessage.of(Key.of("other"), "some payload")));
+
+        assertThat(messageStore.span(), is(lessThan(100L)));
+        assertThat(compactionKeys(messageStore), contains("pinned", "hot", "other"));
+    }
+
+    private List<String> compactionKeys(final MessageStore messageStore) {
+        return messageStore.stream()
+                .map(entry -> entry.getTextMessage().getKey().compactionKey())
+                .collect(toList());
+    }
+}
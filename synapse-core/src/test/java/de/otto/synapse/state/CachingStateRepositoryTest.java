@@ -0,0 +1,138 @@
+package de.otto.synapse.state;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static com.google.common.collect.ImmutableMap.of;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CachingStateRepositoryTest {
+
+    @Test
+    public void shouldReadCachedValueFromCache() {
+        // given
+        final StateRepository<String> delegate = spy(new ConcurrentMapStateRepository<>("test"));
+        delegate.put("someKey", "some value");
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(delegate, 10);
+        // when
+        repository.get("someKey");
+        final Optional<String> result = repository.get("someKey");
+        // then
+        assertThat(result, is(Optional.of("some value")));
+        verify(delegate, times(1)).get("someKey");
+        assertThat(repository.getHitCount(), is(1L));
+        assertThat(repository.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotCacheMissingValues() {
+        // given
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(new ConcurrentMapStateRepository<>("test"), 10);
+        // when
+        final Optional<String> result = repository.get("someKey");
+        // then
+        assertThat(result, is(Optional.empty()));
+        assertThat(repository.getCacheSize(), is(0L));
+    }
+
+    @Test
+    public void shouldInvalidateCachedValueOnPut() {
+        // given
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(new ConcurrentMapStateRepository<>("test"), 10);
+        repository.put("someKey", "some value");
+        repository.get("someKey");
+        // when
+        repository.put("someKey", "other value");
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of("other value")));
+    }
+
+    @Test
+    public void shouldInvalidateCachedValuesOnPutAll() {
+        // given
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(new ConcurrentMapStateRepository<>("test"), 10);
+        repository.put("someKey", "some value");
+        repository.get("someKey");
+        // when
+        repository.putAll(of("someKey", "other value", "otherKey", "other value"));
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of("other value")));
+        assertThat(repository.get("otherKey"), is(Optional.of("other value")));
+    }
+
+    @Test
+    public void shouldInvalidateCachedValueOnCompute() {
+        // given
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(new ConcurrentMapStateRepository<>("test"), 10);
+        repository.put("someKey", "some value");
+        repository.get("someKey");
+        // when
+        repository.compute("someKey", (key, previous) -> previous.orElse("") + " computed");
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of("some value computed")));
+    }
+
+    @Test
+    public void shouldInvalidateCachedValueOnRemove() {
+        // given
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(new ConcurrentMapStateRepository<>("test"), 10);
+        repository.put("someKey", "some value");
+        repository.get("someKey");
+        // when
+        repository.remove("someKey");
+        // then
+        assertThat(repository.get("someKey"), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldInvalidateCachedValuesOnClear() {
+        // given
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(new ConcurrentMapStateRepository<>("test"), 10);
+        repository.put("someKey", "some value");
+        repository.get("someKey");
+        // when
+        repository.clear();
+        // then
+        assertThat(repository.get("someKey"), is(Optional.empty()));
+        assertThat(repository.getCacheSize(), is(0L));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedValues() {
+        // given
+        final StateRepository<String> delegate = spy(new ConcurrentMapStateRepository<>("test"));
+        delegate.putAll(of("first", "1", "second", "2", "third", "3"));
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(delegate, 2);
+        repository.get("first");
+        repository.get("second");
+        // when 'first' is used again, 'second' is the least-recently used value:
+        repository.get("first");
+        repository.get("third");
+        // then 'second' is evicted, while 'first' is still cached:
+        assertThat(repository.getCacheSize(), is(2L));
+        assertThat(repository.get("first"), is(Optional.of("1")));
+        assertThat(repository.get("second"), is(Optional.of("2")));
+        verify(delegate, times(1)).get("first");
+        verify(delegate, times(2)).get("second");
+        verify(delegate, times(1)).get("third");
+        assertThat(repository.getHitCount(), is(2L));
+        assertThat(repository.getMissCount(), is(4L));
+    }
+
+    @Test
+    public void shouldLimitWeightOfCachedValues() {
+        // given
+        final CachingStateRepository<String> repository = new CachingStateRepository<>(new ConcurrentMapStateRepository<>("test"), 10, String::length);
+        repository.putAll(of("first", "12345", "second", "123456"));
+        // when
+        repository.get("first");
+        repository.get("second");
+        // then
+        assertThat(repository.getCacheSize(), is(1L));
+    }
+}
@@ -1,21 +1,43 @@
 package de.otto.synapse.state;
 
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.messagestore.Index;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.state.ChronicleMapStateRepository.builder;
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class ChronicleMapStateRepositoryTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void shouldRetrieveValueAfterPut() {
         // given
@@ -28,6 +50,22 @@ public class ChronicleMapStateRepositoryTest {
         assertThat(result.get(), is(new SomePojo("A", 1)));
     }
 
+    @Test
+    public void shouldRetrieveValuesAfterPutAll() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).build();
+        repository.put("someKeyA", new SomePojo("A", 1));
+        Map<String, SomePojo> entries = new HashMap<>();
+        entries.put("someKeyA", new SomePojo("A", 2));
+        entries.put("someKeyB", new SomePojo("B", 3));
+        // when
+        repository.putAll(entries);
+        // then
+        assertThat(repository.size(), is(2L));
+        assertThat(repository.get("someKeyA").get(), is(new SomePojo("A", 2)));
+        assertThat(repository.get("someKeyB").get(), is(new SomePojo("B", 3)));
+    }
+
     @Test
     public void shouldReturnOptionalEmptyForUnknownKey() {
         // given
@@ -76,6 +114,249 @@ public class ChronicleMapStateRepositoryTest {
         assertThat(resultKeys, containsInAnyOrder("someKeyA", "someKeyB", "someKeyC"));
     }
 
+    @Test
+    public void shouldStoreValuesUsingValueCodecs() {
+        for (ValueCodec<SomePojo> valueCodec : asList(ValueCodecs.json(SomePojo.class), ValueCodecs.smile(SomePojo.class), ValueCodecs.cbor(SomePojo.class))) {
+            // given
+            ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).withValueCodec(valueCodec).build();
+            // when
+            repository.put("someKey", new SomePojo("A", 1));
+            repository.compute("someKey", (key, previous) -> new SomePojo(previous.get().someString, previous.get().someInteger + 1));
+            // then
+            assertThat(repository.get("someKey").get(), is(new SomePojo("A", 2)));
+        }
+    }
+
+    @Test
+    public void shouldUseCustomValueCodec() {
+        // given
+        ValueCodec<SomePojo> valueCodec = new ValueCodec<SomePojo>() {
+            @Override
+            public void write(OutputStream outputStream, SomePojo value) throws IOException {
+                DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+                dataOutputStream.writeUTF(value.someString);
+                dataOutputStream.writeInt(value.someInteger);
+                dataOutputStream.flush();
+            }
+
+            @Override
+            public SomePojo read(InputStream inputStream) throws IOException {
+                DataInputStream dataInputStream = new DataInputStream(inputStream);
+                return new SomePojo(dataInputStream.readUTF(), dataInputStream.readInt());
+            }
+        };
+        ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).withValueCodec(valueCodec).build();
+        // when
+        repository.put("someKey", new SomePojo("A", 42));
+        // then
+        assertThat(repository.get("someKey").get(), is(new SomePojo("A", 42)));
+    }
+
+    @Test
+    public void shouldRecoverPersistedEntitiesAndCheckpoints() throws Exception {
+        // given
+        final File file = new File(temporaryFolder.getRoot(), "some-repository.dat");
+        final ChannelPosition channelPosition = channelPosition(fromPosition("some-shard", "42"));
+        ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        repository.put("someKey", new SomePojo("A", 1));
+        repository.checkpoint("some-channel", channelPosition);
+        repository.close();
+        // when
+        repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        // then
+        assertThat(repository.get("someKey").get(), is(new SomePojo("A", 1)));
+        assertThat(repository.getCheckpoint("some-channel"), is(Optional.of(channelPosition)));
+        assertThat(repository.getCheckpoint("other-channel"), is(Optional.empty()));
+        repository.close();
+    }
+
+    @Test
+    public void shouldInvalidateCheckpointsAfterRecovery() throws Exception {
+        // given
+        final File file = new File(temporaryFolder.getRoot(), "some-repository.dat");
+        ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        repository.put("someKey", new SomePojo("A", 1));
+        repository.checkpoint("some-channel", channelPosition(fromPosition("some-shard", "42")));
+        repository.close();
+        // when the recovered repository is modified without writing a new checkpoint:
+        repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        repository.put("someKey", new SomePojo("A", 2));
+        repository.close();
+        // then
+        repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        assertThat(repository.size(), is(0L));
+        assertThat(repository.getCheckpoint("some-channel"), is(Optional.empty()));
+        repository.close();
+    }
+
+    @Test
+    public void shouldDiscardPersistedEntitiesWithoutCheckpoint() throws Exception {
+        // given
+        final File file = new File(temporaryFolder.getRoot(), "some-repository.dat");
+        ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        repository.put("someKey", new SomePojo("A", 1));
+        repository.close();
+        // when
+        repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        // then
+        assertThat(repository.size(), is(0L));
+        assertThat(repository.getCheckpoint("some-channel"), is(Optional.empty()));
+        repository.close();
+    }
+
+    @Test
+    public void shouldRecoverPersistedEntitiesWrittenWithValueCodec() throws Exception {
+        // given
+        final File file = new File(temporaryFolder.getRoot(), "some-repository.dat");
+        ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class)
+                .withPersistenceFile(file)
+                .withValueCodec(ValueCodecs.smile(SomePojo.class))
+                .build();
+        repository.put("someKey", new SomePojo("A", 1));
+        repository.checkpoint("some-channel", channelPosition(fromPosition("some-shard", "42")));
+        repository.close();
+        // when
+        repository = builder(SomePojo.class)
+                .withPersistenceFile(file)
+                .withValueCodec(ValueCodecs.smile(SomePojo.class))
+                .build();
+        // then
+        assertThat(repository.get("someKey").get(), is(new SomePojo("A", 1)));
+        repository.close();
+    }
+
+    @Test
+    public void shouldIgnoreCheckpointsOfInMemoryRepository() throws Exception {
+        // given
+        final ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).build();
+        // when
+        repository.checkpoint("some-channel", channelPosition(fromPosition("some-shard", "42")));
+        // then
+        assertThat(repository.getCheckpoint("some-channel"), is(Optional.empty()));
+        repository.close();
+    }
+
+    @Test
+    public void shouldFindEntitiesByIndexedValue() throws Exception {
+        // given
+        final Index someStringIndex = Index.valueOf("someString");
+        final ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class)
+                .withIndexer(StateIndexer.indexer(someStringIndex, pojo -> pojo.someString))
+                .build();
+        // when
+        repository.put("first", new SomePojo("A", 1));
+        repository.put("second", new SomePojo("A", 2));
+        repository.put("third", new SomePojo("B", 3));
+        // then
+        assertThat(repository.getIndexes(), contains(someStringIndex));
+        assertThat(repository.findKeys(someStringIndex, "A"), containsInAnyOrder("first", "second"));
+        assertThat(repository.findBy(someStringIndex, "B").collect(Collectors.toList()), contains(new SomePojo("B", 3)));
+        assertThat(repository.findKeys(someStringIndex, "C"), is(empty()));
+        repository.close();
+    }
+
+    @Test
+    public void shouldUpdateIndexesOnPutComputeAndRemove() throws Exception {
+        // given
+        final Index someStringIndex = Index.valueOf("someString");
+        final ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class)
+                .withIndexer(StateIndexer.indexer(someStringIndex, pojo -> pojo.someString))
+                .build();
+        repository.putAll(ImmutableMap.of("first", new SomePojo("A", 1), "second", new SomePojo("A", 2)));
+        // when
+        repository.put("first", new SomePojo("B", 1));
+        repository.compute("second", (key, previous) -> new SomePojo("C", previous.get().someInteger));
+        repository.compute("third", (key, previous) -> new SomePojo("C", 3));
+        repository.remove("third");
+        // then
+        assertThat(repository.findKeys(someStringIndex, "A"), is(empty()));
+        assertThat(repository.findKeys(someStringIndex, "B"), contains("first"));
+        assertThat(repository.findKeys(someStringIndex, "C"), contains("second"));
+        repository.close();
+    }
+
+    @Test
+    public void shouldIndexMultipleValuesPerEntity() throws Exception {
+        // given
+        final Index valuesIndex = Index.valueOf("values");
+        final ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class)
+                .withIndexer(StateIndexer.multiValueIndexer(valuesIndex, pojo -> asList(pojo.someString, String.valueOf(pojo.someInteger))))
+                .build();
+        // when
+        repository.put("first", new SomePojo("A", 1));
+        repository.put("second", new SomePojo("B", 1));
+        // then
+        assertThat(repository.findKeys(valuesIndex, "A"), contains("first"));
+        assertThat(repository.findKeys(valuesIndex, "1"), containsInAnyOrder("first", "second"));
+        repository.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToFindEntitiesByUnknownIndex() {
+        builder(SomePojo.class).build().findKeys(Index.valueOf("unknown"), "A");
+    }
+
+    @Test
+    public void shouldRebuildIndexesOfRecoveredEntities() throws Exception {
+        // given
+        final File file = new File(temporaryFolder.getRoot(), "some-repository.dat");
+        final Index someStringIndex = Index.valueOf("someString");
+        ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).withPersistenceFile(file).build();
+        repository.put("someKey", new SomePojo("A", 1));
+        repository.checkpoint("some-channel", channelPosition(fromPosition("some-shard", "42")));
+        repository.close();
+        // when
+        repository = builder(SomePojo.class)
+                .withPersistenceFile(file)
+                .withIndexer(StateIndexer.indexer(someStringIndex, pojo -> pojo.someString))
+                .build();
+        // then
+        assertThat(repository.findKeys(someStringIndex, "A"), contains("someKey"));
+        repository.close();
+    }
+
+    @Test
+    public void shouldIterateAllKeysUsingKeyPages() throws Exception {
+        // given
+        final ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).build();
+        final List<String> expectedKeys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            repository.put("key-" + i, new SomePojo("A", i));
+            expectedKeys.add("key-" + i);
+        }
+        // when
+        final List<String> keys = new ArrayList<>();
+        KeyPage page = repository.keyPage(null, 7);
+        keys.addAll(page.getKeys());
+        while (page.getNextCursor().isPresent()) {
+            assertThat(page.getKeys().size(), is(7));
+            page = repository.keyPage(page.getNextCursor().get(), 7);
+            keys.addAll(page.getKeys());
+        }
+        // then
+        assertThat(keys, containsInAnyOrder(expectedKeys.toArray()));
+        repository.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidKeyPageCursor() {
+        builder(SomePojo.class).build().keyPage("42", 7);
+    }
+
+    @Test
+    public void shouldRejectKeyPageCursorOutOfSegmentRange() {
+        final ChronicleMapStateRepository<SomePojo> repository = builder(SomePojo.class).build();
+        repository.put("someKey", new SomePojo("A", 1));
+        for (final String cursor : asList("-1:0", "2147483647:0", "0:-1")) {
+            try {
+                repository.keyPage(cursor, 7);
+                fail("Expected IllegalArgumentException for cursor " + cursor);
+            } catch (final IllegalArgumentException e) {
+                assertThat(e.getMessage(), is("Invalid cursor " + cursor));
+            }
+        }
+    }
+
     public static class SomePojo {
 
         public String someString;
@@ -0,0 +1,148 @@
+package de.otto.synapse.state;
+
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.messagestore.Index;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static de.otto.synapse.state.KeyPage.keyPage;
+import static de.otto.synapse.state.StateIndexer.indexer;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class ConcurrentMapStateRepositoryTest {
+
+    private static final Index FIRST_CHAR = Index.valueOf("firstChar");
+
+    @Test
+    public void shouldIterateAllKeysUsingKeyPages() {
+        // given
+        final ConcurrentMapStateRepository<String> repository = new ConcurrentMapStateRepository<>("test");
+        asList("a", "b", "c", "d", "e").forEach(key -> repository.put(key, "value of " + key));
+        // when
+        final List<String> keys = new ArrayList<>();
+        KeyPage page = repository.keyPage(null, 2);
+        keys.addAll(page.getKeys());
+        while (page.getNextCursor().isPresent()) {
+            page = repository.keyPage(page.getNextCursor().get(), 2);
+            keys.addAll(page.getKeys());
+        }
+        // then
+        assertThat(keys, containsInAnyOrder("a", "b", "c", "d", "e"));
+    }
+
+    @Test
+    public void shouldReturnOrderedKeyPagesOfNavigableMap() {
+        // given
+        final ConcurrentMapStateRepository<String> repository = new ConcurrentMapStateRepository<>("test", new ConcurrentSkipListMap<>());
+        asList("e", "d", "c", "b", "a").forEach(key -> repository.put(key, "value of " + key));
+        // when
+        final KeyPage firstPage = repository.keyPage(null, 2);
+        final KeyPage secondPage = repository.keyPage(firstPage.getNextCursor().get(), 2);
+        final KeyPage lastPage = repository.keyPage(secondPage.getNextCursor().get(), 2);
+        // then
+        assertThat(firstPage, is(keyPage(asList("a", "b"), "b")));
+        assertThat(secondPage, is(keyPage(asList("c", "d"), "d")));
+        assertThat(lastPage, is(keyPage(asList("e"), null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidCursor() {
+        new ConcurrentMapStateRepository<String>("test").keyPage("not-a-cursor", 2);
+    }
+
+    @Test
+    public void shouldIndexEntitiesOfGivenMapOnCreation() {
+        // given
+        final ConcurrentMap<String, String> map = new ConcurrentHashMap<>();
+        map.put("1", "apple");
+        map.put("2", "avocado");
+        map.put("3", "banana");
+        // when
+        final ConcurrentMapStateRepository<String> repository = new ConcurrentMapStateRepository<>("test", map, firstCharIndexer());
+        // then
+        assertThat(repository.getIndexes(), contains(FIRST_CHAR));
+        assertThat(repository.findKeys(FIRST_CHAR, "a"), containsInAnyOrder("1", "2"));
+        assertThat(repository.findKeys(FIRST_CHAR, "b"), contains("3"));
+    }
+
+    @Test
+    public void shouldUpdateIndexesOnPutAll() {
+        // given
+        final ConcurrentMapStateRepository<String> repository = new ConcurrentMapStateRepository<>("test", new ConcurrentHashMap<>(), firstCharIndexer());
+        repository.put("1", "apple");
+        // when
+        repository.putAll(ImmutableMap.of(
+                "1", "banana",
+                "2", "avocado"));
+        // then
+        assertThat(repository.findKeys(FIRST_CHAR, "a"), contains("2"));
+        assertThat(repository.findKeys(FIRST_CHAR, "b"), contains("1"));
+    }
+
+    @Test
+    public void shouldClearIndexesOnClear() {
+        // given
+        final ConcurrentMapStateRepository<String> repository = new ConcurrentMapStateRepository<>("test", new ConcurrentHashMap<>(), firstCharIndexer());
+        repository.put("1", "apple");
+        repository.put("2", "banana");
+        // when
+        repository.clear();
+        // then
+        assertThat(repository.size(), is(0L));
+        assertThat(repository.findKeys(FIRST_CHAR, "a"), is(empty()));
+        assertThat(repository.findKeys(FIRST_CHAR, "b"), is(empty()));
+    }
+
+    @Test
+    public void shouldKeepIndexesConsistentIfClearIsRunningConcurrentlyToPut() throws Exception {
+        final ExecutorService executorService = newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 50; i++) {
+                // given
+                final ConcurrentMapStateRepository<String> repository = new ConcurrentMapStateRepository<>("test", new ConcurrentHashMap<>(), firstCharIndexer());
+                for (int key = 0; key < 500; key++) {
+                    repository.put("old-" + key, "apple");
+                }
+                final CountDownLatch started = new CountDownLatch(1);
+                // when
+                final Future<?> putting = executorService.submit(() -> {
+                    started.countDown();
+                    for (int key = 0; key < 500; key++) {
+                        repository.put("new-" + key, "apple");
+                    }
+                });
+                final Future<?> clearing = executorService.submit(() -> {
+                    awaitUninterruptibly(started);
+                    repository.clear();
+                });
+                putting.get();
+                clearing.get();
+                // then
+                assertThat(repository.findKeys(FIRST_CHAR, "a"), is(new HashSet<>(repository.keySet())));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static List<StateIndexer<String>> firstCharIndexer() {
+        return singletonList(indexer(FIRST_CHAR, value -> value.substring(0, 1)));
+    }
+}
@@ -0,0 +1,55 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.state.ChronicleMapStateRepositoryTest.SomePojo;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class ValueCodecsTest {
+
+    @Test
+    public void shouldWriteAndReadJson() throws IOException {
+        // given
+        ValueCodec<SomePojo> codec = ValueCodecs.json(SomePojo.class);
+        // when
+        byte[] bytes = write(codec, new SomePojo("A", 1));
+        // then
+        assertThat(new String(bytes, UTF_8), is("{\"someString\":\"A\",\"someInteger\":1}"));
+        assertThat(codec.read(new ByteArrayInputStream(bytes)), is(new SomePojo("A", 1)));
+    }
+
+    @Test
+    public void shouldWriteAndReadSmile() throws IOException {
+        // given
+        ValueCodec<SomePojo> codec = ValueCodecs.smile(SomePojo.class);
+        // when
+        byte[] bytes = write(codec, new SomePojo("A", 1));
+        // then
+        assertThat(new String(bytes, 0, 2, UTF_8), is(":)"));
+        assertThat(codec.read(new ByteArrayInputStream(bytes)), is(new SomePojo("A", 1)));
+    }
+
+    @Test
+    public void shouldWriteAndReadCbor() throws IOException {
+        // given
+        ValueCodec<SomePojo> codec = ValueCodecs.cbor(SomePojo.class);
+        // when
+        byte[] bytes = write(codec, new SomePojo("A", 1));
+        // then
+        assertThat(bytes.length, lessThan(write(ValueCodecs.json(SomePojo.class), new SomePojo("A", 1)).length));
+        assertThat(codec.read(new ByteArrayInputStream(bytes)), is(new SomePojo("A", 1)));
+    }
+
+    private static <V> byte[] write(ValueCodec<V> codec, V value) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.write(outputStream, value);
+        return outputStream.toByteArray();
+    }
+}
@@ -11,6 +11,7 @@ import org.junit.Test;
 
 import static com.google.common.collect.ImmutableBiMap.of;
 import static de.otto.synapse.message.Key.NO_KEY;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.is;
 
@@ -150,4 +151,111 @@ public class AbstractTextDecoderTest {
         Assert.assertThat(transformed.getKey(), is(message.getKey()));
         Assert.assertThat(transformed.getPayload(), is(message.getPayload()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldDecodeV2FormatWithNonStringHeaderValues() {
+        final String body = "{\"_synapse_msg_format\":\"v2\","
+                + "\"_synapse_msg_headers\":{\"count\":42,\"flag\":true},"
+                + "\"_synapse_msg_payload\":{}}";
+
+        final Message<String> message = decoder.apply(body);
+
+        assertThat(message.getHeader().getAsString("count")).isEqualTo("42");
+        assertThat(message.getHeader().getAsString("flag")).isEqualTo("true");
+    }
+
+    @Test
+    public void shouldDecodeV2FormatWithNestedPayloadAndUnknownFields() {
+        final String body = "{\"_synapse_msg_format\":\"v2\","
+                + "\"_synapse_msg_payload\":{\"some\":{\"nested\":[1,2,3]}},"
+                + "\"_some_future_field\":{\"foo\":[{}]},"
+                + "\"_synapse_msg_key\":{\"partitionKey\":\"p1\",\"compactionKey\":\"p2\"}}";
+
+        final Message<String> message = decoder.apply(body);
+
+        assertThat(message.getKey()).isEqualTo(Key.of("p1", "p2"));
+        assertThat(message.getPayload()).isEqualTo("{\"some\":{\"nested\":[1,2,3]}}");
+    }
+
+    @Test
+    public void shouldDecodeV2FormatWithArrayPayload() {
+        final String body = "{\"_synapse_msg_format\":\"v2\",\"_synapse_msg_payload\":[{\"a\":1},{\"b\":2}]}";
+
+        final Message<String> message = decoder.apply(body);
+
+        assertThat(message.getPayload()).isEqualTo("[{\"a\":1},{\"b\":2}]");
+    }
+
+    @Test
+    public void shouldDecodeV2FormatWithTextPayload() {
+        final TextMessage someMessage = TextMessage.of(Key.of("foo"), Header.of(), "some \"text\"");
+        final String encoded = new TextEncoder(MessageFormat.V2).apply(someMessage);
+
+        final Message<String> message = decoder.apply(encoded);
+
+        assertThat(message).isEqualTo(someMessage);
+    }
+
+    @Test
+    public void shouldFallBackToV1FormatForBrokenV2Messages() {
+        final String body = "{\"_synapse_msg_format\":\"v2\",\"_synapse_msg_key\":\"foo\"}";
+
+        final Message<String> message = decoder.apply(body);
+
+        assertThat(message.getKey()).isEqualTo(NO_KEY);
+        assertThat(message.getPayload()).isEqualTo(body);
+    }
+
+    @Test
+    public void shouldDecodeV3Format() {
+        final TextMessage someMessage = TextMessage.of(
+                Key.of("p1", "p2"),
+                Header.builder().withAttributes(of("attr", "välue", "other", "")).build(),
+                "{\"some\":\"päyload \uD83D\uDE00\"}");
+        final String encoded = new TextEncoder(MessageFormat.V3).apply(someMessage);
+
+        final Message<String> message = decoder.apply(encoded);
+
+        assertThat(message).isEqualTo(someMessage);
+    }
+
+    @Test
+    public void shouldDecodeV3FormatFromBytes() {
+        final TextMessage someMessage = TextMessage.of(
+                Key.of("p1"),
+                Header.builder().withAttributes(of("attr", "välue")).build(),
+                "ßome dätä \uD83D\uDE00");
+        final byte[] encoded = new TextEncoder(MessageFormat.V3).apply(someMessage).getBytes(UTF_8);
+
+        final Message<String> message = decoder.decode(NO_KEY, Header.of(), encoded);
+
+        assertThat(message).isEqualTo(someMessage);
+    }
+
+    @Test
+    public void shouldMergePrototypeHeadersInV3Format() {
+        final Header header = Header.of(ShardPosition.fromPosition("shard", "42"), ImmutableMap.of("attr", "value"));
+        final String encoded = new TextEncoder(MessageFormat.V3).apply(TextMessage.of(Key.of("foo"), Header.of(of("other", "value")), null));
+
+        final TextMessage message = decoder.decode(NO_KEY, header, encoded);
+
+        assertThat(message.getKey()).isEqualTo(Key.of("foo"));
+        assertThat(message.getHeader().getShardPosition()).contains(ShardPosition.fromPosition("shard", "42"));
+        assertThat(message.getHeader().getAll()).isEqualTo(ImmutableMap.of("attr", "value", "other", "value"));
+        assertThat(message.getPayload()).isNull();
+    }
+
+    @Test
+    public void shouldFallBackToV1FormatForBrokenV3Messages() {
+        final String truncated = "\u001ESY33:foo-0:10:{}";
+
+        assertThat(decoder.apply(truncated).getPayload()).isEqualTo(truncated);
+        assertThat(decoder.decode(NO_KEY, Header.of(), truncated.getBytes(UTF_8)).getPayload()).isEqualTo(truncated);
+    }
+
+    @Test
+    public void shouldDecodeEmptyBytesAsNullPayload() {
+        assertThat(decoder.decode(NO_KEY, Header.of(), new byte[0]).getPayload()).isNull();
+        assertThat(decoder.decode(NO_KEY, Header.of(), (byte[]) null).getPayload()).isNull();
+    }
+}
@@ -11,4 +11,28 @@ public class MessageFormatTest {
     public void shouldReturnDefaultMessageFormat() {
         assertThat(MessageFormat.defaultMessageFormat()).isEqualTo(MessageFormat.V1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldDetectV2Format() {
+        assertThat(MessageFormat.versionOf("{\"_synapse_msg_format\":\"v2\",\"_synapse_msg_payload\":{}}")).isEqualTo(MessageFormat.V2);
+        assertThat(MessageFormat.versionOf(" { \"_synapse_msg_format\" : \"v2\" , \"_synapse_msg_payload\":{}}")).isEqualTo(MessageFormat.V2);
+    }
+
+    @Test
+    public void shouldDetectV1Format() {
+        assertThat(MessageFormat.versionOf(null)).isEqualTo(MessageFormat.V1);
+        assertThat(MessageFormat.versionOf("")).isEqualTo(MessageFormat.V1);
+        assertThat(MessageFormat.versionOf("some text")).isEqualTo(MessageFormat.V1);
+        assertThat(MessageFormat.versionOf("{\"foo\":\"bar\"}")).isEqualTo(MessageFormat.V1);
+        assertThat(MessageFormat.versionOf("{\"_synapse_msg_format\":\"v1\"}")).isEqualTo(MessageFormat.V1);
+        assertThat(MessageFormat.versionOf("{\"_synapse_msg_format\":\"v2\"")).isEqualTo(MessageFormat.V1);
+        assertThat(MessageFormat.versionOf("{\"foo\":{\"_synapse_msg_format\":\"v2\"}}")).isEqualTo(MessageFormat.V1);
+    }
+
+    @Test
+    public void shouldDetectV3Format() {
+        assertThat(MessageFormat.versionOf("\u001ESY33:foo-0:-")).isEqualTo(MessageFormat.V3);
+        assertThat(MessageFormat.versionOf("\u001ESY2")).isEqualTo(MessageFormat.V1);
+        assertThat(MessageFormat.versionOf("SY33:foo-0:-")).isEqualTo(MessageFormat.V1);
+    }
+}
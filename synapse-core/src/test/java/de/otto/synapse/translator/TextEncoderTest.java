@@ -37,4 +37,39 @@ public class TextEncoderTest {
         assertThat(encoded).isEqualTo("{\"_synapse_msg_format\":\"v2\",\"_synapse_msg_key\":{\"partitionKey\":\"foo\",\"compactionKey\":\"bar\"},\"_synapse_msg_headers\":{\"attr\":\"value\"},\"_synapse_msg_payload\":{}}");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldEncodeNonJsonPayloadAsStringInV2Format() {
+        final TextEncoder encoder = new TextEncoder(MessageFormat.V2);
+        final TextMessage someMessage = TextMessage.of(Key.of("foo"), Header.of(), "some \"text\"");
+        final String encoded = encoder.apply(someMessage);
+        assertThat(encoded).isEqualTo("{\"_synapse_msg_format\":\"v2\",\"_synapse_msg_key\":{\"partitionKey\":\"foo\",\"compactionKey\":\"foo\"},\"_synapse_msg_headers\":{},\"_synapse_msg_payload\":\"some \\\"text\\\"\"}");
+    }
+
+    @Test
+    public void shouldEncodeMalformedJsonPayloadAsStringInV2Format() {
+        final TextEncoder encoder = new TextEncoder(MessageFormat.V2);
+        final String encoded = encoder.apply(TextMessage.of(Key.of("foo"), Header.of(), "{\"foo\":"));
+        assertThat(encoded).endsWith("\"_synapse_msg_payload\":\"{\\\"foo\\\":\"}");
+    }
+
+    @Test
+    public void shouldEncodeJsonArrayPayloadInV2Format() {
+        final TextEncoder encoder = new TextEncoder(MessageFormat.V2);
+        final String encoded = encoder.apply(TextMessage.of(Key.of("foo"), Header.of(), "[1,2,{\"foo\":\"bar\"}]"));
+        assertThat(encoded).endsWith("\"_synapse_msg_payload\":[1,2,{\"foo\":\"bar\"}]}");
+    }
+
+    @Test
+    public void shouldEncodeInV3Format() {
+        final TextEncoder encoder = new TextEncoder(MessageFormat.V3);
+        final String encoded = encoder.apply(TextMessage.of(Key.of("foo", "bär"), Header.builder().withAttributes(of("attr", "value")).build(), "{}"));
+        assertThat(encoded).isEqualTo("\u001ESY33:foo4:bär1:4:attr5:value2:{}");
+    }
+
+    @Test
+    public void shouldEncodeSimpleKeyAndNullPayloadInV3Format() {
+        final TextEncoder encoder = new TextEncoder(MessageFormat.V3);
+        final String encoded = encoder.apply(TextMessage.of(Key.of("foo"), Header.of(), null));
+        assertThat(encoded).isEqualTo("\u001ESY33:foo-0:-");
+    }
+}
@@ -88,7 +88,7 @@ public class JournalRestController {
                         .single(
                                 link("working-copy", baseUri + "/staterepositories/" + repositoryName + "/" + entityId))
                         .single(
-                                collection(baseUri + "/staterepositories/" + repositoryName + "{?page,pageSize}"));
+                                collection(baseUri + "/staterepositories/" + repositoryName + "{?pageSize,cursor}"));
             }
             return new JournalHalRepresentation(
                     links.build(),
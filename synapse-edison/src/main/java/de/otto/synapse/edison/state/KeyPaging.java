@@ -0,0 +1,76 @@
+package de.otto.synapse.edison.state;
+
+import com.damnhandy.uri.template.UriTemplate;
+import de.otto.edison.hal.Links;
+import de.otto.synapse.state.KeyPage;
+import de.otto.synapse.state.StateRepository;
+import org.springframework.web.server.ResponseStatusException;
+
+import static com.damnhandy.uri.template.UriTemplate.fromTemplate;
+import static de.otto.edison.hal.Link.link;
+import static de.otto.edison.hal.Links.linkingTo;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+
+/**
+ * Helper used to page through the keys of a {@link StateRepository} using the cursors of
+ * {@link StateRepository#keyPage(String, int) key pages}.
+ */
+final class KeyPaging {
+
+    /** URI template variables of a paged state-repository resource. */
+    static final String PAGING_TEMPLATE = "{?pageSize,cursor}";
+
+    private KeyPaging() {
+    }
+
+    /**
+     * Returns a page of keys of the repository.
+     *
+     * <p>Numbered pages are not supported anymore, because they would require skipping the keys of all previous
+     * pages. For compatibility with links of previous versions, {@code page=0} is accepted as the first page.</p>
+     *
+     * @throws ResponseStatusException with status BAD_REQUEST, if the page, the cursor or the pageSize is invalid
+     */
+    static KeyPage keyPageOf(final StateRepository<?> stateRepository,
+                             final Integer page,
+                             final String cursor,
+                             final int pageSize) {
+        if (page != null && (page != 0 || cursor != null)) {
+            throw new ResponseStatusException(BAD_REQUEST, "Parameter 'page' is not supported, use the 'cursor' of the 'next' link instead");
+        }
+        try {
+            return stateRepository.keyPage(cursor, pageSize);
+        } catch (final IllegalArgumentException e) {
+            throw new ResponseStatusException(BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the 'self', 'first' and 'next' links of a page of keys.
+     *
+     * @param repositoryHref the href of the state-repository resource
+     * @param cursor the cursor of the current page, or null if this is the first page
+     * @param pageSize the size of the pages
+     * @param keyPage the current page
+     * @return paging links
+     */
+    static Links pagingLinks(final String repositoryHref,
+                             final String cursor,
+                             final int pageSize,
+                             final KeyPage keyPage) {
+        final Links.Builder links = linkingTo()
+                .self(pageHref(repositoryHref, pageSize, cursor))
+                .single(link("first", pageHref(repositoryHref, pageSize, null)));
+        keyPage.getNextCursor().ifPresent(nextCursor -> links.single(link("next", pageHref(repositoryHref, pageSize, nextCursor))));
+        return links.build();
+    }
+
+    private static String pageHref(final String repositoryHref,
+                                   final int pageSize,
+                                   final String cursor) {
+        final UriTemplate template = fromTemplate(repositoryHref + PAGING_TEMPLATE).set("pageSize", pageSize);
+        return cursor != null
+                ? template.set("cursor", cursor).expand()
+                : template.expand();
+    }
+}
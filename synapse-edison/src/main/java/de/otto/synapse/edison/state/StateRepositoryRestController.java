@@ -5,9 +5,9 @@ import com.google.common.collect.ImmutableMap;
 import de.otto.edison.hal.HalRepresentation;
 import de.otto.edison.hal.Link;
 import de.otto.edison.hal.Links;
-import de.otto.edison.hal.paging.PagingRel;
 import de.otto.synapse.journal.Journal;
 import de.otto.synapse.journal.JournalRegistry;
+import de.otto.synapse.state.KeyPage;
 import de.otto.synapse.state.StateRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -22,17 +22,15 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.List;
-import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static com.damnhandy.uri.template.UriTemplate.fromTemplate;
 import static com.google.common.collect.Maps.uniqueIndex;
 import static de.otto.edison.hal.Link.*;
-import static de.otto.edison.hal.Links.emptyLinks;
 import static de.otto.edison.hal.Links.linkingTo;
-import static de.otto.edison.hal.paging.NumberedPaging.zeroBasedNumberedPaging;
-import static java.util.EnumSet.allOf;
+import static de.otto.synapse.edison.state.KeyPaging.PAGING_TEMPLATE;
+import static de.otto.synapse.edison.state.KeyPaging.keyPageOf;
+import static de.otto.synapse.edison.state.KeyPaging.pagingLinks;
 import static java.util.stream.Collectors.toList;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 
@@ -89,8 +87,12 @@ public class StateRepositoryRestController {
      * Returns an application/hal+json representation of a {@link StateRepository}, containing a pageable collection
      * resource with links to the event-sourced entities stored in the repository.
      *
+     * <p>The collection is paged using the cursors of the {@link StateRepository#keyPage(String, int) key pages}
+     * of the repository. The 'next' link contains the cursor of the next page.</p>
+     *
      * @param repositoryName the name of the StateRepository
-     * @param page the zero-based page number
+     * @param page not supported anymore: requests with a page other than the first page (0) are rejected
+     * @param cursor the cursor of the requested page, or null to get the first page
      * @param pageSize the number of entities to return
      * @param uriComponentsBuilder builder used to create hrefs
      *
@@ -102,7 +104,8 @@ public class StateRepositoryRestController {
     )
     @ResponseBody
     public HalRepresentation getStateRepository(final @PathVariable String repositoryName,
-                                                final @RequestParam(defaultValue = "0") int page,
+                                                final @RequestParam(required = false) Integer page,
+                                                final @RequestParam(required = false) String cursor,
                                                 final @RequestParam(defaultValue = "100") int pageSize,
                                                 final UriComponentsBuilder uriComponentsBuilder) {
         if (stateRepositories.containsKey(repositoryName)) {
@@ -111,24 +114,17 @@ public class StateRepositoryRestController {
                     .pathSegment(managementBasePath)
                     .path("/staterepositories");
             final UriTemplate repositoriesUri = fromTemplate(baseUriBuilder.toUriString());
-            final UriTemplate repositoryUri = fromTemplate(baseUriBuilder.toUriString() + "/" + repositoryName + "{?page,pageSize}");
+            final String repositoryHref = baseUriBuilder.toUriString() + "/" + repositoryName;
             final UriTemplate entityUri = fromTemplate(baseUriBuilder.toUriString() + "/" + repositoryName + "/{entityId}");
 
             final StateRepository<?> stateRepository = stateRepositories
                     .get(repositoryName);
 
-            final Set<String> allEntityIds = stateRepository.keySet();
-            final List<String> entityPageIds = allEntityIds
-                    .stream()
-                    .skip(page * pageSize)
-                    .limit(pageSize)
-                    .collect(toList());
+            final KeyPage keyPage = keyPageOf(stateRepository, page, cursor, pageSize);
 
-            final Links pagingLinks = pageSize > 0
-                    ? zeroBasedNumberedPaging(page, pageSize, (int)stateRepository.size()).links(repositoryUri, allOf(PagingRel.class))
-                    : emptyLinks();
+            final Links pagingLinks = pagingLinks(repositoryHref, cursor, pageSize, keyPage);
 
-            final List<Link> itemLinks = entityItemLinks(entityUri, entityPageIds);
+            final List<Link> itemLinks = entityItemLinks(entityUri, keyPage.getKeys());
 
             return new HalRepresentation(
                     linkingTo()
@@ -172,7 +168,7 @@ public class StateRepositoryRestController {
                             baseUri + "/" + repositoryName + "/staterepositories/" + entityId)
 
                     .single(
-                            collection(baseUri + "/staterepositories/" + repositoryName + "{?page,pageSize}"));
+                            collection(baseUri + "/staterepositories/" + repositoryName + PAGING_TEMPLATE));
             if (journals.hasJournal(repositoryName)) {
                 links.single(
                         link("working-copy-of", baseUri + "/journals/" + repositoryName + "/" + entityId));
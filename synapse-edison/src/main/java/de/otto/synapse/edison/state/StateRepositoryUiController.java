@@ -1,12 +1,11 @@
 package de.otto.synapse.edison.state;
 
-import com.damnhandy.uri.template.UriTemplate;
 import com.google.common.collect.ImmutableMap;
 import de.otto.edison.hal.Link;
 import de.otto.edison.hal.Links;
-import de.otto.edison.hal.paging.PagingRel;
 import de.otto.edison.navigation.NavBar;
 import de.otto.synapse.journal.JournalRegistry;
+import de.otto.synapse.state.KeyPage;
 import de.otto.synapse.state.StateRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -22,20 +21,17 @@ import org.springframework.web.servlet.view.RedirectView;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.List;
-import java.util.Set;
 import java.util.stream.Collectors;
 
-import static com.damnhandy.uri.template.UriTemplate.fromTemplate;
 import static com.google.common.collect.Maps.uniqueIndex;
-import static de.otto.edison.hal.Links.emptyLinks;
-import static de.otto.edison.hal.paging.NumberedPaging.zeroBasedNumberedPaging;
 import static de.otto.edison.navigation.NavBarItem.navBarItem;
+import static de.otto.synapse.edison.state.KeyPaging.keyPageOf;
+import static de.otto.synapse.edison.state.KeyPaging.pagingLinks;
 import static de.otto.synapse.edison.state.PagerModel.UNAVAILABLE;
 import static de.otto.synapse.translator.JsonHelper.prettyPrint;
 import static java.lang.String.format;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
-import static java.util.EnumSet.allOf;
 import static java.util.stream.Collectors.toList;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 
@@ -76,32 +72,25 @@ public class StateRepositoryUiController {
             produces = "text/html"
     )
     public ModelAndView getStateRepositoryHtml(final @PathVariable String repositoryName,
-                                               final @RequestParam(defaultValue = "0") int page,
+                                               final @RequestParam(required = false) Integer page,
+                                               final @RequestParam(required = false) String cursor,
                                                final @RequestParam(defaultValue = "100") int pageSize,
                                                final UriComponentsBuilder uriComponentsBuilder) {
         if (stateRepositories.containsKey(repositoryName)) {
 
             final StateRepository<?> stateRepository = stateRepositories
                     .get(repositoryName);
-            final Set<String> allEntityIds = stateRepository
-                    .keySet();
-            final List<String> entityPageIds = allEntityIds
-                    .stream()
-                    .skip(page * pageSize)
-                    .limit(pageSize)
-                    .collect(Collectors.toList());
+            final KeyPage keyPage = keyPageOf(stateRepository, page, cursor, pageSize);
 
             final UriComponentsBuilder baseUriBuilder = uriComponentsBuilder
                     .pathSegment(managementBasePath)
                     .path("/staterepositories");
 
-            final UriTemplate repositoryUri = fromTemplate(baseUriBuilder.toUriString() + "/" + repositoryName + "{?page,pageSize}");
+            final String repositoryHref = baseUriBuilder.toUriString() + "/" + repositoryName;
 
-            final PagerModel pagerModel = toPagerModel(pageSize > 0
-                    ? zeroBasedNumberedPaging(page, pageSize, (int)stateRepository.size()).links(repositoryUri, allOf(PagingRel.class))
-                    : emptyLinks());
+            final PagerModel pagerModel = toPagerModel(pagingLinks(repositoryHref, cursor, pageSize, keyPage));
 
-            final List<ImmutableMap<String, String>> entitiesModel = entityPageIds
+            final List<ImmutableMap<String, String>> entitiesModel = keyPage.getKeys()
                     .stream()
                     .map(entityId -> toEntityModel(entityId, stateRepository.get(entityId)))
                     .collect(toList());
@@ -83,6 +83,74 @@ public class StateRepositoryRestControllerTest {
                                 .value(endsWith("/internal/staterepositories/test/second")));
     }
 
+    @Test
+    public void shouldPageStateRepositoryJsonUsingCursor() throws Exception {
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?pageSize=1"))
+                .andExpect(
+                        status().isOk())
+                .andExpect(
+                        jsonPath("$._links.item")
+                                .value(hasSize(1)))
+                .andExpect(
+                        jsonPath("$._links.item[0].href")
+                                .value(endsWith("/internal/staterepositories/test/first")))
+                .andExpect(
+                        jsonPath("$._links.next.href")
+                                .value("http://localhost/internal/staterepositories/test?pageSize=1&cursor=1"));
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?pageSize=1&cursor=1"))
+                .andExpect(
+                        status().isOk())
+                .andExpect(
+                        jsonPath("$._links.self.href")
+                                .value("http://localhost/internal/staterepositories/test?pageSize=1&cursor=1"))
+                .andExpect(
+                        jsonPath("$._links.first.href")
+                                .value("http://localhost/internal/staterepositories/test?pageSize=1"))
+                .andExpect(
+                        jsonPath("$._links.item")
+                                .value(hasSize(1)))
+                .andExpect(
+                        jsonPath("$._links.item[0].href")
+                                .value(endsWith("/internal/staterepositories/test/second")))
+                .andExpect(
+                        jsonPath("$._links.next")
+                                .doesNotExist());
+    }
+
+    @Test
+    public void shouldGetFirstPageForPageZeroJson() throws Exception {
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?page=0&pageSize=1"))
+                .andExpect(
+                        status().isOk())
+                .andExpect(
+                        jsonPath("$._links.item[0].href")
+                                .value(endsWith("/internal/staterepositories/test/first")));
+    }
+
+    @Test
+    public void shouldGet400ForNumberedPageJson() throws Exception {
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?page=1&pageSize=1"))
+                .andExpect(
+                        status().isBadRequest());
+    }
+
+    @Test
+    public void shouldGet400ForInvalidCursorJson() throws Exception {
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?cursor=invalid"))
+                .andExpect(
+                        status().isBadRequest());
+    }
+
     @Test
     public void shouldGetEntityJson() throws Exception {
         mockMvc
@@ -91,7 +159,7 @@ public class StateRepositoryRestControllerTest {
                 .andExpect(
                         status().isOk())
                 .andExpect(
-                        content().string("{\"entity\":\"one\",\"_links\":{\"self\":{\"href\":\"http://localhost/internal/test/staterepositories/first\"},\"collection\":{\"href\":\"http://localhost/internal/staterepositories/test{?page,pageSize}\",\"templated\":true}}}"));
+                        content().string("{\"entity\":\"one\",\"_links\":{\"self\":{\"href\":\"http://localhost/internal/test/staterepositories/first\"},\"collection\":{\"href\":\"http://localhost/internal/staterepositories/test{?pageSize,cursor}\",\"templated\":true}}}"));
     }
 
     @Test
@@ -154,7 +154,7 @@ public class StateRepositoryUiControllerTest {
     public void shouldGetPagedStateRepositoryHtml() throws Exception {
         mockMvc
                 .perform(
-                        get("/internal/staterepositories/test?page=0&pageSize=1").accept("text/html"))
+                        get("/internal/staterepositories/test?pageSize=1").accept("text/html"))
                 .andExpect(
                         status().isOk())
                 .andExpect(
@@ -167,11 +167,47 @@ public class StateRepositoryUiControllerTest {
                         model().attribute("entities", hasSize(1)))
                 .andExpect(
                         model().attribute("pager", is(new PagerModel(
-                                "http://localhost/internal/staterepositories/test?page=0&pageSize=1",
-                                "http://localhost/internal/staterepositories/test?page=0&pageSize=1",
+                                "http://localhost/internal/staterepositories/test?pageSize=1",
+                                "http://localhost/internal/staterepositories/test?pageSize=1",
                                 null,
-                                "http://localhost/internal/staterepositories/test?page=1&pageSize=1",
-                                "http://localhost/internal/staterepositories/test?page=1&pageSize=1"))));
+                                "http://localhost/internal/staterepositories/test?pageSize=1&cursor=1",
+                                null))));
+    }
+
+    @Test
+    public void shouldGetNextPageOfStateRepositoryHtml() throws Exception {
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?pageSize=1&cursor=1").accept("text/html"))
+                .andExpect(
+                        status().isOk())
+                .andExpect(
+                        model().attribute("entities", hasSize(1)))
+                .andExpect(
+                        model().attribute("pager", is(new PagerModel(
+                                "http://localhost/internal/staterepositories/test?pageSize=1&cursor=1",
+                                "http://localhost/internal/staterepositories/test?pageSize=1",
+                                null,
+                                null,
+                                null))));
+    }
+
+    @Test
+    public void shouldGet400ForInvalidCursorHtml() throws Exception {
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?cursor=invalid").accept("text/html"))
+                .andExpect(
+                        status().isBadRequest());
+    }
+
+    @Test
+    public void shouldGet400ForNumberedPageHtml() throws Exception {
+        mockMvc
+                .perform(
+                        get("/internal/staterepositories/test?page=1").accept("text/html"))
+                .andExpect(
+                        status().isBadRequest());
     }
 
     @Test
@@ -58,7 +58,22 @@ public class RedisRingBufferMessageStore implements MessageStore {
                                        final int batchSize,
                                        final int ringBufferSize,
                                        final RedisTemplate<String, String> stringRedisTemplate) {
-        this(name, batchSize, ringBufferSize, stringRedisTemplate, new TextEncoder(MessageFormat.V2), new TextDecoder());
+        this(name, batchSize, ringBufferSize, stringRedisTemplate, MessageFormat.V2);
+    }
+
+    /**
+     * @param name the name of the message store
+     * @param batchSize the size of the batches used to fetch messages from Redis
+     * @param ringBufferSize the maximum number of messages stored in the ring-buffer
+     * @param stringRedisTemplate the RedisTemplate used to access Redis
+     * @param messageFormat the format used to encode messages stored in Redis
+     */
+    public RedisRingBufferMessageStore(final String name,
+                                       final int batchSize,
+                                       final int ringBufferSize,
+                                       final RedisTemplate<String, String> stringRedisTemplate,
+                                       final MessageFormat messageFormat) {
+        this(name, batchSize, ringBufferSize, stringRedisTemplate, new TextEncoder(messageFormat), new TextDecoder());
     }
 
     /**